@@ -0,0 +1,176 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.analyzer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-producer/single-consumer ring buffer of preallocated drive-data
+ * samples. The simulation thread fills slots with <code>offer()</code>
+ * (never blocks, never allocates); the <code>DataWriterThread</code> reads
+ * them via the package-private arrays and releases them with
+ * <code>release()</code>. If the buffer is full, new samples are dropped
+ * and counted.
+ *
+ * @author Rafael Math
+ */
+public class AnalyzerDataBuffer
+{
+	private final int capacity;
+	private final int mask;
+
+	// sequence numbers: head = next slot to write, tail = next slot to read
+	private final AtomicLong head = new AtomicLong(0);
+	private final AtomicLong tail = new AtomicLong(0);
+
+	// only written by the producer
+	private volatile long droppedSamples = 0;
+
+	final long[] time;
+	final float[] xPos, yPos, zPos;
+	final float[] xRot, yRot, zRot, wRot;
+	final float[] speed, steeringWheelState, gasPedalState, brakePedalState;
+	final int[] lightIntensity;
+	final boolean[] engineOn, blinkerLeft, blinkerRight;
+
+
+	/**
+	 * Creates a buffer holding at least <code>minCapacity</code> samples
+	 * (rounded up to the next power of two).
+	 */
+	public AnalyzerDataBuffer(int minCapacity)
+	{
+		int size = 1;
+		while(size < minCapacity)
+			size <<= 1;
+
+		capacity = size;
+		mask = size - 1;
+
+		time = new long[size];
+		xPos = new float[size];
+		yPos = new float[size];
+		zPos = new float[size];
+		xRot = new float[size];
+		yRot = new float[size];
+		zRot = new float[size];
+		wRot = new float[size];
+		speed = new float[size];
+		steeringWheelState = new float[size];
+		gasPedalState = new float[size];
+		brakePedalState = new float[size];
+		lightIntensity = new int[size];
+		engineOn = new boolean[size];
+		blinkerLeft = new boolean[size];
+		blinkerRight = new boolean[size];
+	}
+
+
+	/**
+	 * Stores a sample in the next free slot. Must only be called from one
+	 * thread.
+	 *
+	 * @return false, if the buffer was full and the sample has been dropped.
+	 */
+	public boolean offer(long time, float x, float y, float z, float xRot, float yRot,
+			float zRot, float wRot, float speed, float steeringWheelState,
+			float gasPedalState, float brakePedalState, boolean engineOn,
+			int lightIntensity, boolean blinkerLeft, boolean blinkerRight)
+	{
+		long currentHead = head.get();
+		if(currentHead - tail.get() >= capacity)
+		{
+			droppedSamples++;
+			return false;
+		}
+
+		int slot = (int) (currentHead & mask);
+		this.time[slot] = time;
+		this.xPos[slot] = x;
+		this.yPos[slot] = y;
+		this.zPos[slot] = z;
+		this.xRot[slot] = xRot;
+		this.yRot[slot] = yRot;
+		this.zRot[slot] = zRot;
+		this.wRot[slot] = wRot;
+		this.speed[slot] = speed;
+		this.steeringWheelState[slot] = steeringWheelState;
+		this.gasPedalState[slot] = gasPedalState;
+		this.brakePedalState[slot] = brakePedalState;
+		this.engineOn[slot] = engineOn;
+		this.lightIntensity[slot] = lightIntensity;
+		this.blinkerLeft[slot] = blinkerLeft;
+		this.blinkerRight[slot] = blinkerRight;
+
+		// publish slot to consumer
+		head.lazySet(currentHead + 1);
+		return true;
+	}
+
+
+	/**
+	 * Number of samples waiting to be consumed.
+	 */
+	public int size()
+	{
+		return (int) (head.get() - tail.get());
+	}
+
+
+	/**
+	 * Slot index of the i-th pending sample (consumer only).
+	 */
+	int slotOf(int i)
+	{
+		return (int) ((tail.get() + i) & mask);
+	}
+
+
+	/**
+	 * Marks the given number of pending samples as consumed (consumer only).
+	 */
+	void release(int count)
+	{
+		tail.lazySet(tail.get() + count);
+	}
+
+
+	/**
+	 * Time stamp of the oldest pending sample or -1 if buffer is empty.
+	 */
+	public long getOldestPendingTime()
+	{
+		if(size() == 0)
+			return -1;
+
+		return time[slotOf(0)];
+	}
+
+
+	public long getDroppedSamples()
+	{
+		return droppedSamples;
+	}
+
+
+	public int getCapacity()
+	{
+		return capacity;
+	}
+}
@@ -0,0 +1,228 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.analyzer;
+
+import com.jme3.bullet.PhysicsSpace;
+import com.jme3.bullet.PhysicsTickListener;
+import com.jme3.math.FastMath;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+
+import eu.opends.car.Car;
+import eu.opends.car.LightTexturesContainer.TurnSignalState;
+
+/**
+ * Samples the car state on a fixed simulation time grid. The sampler is
+ * driven by the physics ticks, so the spacing of the samples does not depend
+ * on the frame rate and simulation time stops while the simulator is paused.
+ * In mode FIXED_RATE the car state is interpolated between the two adjacent
+ * physics steps, which allows sampling rates above the physics rate.
+ *
+ * Time stamps are given in ms relative to the wall clock time at which the
+ * sampler was created. Webcam frames are requested with the time stamp of
+ * a sample (every 50 ms of simulation time), so DriveAnalyzer finds the
+ * frame of each sample by its time stamp.
+ *
+ * @author Rafael Math
+ */
+public class AnalyzerDataSampler implements PhysicsTickListener
+{
+	public enum SamplingMode
+	{
+		// legacy: one sample per frame, if sampling interval (wall clock) has passed
+		FRAME,
+
+		// one sample per physics tick
+		PHYSICS_TICK,
+
+		// samples on a fixed grid given by the sampling rate (interpolated)
+		FIXED_RATE;
+
+
+		/**
+		 * Parses values like "frame", "physicsTick" or "fixed_rate".
+		 */
+		public static SamplingMode parse(String value)
+		{
+			String normalized = value.replace("_", "").toLowerCase();
+			for(SamplingMode mode : values())
+				if(mode.toString().replace("_", "").toLowerCase().equals(normalized))
+					return mode;
+
+			System.err.println("Invalid sampling mode '" + value + "'. Using FRAME instead.");
+			return FRAME;
+		}
+	}
+
+	public static final int MAX_SAMPLING_RATE = 1000;
+
+	// interval of webcam frames (seconds of simulation time)
+	private static final double CAPTURE_INTERVAL = 0.05;
+
+	private DataWriter dataWriter;
+	private AnalyzerDataBuffer dataBuffer;
+	private Car car;
+	private SamplingMode samplingMode;
+	private double samplingInterval;
+	private long startTime;
+	private double simulationTime = 0;
+	private double nextSampleTime = 0;
+	private long nextCaptureIndex = 0;
+
+	// car state at previous and current physics tick
+	private boolean hasPreviousState = false;
+	private Vector3f previousPosition = new Vector3f();
+	private Vector3f currentPosition = new Vector3f();
+	private Quaternion previousRotation = new Quaternion();
+	private Quaternion currentRotation = new Quaternion();
+	private float previousSpeed, currentSpeed;
+	private float previousSteering, currentSteering;
+	private float previousGas, currentGas;
+	private float previousBrake, currentBrake;
+
+	// interpolated state
+	private Vector3f position = new Vector3f();
+	private Quaternion rotation = new Quaternion();
+
+
+	public AnalyzerDataSampler(DataWriter dataWriter, AnalyzerDataBuffer dataBuffer, Car car,
+			SamplingMode samplingMode, int samplingRate)
+	{
+		this.dataWriter = dataWriter;
+		this.dataBuffer = dataBuffer;
+		this.car = car;
+		this.samplingMode = samplingMode;
+		this.samplingInterval = 1.0 / Math.max(1, Math.min(samplingRate, MAX_SAMPLING_RATE));
+		this.startTime = System.currentTimeMillis();
+	}
+
+
+	@Override
+	public void prePhysicsTick(PhysicsSpace space, float tpf)
+	{
+	}
+
+
+	@Override
+	public void physicsTick(PhysicsSpace space, float tpf)
+	{
+		readCurrentState();
+
+		double tickStart = simulationTime;
+		double tickEnd = simulationTime + tpf;
+
+		if(dataWriter.isDataWriterEnabled())
+		{
+			if(samplingMode == SamplingMode.PHYSICS_TICK)
+			{
+				offerSample(tickEnd, 1f);
+			}
+			else if(samplingMode == SamplingMode.FIXED_RATE)
+			{
+				// skip grid points that have passed while recording was disabled
+				if(nextSampleTime < tickStart)
+					nextSampleTime = Math.ceil(tickStart / samplingInterval) * samplingInterval;
+
+				while(nextSampleTime <= tickEnd)
+				{
+					float alpha = hasPreviousState ? (float) ((nextSampleTime - tickStart) / tpf) : 1f;
+					offerSample(nextSampleTime, FastMath.clamp(alpha, 0f, 1f));
+					nextSampleTime += samplingInterval;
+				}
+			}
+		}
+
+		simulationTime = tickEnd;
+		storeCurrentState();
+	}
+
+
+	private void readCurrentState()
+	{
+		car.getCarControl().getPhysicsLocation(currentPosition);
+		car.getCarControl().getPhysicsRotation(currentRotation);
+		currentSpeed = car.getCurrentSpeedKmhRounded();
+		currentSteering = car.getSteeringWheelState();
+		currentGas = car.getGasPedalPressIntensity();
+		currentBrake = car.getBrakePedalPressIntensity();
+	}
+
+
+	private void storeCurrentState()
+	{
+		previousPosition.set(currentPosition);
+		previousRotation.set(currentRotation);
+		previousSpeed = currentSpeed;
+		previousSteering = currentSteering;
+		previousGas = currentGas;
+		previousBrake = currentBrake;
+		hasPreviousState = true;
+	}
+
+
+	/**
+	 * Interpolates between previous (alpha = 0) and current (alpha = 1)
+	 * physics state and writes the result to the data buffer.
+	 */
+	private void offerSample(double sampleTime, float alpha)
+	{
+		if(alpha >= 1f)
+		{
+			position.set(currentPosition);
+			rotation.set(currentRotation);
+		}
+		else
+		{
+			position.interpolate(previousPosition, currentPosition, alpha);
+			rotation.slerp(previousRotation, currentRotation, alpha);
+		}
+
+		TurnSignalState turnSignal = car.getTurnSignal();
+		long timeStamp = startTime + Math.round(sampleTime * 1000);
+
+		dataBuffer.offer(
+				timeStamp,
+				position.x, position.y, position.z,
+				rotation.getX(), rotation.getY(), rotation.getZ(), rotation.getW(),
+				lerp(previousSpeed, currentSpeed, alpha),
+				lerp(previousSteering, currentSteering, alpha),
+				lerp(previousGas, currentGas, alpha),
+				lerp(previousBrake, currentBrake, alpha),
+				car.isEngineOn(),
+				car.getLightIntensity(),
+				turnSignal == TurnSignalState.BOTH || turnSignal == TurnSignalState.LEFT,
+				turnSignal == TurnSignalState.BOTH || turnSignal == TurnSignalState.RIGHT
+				);
+
+		// webcam frames on a coarser grid, stamped like the sample 
+		// (tolerance for rounding errors of the sample time)
+		long captureIndex = (long) Math.floor(sampleTime / CAPTURE_INTERVAL + 1e-3);
+		if(captureIndex >= nextCaptureIndex)
+		{
+			dataWriter.captureImage(timeStamp);
+			nextCaptureIndex = captureIndex + 1;
+		}
+	}
+
+
+	private static float lerp(float previous, float current, float alpha)
+	{
+		return previous + (current - previous) * alpha;
+	}
+}
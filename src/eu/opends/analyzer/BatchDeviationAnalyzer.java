@@ -0,0 +1,468 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.analyzer;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.jme3.math.Vector2f;
+import com.jme3.math.Vector3f;
+
+import eu.opends.drivingTask.DrivingTaskDataQuery;
+import eu.opends.drivingTask.scenario.ScenarioLoader;
+import eu.opends.drivingTask.scene.SceneLoader;
+
+/**
+ * Headless batch analysis of many recordings. All analyzer files
+ * ("carData*.txt" or "carData*.bin") found in the given directory (and its
+ * sub directories) will be parsed in parallel. For each file the deviation
+ * from the ideal line of its driving task and some speed statistics will be
+ * computed and written to one summary CSV file. In contrast to the
+ * DriveAnalyzer, no renderer will be started and no scene assets loaded.
+ *
+ * Usage: BatchDeviationAnalyzer &lt;directory&gt; [output file] [number of threads]
+ *
+ * @author Rafael Math
+ */
+public class BatchDeviationAnalyzer
+{
+	private static final String CSV_HEADER = "file;driver;drivingTask;samples;duration;" +
+			"meanSpeed;maxSpeed;speedStdDev;area;lengthOfIdealLine;meanDeviation;error";
+
+	private float roadWidth;
+
+	// ideal lines are shared by all recordings of the same driving task
+	private Map<String, List<Vector2f>> idealLineCache = new HashMap<String, List<Vector2f>>();
+
+
+	/**
+	 * Result of the analysis of a single analyzer file.
+	 */
+	public static class Result
+	{
+		private File file;
+		private String driver = "";
+		private String drivingTask = "";
+		private int samples = 0;
+		private long duration = 0;
+		private float meanSpeed = 0;
+		private float maxSpeed = 0;
+		private float speedStdDev = 0;
+		private float area = Float.NaN;
+		private float lengthOfIdealLine = Float.NaN;
+		private float meanDeviation = Float.NaN;
+		private String error = "";
+
+
+		public Result(File file)
+		{
+			this.file = file;
+		}
+
+
+		public String toCSV()
+		{
+			return file.getPath() + ";" + driver + ";" + drivingTask + ";" + samples + ";" +
+					duration + ";" + meanSpeed + ";" + maxSpeed + ";" + speedStdDev + ";" +
+					area + ";" + lengthOfIdealLine + ";" + meanDeviation + ";" + error;
+		}
+
+
+		public File getFile()
+		{
+			return file;
+		}
+
+
+		public float getMeanDeviation()
+		{
+			return meanDeviation;
+		}
+
+
+		public String getError()
+		{
+			return error;
+		}
+	}
+
+
+	/**
+	 * Analyzes the files of the given range by splitting it up until
+	 * only one file remains per task.
+	 */
+	@SuppressWarnings("serial")
+	private class AnalyzeTask extends RecursiveAction
+	{
+		private File[] files;
+		private Result[] results;
+		private int start;
+		private int end;
+
+
+		public AnalyzeTask(File[] files, Result[] results, int start, int end)
+		{
+			this.files = files;
+			this.results = results;
+			this.start = start;
+			this.end = end;
+		}
+
+
+		@Override
+		protected void compute()
+		{
+			if(end - start == 1)
+				results[start] = analyze(files[start]);
+			else
+			{
+				int middle = (start + end) >>> 1;
+				invokeAll(new AnalyzeTask(files, results, start, middle),
+						new AnalyzeTask(files, results, middle, end));
+			}
+		}
+	}
+
+
+	/**
+	 * Creates a new batch analyzer.
+	 *
+	 * @param roadWidth
+	 * 			Maximum distance of way points to be considered (see
+	 * 			DeviationComputer)
+	 */
+	public BatchDeviationAnalyzer(float roadWidth)
+	{
+		this.roadWidth = roadWidth;
+	}
+
+
+	/**
+	 * Looks up all analyzer files in the given directory and its sub
+	 * directories (sorted by path).
+	 *
+	 * @param directory
+	 * 			directory to search
+	 *
+	 * @return
+	 * 			list of analyzer files
+	 */
+	public static List<File> findAnalyzerFiles(File directory)
+	{
+		List<File> analyzerFiles = new ArrayList<File>();
+
+		File[] files = directory.listFiles();
+		if(files == null)
+			return analyzerFiles;
+
+		Arrays.sort(files);
+		for(File file : files)
+		{
+			String name = file.getName();
+			if(file.isDirectory())
+				analyzerFiles.addAll(findAnalyzerFiles(file));
+			else if(name.startsWith("carData") &&
+					(name.endsWith(".txt") || name.endsWith(BinaryDataFormat.FILE_EXTENSION)))
+				analyzerFiles.add(file);
+		}
+
+		return analyzerFiles;
+	}
+
+
+	/**
+	 * Analyzes all given files in parallel.
+	 *
+	 * @param files
+	 * 			analyzer files
+	 *
+	 * @param parallelism
+	 * 			number of worker threads
+	 *
+	 * @return
+	 * 			results in the same order as the given files
+	 */
+	public Result[] analyze(List<File> files, int parallelism)
+	{
+		File[] fileArray = files.toArray(new File[files.size()]);
+		Result[] results = new Result[fileArray.length];
+
+		if(fileArray.length > 0)
+		{
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			try {
+				pool.invoke(new AnalyzeTask(fileArray, results, 0, fileArray.length));
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		return results;
+	}
+
+
+	/**
+	 * Analyzes a single analyzer file. Errors will be reported in the
+	 * result instead of being thrown.
+	 *
+	 * @param file
+	 * 			analyzer file
+	 *
+	 * @return
+	 * 			result of the analysis
+	 */
+	public Result analyze(File file)
+	{
+		Result result = new Result(file);
+		DeviationComputer devComp = new DeviationComputer(roadWidth);
+		SpeedStatistics speedStatistics = new SpeedStatistics();
+
+		try {
+
+			if(BinaryDataReader.isBinaryAnalyzerFile(file))
+				readBinaryFile(file, result, devComp, speedStatistics);
+			else
+				readTextFile(file, result, devComp, speedStatistics);
+
+			result.samples = speedStatistics.count;
+			result.duration = speedStatistics.lastTimeStamp - speedStatistics.firstTimeStamp;
+			result.meanSpeed = speedStatistics.getMean();
+			result.maxSpeed = speedStatistics.max;
+			result.speedStdDev = speedStatistics.getStandardDeviation();
+
+			for(Vector2f idealPoint : getIdealLine(result.drivingTask))
+				devComp.addIdealPoint(idealPoint);
+
+			result.area = devComp.getDeviation();
+			result.lengthOfIdealLine = devComp.getLengthOfIdealLine();
+			result.meanDeviation = result.area/result.lengthOfIdealLine;
+
+		} catch (Exception e) {
+
+			String message = e.getMessage();
+			if(message == null)
+				message = e.toString();
+
+			result.error = message.replace(';', ',').replace('\n', ' ');
+		}
+
+		return result;
+	}
+
+
+	private void readTextFile(File file, Result result, DeviationComputer devComp,
+			SpeedStatistics speedStatistics) throws Exception
+	{
+		DataReader dataReader = new DataReader();
+		if(!dataReader.initReader(file.getPath(), false))
+			throw new Exception("Could not read header");
+
+		try {
+
+			result.driver = dataReader.getNameOfDriver();
+			result.drivingTask = dataReader.getNameOfDrivingTaskFile();
+
+			String inputLine = dataReader.readInNextDataLine();
+			while (inputLine != null)
+			{
+				// split line only once (instead of once per value)
+				String[] splittedLineArray = inputLine.split(":");
+
+				devComp.addWayPoint(new Vector3f(Float.parseFloat(splittedLineArray[1]),
+						Float.parseFloat(splittedLineArray[2]), Float.parseFloat(splittedLineArray[3])));
+
+				speedStatistics.add(Long.parseLong(splittedLineArray[0]),
+						Float.parseFloat(splittedLineArray[8]));
+
+				inputLine = dataReader.readInNextDataLine();
+			}
+
+		} finally {
+			dataReader.close();
+		}
+	}
+
+
+	private void readBinaryFile(File file, Result result, DeviationComputer devComp,
+			SpeedStatistics speedStatistics) throws Exception
+	{
+		BinaryDataReader binaryDataReader = new BinaryDataReader();
+		if(!binaryDataReader.initReader(file.getPath(), false))
+			throw new Exception("Could not read header");
+
+		result.driver = binaryDataReader.getNameOfDriver();
+		result.drivingTask = binaryDataReader.getNameOfDrivingTaskFile();
+
+		for(int i=0; i<binaryDataReader.getRecordCount(); i++)
+		{
+			devComp.addWayPoint(binaryDataReader.getCarPosition(i, new Vector3f()));
+			speedStatistics.add(binaryDataReader.getTimeStamp(i), binaryDataReader.getSpeed(i));
+		}
+	}
+
+
+	/**
+	 * Returns the ideal line of the given driving task. Every driving task
+	 * will be parsed only once.
+	 */
+	private synchronized List<Vector2f> getIdealLine(String drivingTaskFileName) throws Exception
+	{
+		List<Vector2f> idealLine = idealLineCache.get(drivingTaskFileName);
+
+		if(idealLine == null)
+		{
+			DrivingTaskDataQuery dtData = new DrivingTaskDataQuery(drivingTaskFileName);
+			if(!dtData.isValidDrivingTask())
+				throw new Exception("Invalid driving task: " + drivingTaskFileName);
+
+			Map<String, Vector3f> pointMap = new HashMap<String, Vector3f>();
+			SceneLoader.readPoints(dtData, pointMap);
+			idealLine = ScenarioLoader.readIdealLine(dtData, pointMap);
+			idealLineCache.put(drivingTaskFileName, idealLine);
+		}
+
+		return idealLine;
+	}
+
+
+	/**
+	 * Running mean and variance of the speed (Welford's algorithm).
+	 */
+	private static class SpeedStatistics
+	{
+		int count = 0;
+		double mean = 0;
+		double m2 = 0;
+		float max = 0;
+		long firstTimeStamp = 0;
+		long lastTimeStamp = 0;
+
+
+		void add(long timeStamp, float speed)
+		{
+			if(count == 0)
+				firstTimeStamp = timeStamp;
+			lastTimeStamp = timeStamp;
+
+			count++;
+			double delta = speed - mean;
+			mean += delta / count;
+			m2 += delta * (speed - mean);
+			max = Math.max(max, speed);
+		}
+
+
+		float getMean()
+		{
+			return (float) mean;
+		}
+
+
+		float getStandardDeviation()
+		{
+			return (count > 1) ? (float) Math.sqrt(m2 / (count - 1)) : 0;
+		}
+	}
+
+
+	/**
+	 * Writes the given results to a CSV file (one line per analyzer file).
+	 *
+	 * @param results
+	 * 			results to write
+	 *
+	 * @param outputFile
+	 * 			CSV file
+	 *
+	 * @throws IOException
+	 * 			if file could not be written
+	 */
+	public static void writeCSV(Result[] results, File outputFile) throws IOException
+	{
+		BufferedWriter out = new BufferedWriter(new FileWriter(outputFile));
+		try {
+			out.write(CSV_HEADER);
+			out.newLine();
+
+			for(Result result : results)
+			{
+				out.write(result.toCSV());
+				out.newLine();
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+
+	public static void main(String[] args)
+	{
+		Logger.getLogger("").setLevel(Level.SEVERE);
+
+		if(args.length < 1)
+		{
+			System.err.println("Usage: BatchDeviationAnalyzer <directory> [output file] [number of threads]");
+			return;
+		}
+
+		File directory = new File(args[0]);
+		File outputFile = new File((args.length >= 2) ? args[1] : "deviationSummary.csv");
+		int parallelism = (args.length >= 3) ? Integer.parseInt(args[2]) :
+			Runtime.getRuntime().availableProcessors();
+
+		List<File> files = findAnalyzerFiles(directory);
+		System.out.println("Analyzing " + files.size() + " files with " + parallelism + " threads");
+
+		// same road width as used by the DriveAnalyzer
+		BatchDeviationAnalyzer batchAnalyzer = new BatchDeviationAnalyzer(10.0f);
+
+		long start = System.currentTimeMillis();
+		Result[] results = batchAnalyzer.analyze(files, parallelism);
+		long duration = System.currentTimeMillis() - start;
+
+		int errors = 0;
+		for(Result result : results)
+		{
+			if(!result.getError().isEmpty())
+			{
+				System.err.println(result.getFile() + ": " + result.getError());
+				errors++;
+			}
+		}
+
+		try {
+			writeCSV(results, outputFile);
+			System.out.println("Finished in " + duration + " ms (" + errors + " errors), " +
+					"summary written to " + outputFile.getPath());
+		} catch (IOException e) {
+			System.err.println("Could not write summary: " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.analyzer;
+
+/**
+ * Layout of the binary analyzer file (all values little-endian).
+ *
+ * Header: magic, version, record size, records per chunk, header size,
+ * creation time (ms), driving task and driver name (each as int length
+ * followed by UTF-8 bytes).
+ *
+ * Body: chunks of CHUNK_SIZE fixed-width records, each chunk terminated by a
+ * footer holding the number of records, first and last time stamp and a
+ * CRC32 of the chunk's records. Only the last chunk may contain less than
+ * CHUNK_SIZE records. If the footer of the last chunk is missing (e.g. the
+ * simulator crashed) all complete records written so far can still be read.
+ *
+ * @author Rafael Math
+ */
+public final class BinaryDataFormat
+{
+	public static final String FILE_EXTENSION = ".bin";
+
+	// "ODSR" when read as bytes
+	public static final int MAGIC = 0x5253444F;
+	public static final short VERSION = 1;
+
+	// fixed part of the header (up to and including creation time)
+	public static final int HEADER_FIXED_SIZE = 24;
+
+	public static final int CHUNK_SIZE = 1024;
+
+	// record layout
+	public static final int RECORD_SIZE = 64;
+	public static final int TIME = 0;
+	public static final int POS_X = 8;
+	public static final int POS_Y = 12;
+	public static final int POS_Z = 16;
+	public static final int ROT_X = 20;
+	public static final int ROT_Y = 24;
+	public static final int ROT_Z = 28;
+	public static final int ROT_W = 32;
+	public static final int SPEED = 36;
+	public static final int STEERING_WHEEL = 40;
+	public static final int GAS_PEDAL = 44;
+	public static final int BRAKE_PEDAL = 48;
+	public static final int LIGHT_INTENSITY = 52;
+	public static final int FLAGS = 56;
+	// bytes 60-63 reserved for future use
+
+	// flag bits
+	public static final int FLAG_ENGINE_ON = 1;
+	public static final int FLAG_BLINKER_LEFT = 2;
+	public static final int FLAG_BLINKER_RIGHT = 4;
+
+	// chunk footer layout
+	public static final int FOOTER_MAGIC = 0x4B4E4843; // "CHNK"
+	public static final int FOOTER_SIZE = 32;
+	public static final int FOOTER_RECORD_COUNT = 4;
+	public static final int FOOTER_FIRST_TIME = 8;
+	public static final int FOOTER_LAST_TIME = 16;
+	public static final int FOOTER_CRC = 24;
+
+	public static final int CHUNK_STRIDE = CHUNK_SIZE * RECORD_SIZE + FOOTER_SIZE;
+
+
+	private BinaryDataFormat()
+	{
+	}
+}
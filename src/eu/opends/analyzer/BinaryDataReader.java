@@ -0,0 +1,374 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.analyzer;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Date;
+
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+
+import eu.opends.drivingTask.DrivingTask;
+
+import static eu.opends.analyzer.BinaryDataFormat.*;
+
+/**
+ * Reads drive-data written by <code>BinaryDataWriter</code>. The file is
+ * memory-mapped, so all getters access the requested record directly without
+ * parsing or allocating (except the ones returning jME objects, which accept
+ * a store object).
+ *
+ * @author Rafael Math
+ */
+public class BinaryDataReader
+{
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// number of complete chunks per mapped segment (keeps segments below 2 GB)
+	private static final int CHUNKS_PER_SEGMENT = Integer.MAX_VALUE / CHUNK_STRIDE;
+
+	private String nameOfDrivingTaskFile;
+	private String nameOfDriver;
+	private Date fileDate;
+	private int recordCount = 0;
+	private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+
+	/**
+	 * Returns true if the given file starts with the magic number of the
+	 * binary analyzer format.
+	 */
+	public static boolean isBinaryAnalyzerFile(File analyzerFile)
+	{
+		if(!analyzerFile.isFile() || analyzerFile.length() < HEADER_FIXED_SIZE)
+			return false;
+
+		try {
+
+			DataInputStream in = new DataInputStream(new FileInputStream(analyzerFile));
+			try {
+				return Integer.reverseBytes(in.readInt()) == MAGIC;
+			} finally {
+				in.close();
+			}
+
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+
+	public boolean initReader(String filePath, boolean verbose)
+	{
+		File inFile = new File(filePath);
+		if (!inFile.isFile()) {
+			System.err.println("File " + inFile.toString()
+					+ " could not be found.");
+			return false;
+		}
+
+		try {
+
+			RandomAccessFile randomAccessFile = new RandomAccessFile(inFile, "r");
+			try {
+
+				FileChannel channel = randomAccessFile.getChannel();
+				long fileSize = channel.size();
+
+				ByteBuffer header = ByteBuffer.allocate(HEADER_FIXED_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+				readFully(channel, header, 0);
+
+				if(header.getInt(0) != MAGIC)
+					return false;
+
+				short version = header.getShort(4);
+				if(version > VERSION || header.getShort(6) != RECORD_SIZE || header.getInt(8) != CHUNK_SIZE)
+				{
+					System.err.println("Unsupported binary analyzer file version: " + version);
+					return false;
+				}
+
+				int headerSize = header.getInt(12);
+				fileDate = new Date(header.getLong(16));
+
+				ByteBuffer strings = ByteBuffer.allocate(headerSize - HEADER_FIXED_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+				readFully(channel, strings, HEADER_FIXED_SIZE);
+				strings.flip();
+				nameOfDrivingTaskFile = readString(strings);
+				nameOfDriver = readString(strings);
+
+				if(verbose)
+				{
+					System.out.println("Driving Task: " + nameOfDrivingTaskFile);
+					System.out.println("Creation Time: " + fileDate);
+					System.out.println("Driver: " + nameOfDriver);
+				}
+
+				mapRecords(channel, headerSize, fileSize);
+
+			} finally {
+				// mapped buffers remain valid after the file has been closed
+				randomAccessFile.close();
+			}
+
+		} catch (Exception e) {
+			//e.printStackTrace();
+			return false;
+		}
+
+		return true;
+	}
+
+
+	private void mapRecords(FileChannel channel, long headerSize, long fileSize) throws IOException
+	{
+		long dataSize = fileSize - headerSize;
+		long fullChunks = dataSize / CHUNK_STRIDE;
+		long rest = dataSize % CHUNK_STRIDE;
+
+		// records in last chunk: use footer if available, otherwise count
+		// complete records (file not closed properly)
+		int lastChunkRecords = (int) (rest / RECORD_SIZE);
+		if(rest >= FOOTER_SIZE && (rest - FOOTER_SIZE) % RECORD_SIZE == 0)
+		{
+			ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(channel, footer, headerSize + fullChunks * CHUNK_STRIDE + rest - FOOTER_SIZE);
+			if(footer.getInt(0) == FOOTER_MAGIC
+					&& footer.getInt(FOOTER_RECORD_COUNT) * RECORD_SIZE == rest - FOOTER_SIZE)
+				lastChunkRecords = footer.getInt(FOOTER_RECORD_COUNT);
+		}
+
+		long totalRecords = fullChunks * CHUNK_SIZE + lastChunkRecords;
+		if(totalRecords > Integer.MAX_VALUE)
+			throw new IOException("Too many records: " + totalRecords);
+		recordCount = (int) totalRecords;
+
+		long chunks = fullChunks + (lastChunkRecords > 0 ? 1 : 0);
+		int segmentCount = (int) ((chunks + CHUNKS_PER_SEGMENT - 1) / CHUNKS_PER_SEGMENT);
+		segments = new MappedByteBuffer[segmentCount];
+
+		for(int i=0; i<segmentCount; i++)
+		{
+			long start = headerSize + (long) i * CHUNKS_PER_SEGMENT * CHUNK_STRIDE;
+			long size = Math.min((long) CHUNKS_PER_SEGMENT * CHUNK_STRIDE, fileSize - start);
+			segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+			segments[i].order(ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+	{
+		while(buffer.hasRemaining())
+		{
+			int read = channel.read(buffer, position + buffer.position());
+			if(read < 0)
+				throw new IOException("Unexpected end of file");
+		}
+	}
+
+
+	private static String readString(ByteBuffer buffer)
+	{
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+
+	private ByteBuffer segmentOf(int index)
+	{
+		return segments[(index / CHUNK_SIZE) / CHUNKS_PER_SEGMENT];
+	}
+
+
+	private int offsetOf(int index)
+	{
+		int chunk = index / CHUNK_SIZE;
+		return (chunk % CHUNKS_PER_SEGMENT) * CHUNK_STRIDE + (index % CHUNK_SIZE) * RECORD_SIZE;
+	}
+
+
+	private float getFloat(int index, int field)
+	{
+		return segmentOf(index).getFloat(offsetOf(index) + field);
+	}
+
+
+	private int getFlags(int index)
+	{
+		return segmentOf(index).getInt(offsetOf(index) + FLAGS);
+	}
+
+
+	public int getRecordCount()
+	{
+		return recordCount;
+	}
+
+
+	public long getTimeStamp(int index)
+	{
+		return segmentOf(index).getLong(offsetOf(index) + TIME);
+	}
+
+
+	public float getPositionX(int index)
+	{
+		return getFloat(index, POS_X);
+	}
+
+
+	public float getPositionY(int index)
+	{
+		return getFloat(index, POS_Y);
+	}
+
+
+	public float getPositionZ(int index)
+	{
+		return getFloat(index, POS_Z);
+	}
+
+
+	public Vector3f getCarPosition(int index, Vector3f store)
+	{
+		if(store == null)
+			store = new Vector3f();
+
+		return store.set(getFloat(index, POS_X), getFloat(index, POS_Y), getFloat(index, POS_Z));
+	}
+
+
+	public Quaternion getCarRotation(int index, Quaternion store)
+	{
+		if(store == null)
+			store = new Quaternion();
+
+		return store.set(getFloat(index, ROT_X), getFloat(index, ROT_Y),
+				getFloat(index, ROT_Z), getFloat(index, ROT_W));
+	}
+
+
+	public float getSpeed(int index)
+	{
+		return getFloat(index, SPEED);
+	}
+
+
+	public float getSteeringWheelPosition(int index)
+	{
+		return getFloat(index, STEERING_WHEEL);
+	}
+
+
+	public float getPedalPosition(int index)
+	{
+		return getFloat(index, GAS_PEDAL);
+	}
+
+
+	public float getBrakePedalPosition(int index)
+	{
+		return getFloat(index, BRAKE_PEDAL);
+	}
+
+
+	public int getLightIntensity(int index)
+	{
+		return segmentOf(index).getInt(offsetOf(index) + LIGHT_INTENSITY);
+	}
+
+
+	public boolean isEngineOn(int index)
+	{
+		return (getFlags(index) & FLAG_ENGINE_ON) != 0;
+	}
+
+
+	public boolean isBlinkerLeft(int index)
+	{
+		return (getFlags(index) & FLAG_BLINKER_LEFT) != 0;
+	}
+
+
+	public boolean isBlinkerRight(int index)
+	{
+		return (getFlags(index) & FLAG_BLINKER_RIGHT) != 0;
+	}
+
+
+	public String getNameOfDriver()
+	{
+		return nameOfDriver;
+	}
+
+
+	public Date getFileDate()
+	{
+		return fileDate;
+	}
+
+
+	public String getNameOfDrivingTaskFile()
+	{
+		return nameOfDrivingTaskFile;
+	}
+
+
+	public boolean isValidAnalyzerFile(File analyzerFile)
+	{
+		String analyzerFilePath = analyzerFile.getPath();
+
+		if(!initReader(analyzerFilePath, false))
+		{
+			System.err.println("File is not a valid analyzer file: " + analyzerFilePath);
+			return false;
+		}
+
+		try {
+
+			// check whether specified driving task is valid
+			String drivingTaskFileName = getNameOfDrivingTaskFile();
+			File drivingTaskFile = new File(drivingTaskFileName);
+			if(!DrivingTask.isValidDrivingTask(drivingTaskFile))
+			{
+				System.err.println("File '" + analyzerFilePath +
+						"'\npoints to an invalid driving task file : " + drivingTaskFileName);
+				return false;
+			}
+
+		} catch (Exception e) {
+
+			System.err.println("File '" + analyzerFilePath + "'\npoints to an invalid driving task file");
+			return false;
+		}
+
+		return true;
+	}
+}
@@ -0,0 +1,170 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.analyzer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+import static eu.opends.analyzer.BinaryDataFormat.*;
+
+/**
+ * Writes drive-data in the binary format described in
+ * <code>BinaryDataFormat</code>. Records are collected in a chunk buffer and
+ * written to disk on <code>flush()</code>; a chunk footer is appended as soon
+ * as a chunk is full and when the writer is closed.
+ *
+ * @author Rafael Math
+ */
+public class BinaryDataWriter
+{
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private FileChannel channel;
+	private ByteBuffer chunkBuffer;
+	private CRC32 crc = new CRC32();
+	private int recordsInChunk = 0;
+	private long firstTimeInChunk = 0;
+	private long lastTimeInChunk = 0;
+
+
+	public BinaryDataWriter(File outFile, String drivingTaskFileName, String driverName,
+			long creationTime) throws IOException
+	{
+		channel = new FileOutputStream(outFile).getChannel();
+
+		byte[] drivingTaskBytes = drivingTaskFileName.getBytes(UTF8);
+		byte[] driverBytes = driverName.getBytes(UTF8);
+		int headerSize = HEADER_FIXED_SIZE + 4 + drivingTaskBytes.length + 4 + driverBytes.length;
+
+		ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC);
+		header.putShort(VERSION);
+		header.putShort((short) RECORD_SIZE);
+		header.putInt(CHUNK_SIZE);
+		header.putInt(headerSize);
+		header.putLong(creationTime);
+		header.putInt(drivingTaskBytes.length);
+		header.put(drivingTaskBytes);
+		header.putInt(driverBytes.length);
+		header.put(driverBytes);
+		header.flip();
+		writeFully(header);
+
+		chunkBuffer = ByteBuffer.allocate(CHUNK_STRIDE).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+
+	/**
+	 * Appends one record to the current chunk. Data will be written to disk
+	 * when the chunk is full or <code>flush()</code> is called.
+	 */
+	public void write(long time, float x, float y, float z, float xRot, float yRot,
+			float zRot, float wRot, float speed, float steeringWheelState,
+			float gasPedalState, float brakePedalState, boolean engineOn,
+			int lightIntensity, boolean blinkerLeft, boolean blinkerRight) throws IOException
+	{
+		int flags = 0;
+		if(engineOn)
+			flags |= FLAG_ENGINE_ON;
+		if(blinkerLeft)
+			flags |= FLAG_BLINKER_LEFT;
+		if(blinkerRight)
+			flags |= FLAG_BLINKER_RIGHT;
+
+		chunkBuffer.putLong(time);
+		chunkBuffer.putFloat(x);
+		chunkBuffer.putFloat(y);
+		chunkBuffer.putFloat(z);
+		chunkBuffer.putFloat(xRot);
+		chunkBuffer.putFloat(yRot);
+		chunkBuffer.putFloat(zRot);
+		chunkBuffer.putFloat(wRot);
+		chunkBuffer.putFloat(speed);
+		chunkBuffer.putFloat(steeringWheelState);
+		chunkBuffer.putFloat(gasPedalState);
+		chunkBuffer.putFloat(brakePedalState);
+		chunkBuffer.putInt(lightIntensity);
+		chunkBuffer.putInt(flags);
+		chunkBuffer.putInt(0);
+
+		if(recordsInChunk == 0)
+			firstTimeInChunk = time;
+		lastTimeInChunk = time;
+		recordsInChunk++;
+
+		if(recordsInChunk == CHUNK_SIZE)
+			closeChunk();
+	}
+
+
+	/**
+	 * Writes all pending records to disk (without closing the current chunk).
+	 */
+	public void flush() throws IOException
+	{
+		if(chunkBuffer.position() > 0)
+		{
+			chunkBuffer.flip();
+			crc.update(chunkBuffer.array(), 0, chunkBuffer.limit());
+			writeFully(chunkBuffer);
+			chunkBuffer.clear();
+		}
+	}
+
+
+	public void close() throws IOException
+	{
+		if(recordsInChunk > 0)
+			closeChunk();
+
+		channel.close();
+	}
+
+
+	private void closeChunk() throws IOException
+	{
+		// records of the current chunk not yet written to disk
+		crc.update(chunkBuffer.array(), 0, chunkBuffer.position());
+
+		chunkBuffer.putInt(FOOTER_MAGIC);
+		chunkBuffer.putInt(recordsInChunk);
+		chunkBuffer.putLong(firstTimeInChunk);
+		chunkBuffer.putLong(lastTimeInChunk);
+		chunkBuffer.putLong(crc.getValue());
+		chunkBuffer.flip();
+		writeFully(chunkBuffer);
+		chunkBuffer.clear();
+
+		crc.reset();
+		recordsInChunk = 0;
+	}
+
+
+	private void writeFully(ByteBuffer buffer) throws IOException
+	{
+		while(buffer.hasRemaining())
+			channel.write(buffer);
+	}
+}
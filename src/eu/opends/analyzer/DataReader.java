@@ -117,6 +117,18 @@ public class DataReader
 	}
 	
 	
+	public void close() 
+	{
+		try {
+			if(inputReader != null)
+				inputReader.close();
+		} catch (IOException e) {
+
+			e.printStackTrace();
+		}
+	}
+	
+	
 	public long getTimeStamp(String inputLine) 
 	{
 		String[] splittedLineArray = inputLine.split(":");
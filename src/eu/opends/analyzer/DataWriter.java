@@ -23,7 +23,6 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
@@ -31,6 +30,10 @@ import java.util.GregorianCalendar;
 import javax.sound.sampled.AudioFileFormat;
 import javax.sound.sampled.AudioFormat;
 
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+
+import eu.opends.analyzer.AnalyzerDataSampler.SamplingMode;
 import eu.opends.car.Car;
 import eu.opends.car.LightTexturesContainer.TurnSignalState;
 import eu.opends.tools.Util;
@@ -50,35 +53,70 @@ public class DataWriter
 	private Calendar startTime = new GregorianCalendar();
 
 	/**
-	 * An array list for not having to write every row directly to file.
+	 * Capacity of the buffer between simulation thread and writer thread 
+	 * (number of samples).
 	 */
-	private ArrayList<DataUnit> arrayDataList;
+	private static final int BUFFER_CAPACITY = 4096;
+	
+	private AnalyzerDataBuffer dataBuffer;
+	private DataWriterThread writerThread;
+	private Vector3f position = new Vector3f();
+	private Quaternion rotation = new Quaternion();
 	private BufferedWriter out;
 	private File outFile;
 	private String newLine = System.getProperty("line.separator");
-	private Date lastAnalyzerDataSave;
+	private long lastAnalyzerDataSave;
 	private String outputFolder;
 	private Car car;
 	private File analyzerDataFile;
 	private boolean dataWriterEnabled = false;
 	private String driverName = "";
-	private Date curDate;
 	private String drivingTaskFileName;
+	private boolean binaryFormat;
+	private BinaryDataWriter binaryDataWriter;
+	private SamplingMode samplingMode;
+	private int samplingRate;
+	private long samplingInterval;
+	private AnalyzerDataSampler dataSampler;
 	public eu.opends.webcam.Grabber webcamGrabber;
 	public eu.opends.webcam.SoundRecorder micRecorder;
 
 
 	public DataWriter(String outputFolder, Car car, String driverName, String drivingTaskFileName) 
+	{
+		this(outputFolder, car, driverName, drivingTaskFileName, false, SamplingMode.FRAME, 20, false);
+	}
+	
+	
+	/**
+	 * If <code>binaryFormat</code> is set, the drive-data will be written to 
+	 * "carData.bin" using the format described in <code>BinaryDataFormat</code>.
+	 * The <code>samplingMode</code> determines whether samples are taken per 
+	 * frame (wall clock) or on the simulation time grid of the physics engine 
+	 * (see <code>AnalyzerDataSampler</code>); <code>samplingRate</code> is 
+	 * given in Hz. If <code>webcamVideoContainer</code> is set, webcam frames 
+	 * will be stored in one MJPEG stream per camera instead of single JPEG files.
+	 */
+	public DataWriter(String outputFolder, Car car, String driverName, String drivingTaskFileName,
+			boolean binaryFormat, SamplingMode samplingMode, int samplingRate, 
+			boolean webcamVideoContainer) 
 	{	
 		this.outputFolder = outputFolder;
 		this.car = car;
 		this.driverName = driverName;
 		this.drivingTaskFileName = drivingTaskFileName;
+		this.binaryFormat = binaryFormat;
+		this.samplingMode = samplingMode;
+		this.samplingRate = samplingRate;
+		
+		// frame-based sampling uses the sampling rate; otherwise samples and 
+		// webcam frames are taken by the data sampler on the simulation time grid
+		samplingInterval = 1000 / Math.max(1, Math.min(samplingRate, AnalyzerDataSampler.MAX_SAMPLING_RATE));
 
 		Util.makeDirectory(outputFolder);
 
-		analyzerDataFile = new File(outputFolder + "/carData.txt");
-		webcamGrabber = new Grabber(outputFolder);
+		analyzerDataFile = new File(outputFolder + "/carData" + getFileExtension());
+		webcamGrabber = new Grabber(outputFolder, webcamVideoContainer);
 		webcamGrabber.initializeCam();
 		
 		micRecorder = new SoundRecorder(outputFolder);
@@ -102,150 +140,180 @@ public class DataWriter
 		int i = 2;
 		while(outFile.exists()) 
 		{
-			analyzerDataFile = new File(outputFolder + "/carData(" + i + ").txt");
+			analyzerDataFile = new File(outputFolder + "/carData(" + i + ")" + getFileExtension());
 			outFile = new File(analyzerDataFile.getAbsolutePath());
 			i++;
 		}
 		
-		
 		try {
-			out = new BufferedWriter(new FileWriter(outFile));
-			out.write("Driving Task: " + drivingTaskFileName + newLine);
-			out.write("Date-Time: "
-					+ new SimpleDateFormat("yyyy_MM_dd-HH_mm_ss")
-							.format(new Date()) + newLine);
-			out.write("Driver: " + driverName + newLine);
-			out.write("Used Format = Time (ms): Position (x,y,z) : Rotation (x,y,z,w) :"
-					+ " Speed (km/h) : Steering Wheel Position [-1,1] : Gas Pedal Position :"
-					+ " Brake Pedal Position : Engine (On) : light Intensity : TurnSignalLeft :"
-					+ " TurnSignalRight" + newLine);
+			
+			if(binaryFormat)
+			{
+				binaryDataWriter = new BinaryDataWriter(outFile, drivingTaskFileName, driverName, 
+						System.currentTimeMillis());
+			}
+			else
+			{
+				out = new BufferedWriter(new FileWriter(outFile));
+				out.write("Driving Task: " + drivingTaskFileName + newLine);
+				out.write("Date-Time: "
+						+ new SimpleDateFormat("yyyy_MM_dd-HH_mm_ss")
+								.format(new Date()) + newLine);
+				out.write("Driver: " + driverName + newLine);
+				out.write("Used Format = Time (ms): Position (x,y,z) : Rotation (x,y,z,w) :"
+						+ " Speed (km/h) : Steering Wheel Position [-1,1] : Gas Pedal Position :"
+						+ " Brake Pedal Position : Engine (On) : light Intensity : TurnSignalLeft :"
+						+ " TurnSignalRight" + newLine);
+			}
 
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		arrayDataList = new ArrayList<DataUnit>();
+		
+		// no file to write to --> do not record any samples
+		if(out == null && binaryDataWriter == null)
+		{
+			System.err.println("DataWriter: could not create " + outFile.getAbsolutePath() 
+					+ ", car data will not be recorded");
+			return;
+		}
+		
+		// samples are formatted and written to disk by a separate thread
+		dataBuffer = new AnalyzerDataBuffer(BUFFER_CAPACITY);
+		writerThread = new DataWriterThread(dataBuffer, out, binaryDataWriter);
+		writerThread.start();
+		
+		// sample car state on physics ticks
+		if(samplingMode != SamplingMode.FRAME)
+		{
+			dataSampler = new AnalyzerDataSampler(this, dataBuffer, car, samplingMode, samplingRate);
+			car.getSimulator().getPhysicsSpace().addTickListener(dataSampler);
+		}
 
-		lastAnalyzerDataSave = new Date();
+		lastAnalyzerDataSave = System.currentTimeMillis();
 	}
 
 
 	/**
-	 * Save the car data at a frequency of 20Hz. That class should be called in
-	 * the update-method <code>Simulator.java</code>.
+	 * Save the car data at a frequency of 20Hz (or the given sampling rate). 
+	 * That method should be called in the update-method <code>Simulator.java</code>. 
+	 * The sample is only copied to the data buffer; no objects are allocated 
+	 * and no I/O is performed. If samples are taken on physics ticks, this 
+	 * method does nothing (cf. AnalyzerDataSampler).
 	 */
 	public void saveAnalyzerData() 
 	{
-		curDate = new Date();
+		if(samplingMode != SamplingMode.FRAME || dataBuffer == null)
+			return;
+		
+		long curTime = System.currentTimeMillis();
 
-		if (curDate.getTime() - lastAnalyzerDataSave.getTime() >= 50) 
+		if (curTime - lastAnalyzerDataSave >= samplingInterval) 
 		{
+			// sample and webcam frames share the same time stamp
+			saveCarState(curTime);
+			captureImage(curTime);
 			
-			write(
-					curDate,
-					Math.round(car.getPosition().x * 1000) / 1000.,
-					Math.round(car.getPosition().y * 1000) / 1000.,
-					Math.round(car.getPosition().z * 1000) / 1000.,
-					Math.round(car.getRotation().getX() * 10000) / 10000.,
-					Math.round(car.getRotation().getY() * 10000) / 10000.,
-					Math.round(car.getRotation().getZ() * 10000) / 10000.,
-					Math.round(car.getRotation().getW() * 10000) / 10000.,
-					car.getCurrentSpeedKmhRounded(), Math.round(car
-							.getSteeringWheelState() * 100000) / 100000., 
-							 car.getGasPedalPressIntensity(), car.getBrakePedalPressIntensity(),
-							 car.isEngineOn(),
-							 car.getLightIntensity(),
-							 car.getTurnSignal() == TurnSignalState.BOTH || car.getTurnSignal() == TurnSignalState.LEFT ? true : false,
-							 car.getTurnSignal() == TurnSignalState.BOTH || car.getTurnSignal() == TurnSignalState.RIGHT ? true : false  
-							);
-
-			Runnable r = new Runnable()
-			{
-			    @Override
-			    public void run()
-			    {
-			    	webcamGrabber.captureImage(Long.toString(curDate.getTime()));
-			    }
-			};
-
-			Thread t = new Thread(r);
-			t.start();
-			
-			lastAnalyzerDataSave = curDate;
+			lastAnalyzerDataSave = curTime;
 		}
 
 	}
-
+	
 	
 	/**
-	 * 
-	 * see eu.opends.analyzer.IAnalyzationDataWriter#write(float,
-	 *      float, float, float, java.util.Date, float, float, boolean, float)
+	 * Requests a frame of every webcam, stored with the given time stamp 
+	 * (the time stamp of the corresponding sample). Non-blocking, frames 
+	 * are grabbed and encoded by webcam threads.
 	 */
-	public void write(Date curDate, double x, double y, double z, double xRot,
-			double yRot, double zRot, double wRot, double linearSpeed,
-			double steeringWheelState, double gasPedalState, double brakePedalState,
-			boolean enginOn, int lightIntensity, boolean blinkerLeft, boolean blinkerRight) 
+	void captureImage(long timeStamp)
 	{
-		DataUnit row = new DataUnit(curDate, x, y, z, xRot, yRot, zRot, wRot,
-				linearSpeed, steeringWheelState, gasPedalState, brakePedalState,
-				enginOn, lightIntensity, blinkerLeft, blinkerRight);
-		this.write(row);
-
+		webcamGrabber.captureImage(timeStamp);
+	}
+	
+	
+	private void saveCarState(long curTime)
+	{
+		car.getCarControl().getPhysicsLocation(position);
+		car.getCarControl().getPhysicsRotation(rotation);
+		TurnSignalState turnSignal = car.getTurnSignal();
+		
+		dataBuffer.offer(
+				curTime,
+				position.x, position.y, position.z,
+				rotation.getX(), rotation.getY(), rotation.getZ(), rotation.getW(),
+				car.getCurrentSpeedKmhRounded(), car.getSteeringWheelState(), 
+				car.getGasPedalPressIntensity(), car.getBrakePedalPressIntensity(),
+				car.isEngineOn(),
+				car.getLightIntensity(),
+				turnSignal == TurnSignalState.BOTH || turnSignal == TurnSignalState.LEFT,
+				turnSignal == TurnSignalState.BOTH || turnSignal == TurnSignalState.RIGHT
+				);
 	}
 	
 
+	private String getFileExtension()
+	{
+		return binaryFormat ? BinaryDataFormat.FILE_EXTENSION : ".txt";
+	}
+	
+	
 	/**
-	 * Write data to the data pool. After 50 data sets, the pool is flushed to
-	 * the file.
+	 * Number of samples that could not be recorded because the data buffer 
+	 * was full (writer thread not able to keep up).
 	 */
-	public void write(DataUnit row)
+	public long getDroppedSamples()
 	{
-		arrayDataList.add(row);
-		if (arrayDataList.size() > 50)
-			flush();
+		if(dataBuffer == null)
+			return 0;
+		
+		return dataBuffer.getDroppedSamples();
 	}
 	
-
-	public void flush() 
+	
+	/**
+	 * Number of samples recorded but not yet written to file.
+	 */
+	public int getWriterLag()
 	{
-		try {
-			StringBuffer sb = new StringBuffer();
-			for (DataUnit r : arrayDataList) {
-				sb.append(r.getDate().getTime() + ":" + r.getXpos() + ":"
-						+ r.getYpos() + ":" + r.getZpos() + ":" + r.getXrot()
-						+ ":" + r.getYrot() + ":" + r.getZrot() + ":"
-						+ r.getWrot() + ":" + r.getSpeed() + ":"
-						+ r.getSteeringWheelPos() + ":" + r.getPedalPos() + ":"
-						+ r.isBreaking() + newLine
-				// + r.getRacingLineDistance()
-						// + ":"
-						// + r.getFuelConsumption()
-						// + ":" + r.isMarker1Set()
-						// + ":"
-						// + r.isMarker2Set() + ":" + r.isMarker3Set() + ":"
-						// + r.getRound() + newLine
-						);
-			}
-			out.write(sb.toString());
-			arrayDataList.clear();
-			out.flush();
-		} catch (IOException e) {
-			e.printStackTrace();
-			System.exit(0);
-		}
+		if(dataBuffer == null)
+			return 0;
+		
+		return dataBuffer.size();
 	}
-
+	
+	
+	/**
+	 * Age (in ms) of the oldest sample not yet written to file.
+	 */
+	public long getWriterLagMillis()
+	{
+		if(dataBuffer == null)
+			return 0;
+		
+		long oldest = dataBuffer.getOldestPendingTime();
+		if(oldest < 0)
+			return 0;
+		
+		return Math.max(0, System.currentTimeMillis() - oldest);
+	}
+	
 	
 	public void quit() 
 	{
 		dataWriterEnabled = false;
-		flush();
-		try {
-			if (out != null)
-				out.close();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		
+		if(dataSampler != null)
+			car.getSimulator().getPhysicsSpace().removeTickListener(dataSampler);
+		
+		// writes all pending samples and closes the file
+		if(writerThread != null)
+			writerThread.requestStop();
+		
+		if(getDroppedSamples() > 0)
+			System.err.println("DataWriter: " + getDroppedSamples() + " samples dropped");
+		
+		if(webcamGrabber.getDroppedFrames() > 0)
+			System.err.println("DataWriter: " + webcamGrabber.getDroppedFrames() + " webcam frames dropped");
 	}
 	
 
@@ -0,0 +1,197 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.analyzer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drains an <code>AnalyzerDataBuffer</code> and writes the samples to file
+ * (either text or binary format). Samples are committed in groups: the
+ * thread waits until GROUP_COMMIT_SIZE samples are pending or
+ * GROUP_COMMIT_INTERVAL ms have passed, then formats all pending samples
+ * and flushes the file once.
+ *
+ * @author Rafael Math
+ */
+public class DataWriterThread extends Thread
+{
+	private static final int GROUP_COMMIT_SIZE = 256;
+	private static final long GROUP_COMMIT_INTERVAL = 1000;
+	private static final long IDLE_WAIT_NANOS = 5000000L;
+
+	private AnalyzerDataBuffer buffer;
+	private Writer textWriter;
+	private BinaryDataWriter binaryDataWriter;
+	private String newLine = System.getProperty("line.separator");
+	private StringBuilder lineBuilder = new StringBuilder(256);
+
+	private volatile boolean isRunning = true;
+	private volatile long writtenSamples = 0;
+	private volatile long lastCommitDuration = 0;
+
+
+	/**
+	 * Exactly one of <code>textWriter</code> and <code>binaryDataWriter</code>
+	 * is expected to be non-null.
+	 */
+	public DataWriterThread(AnalyzerDataBuffer buffer, Writer textWriter,
+			BinaryDataWriter binaryDataWriter)
+	{
+		super("DataWriterThread");
+		setDaemon(true);
+
+		this.buffer = buffer;
+		this.textWriter = textWriter;
+		this.binaryDataWriter = binaryDataWriter;
+	}
+
+
+	@Override
+	public void run()
+	{
+		long lastCommit = System.currentTimeMillis();
+
+		while(isRunning)
+		{
+			int pending = buffer.size();
+			long now = System.currentTimeMillis();
+
+			if(pending >= GROUP_COMMIT_SIZE || (pending > 0 && now - lastCommit >= GROUP_COMMIT_INTERVAL))
+			{
+				commit();
+				lastCommit = System.currentTimeMillis();
+			}
+			else
+				LockSupport.parkNanos(this, IDLE_WAIT_NANOS);
+		}
+
+		// write remaining samples before closing
+		commit();
+		close();
+	}
+
+
+	private void commit()
+	{
+		long start = System.nanoTime();
+
+		try {
+
+			int pending;
+			while((pending = buffer.size()) > 0)
+			{
+				for(int i=0; i<pending; i++)
+					writeSample(buffer.slotOf(i));
+
+				buffer.release(pending);
+				writtenSamples += pending;
+			}
+
+			if(binaryDataWriter != null)
+				binaryDataWriter.flush();
+			else
+				textWriter.flush();
+
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		lastCommitDuration = (System.nanoTime() - start) / 1000000L;
+	}
+
+
+	private void writeSample(int slot) throws IOException
+	{
+		AnalyzerDataBuffer b = buffer;
+
+		if(binaryDataWriter != null)
+		{
+			binaryDataWriter.write(b.time[slot], b.xPos[slot], b.yPos[slot], b.zPos[slot],
+					b.xRot[slot], b.yRot[slot], b.zRot[slot], b.wRot[slot], b.speed[slot],
+					b.steeringWheelState[slot], b.gasPedalState[slot], b.brakePedalState[slot],
+					b.engineOn[slot], b.lightIntensity[slot], b.blinkerLeft[slot], b.blinkerRight[slot]);
+		}
+		else
+		{
+			// same rounding and column order as the original text format
+			StringBuilder sb = lineBuilder;
+			sb.setLength(0);
+			sb.append(b.time[slot]).append(':')
+				.append(Math.round(b.xPos[slot] * 1000) / 1000.).append(':')
+				.append(Math.round(b.yPos[slot] * 1000) / 1000.).append(':')
+				.append(Math.round(b.zPos[slot] * 1000) / 1000.).append(':')
+				.append(Math.round(b.xRot[slot] * 10000) / 10000.).append(':')
+				.append(Math.round(b.yRot[slot] * 10000) / 10000.).append(':')
+				.append(Math.round(b.zRot[slot] * 10000) / 10000.).append(':')
+				.append(Math.round(b.wRot[slot] * 10000) / 10000.).append(':')
+				.append((double) b.speed[slot]).append(':')
+				.append(Math.round(b.steeringWheelState[slot] * 100000) / 100000.).append(':')
+				.append((double) b.gasPedalState[slot]).append(':')
+				.append((double) b.brakePedalState[slot]).append(newLine);
+			textWriter.append(sb);
+		}
+	}
+
+
+	private void close()
+	{
+		try {
+			if(binaryDataWriter != null)
+				binaryDataWriter.close();
+			else
+				textWriter.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+
+	/**
+	 * Stops the thread after all pending samples have been written and
+	 * waits for it to finish.
+	 */
+	public synchronized void requestStop()
+	{
+		isRunning = false;
+		LockSupport.unpark(this);
+
+		try {
+			join();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+
+	public long getWrittenSamples()
+	{
+		return writtenSamples;
+	}
+
+
+	/**
+	 * Duration of the last group commit (formatting and flushing) in ms.
+	 */
+	public long getLastCommitDuration()
+	{
+		return lastCommitDuration;
+	}
+}
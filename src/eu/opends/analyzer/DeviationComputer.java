@@ -49,6 +49,8 @@ public class DeviationComputer
 	private static final float MAX_DISTANCE_BETWEEN_TWO_IDEAL_POINTS = 0.1f;
 	private static final boolean DEBUGMODE = false;
 	private SortedMap<String, Vector2f> idealPointMap = new TreeMap<String, Vector2f>();
+	private boolean useSpatialIndex = true;
+	private WayPointGrid wayPointGrid = null;
 		
 	
 	/**
@@ -192,7 +194,24 @@ public class DeviationComputer
 	public void addWayPoint(Vector3f point)
 	{
 		if(point != null)
+		{
 			wayPoints.add(point);
+			wayPointGrid = null;
+		}
+	}
+	
+	
+	/**
+	 * Enables or disables the spatial index over the way points. If disabled, 
+	 * all way points will be scanned for every ideal point (much slower for 
+	 * long recordings; used for comparison).
+	 * 
+	 * @param useSpatialIndex
+	 * 			true, if way points should be looked up in a grid
+	 */
+	public void setSpatialIndexEnabled(boolean useSpatialIndex)
+	{
+		this.useSpatialIndex = useSpatialIndex;
 	}
 	
 	
@@ -440,6 +459,12 @@ public class DeviationComputer
 	 * This method returns that point on the given line, which has to be crossed 
 	 * in order to connect the nearest left-hand way point with the nearest 
 	 * right-hand way point (concerning the line).
+	 * 
+	 * If the spatial index is enabled, only the way points located in the grid 
+	 * cells near the line will be checked (in path order). As way points 
+	 * farther away than MAX_DISTANCE are skipped anyway, the result is the 
+	 * same as checking all way points, even if the line has been crossed 
+	 * several times (e.g. several laps).
 	 *  
 	 * @param line
 	 *  	 line to be checked for crossing point
@@ -452,6 +477,18 @@ public class DeviationComputer
 	*/	
 	private Vector3f getPointOnLine(Line2D.Float line) throws Exception
 	{		
+		if(useSpatialIndex)
+		{
+			if(wayPointGrid == null)
+				wayPointGrid = new WayPointGrid(wayPoints, (float) MAX_DISTANCE);
+			
+			float minX = (float) (Math.min(line.x1, line.x2) - MAX_DISTANCE);
+			float minZ = (float) (Math.min(line.y1, line.y2) - MAX_DISTANCE);
+			float maxX = (float) (Math.max(line.x1, line.x2) + MAX_DISTANCE);
+			float maxZ = (float) (Math.max(line.y1, line.y2) + MAX_DISTANCE);
+			wayPointGrid.query(minX, minZ, maxX, maxZ);
+		}
+		
 		// initialization
 		Vector3f leftValue = null;
 		Vector3f rightValue = null;
@@ -459,41 +496,50 @@ public class DeviationComputer
 		float rightDistance = 0;
 		boolean leftValueFound = false;
 		boolean rightValueFound = false;
+		int nextIndex = 0;
 		
 		// loop is ended as soon as points on the left and right could be found 
-		for(Vector3f wayPoint : wayPoints)
+		while(true)
 		{
+			// next way point in path order (only those near the line if spatial index enabled)
+			int index = useSpatialIndex ? wayPointGrid.next() : nextIndex++;
+			if(index < 0 || index >= wayPoints.size())
+				break;
+			
+			Vector3f wayPoint = wayPoints.get(index);
+			
 			// get coordinates of current way point
 			float x = wayPoint.getX();
 			float z = wayPoint.getZ();
-			Point2D point = new Point2D.Float(x,z);
 			
 			// distance of current point from line segment
-			double distance = line.ptSegDist(point);
+			double distance = line.ptSegDist(x, z);
 			
 			// ignore points, that are located too far away from the line
 			if(distance > MAX_DISTANCE)
 				continue;
 
+			int ccw = line.relativeCCW(x, z);
+			
 			// if point is already located on the line --> return this point
-			if(line.relativeCCW(point) == 0)
+			if(ccw == 0)
 			{
 				return wayPoint;
 			}
 
 			// store distance and coordinates of the nearest point left of the line
-			if(line.relativeCCW(point) == -1)
+			if(ccw == -1)
 			{
 				leftValue = wayPoint;
-				leftDistance = (float) line.ptLineDist(point);
+				leftDistance = (float) line.ptLineDist(x, z);
 				leftValueFound = true;
 			}
 			
 			// store distance and coordinates of the nearest point right of the line
-			if(line.relativeCCW(point) == 1)
+			else
 			{
 				rightValue = wayPoint;
-				rightDistance = (float) line.ptLineDist(point);
+				rightDistance = (float) line.ptLineDist(x, z);
 				rightValueFound = true;
 			}
 			
@@ -0,0 +1,162 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.analyzer;
+
+import java.util.List;
+
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector2f;
+import com.jme3.math.Vector3f;
+
+/**
+ * Compares the deviation computation with and without spatial index on two
+ * synthetic drives: a winding road and a lap course driven several times
+ * (so every ideal line is crossed once per lap). For each drive, the areas
+ * and deviation points of both variants must match; otherwise the
+ * benchmark exits with status 1.
+ *
+ * Usage: DeviationComputerBenchmark [track length in m] [way point distance in m]
+ *
+ * @author Rafael Math
+ */
+public class DeviationComputerBenchmark
+{
+	private static final float ROAD_WIDTH = 10.0f;
+	private static final float IDEAL_POINT_DISTANCE = 5.0f;
+	private static final float LAP_RADIUS = 150.0f;
+	private static final int NUMBER_OF_LAPS = 3;
+	private static final float TOLERANCE = 1e-4f;
+
+
+	public static void main(String[] args) throws Exception
+	{
+		float trackLength = (args.length > 0) ? Float.parseFloat(args[0]) : 5000;
+		float wayPointDistance = (args.length > 1) ? Float.parseFloat(args[1]) : 0.75f;
+
+		System.out.println("Track length: " + trackLength + " m, way point distance: "
+				+ wayPointDistance + " m");
+
+		// warm up
+		boolean equal = compare(Math.min(trackLength, 500), wayPointDistance, false);
+
+		equal &= compare(trackLength, wayPointDistance, false);
+		equal &= compare(trackLength, wayPointDistance, true);
+
+		if(!equal)
+		{
+			System.out.println("FAILED: spatial index differs from linear scan");
+			System.exit(1);
+		}
+	}
+
+
+	private static boolean compare(float trackLength, float wayPointDistance, boolean isLapCourse)
+			throws Exception
+	{
+		System.out.println(isLapCourse ? "Lap course (" + NUMBER_OF_LAPS + " laps):" : "Winding road:");
+
+		DeviationComputer indexed = createDrive(trackLength, wayPointDistance, isLapCourse);
+		indexed.setSpatialIndexEnabled(true);
+		long start = System.nanoTime();
+		float indexedArea = indexed.getDeviation();
+		long indexedTime = System.nanoTime() - start;
+		print("Spatial index: ", indexed, indexedArea, indexedTime);
+
+		DeviationComputer linear = createDrive(trackLength, wayPointDistance, isLapCourse);
+		linear.setSpatialIndexEnabled(false);
+		start = System.nanoTime();
+		float linearArea = linear.getDeviation();
+		long linearTime = System.nanoTime() - start;
+		print("Linear scan:   ", linear, linearArea, linearTime);
+
+		if(indexedTime > 0)
+			System.out.println("Speedup: " + (linearTime / (float) indexedTime));
+
+		// compare results
+		boolean equal = Math.abs(indexedArea - linearArea) <= TOLERANCE * Math.max(1, Math.abs(linearArea));
+
+		List<Vector3f> indexedPoints = indexed.getDeviationPoints();
+		List<Vector3f> linearPoints = linear.getDeviationPoints();
+		equal &= (indexedPoints.size() == linearPoints.size());
+		for(int i=0; equal && i<linearPoints.size(); i++)
+			equal = indexedPoints.get(i).distance(linearPoints.get(i)) <= TOLERANCE;
+
+		System.out.println("Results equal: " + equal + " (area " + indexedArea + " / " + linearArea + ")");
+		return equal;
+	}
+
+
+	private static DeviationComputer createDrive(float trackLength, float wayPointDistance,
+			boolean isLapCourse)
+	{
+		DeviationComputer devComp = new DeviationComputer(ROAD_WIDTH);
+
+		// lap course: ideal line covers one lap, driven track several laps
+		float idealLength = isLapCourse ? getLapLength() : trackLength;
+		float drivenLength = isLapCourse ? NUMBER_OF_LAPS * idealLength : trackLength;
+
+		for(float s = 0; s <= idealLength; s += IDEAL_POINT_DISTANCE)
+			devComp.addIdealPoint(getIdealPoint(s, isLapCourse));
+
+		// driven track exceeds ideal line, so the last ideal point can be matched
+		for(float s = 0; s <= drivenLength + 20; s += wayPointDistance)
+		{
+			// driven track oscillates around ideal line (max. 1.5 m, different in every lap)
+			Vector2f idealPoint = getIdealPoint(s, isLapCourse);
+			Vector2f normal = getIdealPoint(s + 0.01f, isLapCourse).subtractLocal(idealPoint).normalizeLocal();
+			normal.set(-normal.y, normal.x);
+
+			float offset = 1.5f * FastMath.sin(s / 43.0f);
+			devComp.addWayPoint(new Vector3f(idealPoint.x + offset * normal.x, 0,
+					idealPoint.y + offset * normal.y));
+		}
+
+		return devComp;
+	}
+
+
+	private static void print(String label, DeviationComputer devComp, float area, long duration)
+	{
+		System.out.println(label + devComp.getWayPoints().size() + " way points, "
+				+ devComp.getIdealPoints().size() + " ideal points, area " + area
+				+ ", " + (duration / 1000000) + " ms");
+	}
+
+
+	private static float getLapLength()
+	{
+		return FastMath.TWO_PI * LAP_RADIUS;
+	}
+
+
+	private static Vector2f getIdealPoint(float s, boolean isLapCourse)
+	{
+		// lap course: circle around the origin
+		if(isLapCourse)
+		{
+			float angle = s / LAP_RADIUS;
+			return new Vector2f(LAP_RADIUS * FastMath.cos(angle), LAP_RADIUS * FastMath.sin(angle));
+		}
+
+		// winding road: straight ahead with wide curves to both sides (centered
+		// around the origin as float precision decreases with distance)
+		return new Vector2f(s * 0.7f - 1750.0f + 80.0f * FastMath.sin(s / 300.0f),
+				s * 0.7f - 1750.0f + 80.0f * FastMath.cos(s / 200.0f));
+	}
+}
@@ -0,0 +1,484 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.analyzer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.jme3.math.Vector2f;
+import com.jme3.math.Vector3f;
+
+/**
+ * Computes the deviation of the car from the ideal line while driving. In
+ * contrast to the DeviationComputer, car positions are processed one by one
+ * as they arrive: every position is projected onto the ideal line (starting
+ * at the segment of the previous position, so usually only one segment has
+ * to be checked) and the area between driven line and ideal line since the
+ * previous position is added. Only the previous position and a short window
+ * of recent area increments are kept, so each sample takes O(1) amortized
+ * time and memory does not grow with the length of the drive.
+ *
+ * Whenever the car leaves a segment of the ideal line, the area and mean
+ * deviation of this segment will be reported to all registered listeners.
+ *
+ * @author Rafael Math
+ */
+public class LiveDeviationComputer
+{
+	// positions farther away from the ideal line (or moved farther along it since the
+	// previous position) will be ignored (e.g. car reset)
+	private static final float MAX_DISTANCE = 30.0f;
+
+	// length of the ideal line the window mean deviation is computed for
+	private static final float DEFAULT_WINDOW_LENGTH = 100.0f;
+
+	private float[] pointX;
+	private float[] pointZ;
+	private float[] segmentStart;
+	private float lengthOfIdealLine;
+
+	private float windowLength;
+	private List<DeviationListener> listenerList = new ArrayList<DeviationListener>();
+
+	// state of the previous position
+	private boolean located = false;
+	private int currentSegment = 0;
+	private float previousArcLength;
+	private float previousOffset;
+
+	// area and length of the current segment and of the whole drive
+	private float segmentArea = 0;
+	private float segmentLength = 0;
+	private float totalArea = 0;
+	private float totalLength = 0;
+
+	// sliding window of area increments (ring buffer)
+	private float[] windowArea = new float[256];
+	private float[] windowDistance = new float[256];
+	private int windowHead = 0;
+	private int windowSize = 0;
+	private float windowAreaSum = 0;
+	private float windowDistanceSum = 0;
+
+	// result of the last projection
+	private float projectedArcLength;
+	private float projectedOffset;
+
+
+	/**
+	 * Listener notified whenever the car has passed a segment of the ideal line.
+	 */
+	public interface DeviationListener
+	{
+		/**
+		 * Called when the car leaves a segment of the ideal line.
+		 *
+		 * @param segment
+		 * 			index of the segment (between ideal point "segment" and "segment+1")
+		 *
+		 * @param area
+		 * 			area between driven line and ideal line in this segment
+		 *
+		 * @param meanDeviation
+		 * 			mean deviation (in meters) in this segment
+		 *
+		 * @param totalMeanDeviation
+		 * 			mean deviation (in meters) since start
+		 */
+		public void segmentFinished(int segment, float area, float meanDeviation, float totalMeanDeviation);
+	}
+
+
+	/**
+	 * Creates a new live deviation computer for the given ideal line.
+	 *
+	 * @param idealPoints
+	 * 			ideal points (x- and z-coordinate) in driving order
+	 */
+	public LiveDeviationComputer(List<Vector2f> idealPoints)
+	{
+		this(idealPoints, DEFAULT_WINDOW_LENGTH);
+	}
+
+
+	/**
+	 * Creates a new live deviation computer for the given ideal line.
+	 *
+	 * @param idealPoints
+	 * 			ideal points (x- and z-coordinate) in driving order
+	 *
+	 * @param windowLength
+	 * 			length of the ideal line (in meters) the window mean
+	 * 			deviation will be computed for
+	 */
+	public LiveDeviationComputer(List<Vector2f> idealPoints, float windowLength)
+	{
+		int nrOfIdealPoints = idealPoints.size();
+		pointX = new float[nrOfIdealPoints];
+		pointZ = new float[nrOfIdealPoints];
+		segmentStart = new float[nrOfIdealPoints];
+
+		for(int i=0; i<nrOfIdealPoints; i++)
+		{
+			pointX[i] = idealPoints.get(i).getX();
+			pointZ[i] = idealPoints.get(i).getY();
+
+			if(i > 0)
+				segmentStart[i] = segmentStart[i-1] + getSegmentLength(i-1);
+		}
+
+		lengthOfIdealLine = (nrOfIdealPoints > 0) ? segmentStart[nrOfIdealPoints-1] : 0;
+		this.windowLength = windowLength;
+	}
+
+
+	public void addListener(DeviationListener listener)
+	{
+		listenerList.add(listener);
+	}
+
+
+	public void removeListener(DeviationListener listener)
+	{
+		listenerList.remove(listener);
+	}
+
+
+	/**
+	 * Processes the next position of the car.
+	 *
+	 * @param position
+	 * 			current car position
+	 */
+	public void update(Vector3f position)
+	{
+		update(position.getX(), position.getZ());
+	}
+
+
+	/**
+	 * Processes the next position of the car.
+	 *
+	 * @param x
+	 * 			x-coordinate of the car
+	 *
+	 * @param z
+	 * 			z-coordinate of the car
+	 */
+	public void update(float x, float z)
+	{
+		if(pointX.length < 2)
+			return;
+
+		if(!located)
+		{
+			// first position or car has been reset --> look up nearest segment
+			if(!locate(x, z))
+				return;
+
+			located = true;
+			previousArcLength = projectedArcLength;
+			previousOffset = projectedOffset;
+			return;
+		}
+
+		// move forward along the ideal line as long as the position is beyond
+		// the end of the segment (segments are reported below)
+		int segment = currentSegment;
+		project(segment, x, z);
+		while(segment < pointX.length-2 && projectedArcLength >= segmentStart[segment+1])
+		{
+			segment++;
+			project(segment, x, z);
+		}
+
+		if(Math.abs(projectedOffset) > MAX_DISTANCE || 
+				Math.abs(projectedArcLength - previousArcLength) > MAX_DISTANCE)
+		{
+			// car too far away from ideal line or moved too far along it (e.g. reset) 
+			// --> look up again at next position without reporting the segments in between
+			located = false;
+			return;
+		}
+
+		// report segments passed
+		while(currentSegment < segment)
+		{
+			finishSegment();
+			currentSegment++;
+		}
+
+		// driving backwards will not be counted (until position has been reached again)
+		float distance = projectedArcLength - previousArcLength;
+		if(distance > 0)
+		{
+			float area = getArea(previousOffset, projectedOffset, distance);
+
+			segmentArea += area;
+			segmentLength += distance;
+			totalArea += area;
+			totalLength += distance;
+			addToWindow(area, distance);
+
+			previousArcLength = projectedArcLength;
+			previousOffset = projectedOffset;
+		}
+	}
+
+
+	/**
+	 * Area between ideal line and driven line between two positions with the
+	 * given (signed) offsets. If the driven line crosses the ideal line, the
+	 * area will be split up into two triangles (as in DeviationQuadrangle).
+	 */
+	private static float getArea(float offset1, float offset2, float distance)
+	{
+		if((offset1 > 0 && offset2 < 0) || (offset1 < 0 && offset2 > 0))
+		{
+			float abs1 = Math.abs(offset1);
+			float abs2 = Math.abs(offset2);
+			return 0.5f * distance * (abs1*abs1 + abs2*abs2) / (abs1 + abs2);
+		}
+
+		return 0.5f * distance * (Math.abs(offset1) + Math.abs(offset2));
+	}
+
+
+	private void addToWindow(float area, float distance)
+	{
+		if(windowSize == windowArea.length)
+			growWindow();
+
+		int tail = (windowHead + windowSize) % windowArea.length;
+		windowArea[tail] = area;
+		windowDistance[tail] = distance;
+		windowSize++;
+		windowAreaSum += area;
+		windowDistanceSum += distance;
+
+		// drop oldest increments as long as window is too long
+		while(windowSize > 1 && windowDistanceSum - windowDistance[windowHead] >= windowLength)
+		{
+			windowAreaSum -= windowArea[windowHead];
+			windowDistanceSum -= windowDistance[windowHead];
+			windowHead = (windowHead + 1) % windowArea.length;
+			windowSize--;
+		}
+	}
+
+
+	private void growWindow()
+	{
+		float[] newArea = new float[windowArea.length * 2];
+		float[] newDistance = new float[windowArea.length * 2];
+		for(int i=0; i<windowSize; i++)
+		{
+			newArea[i] = windowArea[(windowHead + i) % windowArea.length];
+			newDistance[i] = windowDistance[(windowHead + i) % windowArea.length];
+		}
+		windowArea = newArea;
+		windowDistance = newDistance;
+		windowHead = 0;
+	}
+
+
+	private void finishSegment()
+	{
+		float meanDeviation = (segmentLength > 0) ? segmentArea/segmentLength : 0;
+
+		for(DeviationListener listener : listenerList)
+			listener.segmentFinished(currentSegment, segmentArea, meanDeviation, getMeanDeviation());
+
+		segmentArea = 0;
+		segmentLength = 0;
+	}
+
+
+	/**
+	 * Looks up the segment nearest to the given position (only needed for the
+	 * first position and after the car has left the ideal line).
+	 */
+	private boolean locate(float x, float z)
+	{
+		int nearestSegment = -1;
+		float nearestDistance = MAX_DISTANCE;
+
+		for(int i=0; i<pointX.length-1; i++)
+		{
+			float distance = getDistanceToSegment(i, x, z);
+			if(distance <= nearestDistance)
+			{
+				nearestSegment = i;
+				nearestDistance = distance;
+			}
+		}
+
+		if(nearestSegment < 0)
+			return false;
+
+		// do not report segments passed while the car was away
+		if(nearestSegment != currentSegment)
+		{
+			segmentArea = 0;
+			segmentLength = 0;
+		}
+
+		currentSegment = nearestSegment;
+		project(currentSegment, x, z);
+		return true;
+	}
+
+
+	/**
+	 * Projects the given position onto the given segment. Results will be
+	 * written to projectedArcLength (position along the ideal line) and
+	 * projectedOffset (signed distance, positive on the left-hand side).
+	 * Positions before the start or behind the end of the segment will
+	 * be measured from the nearest end point.
+	 */
+	private void project(int segment, float x, float z)
+	{
+		float ax = pointX[segment];
+		float az = pointZ[segment];
+		float dx = pointX[segment+1] - ax;
+		float dz = pointZ[segment+1] - az;
+		float px = x - ax;
+		float pz = z - az;
+
+		float length = segmentStart[segment+1] - segmentStart[segment];
+		if(length <= 0)
+		{
+			projectedArcLength = segmentStart[segment];
+			projectedOffset = (float) Math.sqrt(px*px + pz*pz);
+			return;
+		}
+
+		float t = (px*dx + pz*dz) / (length*length);
+		float cross = (dx*pz - dz*px) / length;
+
+		if(t < 0)
+		{
+			projectedArcLength = segmentStart[segment];
+			projectedOffset = Math.signum(cross) * (float) Math.sqrt(px*px + pz*pz);
+		}
+		else if(t > 1 && segment < pointX.length-2)
+		{
+			// let next segment handle this position
+			projectedArcLength = segmentStart[segment+1] + (t - 1) * length;
+			projectedOffset = cross;
+		}
+		else
+		{
+			projectedArcLength = segmentStart[segment] + Math.min(t, 1) * length;
+			projectedOffset = cross;
+		}
+	}
+
+
+	private float getDistanceToSegment(int segment, float x, float z)
+	{
+		float dx = pointX[segment+1] - pointX[segment];
+		float dz = pointZ[segment+1] - pointZ[segment];
+		float px = x - pointX[segment];
+		float pz = z - pointZ[segment];
+
+		float lengthSquared = dx*dx + dz*dz;
+		float t = (lengthSquared > 0) ? Math.max(0, Math.min(1, (px*dx + pz*dz) / lengthSquared)) : 0;
+
+		float ex = px - t*dx;
+		float ez = pz - t*dz;
+		return (float) Math.sqrt(ex*ex + ez*ez);
+	}
+
+
+	private float getSegmentLength(int segment)
+	{
+		float dx = pointX[segment+1] - pointX[segment];
+		float dz = pointZ[segment+1] - pointZ[segment];
+		return (float) Math.sqrt(dx*dx + dz*dz);
+	}
+
+
+	/**
+	 * Reports the current segment as finished (e.g. at the end of the drive).
+	 */
+	public void finish()
+	{
+		if(segmentLength > 0)
+			finishSegment();
+	}
+
+
+	/**
+	 * Mean deviation (in meters) since start.
+	 */
+	public float getMeanDeviation()
+	{
+		return (totalLength > 0) ? totalArea/totalLength : 0;
+	}
+
+
+	/**
+	 * Mean deviation (in meters) of the last part of the ideal line (see
+	 * window length).
+	 */
+	public float getWindowMeanDeviation()
+	{
+		return (windowDistanceSum > 0) ? windowAreaSum/windowDistanceSum : 0;
+	}
+
+
+	/**
+	 * Area between driven line and ideal line since start.
+	 */
+	public float getArea()
+	{
+		return totalArea;
+	}
+
+
+	/**
+	 * Length of the ideal line that has been passed so far.
+	 */
+	public float getDrivenLength()
+	{
+		return totalLength;
+	}
+
+
+	public float getLengthOfIdealLine()
+	{
+		return lengthOfIdealLine;
+	}
+
+
+	public int getCurrentSegment()
+	{
+		return currentSegment;
+	}
+
+
+	/**
+	 * Current (signed) distance of the car from the ideal line.
+	 */
+	public float getCurrentOffset()
+	{
+		return located ? previousOffset : 0;
+	}
+}
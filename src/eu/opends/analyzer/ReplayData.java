@@ -0,0 +1,192 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.analyzer;
+
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+
+/**
+ * Replay data model of the drive analyzer. All samples are stored in
+ * primitive arrays (struct of arrays), so access by index is O(1) and
+ * searching by time stamp is O(log n) (time stamps are expected in
+ * ascending order, as recorded).
+ *
+ * @author Rafael Math
+ */
+public class ReplayData
+{
+	private int size = 0;
+	private long[] time;
+	private float[] xPos, yPos, zPos;
+	private float[] xRot, yRot, zRot, wRot;
+	private float[] speed;
+
+
+	public ReplayData()
+	{
+		this(1024);
+	}
+
+
+	public ReplayData(int initialCapacity)
+	{
+		allocate(Math.max(1, initialCapacity));
+	}
+
+
+	private void allocate(int capacity)
+	{
+		time = copyOf(time, capacity);
+		xPos = copyOf(xPos, capacity);
+		yPos = copyOf(yPos, capacity);
+		zPos = copyOf(zPos, capacity);
+		xRot = copyOf(xRot, capacity);
+		yRot = copyOf(yRot, capacity);
+		zRot = copyOf(zRot, capacity);
+		wRot = copyOf(wRot, capacity);
+		speed = copyOf(speed, capacity);
+	}
+
+
+	private float[] copyOf(float[] array, int capacity)
+	{
+		float[] newArray = new float[capacity];
+		if(array != null)
+			System.arraycopy(array, 0, newArray, 0, size);
+		return newArray;
+	}
+
+
+	private long[] copyOf(long[] array, int capacity)
+	{
+		long[] newArray = new long[capacity];
+		if(array != null)
+			System.arraycopy(array, 0, newArray, 0, size);
+		return newArray;
+	}
+
+
+	/**
+	 * Makes sure that the given number of samples can be stored without
+	 * growing the arrays.
+	 */
+	public void ensureCapacity(int capacity)
+	{
+		if(capacity > time.length)
+			allocate(capacity);
+	}
+
+
+	public void add(long timeStamp, float x, float y, float z, float xRotation,
+			float yRotation, float zRotation, float wRotation, float currentSpeed)
+	{
+		if(size == time.length)
+			allocate(time.length * 2);
+
+		time[size] = timeStamp;
+		xPos[size] = x;
+		yPos[size] = y;
+		zPos[size] = z;
+		xRot[size] = xRotation;
+		yRot[size] = yRotation;
+		zRot[size] = zRotation;
+		wRot[size] = wRotation;
+		speed[size] = currentSpeed;
+		size++;
+	}
+
+
+	public int size()
+	{
+		return size;
+	}
+
+
+	public long getTimeStamp(int index)
+	{
+		return time[index];
+	}
+
+
+	public float getSpeed(int index)
+	{
+		return speed[index];
+	}
+
+
+	public Vector3f getCarPosition(int index, Vector3f store)
+	{
+		if(store == null)
+			store = new Vector3f();
+
+		return store.set(xPos[index], yPos[index], zPos[index]);
+	}
+
+
+	public Quaternion getCarRotation(int index, Quaternion store)
+	{
+		if(store == null)
+			store = new Quaternion();
+
+		return store.set(xRot[index], yRot[index], zRot[index], wRot[index]);
+	}
+
+
+	/**
+	 * Returns a new array containing all car positions (e.g. for creating
+	 * a curve mesh).
+	 */
+	public Vector3f[] getCarPositions()
+	{
+		Vector3f[] positions = new Vector3f[size];
+		for(int i=0; i<size; i++)
+			positions[i] = new Vector3f(xPos[i], yPos[i], zPos[i]);
+		return positions;
+	}
+
+
+	/**
+	 * Index of the last sample recorded at or before the given time stamp.
+	 * Returns 0 if the time stamp is before the first sample and -1 if
+	 * there is no data at all.
+	 */
+	public int findIndex(long timeStamp)
+	{
+		if(size == 0)
+			return -1;
+
+		int low = 0;
+		int high = size - 1;
+		int result = 0;
+
+		while(low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			if(time[mid] <= timeStamp)
+			{
+				result = mid;
+				low = mid + 1;
+			}
+			else
+				high = mid - 1;
+		}
+
+		return result;
+	}
+}
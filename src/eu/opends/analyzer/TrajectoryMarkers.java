@@ -0,0 +1,125 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.analyzer;
+
+import java.nio.FloatBuffer;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.material.Material;
+import com.jme3.material.RenderState.FaceCullMode;
+import com.jme3.math.ColorRGBA;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Node;
+import com.jme3.scene.VertexBuffer.Type;
+import com.jme3.scene.shape.Cylinder;
+import com.jme3.util.BufferUtils;
+
+/**
+ * Visualizes the orientation of the car at every recorded sample. All
+ * markers (one small triangle per sample pointing in driving direction) are
+ * baked into a single mesh, so the number of scene graph nodes does not grow
+ * with the length of the recording. The current sample is highlighted by
+ * one cone geometry that is moved by index.
+ *
+ * @author Rafael Math
+ */
+public class TrajectoryMarkers
+{
+	// marker triangle in local coordinates (same orientation as cone)
+	private static final Vector3f[] MARKER_SHAPE = new Vector3f[] {
+		new Vector3f(0, 0, 0.45f), new Vector3f(-0.3f, 0, -0.45f), new Vector3f(0.3f, 0, -0.45f)};
+
+	private Node markerNode = new Node("trajectoryMarkers");
+	private Geometry highlightCone;
+	private ReplayData replayData;
+	private Vector3f position = new Vector3f();
+	private Quaternion rotation = new Quaternion();
+
+
+	public TrajectoryMarkers(AssetManager assetManager, ReplayData replayData)
+	{
+		this.replayData = replayData;
+
+		// batched markers of all samples
+		Material markerMaterial = new Material(assetManager, "Common/MatDefs/Misc/Unshaded.j3md");
+		markerMaterial.setColor("Color", ColorRGBA.DarkGray);
+		markerMaterial.getAdditionalRenderState().setFaceCullMode(FaceCullMode.Off);
+
+		Geometry markers = new Geometry("markers", createMarkerMesh());
+		markers.setMaterial(markerMaterial);
+		markerNode.attachChild(markers);
+
+		// highlighted marker of the current sample
+		Material coneMaterial = new Material(assetManager, "Common/MatDefs/Misc/Unshaded.j3md");
+		coneMaterial.setColor("Color", ColorRGBA.Black);
+
+		Cylinder cone = new Cylinder(10, 10, 0.3f, 0.01f, 0.9f, true, false);
+		highlightCone = new Geometry("highlightCone", cone);
+		highlightCone.setMaterial(coneMaterial);
+		markerNode.attachChild(highlightCone);
+
+		if(replayData.size() > 0)
+			highlight(0);
+	}
+
+
+	private Mesh createMarkerMesh()
+	{
+		int vertexCount = replayData.size() * MARKER_SHAPE.length;
+		FloatBuffer positionBuffer = BufferUtils.createFloatBuffer(Math.max(3, vertexCount * 3));
+		Vector3f vertex = new Vector3f();
+
+		for(int i=0; i<replayData.size(); i++)
+		{
+			replayData.getCarPosition(i, position);
+			replayData.getCarRotation(i, rotation);
+
+			for(Vector3f corner : MARKER_SHAPE)
+			{
+				rotation.mult(corner, vertex).addLocal(position);
+				positionBuffer.put(vertex.x).put(vertex.y).put(vertex.z);
+			}
+		}
+		positionBuffer.flip();
+
+		Mesh mesh = new Mesh();
+		mesh.setBuffer(Type.Position, 3, positionBuffer);
+		mesh.updateBound();
+		return mesh;
+	}
+
+
+	/**
+	 * Moves the highlight cone to the sample with the given index.
+	 */
+	public void highlight(int index)
+	{
+		highlightCone.setLocalTranslation(replayData.getCarPosition(index, position));
+		highlightCone.setLocalRotation(replayData.getCarRotation(index, rotation));
+	}
+
+
+	public Node getNode()
+	{
+		return markerNode;
+	}
+}
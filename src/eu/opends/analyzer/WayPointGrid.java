@@ -0,0 +1,171 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.analyzer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import com.jme3.math.Vector3f;
+
+/**
+ * Uniform grid over the (x,z) coordinates of the way points. Every cell
+ * holds the indices of the way points located inside (ascending, i.e. in
+ * path order), so all way points near a given area can be looked up
+ * without scanning the whole track.
+ *
+ * @author Rafael Math
+ */
+public class WayPointGrid
+{
+	private float cellSize;
+	private HashMap<Long, Cell> cells = new HashMap<Long, Cell>();
+	private Cell[] queryCells = new Cell[16];
+	private int[] queryPositions = new int[16];
+	private int numberOfQueryCells = 0;
+
+
+	private static class Cell
+	{
+		int[] indices = new int[8];
+		int size = 0;
+
+		void add(int index)
+		{
+			if(size == indices.length)
+				indices = Arrays.copyOf(indices, size * 2);
+			indices[size++] = index;
+		}
+	}
+
+
+	/**
+	 * Creates a grid containing all given way points.
+	 *
+	 * @param wayPoints
+	 * 			way points (index in list will be stored)
+	 *
+	 * @param cellSize
+	 * 			edge length of a grid cell
+	 */
+	public WayPointGrid(List<Vector3f> wayPoints, float cellSize)
+	{
+		this.cellSize = cellSize;
+
+		for(int i=0; i<wayPoints.size(); i++)
+		{
+			Vector3f wayPoint = wayPoints.get(i);
+			long key = getKey(getCellIndex(wayPoint.getX()), getCellIndex(wayPoint.getZ()));
+
+			Cell cell = cells.get(key);
+			if(cell == null)
+			{
+				cell = new Cell();
+				cells.put(key, cell);
+			}
+			cell.add(i);
+		}
+	}
+
+
+	private int getCellIndex(float coordinate)
+	{
+		return (int) Math.floor(coordinate / cellSize);
+	}
+
+
+	private static long getKey(int cellX, int cellZ)
+	{
+		return (((long) cellX) << 32) | (cellZ & 0xffffffffL);
+	}
+
+
+	/**
+	 * Starts a look-up of all way points inside the cells overlapping the
+	 * given rectangle. The way points found can be retrieved by next() in
+	 * ascending order of their index (i.e. in path order).
+	 *
+	 * @param minX
+	 * 			lower x-coordinate of the rectangle
+	 *
+	 * @param minZ
+	 * 			lower z-coordinate of the rectangle
+	 *
+	 * @param maxX
+	 * 			upper x-coordinate of the rectangle
+	 *
+	 * @param maxZ
+	 * 			upper z-coordinate of the rectangle
+	 */
+	public void query(float minX, float minZ, float maxX, float maxZ)
+	{
+		numberOfQueryCells = 0;
+
+		for(int cellX = getCellIndex(minX); cellX <= getCellIndex(maxX); cellX++)
+		{
+			for(int cellZ = getCellIndex(minZ); cellZ <= getCellIndex(maxZ); cellZ++)
+			{
+				Cell cell = cells.get(getKey(cellX, cellZ));
+				if(cell == null)
+					continue;
+
+				if(numberOfQueryCells == queryCells.length)
+				{
+					queryCells = Arrays.copyOf(queryCells, numberOfQueryCells * 2);
+					queryPositions = Arrays.copyOf(queryPositions, numberOfQueryCells * 2);
+				}
+
+				queryCells[numberOfQueryCells] = cell;
+				queryPositions[numberOfQueryCells] = 0;
+				numberOfQueryCells++;
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the next way point found by the last query. As the indices
+	 * of every cell are ascending, the cells are merged on the fly, so
+	 * the caller may stop early without sorting all way points found.
+	 *
+	 * @return
+	 * 			index of the next way point or -1 if there are no more
+	 */
+	public int next()
+	{
+		int nextIndex = -1;
+		int nextCell = -1;
+
+		for(int i=0; i<numberOfQueryCells; i++)
+		{
+			Cell cell = queryCells[i];
+			int position = queryPositions[i];
+			if(position < cell.size && (nextIndex < 0 || cell.indices[position] < nextIndex))
+			{
+				nextIndex = cell.indices[position];
+				nextCell = i;
+			}
+		}
+
+		if(nextCell >= 0)
+			queryPositions[nextCell]++;
+
+		return nextIndex;
+	}
+}
@@ -30,6 +30,7 @@ import com.jme3.audio.AudioNode.Status;
 import com.jme3.renderer.Camera;
 
 import eu.opends.main.Simulator;
+import eu.opends.tools.TimerCenter;
 
 /**
  * 
@@ -90,17 +91,58 @@ public class AudioCenter
 	}
 	
 	
-	public static void playSoundDelayed(String soundID, int milliSeconds)
+	public static void playSoundDelayed(final String soundID, int milliSeconds)
 	{
-		AudioDelayThread t = new AudioDelayThread(soundID, milliSeconds, "playSound");
-		t.start();
+		TimerCenter.schedule(milliSeconds/1000f, new Runnable()
+		{
+			@Override
+			public void run() 
+			{
+				playSound(soundID);
+			}
+		});
 	}
 	
 	
 	private static void fadeOut(String soundID, int milliSeconds) 
 	{
-		AudioDelayThread t = new AudioDelayThread(soundID, milliSeconds, "fadeOut");
-		t.start();
+		TimerCenter.schedule(milliSeconds/1000f + 0.2f, new FadeOutStep(soundID));
+	}
+	
+	
+	/**
+	 * Decreases the volume of a sound by 0.1 every 200 ms until it is silent. 
+	 * Then the sound will be stopped and its initial volume restored.
+	 */
+	private static class FadeOutStep implements Runnable
+	{
+		private String soundID;
+		private float initialVolume = -1;
+		
+		
+		FadeOutStep(String soundID)
+		{
+			this.soundID = soundID;
+		}
+		
+		
+		@Override
+		public void run() 
+		{
+			if(initialVolume < 0)
+				initialVolume = getAudioNode(soundID).getVolume();
+			
+			float volume = Math.max(getAudioNode(soundID).getVolume() - 0.1f,0);
+			setVolume(soundID, volume);
+			
+			if(volume > 0)
+				TimerCenter.schedule(0.2f, this);
+			else
+			{
+				stopSound(soundID);
+				setVolume(soundID, initialVolume);
+			}
+		}
 	}
 
 	
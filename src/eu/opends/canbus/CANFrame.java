@@ -0,0 +1,212 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.canbus;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Fixed-size binary frame exchanged with the CAN bridge (big-endian). Every
+ * frame has a size of FRAME_SIZE bytes and starts with a common header:
+ *
+ * <pre>
+ *  0  int    magic number
+ *  4  byte   version
+ *  5  byte   frame type
+ *  6  short  reserved
+ *  8  int    sequence number (per sender, wraps around)
+ * 12  long   time stamp (ms since 1970)
+ * 20  ...    payload (depending on frame type, unused bytes are zero)
+ * </pre>
+ *
+ * Payload of TYPE_CONTROL (bridge to simulator; -1 = unchanged):
+ * engine on (byte), light on (byte), blinker left (byte), blinker right
+ * (byte), steering angle in degrees (float, NaN = no steering).
+ *
+ * Payload of TYPE_CAR_STATE (simulator to bridge): speed in km/h (float),
+ * engine RPM (float), blinker left (byte), blinker right (byte), 2 bytes
+ * reserved, latitude (float), longitude (float).
+ *
+ * Payload of TYPE_DEVIATION (simulator to bridge): deviation from the
+ * normative line in meters (float).
+ *
+ * Payload of TYPE_TRIGGER (simulator to bridge): length (short) and UTF-8
+ * bytes of the trigger ID (truncated to MAX_TRIGGER_ID_LENGTH bytes).
+ *
+ * @author Rafael Math
+ */
+public class CANFrame
+{
+	public static final int MAGIC = 0x4F44434E; // "ODCN"
+	public static final byte VERSION = 1;
+	public static final int FRAME_SIZE = 48;
+
+	public static final byte TYPE_CONTROL = 1;
+	public static final byte TYPE_CAR_STATE = 2;
+	public static final byte TYPE_DEVIATION = 3;
+	public static final byte TYPE_TRIGGER = 4;
+
+	// header
+	public static final int MAGIC_OFFSET = 0;
+	public static final int VERSION_OFFSET = 4;
+	public static final int TYPE_OFFSET = 5;
+	public static final int SEQUENCE_OFFSET = 8;
+	public static final int TIME_OFFSET = 12;
+	public static final int PAYLOAD_OFFSET = 20;
+
+	// TYPE_CONTROL
+	public static final int CONTROL_ENGINE_ON = PAYLOAD_OFFSET;
+	public static final int CONTROL_LIGHT_ON = PAYLOAD_OFFSET + 1;
+	public static final int CONTROL_BLINKER_LEFT = PAYLOAD_OFFSET + 2;
+	public static final int CONTROL_BLINKER_RIGHT = PAYLOAD_OFFSET + 3;
+	public static final int CONTROL_STEERING_ANGLE = PAYLOAD_OFFSET + 4;
+
+	// TYPE_CAR_STATE
+	public static final int STATE_SPEED = PAYLOAD_OFFSET;
+	public static final int STATE_RPM = PAYLOAD_OFFSET + 4;
+	public static final int STATE_BLINKER_LEFT = PAYLOAD_OFFSET + 8;
+	public static final int STATE_BLINKER_RIGHT = PAYLOAD_OFFSET + 9;
+	public static final int STATE_LATITUDE = PAYLOAD_OFFSET + 12;
+	public static final int STATE_LONGITUDE = PAYLOAD_OFFSET + 16;
+
+	// TYPE_DEVIATION
+	public static final int DEVIATION_VALUE = PAYLOAD_OFFSET;
+
+	// TYPE_TRIGGER
+	public static final int TRIGGER_ID_LENGTH = PAYLOAD_OFFSET;
+	public static final int TRIGGER_ID = PAYLOAD_OFFSET + 2;
+	public static final int MAX_TRIGGER_ID_LENGTH = FRAME_SIZE - TRIGGER_ID;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+
+	/**
+	 * Clears the given buffer (capacity of at least FRAME_SIZE) and writes
+	 * the header of a frame of the given type. The payload can be written
+	 * with absolute put methods using the offsets above.
+	 */
+	public static ByteBuffer writeHeader(ByteBuffer frame, byte type, int sequenceNumber, long timeStamp)
+	{
+		frame.clear();
+		for(int i=0; i<FRAME_SIZE; i++)
+			frame.put(i, (byte) 0);
+
+		frame.putInt(MAGIC_OFFSET, MAGIC);
+		frame.put(VERSION_OFFSET, VERSION);
+		frame.put(TYPE_OFFSET, type);
+		frame.putInt(SEQUENCE_OFFSET, sequenceNumber);
+		frame.putLong(TIME_OFFSET, timeStamp);
+		frame.limit(FRAME_SIZE);
+		return frame;
+	}
+
+
+	/**
+	 * Returns true if the given buffer contains a complete frame of a
+	 * supported version.
+	 */
+	public static boolean isValid(ByteBuffer frame)
+	{
+		return frame.limit() >= FRAME_SIZE && frame.getInt(MAGIC_OFFSET) == MAGIC
+				&& frame.get(VERSION_OFFSET) <= VERSION;
+	}
+
+
+	public static byte getType(ByteBuffer frame)
+	{
+		return frame.get(TYPE_OFFSET);
+	}
+
+
+	public static int getSequenceNumber(ByteBuffer frame)
+	{
+		return frame.getInt(SEQUENCE_OFFSET);
+	}
+
+
+	public static long getTimeStamp(ByteBuffer frame)
+	{
+		return frame.getLong(TIME_OFFSET);
+	}
+
+
+	/**
+	 * Writes a control frame (e.g. for sending test data via loopback).
+	 * Use -1 for values that should not be changed and NaN as steering
+	 * angle if no steering should be performed.
+	 */
+	public static ByteBuffer writeControl(ByteBuffer frame, int sequenceNumber, long timeStamp,
+			int engineOn, int lightOn, int blinkerLeft, int blinkerRight, float steeringAngle)
+	{
+		writeHeader(frame, TYPE_CONTROL, sequenceNumber, timeStamp);
+		frame.put(CONTROL_ENGINE_ON, (byte) engineOn);
+		frame.put(CONTROL_LIGHT_ON, (byte) lightOn);
+		frame.put(CONTROL_BLINKER_LEFT, (byte) blinkerLeft);
+		frame.put(CONTROL_BLINKER_RIGHT, (byte) blinkerRight);
+		frame.putFloat(CONTROL_STEERING_ANGLE, steeringAngle);
+		return frame;
+	}
+
+
+	public static ByteBuffer writeCarState(ByteBuffer frame, int sequenceNumber, long timeStamp,
+			float speed, float rpm, boolean blinkerLeft, boolean blinkerRight, float latitude, float longitude)
+	{
+		writeHeader(frame, TYPE_CAR_STATE, sequenceNumber, timeStamp);
+		frame.putFloat(STATE_SPEED, speed);
+		frame.putFloat(STATE_RPM, rpm);
+		frame.put(STATE_BLINKER_LEFT, (byte) (blinkerLeft ? 1 : 0));
+		frame.put(STATE_BLINKER_RIGHT, (byte) (blinkerRight ? 1 : 0));
+		frame.putFloat(STATE_LATITUDE, latitude);
+		frame.putFloat(STATE_LONGITUDE, longitude);
+		return frame;
+	}
+
+
+	public static ByteBuffer writeDeviation(ByteBuffer frame, int sequenceNumber, long timeStamp,
+			float deviation)
+	{
+		writeHeader(frame, TYPE_DEVIATION, sequenceNumber, timeStamp);
+		frame.putFloat(DEVIATION_VALUE, deviation);
+		return frame;
+	}
+
+
+	public static ByteBuffer writeTrigger(ByteBuffer frame, int sequenceNumber, long timeStamp,
+			String triggerID)
+	{
+		writeHeader(frame, TYPE_TRIGGER, sequenceNumber, timeStamp);
+
+		byte[] bytes = triggerID.getBytes(UTF8);
+		int length = Math.min(bytes.length, MAX_TRIGGER_ID_LENGTH);
+		frame.putShort(TRIGGER_ID_LENGTH, (short) length);
+		for(int i=0; i<length; i++)
+			frame.put(TRIGGER_ID + i, bytes[i]);
+		return frame;
+	}
+
+
+	public static String getTriggerID(ByteBuffer frame)
+	{
+		int length = Math.min(frame.getShort(TRIGGER_ID_LENGTH), MAX_TRIGGER_ID_LENGTH);
+		byte[] bytes = new byte[length];
+		for(int i=0; i<length; i++)
+			bytes[i] = frame.get(TRIGGER_ID + i);
+		return new String(bytes, UTF8);
+	}
+}
@@ -0,0 +1,64 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.canbus;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Transport of fixed-size CAN bridge frames (see CANFrame).
+ *
+ * @author Rafael Math
+ */
+public interface CANTransport
+{
+	/**
+	 * Sends the remaining bytes of the given frame. Must not block for a
+	 * noticeable amount of time (called by the render thread).
+	 *
+	 * @param frame
+	 * 			frame to send
+	 *
+	 * @throws IOException
+	 * 			if frame could not be sent
+	 */
+	public void send(ByteBuffer frame) throws IOException;
+
+
+	/**
+	 * Waits for the next frame and writes it to the given buffer (position
+	 * 0, limit set to the frame's length).
+	 *
+	 * @param frame
+	 * 			buffer to receive the frame (capacity of at least FRAME_SIZE)
+	 *
+	 * @param timeoutMillis
+	 * 			maximum time to wait
+	 *
+	 * @return
+	 * 			true if a frame has been received, false on timeout
+	 *
+	 * @throws IOException
+	 * 			if transport has been closed or failed
+	 */
+	public boolean receive(ByteBuffer frame, long timeoutMillis) throws IOException;
+
+
+	public void close();
+}
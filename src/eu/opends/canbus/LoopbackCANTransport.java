@@ -0,0 +1,118 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.canbus;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory stand-in for a CAN bridge connection, e.g. for testing without
+ * network or real car. createPair() returns two connected ends: frames
+ * sent by one end will be received by the other one. As UDP, frames will
+ * be dropped if the receiving end does not keep up.
+ *
+ * @author Rafael Math
+ */
+public class LoopbackCANTransport implements CANTransport
+{
+	private static final int QUEUE_CAPACITY = 256;
+
+	private BlockingQueue<byte[]> inbox;
+	private BlockingQueue<byte[]> outbox;
+	private volatile boolean closed = false;
+	private long droppedFrames = 0;
+
+
+	private LoopbackCANTransport(BlockingQueue<byte[]> inbox, BlockingQueue<byte[]> outbox)
+	{
+		this.inbox = inbox;
+		this.outbox = outbox;
+	}
+
+
+	/**
+	 * Creates two connected ends (e.g. simulator side and bridge side).
+	 *
+	 * @return
+	 * 			array of two connected transports
+	 */
+	public static LoopbackCANTransport[] createPair()
+	{
+		BlockingQueue<byte[]> queue1 = new ArrayBlockingQueue<byte[]>(QUEUE_CAPACITY);
+		BlockingQueue<byte[]> queue2 = new ArrayBlockingQueue<byte[]>(QUEUE_CAPACITY);
+		return new LoopbackCANTransport[] {
+				new LoopbackCANTransport(queue1, queue2),
+				new LoopbackCANTransport(queue2, queue1)};
+	}
+
+
+	@Override
+	public void send(ByteBuffer frame) throws IOException
+	{
+		if(closed)
+			throw new IOException("Loopback transport closed");
+
+		byte[] bytes = new byte[frame.remaining()];
+		frame.get(bytes);
+		if(!outbox.offer(bytes))
+			droppedFrames++;
+	}
+
+
+	@Override
+	public boolean receive(ByteBuffer frame, long timeoutMillis) throws IOException
+	{
+		if(closed)
+			throw new IOException("Loopback transport closed");
+
+		try {
+			byte[] bytes = inbox.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+			if(bytes == null)
+				return false;
+
+			frame.clear();
+			frame.put(bytes, 0, Math.min(bytes.length, frame.remaining()));
+			frame.flip();
+			return true;
+
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while waiting for frame");
+		}
+	}
+
+
+	@Override
+	public void close()
+	{
+		closed = true;
+	}
+
+
+	/**
+	 * Number of frames sent by this end but dropped, as the other end's
+	 * queue was full.
+	 */
+	public long getDroppedFrames()
+	{
+		return droppedFrames;
+	}
+}
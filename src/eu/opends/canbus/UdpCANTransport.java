@@ -0,0 +1,109 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.canbus;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+/**
+ * Exchanges CAN bridge frames as UDP datagrams (one frame per datagram).
+ * Frames are sent to the bridge's address; frames are received on the
+ * given local port. Receiving waits in a selector, so no CPU time is used
+ * while no frames arrive.
+ *
+ * @author Rafael Math
+ */
+public class UdpCANTransport implements CANTransport
+{
+	private DatagramChannel channel;
+	private Selector selector;
+	private SocketAddress bridgeAddress;
+
+
+	/**
+	 * Opens a UDP channel.
+	 *
+	 * @param bridgeIP
+	 * 			IP of the CAN bridge
+	 *
+	 * @param bridgePort
+	 * 			port of the CAN bridge
+	 *
+	 * @param localPort
+	 * 			port to receive frames from the CAN bridge
+	 *
+	 * @throws IOException
+	 * 			if channel could not be opened
+	 */
+	public UdpCANTransport(String bridgeIP, int bridgePort, int localPort) throws IOException
+	{
+		bridgeAddress = new InetSocketAddress(bridgeIP, bridgePort);
+
+		channel = DatagramChannel.open();
+		channel.socket().setReuseAddress(true);
+		channel.socket().bind(new InetSocketAddress(localPort));
+		channel.configureBlocking(false);
+
+		selector = Selector.open();
+		channel.register(selector, SelectionKey.OP_READ);
+	}
+
+
+	@Override
+	public void send(ByteBuffer frame) throws IOException
+	{
+		// non-blocking: datagram will be dropped if send buffer is full
+		channel.send(frame, bridgeAddress);
+	}
+
+
+	@Override
+	public boolean receive(ByteBuffer frame, long timeoutMillis) throws IOException
+	{
+		frame.clear();
+		if(channel.receive(frame) == null)
+		{
+			selector.select(timeoutMillis);
+			selector.selectedKeys().clear();
+
+			if(channel.receive(frame) == null)
+				return false;
+		}
+
+		frame.flip();
+		return true;
+	}
+
+
+	@Override
+	public void close()
+	{
+		try {
+			selector.close();
+			channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
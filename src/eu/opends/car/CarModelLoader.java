@@ -78,6 +78,10 @@ public class CarModelLoader
 	public Vector3f getLeftLightDirection() {
 		return leftLightTarget.getWorldTranslation().subtract(getLeftLightPosition());
 	}
+	
+	public Vector3f getLeftLightDirection(Vector3f store) {
+		return leftLightTarget.getWorldTranslation().subtract(getLeftLightPosition(), store);
+	}
 
 	private Geometry rightLightSource;
 	public Vector3f getRightLightPosition() {
@@ -88,6 +92,10 @@ public class CarModelLoader
 	public Vector3f getRightLightDirection() {
 		return rightLightTarget.getWorldTranslation().subtract(getRightLightPosition());
 	}
+	
+	public Vector3f getRightLightDirection(Vector3f store) {
+		return rightLightTarget.getWorldTranslation().subtract(getRightLightPosition(), store);
+	}
 
 	
 	public CarModelLoader(Simulator sim, String modelPath, float mass)
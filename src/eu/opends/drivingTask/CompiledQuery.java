@@ -0,0 +1,373 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.drivingTask;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * XPath query compiled for repeated evaluation. Absolute location paths
+ * consisting of child steps with optional position (and an optional
+ * attribute as last step), e.g.
+ * <pre>
+ * /scene:scene/scene:models/scene:model[3]/@id
+ * </pre>
+ * are evaluated by walking the DOM directly, as the JAXP implementation
+ * builds a new document table for every evaluation. All other queries
+ * are evaluated by a compiled XPathExpression. Instances are not
+ * thread-safe.
+ *
+ * Queries are compiled from templates (cf. getTemplate()), in which all
+ * positions "[n]" are replaced by "[]" and passed at evaluation instead,
+ * so e.g. the queries of all models share one compiled query:
+ * <pre>
+ * /scene:scene/scene:models/scene:model[]/@id
+ * </pre>
+ *
+ * @author Rafael Math
+ */
+class CompiledQuery
+{
+	private static final Pattern elementStepPattern =
+			Pattern.compile("(?:([\\w.-]+):)?([\\w.-]+)(\\[\\])?");
+	private static final Pattern attributeStepPattern = Pattern.compile("@([\\w.-]+)");
+
+	// simple location path (parameterIndex: index of position parameter or -1)
+	private boolean isLocationPath = false;
+	private String[] namespaces;
+	private String[] localNames;
+	private int[] parameterIndex;
+	private int numberOfParameters = 0;
+	private String attributeName = null;
+
+	// any other query
+	private XPathExpression expression = null;
+
+
+	/**
+	 * Positions "[n]" extracted from a query by getTemplate().
+	 */
+	static class Parameters
+	{
+		private int[] values = new int[8];
+		private int count = 0;
+
+
+		private void add(int value)
+		{
+			if(count == values.length)
+				values = Arrays.copyOf(values, 2 * count);
+			values[count++] = value;
+		}
+
+
+		public int getCount()
+		{
+			return count;
+		}
+	}
+
+
+	/**
+	 * Compiles the given query template. Templates containing positions
+	 * "[]" can only be compiled if they are simple location paths; for any
+	 * other query, the query itself (incl. positions) has to be compiled
+	 * (cf. isCompiled()).
+	 *
+	 * @param template
+	 * 			absolute XPath query as returned by getTemplate()
+	 *
+	 * @param xpath
+	 * 			XPath object (incl. namespace context) to compile queries
+	 * 			that are no simple location paths
+	 *
+	 * @throws XPathExpressionException
+	 * 			if query is invalid
+	 */
+	public CompiledQuery(String template, XPath xpath) throws XPathExpressionException
+	{
+		isLocationPath = parseLocationPath(template, xpath.getNamespaceContext());
+		if(!isLocationPath && !template.contains("[]"))
+			expression = xpath.compile(template);
+	}
+
+
+	/**
+	 * Replaces all positions "[n]" of the given query by "[]".
+	 *
+	 * @param query
+	 * 			XPath query
+	 *
+	 * @param parameters
+	 * 			receives the positions in order of appearance
+	 *
+	 * @return
+	 * 			template of the query (the query itself if it contains no
+	 * 			positions)
+	 */
+	public static String getTemplate(String query, Parameters parameters)
+	{
+		parameters.count = 0;
+
+		StringBuilder template = null;
+		int copied = 0;
+		int length = query.length();
+
+		for(int i=0; i<length; i++)
+		{
+			if(query.charAt(i) != '[')
+				continue;
+
+			// position: 1 to 9 digits without leading zero
+			int end = i + 1;
+			int value = 0;
+			while(end < length && end - i <= 9 && query.charAt(end) >= '0' && query.charAt(end) <= '9')
+				value = 10 * value + (query.charAt(end++) - '0');
+
+			if(end == i + 1 || end == length || query.charAt(end) != ']' || query.charAt(i+1) == '0')
+				continue;
+
+			if(template == null)
+				template = new StringBuilder(length);
+
+			template.append(query, copied, i + 1).append(']');
+			parameters.add(value);
+			copied = end + 1;
+			i = end;
+		}
+
+		if(template == null)
+			return query;
+
+		return template.append(query, copied, length).toString();
+	}
+
+
+	/**
+	 * @return
+	 * 			false, if the template contains positions but is no simple
+	 * 			location path (the query itself has to be compiled)
+	 */
+	public boolean isCompiled()
+	{
+		return isLocationPath || expression != null;
+	}
+
+
+	private boolean parseLocationPath(String query, NamespaceContext namespaceContext)
+	{
+		if(!query.startsWith("/") || query.endsWith("/"))
+			return false;
+
+		String[] steps = query.substring(1).split("/");
+		int numberOfElementSteps = steps.length;
+
+		Matcher attributeMatcher = attributeStepPattern.matcher(steps[steps.length-1]);
+		if(attributeMatcher.matches())
+		{
+			attributeName = attributeMatcher.group(1);
+			numberOfElementSteps--;
+		}
+
+		if(numberOfElementSteps < 1)
+			return false;
+
+		namespaces = new String[numberOfElementSteps];
+		localNames = new String[numberOfElementSteps];
+		parameterIndex = new int[numberOfElementSteps];
+		numberOfParameters = 0;
+
+		for(int i=0; i<numberOfElementSteps; i++)
+		{
+			Matcher elementMatcher = elementStepPattern.matcher(steps[i]);
+			if(!elementMatcher.matches())
+				return false;
+
+			String prefix = elementMatcher.group(1);
+			if(prefix == null)
+				namespaces[i] = XMLConstants.NULL_NS_URI;
+			else
+			{
+				namespaces[i] = namespaceContext.getNamespaceURI(prefix);
+				if(namespaces[i] == null || namespaces[i].equals(XMLConstants.NULL_NS_URI))
+					return false;
+			}
+
+			localNames[i] = elementMatcher.group(2);
+			parameterIndex[i] = (elementMatcher.group(3) != null) ? numberOfParameters++ : -1;
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Evaluates the query on the given document.
+	 *
+	 * @param document
+	 * 			document to query
+	 *
+	 * @param parameters
+	 * 			positions extracted from the query by getTemplate()
+	 *
+	 * @param returnType
+	 * 			XPathConstants.STRING, NODE, NODESET (or any other XPath
+	 * 			return type)
+	 *
+	 * @return
+	 * 			result of the given return type
+	 *
+	 * @throws XPathExpressionException
+	 * 			if evaluation failed
+	 */
+	public Object evaluate(Document document, Parameters parameters, QName returnType) 
+			throws XPathExpressionException
+	{
+		if(expression != null)
+			return expression.evaluate(document, returnType);
+
+		if(!isLocationPath || parameters.count != numberOfParameters)
+			throw new XPathExpressionException("Template cannot be evaluated with the given parameters");
+
+		if(returnType.equals(XPathConstants.NODESET))
+		{
+			NodeArrayList result = new NodeArrayList();
+			collect(document, 0, parameters.values, result, false);
+			return result;
+		}
+
+		NodeArrayList result = new NodeArrayList();
+		collect(document, 0, parameters.values, result, true);
+		Node node = (result.getLength() > 0) ? result.item(0) : null;
+
+		if(returnType.equals(XPathConstants.NODE))
+			return node;
+
+		if(returnType.equals(XPathConstants.STRING))
+			return (node != null) ? node.getTextContent() : "";
+
+		throw new XPathExpressionException("Unsupported return type: " + returnType);
+	}
+
+
+	/**
+	 * Adds all nodes matching the steps from the given index on to the
+	 * result (in document order).
+	 *
+	 * @return
+	 * 			true if search was stopped after the first match
+	 */
+	private boolean collect(Node context, int step, int[] parameters, NodeArrayList result, boolean firstOnly)
+	{
+		if(step == localNames.length)
+		{
+			Node node = context;
+			if(attributeName != null)
+			{
+				node = ((Element) context).getAttributeNode(attributeName);
+				if(node == null)
+					return false;
+			}
+
+			result.add(node);
+			return firstOnly;
+		}
+
+		int position = (parameterIndex[step] < 0) ? 0 : parameters[parameterIndex[step]];
+		int count = 0;
+		for(Node child = context.getFirstChild(); child != null; child = child.getNextSibling())
+		{
+			if(matches(child, step))
+			{
+				count++;
+				if(position == 0)
+				{
+					if(collect(child, step+1, parameters, result, firstOnly))
+						return true;
+				}
+				else if(count == position)
+					return collect(child, step+1, parameters, result, firstOnly);
+			}
+		}
+
+		return false;
+	}
+
+
+	private boolean matches(Node node, int step)
+	{
+		if(node.getNodeType() != Node.ELEMENT_NODE)
+			return false;
+
+		String localName = node.getLocalName();
+		if(localName == null)
+			localName = node.getNodeName();
+
+		String namespace = node.getNamespaceURI();
+		if(namespace == null)
+			namespace = XMLConstants.NULL_NS_URI;
+
+		return localName.equals(localNames[step]) && namespace.equals(namespaces[step]);
+	}
+
+
+	/**
+	 * Result of a node set query
+	 */
+	private static class NodeArrayList implements NodeList
+	{
+		private List<Node> nodeList = new ArrayList<Node>();
+
+
+		private void add(Node node)
+		{
+			nodeList.add(node);
+		}
+
+
+		@Override
+		public Node item(int index)
+		{
+			return (index >= 0 && index < nodeList.size()) ? nodeList.get(index) : null;
+		}
+
+
+		@Override
+		public int getLength()
+		{
+			return nodeList.size();
+		}
+	}
+}
@@ -25,8 +25,11 @@ import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.InvalidPropertiesFormatException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -40,7 +43,6 @@ import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.SchemaFactory;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 
@@ -57,6 +59,10 @@ import com.jme3.math.Vector3f;
 import eu.opends.traffic.Waypoint;
 
 /**
+ * Query interface to the scene, scenario, interaction and settings files of
+ * a driving task. As loading a driving task issues thousands of queries, 
+ * every query template is compiled only once per thread (cf. CompiledQuery) 
+ * and results are converted by typed converters rather than by reflection.
  *
  * @author Biasutti, Rafael Math
  */
@@ -76,6 +82,82 @@ public class DrivingTaskDataQuery
     private Document settings;
     private boolean verbose = true;
 	private boolean isValid = false;
+	
+	// compiled queries of this driving task, one cache per thread (XPath objects and 
+	// compiled queries are not thread-safe). Queries are cached by template (positions 
+	// "[n]" removed, cf. CompiledQuery), so the number of compiled queries is about the 
+	// number of distinct element paths of the driving task (usually a few hundred) and 
+	// all further queries are cache hits.
+	private static final int MAX_CACHED_QUERIES = 4096;
+	private static final NamespaceContext namespaceContext = new DrivingTaskNamespaceContext();
+	private final ThreadLocal<QueryCache> queryCache = new ThreadLocal<QueryCache>()
+	{
+		@Override
+		protected QueryCache initialValue()
+		{
+			return new QueryCache();
+		}
+	};
+	
+	
+	/**
+	 * Compiled queries of one thread, least recently used ones are dropped.
+	 */
+	private static class QueryCache extends LinkedHashMap<String, CompiledQuery>
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private XPath xPath = XPathFactory.newInstance().newXPath();
+		private CompiledQuery.Parameters parameters = new CompiledQuery.Parameters();
+		private int numberOfQueries = 0;
+		private int numberOfCompiledQueries = 0;
+		
+		
+		private QueryCache()
+		{
+			super(256, 0.75f, true);
+			xPath.setNamespaceContext(namespaceContext);
+		}
+		
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CompiledQuery> eldest)
+		{
+			return size() > MAX_CACHED_QUERIES;
+		}
+	}
+	
+	
+	/**
+	 * Converts the string value of a query result to the requested type.
+	 */
+	private static interface Converter<T>
+	{
+		public T convert(String value) throws Exception;
+	}
+	
+	private static final Map<Class<?>, Converter<?>> converterMap = new ConcurrentHashMap<Class<?>, Converter<?>>();
+	static
+	{
+		converterMap.put(String.class, new Converter<String>() {
+			public String convert(String value) { return value; }
+		});
+		converterMap.put(Float.class, new Converter<Float>() {
+			public Float convert(String value) { return Float.valueOf(value); }
+		});
+		converterMap.put(Integer.class, new Converter<Integer>() {
+			public Integer convert(String value) { return Integer.valueOf(value); }
+		});
+		converterMap.put(Boolean.class, new Converter<Boolean>() {
+			public Boolean convert(String value) { return Boolean.valueOf(value); }
+		});
+		converterMap.put(Double.class, new Converter<Double>() {
+			public Double convert(String value) { return Double.valueOf(value); }
+		});
+		converterMap.put(Long.class, new Converter<Long>() {
+			public Long convert(String value) { return Long.valueOf(value); }
+		});
+	}
     
     
     public static enum Layer 
@@ -221,10 +303,11 @@ public class DrivingTaskDataQuery
 			NodeList arrayNodes = (NodeList) xPathQuery(layer, 
 					path + "/" + layer + ":vector/" + layer + ":entry", XPathConstants.NODESET);
 
+			Converter<T> converter = getConverter(cast);
 			List<T> array = new ArrayList<T>(arrayNodes.getLength());
 			
-			for (int k = 1; k <= arrayNodes.getLength(); k++) 
-				array.add(getValue(layer, path + "/" + layer + ":vector/" + layer + ":entry["+k+"]", cast));
+			for (int k = 0; k < arrayNodes.getLength(); k++)
+				array.add(convert(arrayNodes.item(k).getTextContent(), converter));
 
 			return array;
 			
@@ -236,14 +319,38 @@ public class DrivingTaskDataQuery
 	}
 	
 	
+	/**
+	 * Looks up the entries of the vector at the given path with a single 
+	 * query (instead of one query per entry).
+	 * 
+	 * @return
+	 * 			entries or null if less than numberOfEntries entries available
+	 */
+	private float[] getFloatEntries(Layer layer, String path, int numberOfEntries)
+	{
+		NodeList entryNodes = (NodeList) xPathQuery(layer, 
+				path + "/" + layer + ":vector/" + layer + ":entry", XPathConstants.NODESET);
+		
+		if(entryNodes == null || entryNodes.getLength() < numberOfEntries)
+			return null;
+		
+		float[] entries = new float[numberOfEntries];
+		for(int i=0; i<numberOfEntries; i++)
+			entries[i] = Float.parseFloat(entryNodes.item(i).getTextContent());
+		
+		return entries;
+	}
+	
+	
 	public Vector3f getVector3f(Layer layer, String path) 
 	{		
 		try {
 				
-			float x = getValue(layer, path + "/" + layer + ":vector/" + layer + ":entry[1]", Float.class);
-			float y = getValue(layer, path + "/" + layer + ":vector/" + layer + ":entry[2]", Float.class);
-			float z = getValue(layer, path + "/" + layer + ":vector/" + layer + ":entry[3]", Float.class);
-			return new Vector3f(x,y,z);
+			float[] entries = getFloatEntries(layer, path, 3);
+			if(entries == null)
+				return null;
+			
+			return new Vector3f(entries[0], entries[1], entries[2]);
 			
 		} catch (Exception e) {
 			
@@ -257,11 +364,11 @@ public class DrivingTaskDataQuery
 	{
 		try {
 			
-			float r = getValue(layer, path + "/" + layer + ":vector/" + layer + ":entry[1]", Float.class);
-			float g = getValue(layer, path + "/" + layer + ":vector/" + layer + ":entry[2]", Float.class);
-			float b = getValue(layer, path + "/" + layer + ":vector/" + layer + ":entry[3]", Float.class);
-			float a = getValue(layer, path + "/" + layer + ":vector/" + layer + ":entry[4]", Float.class);
-			return new ColorRGBA(r,g,b,a);
+			float[] entries = getFloatEntries(layer, path, 4);
+			if(entries == null)
+				return null;
+			
+			return new ColorRGBA(entries[0], entries[1], entries[2], entries[3]);
 			
 		} catch (Exception e) {
 			
@@ -281,11 +388,11 @@ public class DrivingTaskDataQuery
 		{
 			try {
 				
-				float x = getValue(layer, path + "/" + layer + ":vector/" + layer + ":entry[1]", Float.class);
-				float y = getValue(layer, path + "/" + layer + ":vector/" + layer + ":entry[2]", Float.class);
-				float z = getValue(layer, path + "/" + layer + ":vector/" + layer + ":entry[3]", Float.class);
-				float w = getValue(layer, path + "/" + layer + ":vector/" + layer + ":entry[4]", Float.class);
-				return new Quaternion(x,y,z,w);
+				float[] entries = getFloatEntries(layer, path, 4);
+				if(entries == null)
+					return null;
+				
+				return new Quaternion(entries[0], entries[1], entries[2], entries[3]);
 				
 			} catch (Exception e) {
 				
@@ -297,9 +404,13 @@ public class DrivingTaskDataQuery
 		{
 			try {
 					
-				float yaw = degToRad(getValue(layer, path + "/" + layer + ":vector/" + layer + ":entry[1]", Float.class));
-				float roll = degToRad(getValue(layer, path + "/" + layer + ":vector/" + layer + ":entry[2]", Float.class));
-				float pitch = degToRad(getValue(layer, path + "/" + layer + ":vector/" + layer + ":entry[3]", Float.class));
+				float[] entries = getFloatEntries(layer, path, 3);
+				if(entries == null)
+					return null;
+				
+				float yaw = degToRad(entries[0]);
+				float roll = degToRad(entries[1]);
+				float pitch = degToRad(entries[2]);
 				return new Quaternion().fromAngles(yaw, roll, pitch);
 				
 			} catch (Exception e) {
@@ -342,10 +453,9 @@ public class DrivingTaskDataQuery
      * @param <T> return type
      * @param query the XPath query
      * @param layer the driving task layer DrivingTaskDataQuery.Layer
-     * @param cast result will be casted to the class
-     * @return the casted XPath query result
+     * @param cast result will be converted to the class
+     * @return the converted XPath query result
      */
-    @SuppressWarnings("unchecked")
 	public <T> T getValue(Layer layer, String query, Class<T> cast)
     {
         try {
@@ -358,33 +468,53 @@ public class DrivingTaskDataQuery
                 System.out.println("Result: " + stringValue);
             }
             
-            Constructor<T> constructor = cast.getConstructor(String.class);
-            Object obj = constructor.newInstance(stringValue);
-            return (T) obj;
+            return convert(stringValue, getConverter(cast));
 
         } catch (Exception ex) {
             //Logger.getLogger(DrivingTaskDataQuery.class.getName()).log(Level.SEVERE, null, ex);
         	return null;
         }
     }
+	
+	
+	private static <T> T convert(String value, Converter<T> converter)
+	{
+		try {
+			return converter.convert(value);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+    
+	
+	/**
+	 * Returns the converter for the given class. Types without a predefined
+	 * converter are created by their String constructor (looked up once).
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> Converter<T> getConverter(final Class<T> cast) throws NoSuchMethodException
+	{
+		Converter<T> converter = (Converter<T>) converterMap.get(cast);
+		if(converter == null)
+		{
+			final Constructor<T> constructor = cast.getConstructor(String.class);
+			converter = new Converter<T>() {
+				public T convert(String value) throws Exception { return constructor.newInstance(value); }
+			};
+			converterMap.put(cast, converter);
+		}
+		return converter;
+	}
     
 	
 	public Object xPathQuery(Layer layer, String query, QName xPathConst) 
     {
         try {
 
-            final XPath xpath = XPathFactory.newInstance().newXPath();
-            
-            NamespaceContext nsContext = new DrivingTaskNamespaceContext();
-            xpath.setNamespaceContext(nsContext);
-
-            if (!query.startsWith("/")) {
-                query = "/" + layer.toString() + ":" + layer.toString() + "/" + query;
-            }
-
-            final XPathExpression expr = xpath.compile(query);
+            QueryCache cache = queryCache.get();
+            CompiledQuery compiledQuery = getCompiledQuery(cache, layer, query);
             Document document = lookUpSource(layer);
-            return expr.evaluate(document, xPathConst);
+            return compiledQuery.evaluate(document, cache.parameters, xPathConst);
 
         } catch (XPathExpressionException ex) {
             Logger.getLogger(DrivingTaskDataQuery.class.getName()).log(Level.SEVERE, null, ex);
@@ -394,6 +524,62 @@ public class DrivingTaskDataQuery
     }
 	
 	
+	/**
+	 * Returns the compiled version of the given query. Each query template 
+	 * is compiled only once per thread (as long as it is among the 
+	 * MAX_CACHED_QUERIES most recently used ones). The positions of the 
+	 * query are stored to the parameters of the cache.
+	 */
+	private static CompiledQuery getCompiledQuery(QueryCache cache, Layer layer, String query) 
+			throws XPathExpressionException
+	{
+		if (!query.startsWith("/")) {
+			query = "/" + layer.toString() + ":" + layer.toString() + "/" + query;
+		}
+		
+		cache.numberOfQueries++;
+		
+		String template = CompiledQuery.getTemplate(query, cache.parameters);
+		CompiledQuery compiledQuery = cache.get(template);
+		if(compiledQuery == null)
+		{
+			compiledQuery = new CompiledQuery(template, cache.xPath);
+			cache.put(template, compiledQuery);
+			cache.numberOfCompiledQueries++;
+		}
+		
+		if(compiledQuery.isCompiled())
+			return compiledQuery;
+		
+		// positions in a query that is no simple location path --> cache query itself
+		compiledQuery = cache.get(query);
+		if(compiledQuery == null)
+		{
+			compiledQuery = new CompiledQuery(query, cache.xPath);
+			cache.put(query, compiledQuery);
+			cache.numberOfCompiledQueries++;
+		}
+		return compiledQuery;
+	}
+	
+	
+	/**
+	 * Share of queries of the calling thread that were answered by an already
+	 * compiled query (cf. getCompiledQuery()).
+	 * 
+	 * @return
+	 * 			hit rate of the query cache (0 .. 1)
+	 */
+	float getQueryCacheHitRate()
+	{
+		QueryCache cache = queryCache.get();
+		if(cache.numberOfQueries == 0)
+			return 0;
+		
+		return 1f - cache.numberOfCompiledQueries / (float) cache.numberOfQueries;
+	}
+	
+	
 	private Document lookUpSource(Layer layer) 
 	{
 		Document source;
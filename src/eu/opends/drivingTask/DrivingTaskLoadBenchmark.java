@@ -0,0 +1,284 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.drivingTask;
+
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import eu.opends.drivingTask.DrivingTaskDataQuery.Layer;
+import eu.opends.drivingTask.settings.SettingsLoader;
+
+/**
+ * Measures the load time of a driving task: parsing and validation of the
+ * four files, loading of the settings and a query pass over every element
+ * of every layer (the way scene, scenario and interaction loader query
+ * values, vectors and attributes). The query pass is run several times,
+ * both by DrivingTaskDataQuery (the first run includes the compilation of
+ * all queries) and by plain JAXP as before compiled queries were
+ * introduced (new XPath object and expression for every query).
+ *
+ * Before measuring, every query (plus the same query without position of
+ * the last step) is evaluated both ways and the results are compared. If
+ * any result differs, the benchmark exits with status 1.
+ *
+ * Usage: DrivingTaskLoadBenchmark &lt;driving task file&gt; [number of runs]
+ *
+ * @author Rafael Math
+ */
+public class DrivingTaskLoadBenchmark
+{
+	private static enum Mode
+	{
+		COMPILED, JAXP, VERIFY
+	}
+
+	private static final int MAX_REPORTED_MISMATCHES = 10;
+
+	private static DrivingTaskNamespaceContext namespaceContext = new DrivingTaskNamespaceContext();
+	private static int numberOfQueries;
+	private static int numberOfMismatches;
+
+
+	public static void main(String[] args) throws Exception
+	{
+		if(args.length < 1)
+		{
+			System.err.println("Usage: DrivingTaskLoadBenchmark <driving task file> [number of runs]");
+			return;
+		}
+
+		String path = args[0];
+		int runs = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+
+		long start = System.nanoTime();
+		DrivingTaskDataQuery dtData = new DrivingTaskDataQuery(path);
+		long parseTime = System.nanoTime() - start;
+
+		if(!dtData.isValidDrivingTask())
+		{
+			System.err.println("File is not a valid driving task: " + path);
+			return;
+		}
+
+		System.out.println("Parse and validate: " + (parseTime / 1000000) + " ms");
+
+		start = System.nanoTime();
+		new SettingsLoader(dtData);
+		System.out.println("Settings loader:    " + ((System.nanoTime() - start) / 1000000) + " ms");
+
+		// compare results of compiled queries and JAXP
+		numberOfQueries = 0;
+		numberOfMismatches = 0;
+		runQueryPass(dtData, Mode.VERIFY);
+		System.out.println("Verification:       " + numberOfQueries + " queries, " 
+				+ numberOfMismatches + " mismatches");
+
+		for(int i=1; i<=runs; i++)
+		{
+			long jaxpTime = runQueryPass(dtData, Mode.JAXP);
+			long compiledTime = runQueryPass(dtData, Mode.COMPILED);
+
+			System.out.println("Query run " + i + ":        " + numberOfQueries + " queries, JAXP " 
+					+ (jaxpTime / 1000000) + " ms (" + (jaxpTime / Math.max(1, numberOfQueries) / 1000) 
+					+ " us/query), compiled " + (compiledTime / 1000000) + " ms (" 
+					+ (compiledTime / Math.max(1, numberOfQueries) / 1000) + " us/query), speedup " 
+					+ (jaxpTime / (float) Math.max(1, compiledTime)));
+		}
+
+		System.out.println("Query cache hit rate: " + (100 * dtData.getQueryCacheHitRate()) + " %");
+
+		if(numberOfMismatches > 0)
+		{
+			System.out.println("FAILED: compiled queries differ from JAXP");
+			System.exit(1);
+		}
+	}
+
+
+	private static long runQueryPass(DrivingTaskDataQuery dtData, Mode mode) throws XPathExpressionException
+	{
+		numberOfQueries = 0;
+		long start = System.nanoTime();
+
+		for(Layer layer : Layer.values())
+		{
+			Document document = getDocument(dtData, layer);
+			Element root = document.getDocumentElement();
+			queryChildren(dtData, document, layer, root, "/" + layer + ":" + layer, mode);
+		}
+
+		return System.nanoTime() - start;
+	}
+
+
+	private static Document getDocument(DrivingTaskDataQuery dtData, Layer layer)
+	{
+		switch(layer)
+		{
+			case SCENE : return dtData.getScene();
+			case SCENARIO : return dtData.getScenario();
+			case INTERACTION : return dtData.getInteraction();
+			default : return dtData.getSettings();
+		}
+	}
+
+
+	private static void queryChildren(DrivingTaskDataQuery dtData, Document document, Layer layer, 
+			Element parent, String parentPath, Mode mode) throws XPathExpressionException
+	{
+		for(Node child = parent.getFirstChild(); child != null; child = child.getNextSibling())
+		{
+			if(child.getNodeType() != Node.ELEMENT_NODE)
+				continue;
+
+			Element element = (Element) child;
+			String name = getQualifiedName(element, layer);
+			if(name == null)
+				continue;
+
+			String path = parentPath + "/" + name + "[" + getPosition(element) + "]";
+
+			// the way the loaders query elements (cf. hasChild(), getVector3f(), getValue())
+			if(query(dtData, document, layer, path + "/" + layer + ":vector", XPathConstants.NODE, mode) != null)
+				query(dtData, document, layer, path + "/" + layer + ":vector/" + layer + ":entry", 
+						XPathConstants.NODESET, mode);
+			else if(!hasElementChildren(element))
+				query(dtData, document, layer, path, XPathConstants.STRING, mode);
+
+			for(int i=0; i<element.getAttributes().getLength(); i++)
+			{
+				Node attribute = element.getAttributes().item(i);
+				if(attribute.getNamespaceURI() == null)
+					query(dtData, document, layer, path + "/@" + attribute.getNodeName(), 
+							XPathConstants.STRING, mode);
+			}
+
+			// all elements of the same name (first one only for NODE and STRING)
+			if(mode == Mode.VERIFY)
+			{
+				query(dtData, document, layer, parentPath + "/" + name, XPathConstants.NODESET, mode);
+				query(dtData, document, layer, parentPath + "/" + name, XPathConstants.NODE, mode);
+				query(dtData, document, layer, parentPath + "/" + name, XPathConstants.STRING, mode);
+			}
+
+			queryChildren(dtData, document, layer, element, path, mode);
+		}
+	}
+
+
+	private static Object query(DrivingTaskDataQuery dtData, Document document, Layer layer, 
+			String query, QName returnType, Mode mode) throws XPathExpressionException
+	{
+		numberOfQueries++;
+
+		if(mode == Mode.COMPILED)
+			return dtData.xPathQuery(layer, query, returnType);
+
+		Object jaxpResult = evaluateJAXP(document, query, returnType);
+		if(mode == Mode.JAXP)
+			return jaxpResult;
+
+		Object compiledResult = dtData.xPathQuery(layer, query, returnType);
+		if(!isEqual(compiledResult, jaxpResult))
+		{
+			if(numberOfMismatches < MAX_REPORTED_MISMATCHES)
+				System.out.println("Mismatch (" + returnType.getLocalPart() + "): " + query);
+			numberOfMismatches++;
+		}
+
+		return jaxpResult;
+	}
+
+
+	private static Object evaluateJAXP(Document document, String query, QName returnType) 
+			throws XPathExpressionException
+	{
+		XPath xpath = XPathFactory.newInstance().newXPath();
+		xpath.setNamespaceContext(new DrivingTaskNamespaceContext());
+		return xpath.compile(query).evaluate(document, returnType);
+	}
+
+
+	private static boolean isEqual(Object result1, Object result2)
+	{
+		if(result1 == null || result2 == null)
+			return result1 == result2;
+
+		if(result1 instanceof NodeList && result2 instanceof NodeList)
+		{
+			NodeList list1 = (NodeList) result1;
+			NodeList list2 = (NodeList) result2;
+			if(list1.getLength() != list2.getLength())
+				return false;
+
+			for(int i=0; i<list1.getLength(); i++)
+				if(list1.item(i) != list2.item(i))
+					return false;
+
+			return true;
+		}
+
+		// strings by value, nodes by identity
+		return result1.equals(result2);
+	}
+
+
+	private static String getQualifiedName(Element element, Layer layer)
+	{
+		String localName = element.getLocalName();
+		String namespace = element.getNamespaceURI();
+
+		if(namespace == null)
+			return localName;
+		else if(layer.toString().equals(namespaceContext.getPrefix(namespace)))
+			return layer + ":" + localName;
+		else
+			return null;
+	}
+
+
+	private static int getPosition(Element element)
+	{
+		int position = 1;
+		for(Node sibling = element.getPreviousSibling(); sibling != null; sibling = sibling.getPreviousSibling())
+		{
+			if(sibling.getNodeType() == Node.ELEMENT_NODE && sibling.getLocalName() != null
+					&& sibling.getLocalName().equals(element.getLocalName()))
+				position++;
+		}
+		return position;
+	}
+
+
+	private static boolean hasElementChildren(Element element)
+	{
+		for(Node child = element.getFirstChild(); child != null; child = child.getNextSibling())
+			if(child.getNodeType() == Node.ELEMENT_NODE)
+				return true;
+		return false;
+	}
+}
@@ -512,41 +512,12 @@ public class ScenarioLoader
 	
 	public void extractIdealLine()
 	{
-		List<Vector3f> idealPoints = new ArrayList<Vector3f>();
-		
 		try {
 			
-			NodeList pointNodes = (NodeList) dtData.xPathQuery(Layer.SCENARIO, 
-					"/scenario:scenario/scenario:driver/scenario:idealTrack/scenario:point", XPathConstants.NODESET);
-
-			for (int k = 1; k <= pointNodes.getLength(); k++) 
-			{
-				Vector3f point = dtData.getVector3f(Layer.SCENARIO, 
-						"/scenario:scenario/scenario:driver/scenario:idealTrack/scenario:point["+k+"]/scenario:translation");
-				
-				String pointRef = dtData.getValue(Layer.SCENARIO, 
-						"/scenario:scenario/scenario:driver/scenario:idealTrack/scenario:point["+k+"]/@ref", String.class);
-
-				Map<String, Vector3f> pointMap = sceneLoader.getPointMap();
-				
-				if(point != null)
-				{
-					idealPoints.add(point);
-				}
-				else if((pointRef != null) && (pointMap.containsKey(pointRef)))
-				{
-					Vector3f translation = pointMap.get(pointRef);
-					idealPoints.add(translation);
-				}
-				else 
-					throw new Exception("Error in ideal point list");
-			}
+			List<Vector2f> idealPoints = readIdealLine(dtData, sceneLoader.getPointMap());
 			
-			for(Vector3f idealPoint : idealPoints)
-			{
-				Vector2f idealPoint2f = new Vector2f(idealPoint.getX(), idealPoint.getZ());
-				((DriveAnalyzer) sim).getDeviationComputer().addIdealPoint(idealPoint2f);
-			}
+			for(Vector2f idealPoint : idealPoints)
+				((DriveAnalyzer) sim).getDeviationComputer().addIdealPoint(idealPoint);
 			
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -554,6 +525,72 @@ public class ScenarioLoader
 	}
 	
 	
+	/**
+	 * Returns the ideal line of the driver (x- and z-coordinates).
+	 * 
+	 * @return
+	 * 			ideal points in the given order (empty, if no or an invalid 
+	 * 			ideal line was specified)
+	 */
+	public List<Vector2f> getIdealLine()
+	{
+		try {
+			
+			return readIdealLine(dtData, sceneLoader.getPointMap());
+			
+		} catch (Exception e) {
+			e.printStackTrace();
+			return new ArrayList<Vector2f>();
+		}
+	}
+	
+	
+	/**
+	 * Reads the ideal line of the driver as list of two-dimensional points 
+	 * (x- and z-coordinate). Does not need a running simulator, e.g. for 
+	 * batch analysis.
+	 * 
+	 * @param dtData
+	 * 			driving task to read the ideal line from
+	 * 
+	 * @param pointMap
+	 * 			points of the scene layer (for resolving references)
+	 * 
+	 * @return
+	 * 			ideal points in the given order
+	 * 
+	 * @throws Exception
+	 * 			if a point can neither be read nor resolved
+	 */
+	public static List<Vector2f> readIdealLine(DrivingTaskDataQuery dtData, 
+			Map<String, Vector3f> pointMap) throws Exception
+	{
+		List<Vector2f> idealPoints = new ArrayList<Vector2f>();
+		
+		NodeList pointNodes = (NodeList) dtData.xPathQuery(Layer.SCENARIO, 
+				"/scenario:scenario/scenario:driver/scenario:idealTrack/scenario:point", XPathConstants.NODESET);
+
+		for (int k = 1; k <= pointNodes.getLength(); k++) 
+		{
+			Vector3f point = dtData.getVector3f(Layer.SCENARIO, 
+					"/scenario:scenario/scenario:driver/scenario:idealTrack/scenario:point["+k+"]/scenario:translation");
+			
+			String pointRef = dtData.getValue(Layer.SCENARIO, 
+					"/scenario:scenario/scenario:driver/scenario:idealTrack/scenario:point["+k+"]/@ref", String.class);
+			
+			if(point == null && (pointRef != null) && (pointMap.containsKey(pointRef)))
+				point = pointMap.get(pointRef);
+			
+			if(point != null)
+				idealPoints.add(new Vector2f(point.getX(), point.getZ()));
+			else 
+				throw new Exception("Error in ideal point list");
+		}
+		
+		return idealPoints;
+	}
+	
+	
 	public WeatherSettings getWeatherSettings()
 	{
 		Float snowingPercentage = dtData.getValue(Layer.SCENARIO, 
@@ -897,30 +897,38 @@ public class SceneLoader
 
 	public void getPoints()
 	{	
+		readPoints(dtData, pointMap);
+	}
+	
+	
+	/**
+	 * Reads all points of the scene layer into the given map (id --> 
+	 * translation). Does not need a running simulator, e.g. for batch 
+	 * analysis.
+	 * 
+	 * @param dtData
+	 * 			driving task to read the points from
+	 * 
+	 * @param pointMap
+	 * 			map to store the points in
+	 */
+	public static void readPoints(DrivingTaskDataQuery dtData, Map<String, Vector3f> pointMap)
+	{
 		NodeList pointNodes = (NodeList) dtData.xPathQuery(Layer.SCENE, 
 				"/scene:scene/scene:geometries/scene:point", XPathConstants.NODESET);
 
 		for (int k = 1; k <= pointNodes.getLength(); k++) 
 		{
-			String pointID = dtData.getValue(Layer.SCENE, 
-					"/scene:scene/scene:geometries/scene:point" + "["+k+"]/@id", String.class);
+			String path = "/scene:scene/scene:geometries/scene:point" + "["+k+"]";
+			String id = dtData.getValue(Layer.SCENE, path + "/@id", String.class);
+			Vector3f translation = dtData.getVector3f(Layer.SCENE, path + "/scene:translation");
 
-			if(pointID != null)
-				addPoint("/scene:scene/scene:geometries/scene:point" + "["+k+"]");
+			if((id != null) && (translation != null))
+				pointMap.put(id, translation);
 		}
 	}
 	
 	
-	private void addPoint(String path) 
-	{
-		String id = dtData.getValue(Layer.SCENE, path + "/@id", String.class);
-		Vector3f translation = dtData.getVector3f(Layer.SCENE, path + "/scene:translation");
-
-		if((id != null) && (translation != null))
-			pointMap.put(id, translation);
-	}
-	
-	
 	public void getResetPoints()
 	{	
 		NodeList pointNodes = (NodeList) dtData.xPathQuery(Layer.SCENE, 
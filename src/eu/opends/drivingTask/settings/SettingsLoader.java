@@ -57,6 +57,10 @@ public class SettingsLoader
 		General_showDigitalIndicators("settings:general/settings:showDigitalIndicators"),
 		General_showFuelConsumption("settings:general/settings:showFuelConsumption"),
 		Analyzer_suppressPDFPopup("settings:analyzer/settings:suppressPDFPopup"),
+		Analyzer_binaryFormat("settings:analyzer/settings:binaryFormat"),
+		Analyzer_samplingMode("settings:analyzer/settings:samplingMode"),
+		Analyzer_samplingRate("settings:analyzer/settings:samplingRate"),
+		Analyzer_webcamVideoContainer("settings:analyzer/settings:webcamVideoContainer"),
 		SIMTD_sendDataToHmi("settings:SIMTD/settings:sendDataToHmi"),
 		SIMTD_startGui("settings:SIMTD/settings:startGui"),
 		SIMTD_hmiNativePath("settings:SIMTD/settings:hmiNativePath"),
@@ -72,12 +76,19 @@ public class SettingsLoader
 		CANInterface_enableConnection("settings:CANInterface/settings:enableConnection"),
 		CANInterface_ip("settings:CANInterface/settings:ip"),
 		CANInterface_port("settings:CANInterface/settings:port"),
+		CANInterface_localPort("settings:CANInterface/settings:localPort"),
 		CANInterface_updateRate("settings:CANInterface/settings:updateRate"),
 		CANInterface_maxSteeringAngle("settings:CANInterface/settings:maxSteeringAngle"),
+		Telemetry_enablePublisher("settings:telemetry/settings:enablePublisher"),
+		Telemetry_multicastGroup("settings:telemetry/settings:multicastGroup"),
+		Telemetry_multicastPort("settings:telemetry/settings:multicastPort"),
+		Telemetry_tcpPort("settings:telemetry/settings:tcpPort"),
+		Telemetry_updateRate("settings:telemetry/settings:updateRate"),
 		VsimrtiServer_startServer("settings:vsimrtiServer/settings:startServer"),
 		VsimrtiServer_port("settings:vsimrtiServer/settings:port"),
 		SettingsControllerServer_startServer("settings:settingsControllerServer/settings:startServer"),
 		SettingsControllerServer_port("settings:settingsControllerServer/settings:port"),
+		Traffic_kinematicRadius("settings:traffic/settings:kinematicRadius"),
 		ReactionMeasurement_groupRed("settings:reactionMeasurement/settings:groupRed"),
 		ReactionMeasurement_groupYellow("settings:reactionMeasurement/settings:groupYellow"),
 		ReactionMeasurement_groupGreen("settings:reactionMeasurement/settings:groupGreen"),
@@ -56,6 +56,22 @@ public class DriveAnalyzerActionListener implements ActionListener
 			}
 		}
 		
+		else if (binding.equals(KeyMapping.JUMP_FORWARD.getID())) 
+		{
+			if (value) 
+			{
+				analyzer.jumpForward();
+			}
+		}
+		
+		else if (binding.equals(KeyMapping.JUMP_BACKWARD.getID())) 
+		{
+			if (value) 
+			{
+				analyzer.jumpBackward();
+			}
+		}
+		
 
 		else if (binding.equals(KeyMapping.TOGGLE_CAM.getID())) 
 		{
@@ -88,6 +88,8 @@ public class KeyMapping
 	public static KeyMapping GOTO_PREVIOUS_DATAPOINT = new KeyMapping("goto_previous_datapoint", "previous data point", new String[] {"DOWN"});
 	public static KeyMapping GO_FORWARD = new KeyMapping("go_forward", "move forwards", new String[] {"RIGHT"});
 	public static KeyMapping GO_BACKWARD = new KeyMapping("go_backward", "move backwards", new String[] {"LEFT"});
+	public static KeyMapping JUMP_FORWARD = new KeyMapping("jump_forward", "jump 10 seconds forward", new String[] {"PGUP"});
+	public static KeyMapping JUMP_BACKWARD = new KeyMapping("jump_backward", "jump 10 seconds backward", new String[] {"PGDN"});
 	public static KeyMapping TOGGLE_POINTS = new KeyMapping("toggle_points", "show points", new String[] {"1"});
 	public static KeyMapping TOGGLE_LINE = new KeyMapping("toggle_line", "show line", new String[] {"2"});
 	public static KeyMapping TOGGLE_CONE = new KeyMapping("toggle_cone", "show cone", new String[] {"3"});
@@ -168,6 +170,8 @@ public class KeyMapping
 		keyMappingList.add(KeyMapping.TOGGLE_CONE);
 		keyMappingList.add(KeyMapping.GOTO_NEXT_DATAPOINT);
 		keyMappingList.add(KeyMapping.GOTO_PREVIOUS_DATAPOINT);
+		keyMappingList.add(KeyMapping.JUMP_FORWARD);
+		keyMappingList.add(KeyMapping.JUMP_BACKWARD);
 		
 		SimulationBasics.getDrivingTask().getSettingsLoader().lookUpKeyMappings(keyMappingList);
 		
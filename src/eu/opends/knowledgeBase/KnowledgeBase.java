@@ -38,11 +38,11 @@ final public class KnowledgeBase extends Thread
 	public static KnowledgeBase KB = new KnowledgeBase(true, true);
 	
 	private Car car;
-	private boolean isRunning = true;
+	private volatile boolean isRunning = true;
 	private boolean connect = false;
 	private boolean fallback = true;
 	private int outgoingUpdateIntervalMsec = 100;
-	private long lastOutgoingUpdate = 0;
+	private SyncStatistics syncStatistics = new SyncStatistics();
 	private String culture = CULTURE_GERMAN;
 	private NetClient client = null;
 	private Root root = null;
@@ -198,37 +198,77 @@ final public class KnowledgeBase extends Thread
 	
 	/**
 	 * Sends information about the current vehicle status to KAPcom for use by other applications.
-	 * This may be called many times a second (update rate is limited internally).
+	 * Updates are performed at a fixed rate (see setOutgoingUpdateIntervalMillis()); only changed 
+	 * properties are sent. If an update takes longer than the interval (e.g. slow KAPcom), the 
+	 * missed updates are skipped and the next update contains the latest state.
 	 */
-	//public synchronized void sendCarData(Car car)
 	@Override
-    public void run()
+	public void run()
 	{
-		while(isRunning)
+		long interval = outgoingUpdateIntervalMsec * 1000000L;
+		long nextUpdate = System.nanoTime();
+		
+		while(isRunning && interval > 0 && isConnected())
 		{
-			if (outgoingUpdateIntervalMsec <= 0 || !isConnected()) return;
-			if (System.currentTimeMillis() - lastOutgoingUpdate > outgoingUpdateIntervalMsec) {
-				lastOutgoingUpdate = System.currentTimeMillis();
-				try{
-					getVehicle().sendCarData(car);
-				} catch (Exception ex) {
-					ex.printStackTrace();
-					System.err.println("Failed to send update to KAPcom. Will stop sending updates for 60 seconds.");
-					lastOutgoingUpdate += (1000 * 60);
-					return;
+			// wait until next scheduled update
+			long waitTime = nextUpdate - System.nanoTime();
+			if(waitTime > 0)
+			{
+				try {
+					Thread.sleep(waitTime / 1000000L, (int) (waitTime % 1000000L));
+				} catch (InterruptedException e) {
+					// interrupted by disconnect()
+					continue;
 				}
 			}
+			
+			long startTime = System.nanoTime();
+			try {
+				
+				if(getVehicle().sendCarData(car))
+					syncStatistics.reportSync(System.nanoTime() - startTime);
+				else
+					syncStatistics.reportUnchanged();
+				
+				nextUpdate += interval;
+				
+			} catch (Exception ex) {
+				ex.printStackTrace();
+				System.err.println("Failed to send update to KAPcom. Will stop sending updates for 60 seconds.");
+				syncStatistics.reportFailure();
+				nextUpdate = System.nanoTime() + (1000000000L * 60);
+			}
+			
+			// coalesce updates that have been missed (fixed rate without catching up)
+			long now = System.nanoTime();
+			if(now - nextUpdate >= interval)
+			{
+				long missedUpdates = (now - nextUpdate) / interval;
+				syncStatistics.reportSkipped(missedUpdates);
+				nextUpdate += missedUpdates * interval;
+			}
 		}
+		
 		if(KB.isConnected())
 		{
 			KB.getClient().disconnect();
 			System.out.println("Closed connection to KAPcom");
 		}
 	}
+	
+	
+	/**
+	 * Returns latency and counters of the synchronization with KAPcom.
+	 */
+	public SyncStatistics getSyncStatistics()
+	{
+		return syncStatistics;
+	}
 
 	
 	public synchronized void disconnect()
 	{
 		isRunning = false;
+		interrupt();
 	}
 }
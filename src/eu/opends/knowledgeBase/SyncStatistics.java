@@ -0,0 +1,139 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.knowledgeBase;
+
+/**
+ * Counters and latency of the vehicle data synchronization with KAPcom.
+ * Written by the knowledge base thread, may be read by any thread.
+ * 
+ * @author Michael Feld, Rafael Math
+ */
+public class SyncStatistics 
+{
+	private long syncCount = 0;
+	private long unchangedCount = 0;
+	private long skippedCount = 0;
+	private long failureCount = 0;
+	private long lastLatency = 0;
+	private long maxLatency = 0;
+	private long totalLatency = 0;
+	
+	
+	synchronized void reportSync(long latencyNanos)
+	{
+		syncCount++;
+		lastLatency = latencyNanos;
+		maxLatency = Math.max(maxLatency, latencyNanos);
+		totalLatency += latencyNanos;
+	}
+	
+	
+	synchronized void reportUnchanged()
+	{
+		unchangedCount++;
+	}
+	
+	
+	synchronized void reportSkipped(long numberOfUpdates)
+	{
+		skippedCount += numberOfUpdates;
+	}
+	
+	
+	synchronized void reportFailure()
+	{
+		failureCount++;
+	}
+	
+	
+	/**
+	 * Number of updates sent to KAPcom.
+	 */
+	public synchronized long getSyncCount()
+	{
+		return syncCount;
+	}
+	
+	
+	/**
+	 * Number of updates not sent, as no vehicle property had changed.
+	 */
+	public synchronized long getUnchangedCount()
+	{
+		return unchangedCount;
+	}
+	
+	
+	/**
+	 * Number of scheduled updates skipped, as the previous update took 
+	 * longer than the update interval (e.g. slow KAPcom).
+	 */
+	public synchronized long getSkippedCount()
+	{
+		return skippedCount;
+	}
+	
+	
+	/**
+	 * Number of updates that failed.
+	 */
+	public synchronized long getFailureCount()
+	{
+		return failureCount;
+	}
+	
+	
+	/**
+	 * Latency of the latest update sent to KAPcom (in milliseconds).
+	 */
+	public synchronized float getLastLatency()
+	{
+		return lastLatency / 1000000f;
+	}
+	
+	
+	/**
+	 * Maximum latency of all updates sent to KAPcom (in milliseconds).
+	 */
+	public synchronized float getMaxLatency()
+	{
+		return maxLatency / 1000000f;
+	}
+	
+	
+	/**
+	 * Mean latency of all updates sent to KAPcom (in milliseconds).
+	 */
+	public synchronized float getMeanLatency()
+	{
+		if(syncCount == 0)
+			return 0;
+		
+		return (totalLatency / syncCount) / 1000000f;
+	}
+	
+	
+	@Override
+	public synchronized String toString()
+	{
+		return "sent: " + syncCount + ", unchanged: " + unchangedCount + ", skipped: " + skippedCount 
+				+ ", failed: " + failureCount + ", latency (ms): last " + getLastLatency() + ", mean " 
+				+ getMeanLatency() + ", max " + getMaxLatency();
+	}
+}
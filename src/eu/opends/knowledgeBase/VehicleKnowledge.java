@@ -18,6 +18,8 @@
 
 package eu.opends.knowledgeBase;
 
+import java.util.Arrays;
+
 import com.jme3.math.FastMath;
 import com.jme3.math.Vector3f;
 
@@ -36,12 +38,18 @@ public class VehicleKnowledge
 {
 	private KnowledgeBase kb;
 	private Vehicle vehicle = null;
+	private float maxSteeringAngle;
 	//private VehiclePhysicalAttributes carPhys = null;
 	//private Engine engine = null;
 
 	VehicleKnowledge(KnowledgeBase kb) 
 	{
 		this.kb = kb;
+		
+		// read once (XPath evaluation too expensive for every update)
+		maxSteeringAngle = Simulator.getDrivingTask().getSettingsLoader().getSetting(
+				Setting.CANInterface_maxSteeringAngle, SimulationDefaults.CANInterface_maxSteeringAngle);
+		
 		if (kb.isConnected()) {
 			// get current vehicle
 			try {
@@ -64,146 +72,220 @@ public class VehicleKnowledge
 	}
 
 	
+	/**
+	 * Vehicle property as represented in the KAPcom ontology. The last value 
+	 * sent is kept in order to send changed properties only.
+	 */
+	private static class KBProperty
+	{
+		private String[] path;
+		private String name;
+		private String value = null;
+		private String lastSentValue = null;
+		
+		private KBProperty(String path, String name)
+		{
+			this.path = path.split("/");
+			this.name = name;
+		}
+		
+		private boolean isChanged()
+		{
+			return (value != null) && !value.equals(lastSentValue);
+		}
+	}
+	
+	
+	// properties must be ordered by path (properties of a node before its children)
+	private KBProperty gasPedalPress = new KBProperty("thisVehicle/interior/cockpit/pedals/gasPedal", "pressedState");
+	private KBProperty brakePedalPress = new KBProperty("thisVehicle/interior/cockpit/pedals/brakePedal", "pressedState");
+	private KBProperty steeringAngle = new KBProperty("thisVehicle/interior/cockpit/steeringWheel", "steerAngle");
+	private KBProperty lightState = new KBProperty("thisVehicle/exterior/lights", "headlights");
+	private KBProperty selectedGear = new KBProperty("thisVehicle/exterior/gearUnit", "currentGear");
+	private KBProperty engineOn = new KBProperty("thisVehicle/exterior/engineCompartment/engine", "running");
+	private KBProperty rpm = new KBProperty("thisVehicle/exterior/engineCompartment/engine", "actualRpm");
+	private KBProperty fuelConsumption = new KBProperty("thisVehicle/exterior/fueling/fuelType", "currentConsumption");
+	private KBProperty maxFuelCapacity = new KBProperty("thisVehicle/exterior/fueling/fuelType/tank", "maxAmount");
+	private KBProperty fuelLeft = new KBProperty("thisVehicle/exterior/fueling/fuelType/tank", "actualAmount");
+	private KBProperty latitude = new KBProperty("thisVehicle/physicalAttributes", "latitude");
+	private KBProperty longitude = new KBProperty("thisVehicle/physicalAttributes", "longitude");
+	private KBProperty altitude = new KBProperty("thisVehicle/physicalAttributes", "altitude");
+	private KBProperty orientation = new KBProperty("thisVehicle/physicalAttributes", "orientation");
+	private KBProperty speed = new KBProperty("thisVehicle/physicalAttributes", "speed");
+	private KBProperty rise = new KBProperty("thisVehicle/physicalAttributes", "rise");
+	private KBProperty verticalAcceleration = new KBProperty("thisVehicle/physicalAttributes", "accelerationLateral");
+	private KBProperty rotation = new KBProperty("thisVehicle/physicalAttributes", "rotation");
+	private KBProperty rotationAcceleration = new KBProperty("thisVehicle/physicalAttributes", "accelerationRotation");
+	private KBProperty acceleration = new KBProperty("thisVehicle/physicalAttributes", "acceleration");
+	
+	private KBProperty[] propertyList = new KBProperty[] {gasPedalPress, brakePedalPress, steeringAngle, 
+			lightState, selectedGear, engineOn, rpm, fuelConsumption, maxFuelCapacity, fuelLeft, latitude, 
+			longitude, altitude, orientation, speed, rise, verticalAcceleration, rotation, rotationAcceleration,
+			acceleration};
+	
+	private StringBuilder xml = new StringBuilder(2048);
+	
 	private float oldOrientation = 0;
 	private float oldRotation = 0;
 	private float oldAltitude = 0;
 	private float oldRise = 0;
 	private float oldSpeed = 0;
 	private long oldTime = 0;
-	void sendCarData(Car car) throws KAPcomException
+	
+	
+	/**
+	 * Sends all vehicle properties that have changed since the last successful 
+	 * call to KAPcom.
+	 * 
+	 * @param car
+	 * 			car to get the vehicle properties from
+	 * 
+	 * @return
+	 * 			true, if changed properties have been sent; false, if nothing changed
+	 * 
+	 * @throws KAPcomException
+	 * 			if sending failed (all properties will be sent with the next call)
+	 */
+	boolean sendCarData(Car car) throws KAPcomException
 	{
-		if (vehicle == null) return;
-		
-		/*
-		Vector3f position = car.getPosition();
-		float speed = car.getLinearSpeedInKmhRounded();  // in kph
-		float heading = car.getHeadingDegree();       // 0..360 degree
-		Vector3f geoPosition = car.getGeoPosition();
-		float latitude = geoPosition.getX();          // N-S position in model coordinates
-		float longitude = geoPosition.getY();         // W-E position in model coordinates
-		//carPhys.setLocation(longitude + ";" + latitude);
-		carPhys.setScenarioLocation(position.getX() + ";" + position.getY() + ";" + position.getZ());
-		carPhys.setOrientation((double) heading);
-		//engine.setActualSpeed((double) speed);
-		*/
+		if (vehicle == null) return false;
 		
 		long time = System.currentTimeMillis();  // in milliseconds
 		float timeDiff = ((float) (time - oldTime)) / 1000f; // in seconds
 
 		Vector3f geoPosition = car.getGeoPosition();
-		float latitude = geoPosition.getX();  // N-S position in geo coordinates
-		float longitude = geoPosition.getY(); // W-E position in geo coordinates
-		float altitude = geoPosition.getZ();  // meters above sea level
+		float currentLatitude = geoPosition.getX();  // N-S position in geo coordinates
+		float currentLongitude = geoPosition.getY(); // W-E position in geo coordinates
+		float currentAltitude = geoPosition.getZ();  // meters above sea level
 		
-		float orientation = car.getHeadingDegree();  // 0..360 degree
+		float currentOrientation = car.getHeadingDegree();  // 0..360 degree
 		
-		float rotation = (orientation - oldOrientation)/timeDiff; // in degree/s
-		if(rotation < -180)
-			rotation += 360;
-		else if(rotation > 180)
-			rotation -= 360;
+		float currentRotation = (currentOrientation - oldOrientation)/timeDiff; // in degree/s
+		if(currentRotation < -180)
+			currentRotation += 360;
+		else if(currentRotation > 180)
+			currentRotation -= 360;
 		
-		float rotationAcceleration = (rotation - oldRotation)/timeDiff; // in degree/s^2
+		float currentRotationAcceleration = (currentRotation - oldRotation)/timeDiff; // in degree/s^2
 		
-		float speed = FastMath.abs(car.getCarControl().getCurrentVehicleSpeedKmHour());  // in Km/h
+		float currentSpeed = FastMath.abs(car.getCarControl().getCurrentVehicleSpeedKmHour());  // in Km/h
 		
-		float rise = (altitude - oldAltitude)/timeDiff; // in m/s
+		float currentRise = (currentAltitude - oldAltitude)/timeDiff; // in m/s
 		
-		float verticalAcceleration = (rise - oldRise)/timeDiff;  // in m/s^2
+		float currentVerticalAcceleration = (currentRise - oldRise)/timeDiff;  // in m/s^2
 		
-		float acceleration = ((speed - oldSpeed)/3.6f)/timeDiff; // in m/s^2
+		float currentAcceleration = ((currentSpeed - oldSpeed)/3.6f)/timeDiff; // in m/s^2
 		
-		float gasPedalPress = car.getGasPedalPressIntensity(); // in %
-		float brakePedalPress = car.getBrakePedalPressIntensity(); // in %
+		float maxCapacity = 60; //TODO set max Capacity
 		
-		float maxSteeringAngle = Simulator.getDrivingTask().getSettingsLoader().getSetting(
-				Setting.CANInterface_maxSteeringAngle, SimulationDefaults.CANInterface_maxSteeringAngle);
+		gasPedalPress.value = String.valueOf(car.getGasPedalPressIntensity()); // in %
+		brakePedalPress.value = String.valueOf(car.getBrakePedalPressIntensity()); // in %
+		steeringAngle.value = String.valueOf(-maxSteeringAngle*car.getSteeringWheelState()); // in degree (+ = right, - = left)
+		lightState.value = car.getLightState();
+		selectedGear.value = String.valueOf(car.getTransmission().getGear());
+		engineOn.value = car.isEngineOn() ? "1" : "0";
+		rpm.value = String.valueOf((int) car.getTransmission().getRPM());
+		fuelConsumption.value = String.valueOf(car.getPowerTrain().getLitersPer100Km());  // current fuel consumption
+		maxFuelCapacity.value = String.valueOf(maxCapacity);
+		fuelLeft.value = String.valueOf(maxCapacity - car.getPowerTrain().getTotalFuelConsumption());
+		latitude.value = String.valueOf(currentLatitude);
+		longitude.value = String.valueOf(currentLongitude);
+		altitude.value = String.valueOf(currentAltitude);
+		orientation.value = String.valueOf(currentOrientation);
+		speed.value = String.valueOf(currentSpeed);
+		rise.value = String.valueOf(currentRise);
+		verticalAcceleration.value = String.valueOf(currentVerticalAcceleration);
+		rotation.value = String.valueOf(currentRotation);
+		rotationAcceleration.value = String.valueOf(currentRotationAcceleration);
+		acceleration.value = String.valueOf(currentAcceleration);
 		
-		float steeringAngle = -maxSteeringAngle*car.getSteeringWheelState(); // in degree (+ = right, - = left)
-
-		String lightState = car.getLightState();
-		
-		float fuelConsumption = car.getPowerTrain().getLitersPer100Km();  // current fuel consumption
-		
-		float maxFuelCapacity = 60; //TODO set max Capacity
-		float fuelLeft = maxFuelCapacity - car.getPowerTrain().getTotalFuelConsumption();
-		
-		int selectedGear = car.getTransmission().getGear();
-		
-		int engineOn;
-		if(car.isEngineOn())
-			engineOn = 1;
-		else
-			engineOn = 0;
-		
-		int rpm = (int) car.getTransmission().getRPM();
-		
-		String xml = "<root>" +
-						"<thisVehicle>" +
-							"<interior>" +
-								"<cockpit>" +
-									"<pedals>" +
-										"<gasPedal>" +
-											"<Properties><pressedState>" + gasPedalPress + "</pressedState></Properties>" +
-										"</gasPedal>" +
-										"<brakePedal>" +
-											"<Properties><pressedState>" + brakePedalPress + "</pressedState></Properties>" +
-										"</brakePedal>" +
-									"</pedals>" +
-									"<steeringWheel>" +
-										"<Properties><steerAngle>" + steeringAngle + "</steerAngle></Properties>" +
-									"</steeringWheel>" +
-								"</cockpit>" +
-							"</interior>" +
-							"<exterior>" +
-								"<lights>" +
-									"<Properties><headlights>" + lightState + "</headlights></Properties>" +
-								"</lights>" +
-								"<gearUnit>" +
-									"<Properties><currentGear>" + selectedGear + "</currentGear></Properties>" +
-								"</gearUnit>" +
-								"<engineCompartment>" +
-									"<engine><Properties>" +
-										"<running>" + engineOn + "</running>" +
-										"<actualRpm>" + rpm + "</actualRpm>" +
-									"</Properties></engine>" +
-								"</engineCompartment>" +
-								"<fueling>" +
-									"<fuelType>" +
-										"<Properties><currentConsumption>" + fuelConsumption + "</currentConsumption></Properties>" +
-										"<tank><Properties>" +
-											"<maxAmount>" + maxFuelCapacity + "</maxAmount>" +
-											"<actualAmount>" + fuelLeft + "</actualAmount>" +
-										"</Properties></tank>" +
-									"</fuelType>" +
-								"</fueling>" +
-							"</exterior>" +
-							"<physicalAttributes><Properties>" +
-								"<latitude>"+latitude+"</latitude>" +
-								"<longitude>"+longitude+"</longitude>" +
-								"<altitude>"+altitude+"</altitude>" +
-								"<orientation>"+orientation+"</orientation>" +
-								"<speed>"+speed+"</speed>" +
-								"<rise>"+rise+"</rise>" +
-								"<accelerationLateral>"+verticalAcceleration+"</accelerationLateral>" +
-								"<rotation>"+rotation+"</rotation>" +
-								"<accelerationRotation>"+rotationAcceleration+"</accelerationRotation>" +
-								"<acceleration>"+acceleration+"</acceleration>" +
-							"</Properties></physicalAttributes>" +
-						"</thisVehicle>" +
-					"</root>";
+		oldOrientation = currentOrientation;
+		oldRotation = currentRotation;
+		oldAltitude = currentAltitude;
+		oldRise = currentRise;
+		oldSpeed = currentSpeed;
+		oldTime = time;
+		
+		if(!buildDeltaXml())
+			return false;
+		
+		try {
+			
+			kb.getClient().sendAddInstanceXml("", xml.toString());
+			
+		} catch (KAPcomException e) {
+			
+			// state of KAPcom unknown --> send all properties next time
+			for(KBProperty property : propertyList)
+				property.lastSentValue = null;
+			throw e;
+		}
+		
+		for(KBProperty property : propertyList)
+			property.lastSentValue = property.value;
+		
+		return true;
+	}
 
 
-		kb.getClient().sendAddInstanceXml("", xml);		
+	/**
+	 * Writes all changed properties to the XML buffer, e.g.<br>
+	 * <code>&lt;root&gt;&lt;thisVehicle&gt;&lt;physicalAttributes&gt;&lt;Properties&gt;
+	 * &lt;speed&gt;50.0&lt;/speed&gt;&lt;/Properties&gt;&lt;/physicalAttributes&gt;
+	 * &lt;/thisVehicle&gt;&lt;/root&gt;</code>
+	 * 
+	 * @return
+	 * 			false, if no property has changed
+	 */
+	private boolean buildDeltaXml()
+	{
+		xml.setLength(0);
+		xml.append("<root>");
 		
-		//System.out.println(timeDiff);
+		String[] openPath = new String[0];
+		boolean changed = false;
 		
-		oldOrientation = orientation;
-		oldRotation = rotation;
-		oldAltitude = altitude;
-		oldRise = rise;
-		oldSpeed = speed;
-		oldTime = time;
+		for(KBProperty property : propertyList)
+		{
+			if(!property.isChanged())
+				continue;
+			
+			if(!Arrays.equals(property.path, openPath))
+			{
+				if(changed)
+					xml.append("</Properties>");
+				
+				// close elements not shared with the new path, open the new ones
+				int common = 0;
+				while(common < openPath.length && common < property.path.length 
+						&& openPath[common].equals(property.path[common]))
+					common++;
+				
+				for(int i=openPath.length-1; i>=common; i--)
+					xml.append("</").append(openPath[i]).append(">");
+				
+				for(int i=common; i<property.path.length; i++)
+					xml.append("<").append(property.path[i]).append(">");
+				
+				xml.append("<Properties>");
+				openPath = property.path;
+			}
+			
+			xml.append("<").append(property.name).append(">").append(property.value)
+				.append("</").append(property.name).append(">");
+			
+			changed = true;
+		}
+		
+		if(changed)
+			xml.append("</Properties>");
+		
+		for(int i=openPath.length-1; i>=0; i--)
+			xml.append("</").append(openPath[i]).append(">");
+		
+		xml.append("</root>");
+		
+		return changed;
 	}
 
 
@@ -22,7 +22,6 @@ import java.io.File;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.LinkedList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -33,17 +32,18 @@ import com.jme3.math.ColorRGBA;
 import com.jme3.niftygui.NiftyJmeDisplay;
 import com.jme3.scene.Geometry;
 import com.jme3.scene.Node;
-import com.jme3.scene.Spatial;
 import com.jme3.font.BitmapText;
 import com.jme3.scene.Mesh.Mode;
 import com.jme3.scene.Spatial.CullHint;
 import com.jme3.scene.shape.Curve;
-import com.jme3.scene.shape.Cylinder;
 import com.jme3.system.AppSettings;
 
 import de.lessvoid.nifty.Nifty;
+import eu.opends.analyzer.BinaryDataReader;
 import eu.opends.analyzer.DeviationComputer;
 import eu.opends.analyzer.DataReader;
+import eu.opends.analyzer.ReplayData;
+import eu.opends.analyzer.TrajectoryMarkers;
 import eu.opends.basics.InternalMapProcessing;
 import eu.opends.basics.SimulationBasics;
 import eu.opends.camera.AnalyzerCam;
@@ -71,6 +71,7 @@ public class DriveAnalyzer extends SimulationBasics
 	private Node pointNode = new Node();
 	private Node lineNode = new Node();
 	private Node coneNode = new Node();
+	private TrajectoryMarkers trajectoryMarkers;
 	private Node target = new Node();
 	private int targetIndex = 0;
 	
@@ -85,23 +86,22 @@ public class DriveAnalyzer extends SimulationBasics
 		return devComp;
 	}
 
-	private LinkedList<Vector3f> carPositionList = new LinkedList<Vector3f>();
-	public LinkedList<Vector3f> getCarPositionList() 
+	private ReplayData replayData = new ReplayData();
+	public ReplayData getReplayData() 
 	{
-		return carPositionList;
+		return replayData;
 	}
-
-	private LinkedList<Quaternion> carRotationList = new LinkedList<Quaternion>();
-	public LinkedList<Quaternion> getCarRotationList() 
-	{
-		return carRotationList;
-	}
-
-	private LinkedList<Long> timeList = new LinkedList<Long>();
-	private LinkedList<Double> speedList = new LinkedList<Double>();
+	
+	// time span (ms) to skip when jumping forward/backward
+	private static final long JUMP_INTERVAL = 10000;
+	
+	private Vector3f targetPosition = new Vector3f();
+	private Quaternion targetRotation = new Quaternion();
 
 	private DataReader dataReader = new DataReader();
-	private Long initialTimeStamp = 0l;
+	private BinaryDataReader binaryDataReader = new BinaryDataReader();
+	private boolean binaryFormat = false;
+	private long initialTimeStamp = 0;
 
 	public enum VisualizationMode 
 	{
@@ -152,6 +152,11 @@ public class DriveAnalyzer extends SimulationBasics
 	
 	public boolean isValidAnalyzerFile(File analyzerFile) 
 	{
+		binaryFormat = BinaryDataReader.isBinaryAnalyzerFile(analyzerFile);
+		
+		if(binaryFormat)
+			return binaryDataReader.isValidAnalyzerFile(analyzerFile);
+		
 		return dataReader.isValidAnalyzerFile(analyzerFile);
 	}
 	
@@ -202,11 +207,18 @@ public class DriveAnalyzer extends SimulationBasics
 	 */
 	private void loadData() 
 	{
-		dataReader.initReader(analyzerFilePath, true);
-		
 		// initialize capturedImageViewer
 		this.capturedImageViewer = new CapturedImageViewer(analyzerFilePath.substring(0, analyzerFilePath.lastIndexOf("\\")));
 
+		binaryFormat = BinaryDataReader.isBinaryAnalyzerFile(new File(analyzerFilePath));
+		if(binaryFormat)
+		{
+			loadBinaryData();
+			return;
+		}
+		
+		dataReader.initReader(analyzerFilePath, true);
+		
 		//mapFileName = myDataReader.getNameOfMap();
 
 		String inputLineNext = dataReader.readInNextDataLine();
@@ -214,22 +226,20 @@ public class DriveAnalyzer extends SimulationBasics
 		while (inputLineNext != null) 
 		{	
 			Vector3f carPos = dataReader.getCarPositionFromDataLine(inputLineNext);
-			carPositionList.add(carPos);
-			
 			Quaternion carRotation = dataReader.getCarRotationFromDataLine(inputLineNext);
-			carRotationList.add(carRotation);
+			
+			replayData.add(dataReader.getTimeStamp(inputLineNext), 
+					carPos.x, carPos.y, carPos.z, 
+					carRotation.getX(), carRotation.getY(), carRotation.getZ(), carRotation.getW(),
+					(float) dataReader.getSpeed(inputLineNext));
 		
 			devComp.addWayPoint(carPos);
-			
-			timeList.add(dataReader.getTimeStamp(inputLineNext));
-
-			speedList.add(dataReader.getSpeed(inputLineNext));
 
 			inputLineNext = dataReader.readInNextDataLine();
 		}
 
-		if(timeList.size() > 0)
-			initialTimeStamp = timeList.get(0);
+		if(replayData.size() > 0)
+			initialTimeStamp = replayData.getTimeStamp(0);
 		
 		// System.out.println("Size carPositionList: "+ carPositionList.size());
 		// System.out.println("Size timeList: "+ timeList.size());
@@ -239,9 +249,39 @@ public class DriveAnalyzer extends SimulationBasics
 	}
 
 	
+	/**
+	 * Loading the data from a binary analyzer file. The file is memory-mapped,
+	 * so no parsing is needed.
+	 */
+	private void loadBinaryData() 
+	{
+		binaryDataReader.initReader(analyzerFilePath, true);
+		
+		int recordCount = binaryDataReader.getRecordCount();
+		replayData.ensureCapacity(recordCount);
+		
+		BinaryDataReader r = binaryDataReader;
+		for(int i=0; i<recordCount; i++)
+		{
+			replayData.add(r.getTimeStamp(i), r.getPositionX(i), r.getPositionY(i), r.getPositionZ(i),
+					r.getCarRotation(i, targetRotation).getX(), targetRotation.getY(), 
+					targetRotation.getZ(), targetRotation.getW(), r.getSpeed(i));
+			
+			devComp.addWayPoint(r.getCarPosition(i, new Vector3f()));
+		}
+		
+		if(replayData.size() > 0)
+			initialTimeStamp = replayData.getTimeStamp(0);
+	}
+
+	
 	private void loadDrivingTask() 
 	{
-		String drivingTaskName = dataReader.getNameOfDrivingTaskFile();
+		String drivingTaskName;
+		if(binaryFormat)
+			drivingTaskName = binaryDataReader.getNameOfDrivingTaskFile();
+		else
+			drivingTaskName = dataReader.getNameOfDrivingTaskFile();
 		File drivingTaskFile = new File(drivingTaskName);
 		drivingTask = new DrivingTask(this,drivingTaskFile);
 		
@@ -327,8 +367,10 @@ public class DriveAnalyzer extends SimulationBasics
 		Material drivenMaterial = new Material(assetManager,"Common/MatDefs/Misc/Unshaded.j3md");
 		drivenMaterial.setColor("Color", ColorRGBA.Yellow);
 		
+		Vector3f[] carPositions = replayData.getCarPositions();
+		
 		// visualize points
-		Curve points = new Curve(carPositionList.toArray(new Vector3f[0]), 1);
+		Curve points = new Curve(carPositions, 1);
 		points.setMode(Mode.Points);
 		points.setPointSize(4f);
 		Geometry geoPoints = new Geometry("drivenPoints", points);
@@ -336,7 +378,7 @@ public class DriveAnalyzer extends SimulationBasics
 		pointNode.attachChild(geoPoints);
 
 		// visualize line
-		Curve line = new Curve(carPositionList.toArray(new Vector3f[0]), 1);
+		Curve line = new Curve(carPositions, 1);
 		line.setMode(Mode.Lines);
 		line.setLineWidth(4f);
 		Geometry geoLine = new Geometry("drivenLine", line);
@@ -344,21 +386,9 @@ public class DriveAnalyzer extends SimulationBasics
 	    lineNode.attachChild(geoLine);
 
 	
-	    // visualize cones
-	    Material coneMaterial = new Material(assetManager,"Common/MatDefs/Misc/Unshaded.j3md");
-	    coneMaterial.setColor("Color", ColorRGBA.Black);
-		
-		for (int i=0; i<carPositionList.size(); i++) 
-		{
-			Cylinder cone = new Cylinder(10, 10, 0.3f, 0.01f, 0.9f, true, false);
-			cone.setLineWidth(4f);
-			Geometry geoCone = new Geometry("cone_"+i, cone);
-			geoCone.setLocalTranslation(carPositionList.get(i));
-			geoCone.setLocalRotation(carRotationList.get(i));
-			geoCone.setMaterial(coneMaterial);
-			geoCone.setCullHint(CullHint.Always);
-			coneNode.attachChild(geoCone);
-		}
+	    // visualize cones (markers of all samples in one mesh, current sample highlighted)
+	    trajectoryMarkers = new TrajectoryMarkers(assetManager, replayData);
+	    coneNode.attachChild(trajectoryMarkers.getNode());
 
 		if (pointsEnabled)
 			sceneNode.attachChild(pointNode);
@@ -444,7 +474,7 @@ public class DriveAnalyzer extends SimulationBasics
 	 */
 	public void moveFocus(int direction) 
 	{
-		if (!isPause() && direction == 1 && (targetIndex + 1) < carPositionList.size()) 
+		if (!isPause() && direction == 1 && (targetIndex + 1) < replayData.size()) 
 		{
 			targetIndex++;
 			updateView();
@@ -458,46 +488,76 @@ public class DriveAnalyzer extends SimulationBasics
 	}
 
 
+	/**
+	 * Moves the target by the given time span (ms), e.g. -10000 to jump 10 
+	 * seconds back. Uses binary search on the time stamps.
+	 * 
+	 * @param timeSpan
+	 */
+	public void moveFocusByTime(long timeSpan) 
+	{
+		if (!isPause() && replayData.size() > 0)
+			jumpToTime(replayData.getTimeStamp(targetIndex) - initialTimeStamp + timeSpan);
+	}
+	
+	
+	/**
+	 * Sets the target to the data point recorded at (or immediately before) 
+	 * the given time (ms since start of recording).
+	 * 
+	 * @param elapsedTime
+	 */
+	public void jumpToTime(long elapsedTime) 
+	{
+		int index = replayData.findIndex(initialTimeStamp + elapsedTime);
+		if (index >= 0 && index != targetIndex)
+		{
+			targetIndex = index;
+			updateView();
+		}
+	}
+	
+	
+	public void jumpForward()
+	{
+		moveFocusByTime(JUMP_INTERVAL);
+	}
+	
+	
+	public void jumpBackward()
+	{
+		moveFocusByTime(-JUMP_INTERVAL);
+	}
+	
+
 	private void updateView() 
 	{
-		target.setLocalTranslation(carPositionList.get(targetIndex));
-		target.setLocalRotation(carRotationList.get(targetIndex));
+		target.setLocalTranslation(replayData.getCarPosition(targetIndex, targetPosition));
+		target.setLocalRotation(replayData.getCarRotation(targetIndex, targetRotation));
 		cameraFactory.updateCamera();
 		
 		// update speed text
 		DecimalFormat decimalFormat = new DecimalFormat("#0.00");
-		speedText.setText(decimalFormat.format(speedList.get(targetIndex)) + " km/h");
+		speedText.setText(decimalFormat.format(replayData.getSpeed(targetIndex)) + " km/h");
 		
 		// update timestamp
 		updateTimestamp();
 
-		// make previous cone invisible (if exists)
-		Spatial previousCone = coneNode.getChild("cone_" + (targetIndex-1));		
-		if(previousCone != null)
-			previousCone.setCullHint(CullHint.Always);
-		
-		// make current cone visible (if exists)
-		Spatial currentCone = coneNode.getChild("cone_" + targetIndex);
-		if(currentCone != null)
-			currentCone.setCullHint(CullHint.Dynamic);
-		
-		// make next cone invisible (if exists)
-		Spatial nextCone = coneNode.getChild("cone_" + (targetIndex+1));
-		if(nextCone != null)
-			nextCone.setCullHint(CullHint.Always);
+		// move highlighted cone to current data point
+		trajectoryMarkers.highlight(targetIndex);
 		
 		// Update webcams
-		this.capturedImageViewer.showImage(this.timeList.get(targetIndex));
+		this.capturedImageViewer.showImage(replayData.getTimeStamp(targetIndex));
 	}
 
 
 	private void updateTimestamp() 
 	{
-		Long currentTimeStamp = timeList.get(targetIndex);
+		long currentTimeStamp = replayData.getTimeStamp(targetIndex);
 		
 		if(showRelativeTime)
 		{
-			Long elapsedTime = currentTimeStamp - initialTimeStamp;
+			long elapsedTime = currentTimeStamp - initialTimeStamp;
 			SimpleDateFormat dateFormat = new SimpleDateFormat("mm:ss.S");
 			timeText.setText(dateFormat.format(elapsedTime));
 		}
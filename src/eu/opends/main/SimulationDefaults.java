@@ -44,16 +44,29 @@ public class SimulationDefaults
 	public static boolean CANInterface_enableConnection = false;
 	public static String CANInterface_ip = "192.168.0.2";
 	public static int CANInterface_port = 5678;
+	public static int CANInterface_localPort = 5679;
 	public static int CANInterface_updateRate = 20;
 	public static float CANInterface_maxSteeringAngle = 270;
 	
+	public static boolean Telemetry_enablePublisher = false;
+	public static String Telemetry_multicastGroup = "239.0.0.1";
+	public static int Telemetry_multicastPort = 5700;
+	public static int Telemetry_tcpPort = 5701;
+	public static int Telemetry_updateRate = 60;
+	
 	public static boolean vsimrtiServer_startServer = false;
 	public static int vsimrtiServer_port = 1234;
 	
 	public static boolean SettingsControllerServer_startServer = false;
 	public static int SettingsControllerServer_port = 1000;
 	
+	public static float Traffic_kinematicRadius = 400;
+	
 	public static boolean Analyzer_suppressPDFPopup = false;
+	public static boolean Analyzer_binaryFormat = false;
+	public static String Analyzer_samplingMode = "frame";
+	public static int Analyzer_samplingRate = 20;
+	public static boolean Analyzer_webcamVideoContainer = false;
 	
 	public static float gravity = 9.81f;
 	
@@ -20,6 +20,7 @@
 package eu.opends.main;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -29,13 +30,17 @@ import org.apache.log4j.Logger;
 import org.apache.log4j.PropertyConfigurator;
 
 import com.jme3.input.Joystick;
+import com.jme3.math.Vector2f;
 import com.jme3.math.Vector3f;
 import com.jme3.niftygui.NiftyJmeDisplay;
 import com.jme3.system.AppSettings;
 
 import de.lessvoid.nifty.Nifty;
+import eu.opends.analyzer.AnalyzerDataSampler.SamplingMode;
 import eu.opends.analyzer.DrivingTaskLogger;
 import eu.opends.analyzer.DataWriter;
+import eu.opends.analyzer.LiveDeviationComputer;
+import eu.opends.analyzer.LiveDeviationComputer.DeviationListener;
 import eu.opends.audio.AudioCenter;
 import eu.opends.basics.InternalMapProcessing;
 import eu.opends.basics.SimulationBasics;
@@ -55,9 +60,12 @@ import eu.opends.niftyGui.DrivingTaskSelectionGUIController;
 import eu.opends.reactionCenter.ReactionCenter;
 import eu.opends.settingsController.SettingsControllerServer;
 import eu.opends.steeringTask.SteeringTask;
+import eu.opends.telemetry.TelemetryPublisher;
+import eu.opends.telemetry.UdpTelemetrySubscriber;
 import eu.opends.tools.ObjectManipulationCenter;
 import eu.opends.tools.PanelCenter;
 import eu.opends.tools.SpeedControlCenter;
+import eu.opends.tools.TimerCenter;
 import eu.opends.tools.Util;
 import eu.opends.traffic.PhysicalTraffic;
 import eu.opends.trigger.TriggerCenter;
@@ -125,6 +133,18 @@ public class Simulator extends SimulationBasics
 		return canClient;
 	}
 	
+	private TelemetryPublisher telemetryPublisher;
+	public TelemetryPublisher getTelemetryPublisher() 
+	{
+		return telemetryPublisher;
+	}
+	
+	private LiveDeviationComputer liveDeviationComputer;
+	public LiveDeviationComputer getLiveDeviationComputer() 
+	{
+		return liveDeviationComputer;
+	}
+	
 	private TriggerCenter triggerCenter = new TriggerCenter(this);
 	public TriggerCenter getTriggerCenter()
 	{
@@ -277,7 +297,7 @@ public class Simulator extends SimulationBasics
 		
 		// initialize physical vehicles
 		physicalTraffic = new PhysicalTraffic(this);
-		//physicalTraffic.start(); //TODO
+		physicalTraffic.start();
 		
 		// open TCP connection to KAPcom (knowledge component) [affects the driver name, see below]
 		//KnowledgeBase.KB.setConnect(true);
@@ -312,12 +332,33 @@ public class Simulator extends SimulationBasics
 			lightningClient = new LightningClient();
 		}
 		
-		// open TCP connection to CAN-bus
+		// open connection to CAN-bus (UDP, cf. CANTransport)
 		if(settingsLoader.getSetting(Setting.CANInterface_enableConnection, SimulationDefaults.CANInterface_enableConnection))
 		{
 			canClient = new CANClient(this);
 			canClient.start();
 		}
+		
+		// publish car state to external subscribers (multicast and TCP)
+		if(settingsLoader.getSetting(Setting.Telemetry_enablePublisher, SimulationDefaults.Telemetry_enablePublisher))
+			initTelemetryPublisher();
+		
+		// compute deviation from ideal line while driving (if ideal line given)
+		List<Vector2f> idealLine = scenarioLoader.getIdealLine();
+		if(idealLine.size() >= 2)
+		{
+			liveDeviationComputer = new LiveDeviationComputer(idealLine);
+			liveDeviationComputer.addListener(new DeviationListener() 
+			{
+				@Override
+				public void segmentFinished(int segment, float area, float meanDeviation, float totalMeanDeviation)
+				{
+					// send mean deviation of passed segment to CAN-bus (UDP, cf. CANTransport)
+					if(canClient != null)
+						canClient.sendDeviationData(meanDeviation);
+				}
+			});
+		}
 
 		drivingTaskLogger = new DrivingTaskLogger(outputFolder, driverName, drivingTask.getFileName());
 		
@@ -364,7 +405,31 @@ public class Simulator extends SimulationBasics
 		interactionLoader = drivingTask.getInteractionLoader();
 		settingsLoader = drivingTask.getSettingsLoader();
 	}
-	
+
+
+	private void initTelemetryPublisher()
+	{
+		String multicastGroup = settingsLoader.getSetting(Setting.Telemetry_multicastGroup, SimulationDefaults.Telemetry_multicastGroup);
+		int multicastPort = settingsLoader.getSetting(Setting.Telemetry_multicastPort, SimulationDefaults.Telemetry_multicastPort);
+		int tcpPort = settingsLoader.getSetting(Setting.Telemetry_tcpPort, SimulationDefaults.Telemetry_tcpPort);
+		int updateRate = settingsLoader.getSetting(Setting.Telemetry_updateRate, SimulationDefaults.Telemetry_updateRate);
+
+		telemetryPublisher = new TelemetryPublisher();
+
+		try {
+
+			// empty group or port 0 disables the respective channel
+			if(!multicastGroup.isEmpty() && multicastPort > 0)
+				telemetryPublisher.addSubscriber(new UdpTelemetrySubscriber(multicastGroup, multicastPort, updateRate));
+
+			if(tcpPort > 0)
+				telemetryPublisher.listen(tcpPort, updateRate);
+
+		} catch (IOException e) {
+			System.err.println("Could not start telemetry publisher: " + e.toString());
+		}
+	}
+
 	
 	/**
 	 * That method is going to be executed, when the dataWriter is
@@ -373,7 +438,12 @@ public class Simulator extends SimulationBasics
 	 */
 	public void initializeDataWriter() 
 	{
-		dataWriter = new DataWriter(outputFolder, car, driverName, SimulationDefaults.drivingTaskFileName);
+		boolean binaryFormat = settingsLoader.getSetting(Setting.Analyzer_binaryFormat, SimulationDefaults.Analyzer_binaryFormat);
+		SamplingMode samplingMode = SamplingMode.parse(settingsLoader.getSetting(Setting.Analyzer_samplingMode, SimulationDefaults.Analyzer_samplingMode));
+		int samplingRate = settingsLoader.getSetting(Setting.Analyzer_samplingRate, SimulationDefaults.Analyzer_samplingRate);
+		boolean webcamVideoContainer = settingsLoader.getSetting(Setting.Analyzer_webcamVideoContainer, SimulationDefaults.Analyzer_webcamVideoContainer);
+		dataWriter = new DataWriter(outputFolder, car, driverName, SimulationDefaults.drivingTaskFileName, 
+				binaryFormat, samplingMode, samplingRate, webcamVideoContainer);
 		EventLogger = new eventLogger(outputFolder, car, driverName, SimulationDefaults.drivingTaskFileName);
 	}
 	
@@ -394,22 +464,36 @@ public class Simulator extends SimulationBasics
 			PanelCenter.update();
 		
 			triggerCenter.doTriggerChecks();
+			
+			// run delayed actions (e.g. trigger actions, sounds) that have become due
+			TimerCenter.update(tpf, isPause());
 		
 			updateDataWriter();
 			
+			if(liveDeviationComputer != null && !isPause())
+				liveDeviationComputer.update(car.getPosition());
+			
 			// send camera data via TCP to Lightning
 			if(lightningClient != null)
 				lightningClient.sendCameraData(cam);
 			
-			// send car data via TCP to CAN-bus
+			// send car data via UDP to CAN-bus
 			if(canClient != null)
 				canClient.sendCarData();
 			
+			// send car state to telemetry subscribers
+			if(telemetryPublisher != null)
+				telemetryPublisher.publish(car, TimerCenter.getSimulationTime());
+			
+			// send subscribed features to settings controller clients
+			if(settingsControllerServer != null)
+				settingsControllerServer.updateSubscriptions();
+			
 			if(!isPause())
 				car.update(tpf);
 			
-			// TODO start thread in init-method to update traffic
-			physicalTraffic.update(); 
+			// apply decisions of traffic thread
+			physicalTraffic.update(tpf);
 			
 			SpeedControlCenter.update();
 			
@@ -493,9 +577,16 @@ public class Simulator extends SimulationBasics
 			if(lightningClient != null)
 				lightningClient.close();
 			
+			// report last (partially) passed segment
+			if(liveDeviationComputer != null)
+				liveDeviationComputer.finish();
+			
 			if(canClient != null)
 				canClient.requestStop();
 			
+			if(telemetryPublisher != null)
+				telemetryPublisher.close();
+			
 			TrafficLightCenter.close();
 			
 			steeringTask.close();
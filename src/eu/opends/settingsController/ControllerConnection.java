@@ -0,0 +1,384 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.settingsController;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connection to a single settings controller client. Every message (in both
+ * directions) consists of three header lines followed by the XML message:
+ * <pre>
+ * 120 1 0 0        length of XML message in bytes (4 bytes, little-endian)
+ * 0 0 0 0          status
+ * 100 0 0 0        message tag
+ * &lt;Message&gt;...&lt;/Message&gt;
+ * </pre>
+ * The length is used to cut the byte stream into messages. For clients not
+ * setting the length (0), a message ends with the line "&lt;/Message&gt;".
+ * Any number of requests may be sent without waiting for the responses
+ * (pipelining); responses are sent in the order of the requests.
+ *
+ * @author Daniel Braun, Rafael Math
+ */
+public class ControllerConnection
+{
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final byte[] END_TAG = "</Message>".getBytes(UTF8);
+
+	// client will be disconnected if it does not read its responses
+	private static final int MAX_PENDING_OUTPUT = 1024 * 1024;
+
+	// client will be disconnected if it sends larger messages
+	private static final int MAX_MESSAGE_SIZE = 1024 * 1024;
+
+	private SocketChannel channel;
+	private String name;
+	private boolean closed = false;
+
+	// received bytes not processed yet (array [0..inputLength])
+	private byte[] input = new byte[4096];
+	private int inputLength = 0;
+
+	// header of the message currently received
+	private int headerLines = 0;
+	private int messageLength = 0;
+
+	private Queue<ByteBuffer> outputQueue = new ConcurrentLinkedQueue<ByteBuffer>();
+	private AtomicInteger pendingOutput = new AtomicInteger(0);
+
+
+	public ControllerConnection(SocketChannel channel) throws IOException
+	{
+		this.channel = channel;
+		this.name = channel.socket().getInetAddress().getHostAddress() + ":" + channel.socket().getPort();
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+	}
+
+
+	SocketChannel getChannel()
+	{
+		return channel;
+	}
+
+
+	public String getName()
+	{
+		return name;
+	}
+
+
+	public boolean isClosed()
+	{
+		return closed;
+	}
+
+
+	/**
+	 * Reads all available bytes from the channel.
+	 *
+	 * @param buffer
+	 * 			buffer for reading (shared by all connections)
+	 *
+	 * @return
+	 * 			false if client has closed the connection
+	 *
+	 * @throws IOException
+	 * 			if reading failed
+	 */
+	boolean read(ByteBuffer buffer) throws IOException
+	{
+		while(true)
+		{
+			buffer.clear();
+			int bytesRead = channel.read(buffer);
+			if(bytesRead < 0)
+				return false;
+			if(bytesRead == 0)
+				return true;
+
+			if(inputLength + bytesRead > input.length)
+			{
+				if(inputLength + bytesRead > MAX_MESSAGE_SIZE + 1024)
+					throw new IOException("Message too large");
+
+				byte[] newInput = new byte[Math.max(2*input.length, inputLength + bytesRead)];
+				System.arraycopy(input, 0, newInput, 0, inputLength);
+				input = newInput;
+			}
+
+			buffer.flip();
+			buffer.get(input, inputLength, bytesRead);
+			inputLength += bytesRead;
+		}
+	}
+
+
+	/**
+	 * Cuts the next complete XML message from the received bytes.
+	 *
+	 * @return
+	 * 			next XML message (UTF-8) or null if not completely received yet
+	 *
+	 * @throws IOException
+	 * 			if header is invalid
+	 */
+	byte[] nextMessage() throws IOException
+	{
+		int position = 0;
+
+		// header: size, status and tag line
+		while(headerLines < 3)
+		{
+			int lineEnd = indexOf((byte) '\n', position);
+			if(lineEnd < 0)
+			{
+				consume(position);
+				return null;
+			}
+
+			String line = new String(input, position, lineEnd - position, UTF8).trim();
+			position = lineEnd + 1;
+
+			// skip empty lines between messages
+			if(line.length() == 0)
+				continue;
+
+			if(headerLines == 0)
+				messageLength = parseLength(line);
+
+			headerLines++;
+		}
+
+		byte[] message;
+		if(messageLength > 0)
+		{
+			if(inputLength - position < messageLength)
+			{
+				consume(position);
+				return null;
+			}
+
+			message = new byte[messageLength];
+			System.arraycopy(input, position, message, 0, messageLength);
+			position += messageLength;
+		}
+		else
+		{
+			// no length given: read until end tag
+			int end = indexOf(END_TAG, position);
+			if(end < 0)
+			{
+				if(inputLength - position > MAX_MESSAGE_SIZE)
+					throw new IOException("Message too large");
+
+				consume(position);
+				return null;
+			}
+
+			end += END_TAG.length;
+			message = new byte[end - position];
+			System.arraycopy(input, position, message, 0, message.length);
+			position = end;
+		}
+
+		consume(position);
+		headerLines = 0;
+		messageLength = 0;
+		return message;
+	}
+
+
+	/**
+	 * Converts a line like "120 1 0 0" (little-endian bytes) to an integer.
+	 */
+	private static int parseLength(String line) throws IOException
+	{
+		String[] bytes = line.split("\\s+");
+		if(bytes.length != 4)
+			throw new IOException("Invalid message header: " + line);
+
+		try {
+
+			int length = 0;
+			for(int i=3; i>=0; i--)
+				length = (length << 8) | (Integer.parseInt(bytes[i]) & 0xff);
+
+			if(length < 0 || length > MAX_MESSAGE_SIZE)
+				throw new IOException("Invalid message length: " + line);
+
+			return length;
+
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid message header: " + line);
+		}
+	}
+
+
+	private int indexOf(byte value, int fromIndex)
+	{
+		for(int i=fromIndex; i<inputLength; i++)
+			if(input[i] == value)
+				return i;
+		return -1;
+	}
+
+
+	private int indexOf(byte[] pattern, int fromIndex)
+	{
+		outer:
+		for(int i=fromIndex; i<=inputLength-pattern.length; i++)
+		{
+			for(int j=0; j<pattern.length; j++)
+				if(input[i+j] != pattern[j])
+					continue outer;
+			return i;
+		}
+		return -1;
+	}
+
+
+	/**
+	 * Removes the given number of bytes from the beginning of the input.
+	 */
+	private void consume(int numberOfBytes)
+	{
+		if(numberOfBytes > 0)
+		{
+			System.arraycopy(input, numberOfBytes, input, 0, inputLength - numberOfBytes);
+			inputLength -= numberOfBytes;
+		}
+	}
+
+
+	/**
+	 * Queues the given XML message (including header) for sending. May be
+	 * called from any thread; the message will be written by the server
+	 * thread.
+	 *
+	 * @param xml
+	 * 			XML message to send
+	 *
+	 * @return
+	 * 			false if message was rejected as the client does not read its
+	 * 			responses
+	 */
+	public boolean send(String xml)
+	{
+		return send(encode(xml));
+	}
+
+
+	/**
+	 * Queues the given encoded message (cf. encode()) for sending.
+	 *
+	 * @param frame
+	 * 			message including header
+	 *
+	 * @return
+	 * 			false if message was rejected as the client does not read its
+	 * 			responses
+	 */
+	boolean send(ByteBuffer frame)
+	{
+		if(closed)
+			return false;
+
+		if(pendingOutput.addAndGet(frame.remaining()) > MAX_PENDING_OUTPUT)
+		{
+			pendingOutput.addAndGet(-frame.remaining());
+			return false;
+		}
+
+		outputQueue.add(frame);
+		return true;
+	}
+
+
+	/**
+	 * Adds the header to the given XML message.
+	 *
+	 * @param xml
+	 * 			XML message
+	 *
+	 * @return
+	 * 			buffer containing header and message
+	 */
+	static ByteBuffer encode(String xml)
+	{
+		byte[] xmlBytes = xml.getBytes(UTF8);
+		int length = xmlBytes.length;
+
+		String header = (length & 0xff) + " " + ((length >> 8) & 0xff) + " " + ((length >> 16) & 0xff)
+				+ " " + ((length >> 24) & 0xff) + "\n0 0 0 0\n100 0 0 0\n";
+		byte[] headerBytes = header.getBytes(UTF8);
+
+		ByteBuffer frame = ByteBuffer.allocate(headerBytes.length + length + 1);
+		frame.put(headerBytes).put(xmlBytes).put((byte) '\n');
+		frame.flip();
+		return frame;
+	}
+
+
+	boolean hasPendingOutput()
+	{
+		return !outputQueue.isEmpty();
+	}
+
+
+	/**
+	 * Writes queued messages until the socket buffer is full.
+	 *
+	 * @throws IOException
+	 * 			if writing failed
+	 */
+	void flush() throws IOException
+	{
+		ByteBuffer frame;
+		while((frame = outputQueue.peek()) != null)
+		{
+			int bytesWritten = channel.write(frame);
+			pendingOutput.addAndGet(-bytesWritten);
+
+			if(frame.hasRemaining())
+				return;
+
+			outputQueue.poll();
+		}
+	}
+
+
+	void close()
+	{
+		closed = true;
+		outputQueue.clear();
+
+		try {
+			channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
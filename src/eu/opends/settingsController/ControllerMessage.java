@@ -0,0 +1,156 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.settingsController;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Request of a settings controller client, e.g.
+ * <pre>
+ * &lt;Message&gt;&lt;Event Name="MarkerEvent"/&gt;
+ * &lt;Data&gt;&lt;DataEntry Type="StringList"&gt;
+ * &lt;DataValue Feature="id" Value="task1"/&gt;
+ * &lt;/DataEntry&gt;&lt;/Data&gt;
+ * &lt;/Message&gt;
+ * </pre>
+ * Messages are parsed with a StAX reader created by a single, shared
+ * factory (no DOM is built).
+ *
+ * @author Daniel Braun, Rafael Math
+ */
+public class ControllerMessage
+{
+	private static final XMLInputFactory factory = createFactory();
+
+	private String eventName = null;
+	private List<DataValue> dataValueList = new ArrayList<DataValue>();
+
+
+	private static XMLInputFactory createFactory()
+	{
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+		return factory;
+	}
+
+
+	/**
+	 * Parses the given UTF-8 encoded XML message.
+	 *
+	 * @param data
+	 * 			array containing the message
+	 *
+	 * @param offset
+	 * 			start of message in array
+	 *
+	 * @param length
+	 * 			length of message in bytes
+	 *
+	 * @return
+	 * 			parsed message
+	 *
+	 * @throws XMLStreamException
+	 * 			if message is not well-formed or contains no event
+	 */
+	public static ControllerMessage parse(byte[] data, int offset, int length) throws XMLStreamException
+	{
+		ControllerMessage message = new ControllerMessage();
+
+		XMLStreamReader reader;
+		synchronized(factory)
+		{
+			reader = factory.createXMLStreamReader(new ByteArrayInputStream(data, offset, length), "UTF-8");
+		}
+
+		try {
+
+			while(reader.hasNext())
+			{
+				if(reader.next() == XMLStreamConstants.START_ELEMENT)
+				{
+					String elementName = reader.getLocalName();
+
+					if(elementName.equals("Event") && message.eventName == null)
+						message.eventName = reader.getAttributeValue(null, "Name");
+
+					else if(elementName.equals("DataValue"))
+						message.dataValueList.add(new DataValue(getAttribute(reader, "Feature"),
+								getAttribute(reader, "Value")));
+				}
+			}
+
+		} finally {
+			reader.close();
+		}
+
+		if(message.eventName == null)
+			throw new XMLStreamException("No event given");
+
+		return message;
+	}
+
+
+	private static String getAttribute(XMLStreamReader reader, String name)
+	{
+		String value = reader.getAttributeValue(null, name);
+		return (value != null) ? value : "";
+	}
+
+
+	public String getEventName()
+	{
+		return eventName;
+	}
+
+
+	public List<DataValue> getDataValueList()
+	{
+		return dataValueList;
+	}
+
+
+	/**
+	 * Returns the value of the first data value with the given feature.
+	 *
+	 * @param feature
+	 * 			feature to look up
+	 *
+	 * @param defaultValue
+	 * 			value to return if feature not available
+	 *
+	 * @return
+	 * 			value of the feature
+	 */
+	public String getValue(String feature, String defaultValue)
+	{
+		for(DataValue dataValue : dataValueList)
+			if(dataValue.getFeature().equals(feature))
+				return dataValue.getValue();
+
+		return defaultValue;
+	}
+}
@@ -18,47 +18,53 @@
 
 package eu.opends.settingsController;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.io.StringReader;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketException;
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import eu.opends.drivingTask.settings.SettingsLoader.Setting;
 import eu.opends.main.SimulationDefaults;
 import eu.opends.main.Simulator;
+import eu.opends.tools.TimerCenter;
 
 /**
+ * Server for settings controller clients (e.g. experiment dashboards). Any
+ * number of clients can be connected at the same time; all connections are 
+ * served by this thread using a selector. Requests of a client are processed
+ * in order of arrival and may be pipelined (cf. ControllerConnection).
+ * Clients can subscribe to car, traffic and trigger features, which will 
+ * then be pushed at the requested rate (cf. subscribe()).
  * 
  * @author Daniel Braun, Rafael Math
  */
 public class SettingsControllerServer extends Thread
 {
-	private ServerSocket serverSocket = null;
-	private Socket clientSocket = null;
-	private PrintWriter out = null;
-	private BufferedReader in = null;
+	static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
+	
+	// maximum number of messages per second and subscription
+	private static final float MAX_SUBSCRIPTION_RATE = 1000;
+	
+	private Selector selector = null;
+	private ServerSocketChannel serverChannel = null;
+	private List<ControllerConnection> connectionList = new CopyOnWriteArrayList<ControllerConnection>();
+	private List<Subscription> subscriptionList = new CopyOnWriteArrayList<Subscription>();
+	private ByteBuffer readBuffer = ByteBuffer.allocateDirect(8192);
 	
 	private Simulator sim;
 	private int port = 0;
-	private boolean connected = false;
+	private volatile boolean stopRequested = false;
 	
 	
 	public SettingsControllerServer(Simulator sim)
 	{
+		super("SettingsControllerServer");
 		this.sim = sim;
 		this.port = Simulator.getSettingsLoader().getSetting(Setting.SettingsControllerServer_port, 
 				SimulationDefaults.SettingsControllerServer_port);
@@ -67,177 +73,354 @@ public class SettingsControllerServer extends Thread
 	
 	public void run()
 	{		
-		String message = "";		
-		
 		try {
-            serverSocket = new ServerSocket(port);
-        } catch (IOException e) {
-            System.err.println("Could not listen on port:"+port);
-            return;
-        }
-          
-        System.out.println("settingsController Server started.");
-        
-        while(!isInterrupted())
-        {
-        	try {
-        		
-            	clientSocket = serverSocket.accept(); // wait for client	            
-    	      	out = new PrintWriter(clientSocket.getOutputStream(), true);
-    		  	in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-    		  	connected = true;
-    		  	
-    	    } catch (IOException e) {
-    	    	interrupt();
-    	    }  
-        	
-	        while(!isInterrupted() && connected)
-	        {
-	        	message = "";
-	        	String line = null;
-	        	
-	        	try{
-	        		line = in.readLine();
-	        		
-	        		while(line != null){
-	        			message = message + line;
-	        			if(line.equals("</Message>")){
-	        				while(in.ready())
-	        					in.readLine(); //flush
-	        				break;
-	        			}
-	        			message += "\n";
-	        			line = in.readLine();
-	        		}
-	        		
-	        	} catch(SocketException e){
-	        		System.out.println("Client disconnected.");
-	        		connected = false;
-	        		break;
-	        	} catch (Exception e){
-	            	System.out.println(e);
-	            	connected = false;
-	            	break;
-	        	}
-       		
-	        	if(message.equals("") || message.length() < 2){
-	        		connected = false;
-	        		break;
-	        	}
-	        	
-	        	String[] splitMessage = message.split("\\n", 4);
-	        	
-	        	String sizeOfMsg = splitMessage[0];
-	        	String status = splitMessage[1];
-	        	String messageTag = splitMessage[2];
-	        	
-	        	parseXML(splitMessage[3]);
-	        }
-        }
-        
-        System.out.println("Server closed.");
-		
-	}
-	
-	private static Document loadXMLFromString(String xml) throws Exception
-    {		
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        InputSource is = new InputSource(new StringReader(xml));
-        return builder.parse(is);
-    }
-	
-	/*
-	private static String getValue(String tag, Element element) {
-		NodeList nodes = element.getElementsByTagName(tag).item(0).getChildNodes();
-		Node node = (Node) nodes.item(0);
-		return node.getNodeValue();
-	}
-	*/
-	
-	private void parseXML(String xml) {
-		try {			
-			Document doc = loadXMLFromString(xml);			
-			doc.getDocumentElement().normalize();			
-			String response = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
-			
-			
-			NodeList nodes = doc.getElementsByTagName("Event");			
-			String eventName = (((Element) nodes.item(0)).getAttribute("Name"));
-			
-			
-			
-			nodes = doc.getElementsByTagName("DataValue");
-			DataValue[] dataValues = new DataValue[nodes.getLength()];
-			for (int i = 0; i < nodes.getLength(); i++) {
-				dataValues[i] = new DataValue((((Element) nodes.item(i)).getAttribute("Feature")), (((Element) nodes.item(i)).getAttribute("Value")));								
-			}
-			
-			if(eventName.equals("EstablishConnection")){
-				System.out.println("EstablishConnection"); //TODO
+			selector = Selector.open();
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.socket().setReuseAddress(true);
+			serverChannel.socket().bind(new InetSocketAddress(port));
+			serverChannel.configureBlocking(false);
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			System.err.println("Could not listen on port:"+port);
+			return;
+		}
+		
+		System.out.println("settingsController Server started.");
+		
+		while(!stopRequested)
+		{
+			try {
 				
-				response += "<Message><Event Name=\"ConnectionEstablished\"/>\n</Message>\n";			
-			}
-			else if(eventName.equals("DLChangeEvent")){
-				System.out.println("DLChangeEvent"); //TODO
+				selector.select();
 				
-				response += "<Message><Event Name=\"DLStatusEvent\"/>\n<Data><DataEntry Type=\"StringList\">\n<!-- identifier for the task that initiated the dl-change -->\n<DataValue Feature=\"id\" Value=\""+dataValues[0].getValue()+"\"/>\n<!-- info if dl-status change was successful -->\n<DataValue Feature=\"status\" Value=\"DLC_SUCCESS | DLC_FAIL\"/>\n<!-- example: further information if the dl-status could not be changed -->\n<DataValue Feature=\"info\" Value=\"could not be changed because of ...\"/>\n</DataEntry></Data>\n</Message>";
-			}
-			else if(eventName.equals("MarkerEvent")){
-				System.out.println("MarkerEvent"); //TODO
+				for(SelectionKey key : selector.selectedKeys())
+				{
+					if(!key.isValid())
+						continue;
+					
+					if(key.isAcceptable())
+						accept();
+					else if(key.isReadable())
+						read((ControllerConnection) key.attachment());
+				}
+				selector.selectedKeys().clear();
 				
-				response += "<Message><Event Name=\"MarkerStatusEvent\"/>\n<Data><DataEntry Type=\"StringList\">\n<!-- identifier for the task that controls the recording -->\n<DataValue Feature=\"id\" Value=\""+dataValues[0].getValue()+"\"/>\n<DataValue Feature=\"status\" Value=\"RECORDING_STARTED | RECORDING_STOPPED | RECORDING_START_FAILED | RECORDING_STOP_FAILED\"/>\n<!-- example: further information if the markers can't be set/removed-->\n<DataValue Feature=\"info\" Value=\"error because of ...\"/>\n</DataEntry></Data>\n</Message>";
-			}
-			else{
-				System.err.println("Unknow event received!");
-				return;
+				// write responses (and messages queued by other threads)
+				for(ControllerConnection connection : connectionList)
+					flush(connection);
+				
+			} catch (IOException e) {
+				System.err.println("SettingsControllerServer: " + e.toString());
 			}
+		}
+		
+		for(ControllerConnection connection : connectionList)
+			connection.close();
+		connectionList.clear();
+		
+		try {
+			serverChannel.close();
+			selector.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		
+		System.out.println("Server closed.");
+	}
+	
+	
+	private void accept() throws IOException
+	{
+		SocketChannel channel;
+		while((channel = serverChannel.accept()) != null)
+		{
+			ControllerConnection connection = new ControllerConnection(channel);
+			channel.register(selector, SelectionKey.OP_READ, connection);
+			connectionList.add(connection);
+			System.out.println("Client " + connection.getName() + " connected.");
+		}
+	}
+	
+	
+	private void read(ControllerConnection connection)
+	{
+		try {
 			
-			final byte[] utf8Bytes = response.getBytes("UTF-8");
+			boolean open = connection.read(readBuffer);
 			
-			System.out.println(utf8Bytes.length);
-        	
-        	byte[] length = new byte[4];
-        	ByteBuffer buff = ByteBuffer.allocate(4);
-        	buff.order(ByteOrder.LITTLE_ENDIAN);
-        	length = buff.putInt(utf8Bytes.length).array();			
+			// process all completely received requests (pipelining)
+			byte[] message;
+			while((message = connection.nextMessage()) != null)
+				processMessage(connection, message);
+			
+			if(!open)
+				disconnect(connection);
+			
+		} catch (IOException e) {
+			System.out.println("Client " + connection.getName() + " disconnected (" + e.getMessage() + ").");
+			disconnect(connection);
+		}
+	}
+	
+	
+	private void flush(ControllerConnection connection)
+	{
+		if(connection.isClosed())
+			return;
+		
+		try {
 			
-			response = (length[0] & 0xff) + " " + (length[1] & 0xff) + " " + (length[2] & 0xff) + " " + (length[3] & 0xff) + "\n"+
-						"0 0 0 0\n" +
-						"100 0 0 0\n" +
-						response;
+			connection.flush();
 			
-			out.println(response);
+			// only wait for OP_WRITE while socket buffer is full
+			SelectionKey key = connection.getChannel().keyFor(selector);
+			if(key != null && key.isValid())
+				key.interestOps(connection.hasPendingOutput() ? 
+						SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
 			
+		} catch (IOException e) {
+			System.out.println("Client " + connection.getName() + " disconnected (" + e.getMessage() + ").");
+			disconnect(connection);
+		}
+	}
+	
+	
+	private void disconnect(ControllerConnection connection)
+	{
+		if(!connection.isClosed())
+		{
+			connectionList.remove(connection);
+			removeSubscriptions(connection, null);
+			connection.close();
+			System.out.println("Client " + connection.getName() + " disconnected.");
+		}
+	}
+	
+	
+	/**
+	 * Returns all connected clients.
+	 */
+	public List<ControllerConnection> getConnectionList()
+	{
+		return connectionList;
+	}
+	
+	
+	/**
+	 * Wakes up the server thread in order to send messages queued by other 
+	 * threads (cf. ControllerConnection.send()).
+	 */
+	public void wakeup()
+	{
+		if(selector != null)
+			selector.wakeup();
+	}
+	
+	
+	private void processMessage(ControllerConnection connection, byte[] xml) 
+	{
+		ControllerMessage message;
+		try {
+			message = ControllerMessage.parse(xml, 0, xml.length);
 		} catch (Exception e) {
 			System.err.println("No valid XML data received!");
 			e.printStackTrace();
+			return;
 		}
 		
+		String eventName = message.getEventName();
+		List<DataValue> dataValues = message.getDataValueList();
+		String id = dataValues.isEmpty() ? "" : escape(dataValues.get(0).getValue());
 		
+		String response = XML_DECLARATION;
 		
+		if(eventName.equals("EstablishConnection")){
+			System.out.println("EstablishConnection"); //TODO
+			
+			response += "<Message><Event Name=\"ConnectionEstablished\"/>\n</Message>\n";			
+		}
+		else if(eventName.equals("DLChangeEvent")){
+			System.out.println("DLChangeEvent"); //TODO
+			
+			response += "<Message><Event Name=\"DLStatusEvent\"/>\n<Data><DataEntry Type=\"StringList\">\n<!-- identifier for the task that initiated the dl-change -->\n<DataValue Feature=\"id\" Value=\""+id+"\"/>\n<!-- info if dl-status change was successful -->\n<DataValue Feature=\"status\" Value=\"DLC_SUCCESS | DLC_FAIL\"/>\n<!-- example: further information if the dl-status could not be changed -->\n<DataValue Feature=\"info\" Value=\"could not be changed because of ...\"/>\n</DataEntry></Data>\n</Message>";
+		}
+		else if(eventName.equals("MarkerEvent")){
+			System.out.println("MarkerEvent"); //TODO
+			
+			response += "<Message><Event Name=\"MarkerStatusEvent\"/>\n<Data><DataEntry Type=\"StringList\">\n<!-- identifier for the task that controls the recording -->\n<DataValue Feature=\"id\" Value=\""+id+"\"/>\n<DataValue Feature=\"status\" Value=\"RECORDING_STARTED | RECORDING_STOPPED | RECORDING_START_FAILED | RECORDING_STOP_FAILED\"/>\n<!-- example: further information if the markers can't be set/removed-->\n<DataValue Feature=\"info\" Value=\"error because of ...\"/>\n</DataEntry></Data>\n</Message>";
+		}
+		else if(eventName.equals("SubscribeEvent")){
+			response += subscribe(connection, message);
+		}
+		else if(eventName.equals("UnsubscribeEvent")){
+			removeSubscriptions(connection, message.getValue("id", ""));
+			response += getSubscriptionStatus(message.getValue("id", ""), "UNSUBSCRIBED", "");
+		}
+		else{
+			System.err.println("Unknow event received!");
+			return;
+		}
 		
+		if(!connection.send(response))
+			System.err.println("Client " + connection.getName() + " does not read responses. Response dropped.");
 	}
+	
 
-	public void close(){		
-		if(connected){
-			try {
-				out.close();
-		        in.close();
-		        clientSocket.close();			
-			} catch (IOException e) {
-				e.printStackTrace();
+	/**
+	 * Subscribes the given client to the features given in the message:
+	 * <pre>
+	 * &lt;Message&gt;&lt;Event Name="SubscribeEvent"/&gt;
+	 * &lt;Data&gt;&lt;DataEntry Type="StringList"&gt;
+	 * &lt;DataValue Feature="id" Value="sub1"/&gt;
+	 * &lt;DataValue Feature="rate" Value="60"/&gt;
+	 * &lt;DataValue Feature="feature" Value="car.speed"/&gt;
+	 * &lt;DataValue Feature="feature" Value="traffic.car1.position.x,trigger.last"/&gt;
+	 * &lt;/DataEntry&gt;&lt;/Data&gt;
+	 * &lt;/Message&gt;
+	 * </pre>
+	 * An existing subscription with the same ID will be replaced. Features 
+	 * are listed in SubscriptionFeature.
+	 * 
+	 * @return
+	 * 			status message (SubscriptionStatusEvent)
+	 */
+	private String subscribe(ControllerConnection connection, ControllerMessage message)
+	{
+		String id = message.getValue("id", "");
+		
+		float rate;
+		try {
+			rate = Float.parseFloat(message.getValue("rate", "60"));
+		} catch (NumberFormatException e) {
+			return getSubscriptionStatus(id, "SUBSCRIPTION_FAILED", "invalid rate");
+		}
+		
+		if(!(rate > 0 && rate <= MAX_SUBSCRIPTION_RATE))
+			return getSubscriptionStatus(id, "SUBSCRIPTION_FAILED", "rate must be in (0, " + MAX_SUBSCRIPTION_RATE + "]");
+		
+		List<SubscriptionFeature> featureList = new ArrayList<SubscriptionFeature>();
+		String unknownFeatures = "";
+		for(DataValue dataValue : message.getDataValueList())
+		{
+			if(!dataValue.getFeature().equals("feature"))
+				continue;
+			
+			for(String featureName : dataValue.getValue().split(","))
+			{
+				featureName = featureName.trim();
+				if(featureName.length() == 0)
+					continue;
+				
+				SubscriptionFeature feature = SubscriptionFeature.create(featureName, sim);
+				if(feature != null)
+					featureList.add(feature);
+				else
+					unknownFeatures += (unknownFeatures.length() == 0 ? "" : ",") + featureName;
 			}
 		}
 		
-		try {
-			serverSocket.close();
-		} catch (IOException e) {
-			e.printStackTrace();
+		if(unknownFeatures.length() > 0)
+			return getSubscriptionStatus(id, "SUBSCRIPTION_FAILED", "unknown features: " + unknownFeatures);
+		
+		if(featureList.isEmpty())
+			return getSubscriptionStatus(id, "SUBSCRIPTION_FAILED", "no features given");
+		
+		removeSubscriptions(connection, id);
+		subscriptionList.add(new Subscription(id, connection, featureList, rate));
+		
+		return getSubscriptionStatus(id, "SUBSCRIBED", "");
+	}
+	
+	
+	private static String getSubscriptionStatus(String id, String status, String info)
+	{
+		return "<Message><Event Name=\"SubscriptionStatusEvent\"/>\n<Data><DataEntry Type=\"StringList\">\n" +
+				"<DataValue Feature=\"id\" Value=\"" + escape(id) + "\"/>\n" +
+				"<DataValue Feature=\"status\" Value=\"" + status + "\"/>\n" +
+				"<DataValue Feature=\"info\" Value=\"" + escape(info) + "\"/>\n" +
+				"</DataEntry></Data>\n</Message>";
+	}
+	
+	
+	/**
+	 * Removes the subscription with the given ID (or all subscriptions, 
+	 * if ID is null) of the given client.
+	 */
+	private void removeSubscriptions(ControllerConnection connection, String id)
+	{
+		for(Subscription subscription : subscriptionList)
+		{
+			if(subscription.getConnection() == connection && (id == null || subscription.getID().equals(id)))
+				subscriptionList.remove(subscription);
+		}
+	}
+	
+	
+	/**
+	 * Sends the current values of all subscribed features (complying with 
+	 * the rate of each subscription). Will be called every frame by the 
+	 * render thread.
+	 */
+	public void updateSubscriptions()
+	{
+		if(subscriptionList.isEmpty())
+			return;
+		
+		long now = System.nanoTime();
+		double simulationTime = TimerCenter.getSimulationTime();
+		
+		boolean messageQueued = false;
+		for(Subscription subscription : subscriptionList)
+			messageQueued |= subscription.update(now, simulationTime);
+		
+		if(messageQueued)
+			wakeup();
+	}
+	
+	
+	/**
+	 * Escapes the XML special characters of the given attribute value.
+	 */
+	static String escape(String value)
+	{
+		for(int i=0; i<value.length(); i++)
+		{
+			char c = value.charAt(i);
+			if(c == '<' || c == '>' || c == '&' || c == '"')
+			{
+				StringBuilder builder = new StringBuilder(value.length() + 16);
+				appendEscaped(builder, value);
+				return builder.toString();
+			}
 		}
 		
-		interrupt();
-	}	
-        
-        
-}
\ No newline at end of file
+		return value;
+	}
+	
+	
+	/**
+	 * Appends the given attribute value with XML special characters escaped.
+	 */
+	static void appendEscaped(StringBuilder builder, String value)
+	{
+		for(int i=0; i<value.length(); i++)
+		{
+			char c = value.charAt(i);
+			switch(c)
+			{
+				case '<': builder.append("&lt;"); break;
+				case '>': builder.append("&gt;"); break;
+				case '&': builder.append("&amp;"); break;
+				case '"': builder.append("&quot;"); break;
+				default: builder.append(c);
+			}
+		}
+	}
+	
+
+	public void close()
+	{
+		stopRequested = true;
+		wakeup();
+	}
+}
@@ -0,0 +1,157 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.settingsController;
+
+import java.util.List;
+
+/**
+ * Set of features a settings controller client has subscribed to. At the
+ * given rate, the current values of all features are sent in one message:
+ * <pre>
+ * &lt;Message&gt;&lt;Event Name="SubscriptionDataEvent"/&gt;
+ * &lt;Data&gt;&lt;DataEntry Type="StringList"&gt;
+ * &lt;DataValue Feature="id" Value="sub1"/&gt;
+ * &lt;DataValue Feature="time" Value="12.34"/&gt;
+ * &lt;DataValue Feature="car.speed" Value="48.2"/&gt;
+ * ...
+ * &lt;/DataEntry&gt;&lt;/Data&gt;
+ * &lt;/Message&gt;
+ * </pre>
+ * The constant parts of the message are built once when subscribing, so
+ * sending only requires appending the values to a reused builder.
+ *
+ * @author Rafael Math
+ */
+public class Subscription
+{
+	private String id;
+	private ControllerConnection connection;
+	private SubscriptionFeature[] features;
+	private long interval;
+	private long nextUpdate = System.nanoTime();
+	private long droppedMessages = 0;
+
+	// template: prefix + time + separators[0] + value[0] + ... + suffix
+	private String prefix;
+	private String[] separators;
+	private String suffix;
+	private StringBuilder message;
+
+
+	/**
+	 * @param id
+	 * 			ID given by the client
+	 *
+	 * @param connection
+	 * 			connection to send the messages to
+	 *
+	 * @param featureList
+	 * 			features to send
+	 *
+	 * @param rate
+	 * 			number of messages per second
+	 */
+	public Subscription(String id, ControllerConnection connection, List<SubscriptionFeature> featureList, float rate)
+	{
+		this.id = id;
+		this.connection = connection;
+		this.features = featureList.toArray(new SubscriptionFeature[featureList.size()]);
+		this.interval = (long) (1000000000L / rate);
+
+		prefix = SettingsControllerServer.XML_DECLARATION
+				+ "<Message><Event Name=\"SubscriptionDataEvent\"/>\n<Data><DataEntry Type=\"StringList\">\n"
+				+ "<DataValue Feature=\"id\" Value=\"" + SettingsControllerServer.escape(id) + "\"/>\n"
+				+ "<DataValue Feature=\"time\" Value=\"";
+
+		separators = new String[features.length];
+		for(int i=0; i<features.length; i++)
+			separators[i] = "\"/>\n<DataValue Feature=\"" + SettingsControllerServer.escape(features[i].getName())
+					+ "\" Value=\"";
+
+		suffix = "\"/>\n</DataEntry></Data>\n</Message>";
+
+		int capacity = prefix.length() + suffix.length();
+		for(String separator : separators)
+			capacity += separator.length() + 16;
+		message = new StringBuilder(capacity);
+	}
+
+
+	public String getID()
+	{
+		return id;
+	}
+
+
+	public ControllerConnection getConnection()
+	{
+		return connection;
+	}
+
+
+	/**
+	 * Number of messages dropped as the client did not read them.
+	 */
+	public long getDroppedMessages()
+	{
+		return droppedMessages;
+	}
+
+
+	/**
+	 * Sends the current feature values if the rate allows. Must be called
+	 * from the render thread.
+	 *
+	 * @param now
+	 * 			current time (System.nanoTime())
+	 *
+	 * @param simulationTime
+	 * 			current simulation time in seconds
+	 *
+	 * @return
+	 * 			true if a message has been queued
+	 */
+	boolean update(long now, double simulationTime)
+	{
+		if(now - nextUpdate < 0)
+			return false;
+
+		// keep rate, but do not try to catch up after a long frame
+		nextUpdate += interval;
+		if(now - nextUpdate >= 0)
+			nextUpdate = now + interval;
+
+		message.setLength(0);
+		message.append(prefix).append(simulationTime);
+		for(int i=0; i<features.length; i++)
+		{
+			message.append(separators[i]);
+			features[i].appendValue(message);
+		}
+		message.append(suffix);
+
+		if(!connection.send(message.toString()))
+		{
+			droppedMessages++;
+			return false;
+		}
+
+		return true;
+	}
+}
@@ -0,0 +1,178 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.settingsController;
+
+import com.jme3.math.Vector3f;
+
+import eu.opends.car.Car;
+import eu.opends.main.Simulator;
+import eu.opends.traffic.PhysicalTraffic;
+import eu.opends.traffic.TrafficCar;
+import eu.opends.trigger.TriggerCenter;
+
+/**
+ * Feature that can be subscribed by settings controller clients. Feature
+ * names are resolved once (when subscribing); afterwards appending the
+ * current value is a plain method call. Supported features:
+ * <pre>
+ * car.&lt;property&gt;               user-controlled car
+ * traffic.&lt;name&gt;.&lt;property&gt;    traffic car with the given name
+ * trigger.last                   ID of the trigger hit most recently
+ * trigger.count                  number of trigger hits
+ * </pre>
+ * where &lt;property&gt; is one of position.x, position.y, position.z, speed,
+ * heading, rpm, gear, gasPedal, brakePedal, steering, engineOn, lightOn,
+ * brakeLightOn, turnSignal.
+ *
+ * @author Rafael Math
+ */
+public class SubscriptionFeature
+{
+	private enum Property
+	{
+		POSITION_X("position.x"), POSITION_Y("position.y"), POSITION_Z("position.z"), SPEED("speed"),
+		HEADING("heading"), RPM("rpm"), GEAR("gear"), GAS_PEDAL("gasPedal"), BRAKE_PEDAL("brakePedal"),
+		STEERING("steering"), ENGINE_ON("engineOn"), LIGHT_ON("lightOn"), BRAKE_LIGHT_ON("brakeLightOn"),
+		TURN_SIGNAL("turnSignal"), LAST_TRIGGER("last"), TRIGGER_COUNT("count");
+
+		private String name;
+
+		private Property(String name)
+		{
+			this.name = name;
+		}
+
+		private static Property parse(String name, boolean isCarProperty)
+		{
+			for(Property property : values())
+			{
+				boolean isTriggerProperty = (property == LAST_TRIGGER || property == TRIGGER_COUNT);
+				if(property.name.equals(name) && isTriggerProperty != isCarProperty)
+					return property;
+			}
+			return null;
+		}
+	}
+
+	private String name;
+	private Car car;
+	private Property property;
+	private Vector3f position = new Vector3f();
+
+
+	private SubscriptionFeature(String name, Car car, Property property)
+	{
+		this.name = name;
+		this.car = car;
+		this.property = property;
+	}
+
+
+	/**
+	 * Resolves the given feature name.
+	 *
+	 * @param name
+	 * 			feature name, e.g. "car.speed" or "traffic.car1.position.x"
+	 *
+	 * @param sim
+	 * 			simulator
+	 *
+	 * @return
+	 * 			feature or null if name is unknown
+	 */
+	public static SubscriptionFeature create(String name, Simulator sim)
+	{
+		if(name.startsWith("car."))
+		{
+			Property property = Property.parse(name.substring(4), true);
+			if(property != null)
+				return new SubscriptionFeature(name, sim.getCar(), property);
+		}
+		else if(name.startsWith("traffic."))
+		{
+			// traffic car names may contain dots --> try every split position
+			PhysicalTraffic physicalTraffic = sim.getPhysicalTraffic();
+			int index = name.indexOf('.', 8);
+			while(index > 0 && physicalTraffic != null)
+			{
+				TrafficCar trafficCar = physicalTraffic.getTrafficCar(name.substring(8, index));
+				Property property = Property.parse(name.substring(index+1), true);
+				if(trafficCar != null && property != null && isAvailable(trafficCar, property))
+					return new SubscriptionFeature(name, trafficCar, property);
+
+				index = name.indexOf('.', index+1);
+			}
+		}
+		else if(name.startsWith("trigger."))
+		{
+			Property property = Property.parse(name.substring(8), false);
+			if(property != null)
+				return new SubscriptionFeature(name, null, property);
+		}
+
+		return null;
+	}
+
+
+	private static boolean isAvailable(Car car, Property property)
+	{
+		// traffic cars do not have a transmission
+		if(property == Property.RPM || property == Property.GEAR)
+			return car.getTransmission() != null;
+		
+		return true;
+	}
+
+
+	public String getName()
+	{
+		return name;
+	}
+
+
+	/**
+	 * Appends the current value of the feature. Must be called from the
+	 * render thread.
+	 *
+	 * @param builder
+	 * 			builder to append the value to
+	 */
+	void appendValue(StringBuilder builder)
+	{
+		switch(property)
+		{
+			case POSITION_X: builder.append(car.getCarControl().getPhysicsLocation(position).getX()); break;
+			case POSITION_Y: builder.append(car.getCarControl().getPhysicsLocation(position).getY()); break;
+			case POSITION_Z: builder.append(car.getCarControl().getPhysicsLocation(position).getZ()); break;
+			case SPEED: builder.append(car.getCurrentSpeedKmh()); break;
+			case HEADING: builder.append(car.getHeadingDegree()); break;
+			case RPM: builder.append(car.getTransmission().getRPM()); break;
+			case GEAR: builder.append(car.getTransmission().getGear()); break;
+			case GAS_PEDAL: builder.append(car.getGasPedalPressIntensity()); break;
+			case BRAKE_PEDAL: builder.append(car.getBrakePedalPressIntensity()); break;
+			case STEERING: builder.append(car.getSteeringWheelState()); break;
+			case ENGINE_ON: builder.append(car.isEngineOn()); break;
+			case LIGHT_ON: builder.append(car.isLightOn()); break;
+			case BRAKE_LIGHT_ON: builder.append(car.isBrakeLightOn()); break;
+			case TURN_SIGNAL: builder.append(car.getTurnSignal()); break;
+			case LAST_TRIGGER: SettingsControllerServer.appendEscaped(builder, TriggerCenter.getLastTriggerID()); break;
+			case TRIGGER_COUNT: builder.append(TriggerCenter.getTriggerCount()); break;
+		}
+	}
+}
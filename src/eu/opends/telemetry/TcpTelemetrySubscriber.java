@@ -0,0 +1,95 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.telemetry;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Sends telemetry frames over a non-blocking TCP connection. If the socket
+ * buffer is full, the unsent rest of the current frame is kept and newer
+ * frames are dropped until it has been written, so the stream always
+ * consists of complete frames and a slow receiver never stalls the
+ * simulator.
+ *
+ * @author Rafael Math
+ */
+public class TcpTelemetrySubscriber extends TelemetrySubscriber
+{
+	private SocketChannel channel;
+	private ByteBuffer pending = ByteBuffer.allocateDirect(TelemetryFrame.FRAME_SIZE);
+
+
+	/**
+	 * @param channel
+	 * 			connected channel (e.g. accepted by TelemetryPublisher)
+	 *
+	 * @param updateRate
+	 * 			maximum number of frames per second (0 = every frame)
+	 *
+	 * @throws IOException
+	 * 			if channel could not be switched to non-blocking mode
+	 */
+	public TcpTelemetrySubscriber(SocketChannel channel, int updateRate) throws IOException
+	{
+		super("tcp://" + channel.socket().getInetAddress().getHostAddress() + ":" + channel.socket().getPort(), updateRate);
+
+		this.channel = channel;
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+
+		pending.limit(0);
+	}
+
+
+	@Override
+	protected boolean write(ByteBuffer frame) throws IOException
+	{
+		// finish previous frame first
+		if(pending.hasRemaining())
+		{
+			channel.write(pending);
+			if(pending.hasRemaining())
+				return false;
+		}
+
+		channel.write(frame);
+		if(frame.hasRemaining())
+		{
+			// keep rest of frame for next call
+			pending.clear();
+			pending.put(frame);
+			pending.flip();
+		}
+
+		return true;
+	}
+
+
+	@Override
+	protected void closeChannel()
+	{
+		try {
+			channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,155 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.telemetry;
+
+import java.nio.ByteBuffer;
+
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+
+import eu.opends.car.Car;
+import eu.opends.car.LightTexturesContainer.TurnSignalState;
+
+/**
+ * Snapshot of the car state in a fixed-size binary frame (big-endian). The
+ * frame buffer is allocated once and overwritten on every capture, so
+ * capturing does not create any garbage.
+ *
+ * <pre>
+ *  0  int     magic number
+ *  4  byte    version
+ *  5  byte    flags (see FLAG_*)
+ *  6  byte    gear
+ *  7  byte    reserved
+ *  8  int     sequence number
+ * 12  long    wall clock time stamp (ms since 1970)
+ * 20  double  simulation time (s)
+ * 28  float   position x, y, z (model coordinates)
+ * 40  float   rotation x, y, z, w (quaternion)
+ * 56  float   speed (km/h)
+ * 60  float   gas pedal (0..1)
+ * 64  float   brake pedal (0..1)
+ * 68  float   steering wheel state (-1..1)
+ * 72  float   engine RPM
+ * </pre>
+ *
+ * @author Rafael Math
+ */
+public class TelemetryFrame
+{
+	public static final int MAGIC = 0x4F445446; // "ODTF"
+	public static final byte VERSION = 1;
+	public static final int FRAME_SIZE = 76;
+
+	public static final int FLAG_ENGINE_ON = 1;
+	public static final int FLAG_LIGHT_ON = 2;
+	public static final int FLAG_BRAKE_LIGHT_ON = 4;
+	public static final int FLAG_BLINKER_LEFT = 8;
+	public static final int FLAG_BLINKER_RIGHT = 16;
+
+	public static final int MAGIC_OFFSET = 0;
+	public static final int VERSION_OFFSET = 4;
+	public static final int FLAGS_OFFSET = 5;
+	public static final int GEAR_OFFSET = 6;
+	public static final int SEQUENCE_OFFSET = 8;
+	public static final int TIME_OFFSET = 12;
+	public static final int SIMULATION_TIME_OFFSET = 20;
+	public static final int POSITION_OFFSET = 28;
+	public static final int ROTATION_OFFSET = 40;
+	public static final int SPEED_OFFSET = 56;
+	public static final int GAS_OFFSET = 60;
+	public static final int BRAKE_OFFSET = 64;
+	public static final int STEERING_OFFSET = 68;
+	public static final int RPM_OFFSET = 72;
+
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(FRAME_SIZE);
+	private Vector3f position = new Vector3f();
+	private Quaternion rotation = new Quaternion();
+	private int sequenceNumber = 0;
+
+
+	/**
+	 * Writes the current state of the given car to the frame.
+	 *
+	 * @param car
+	 * 			car to capture
+	 *
+	 * @param simulationTime
+	 * 			current simulation time in seconds
+	 */
+	public void capture(Car car, double simulationTime)
+	{
+		car.getCarControl().getPhysicsLocation(position);
+		car.getCarControl().getPhysicsRotation(rotation);
+
+		TurnSignalState turnSignal = car.getTurnSignal();
+		int flags = 0;
+		if(car.isEngineOn())
+			flags |= FLAG_ENGINE_ON;
+		if(car.isLightOn())
+			flags |= FLAG_LIGHT_ON;
+		if(car.isBrakeLightOn())
+			flags |= FLAG_BRAKE_LIGHT_ON;
+		if(turnSignal == TurnSignalState.LEFT || turnSignal == TurnSignalState.BOTH)
+			flags |= FLAG_BLINKER_LEFT;
+		if(turnSignal == TurnSignalState.RIGHT || turnSignal == TurnSignalState.BOTH)
+			flags |= FLAG_BLINKER_RIGHT;
+
+		buffer.putInt(MAGIC_OFFSET, MAGIC);
+		buffer.put(VERSION_OFFSET, VERSION);
+		buffer.put(FLAGS_OFFSET, (byte) flags);
+		buffer.put(GEAR_OFFSET, (byte) car.getTransmission().getGear());
+		buffer.put(GEAR_OFFSET + 1, (byte) 0);
+		buffer.putInt(SEQUENCE_OFFSET, sequenceNumber++);
+		buffer.putLong(TIME_OFFSET, System.currentTimeMillis());
+		buffer.putDouble(SIMULATION_TIME_OFFSET, simulationTime);
+		buffer.putFloat(POSITION_OFFSET, position.getX());
+		buffer.putFloat(POSITION_OFFSET + 4, position.getY());
+		buffer.putFloat(POSITION_OFFSET + 8, position.getZ());
+		buffer.putFloat(ROTATION_OFFSET, rotation.getX());
+		buffer.putFloat(ROTATION_OFFSET + 4, rotation.getY());
+		buffer.putFloat(ROTATION_OFFSET + 8, rotation.getZ());
+		buffer.putFloat(ROTATION_OFFSET + 12, rotation.getW());
+		buffer.putFloat(SPEED_OFFSET, car.getCurrentSpeedKmh());
+		buffer.putFloat(GAS_OFFSET, car.getGasPedalPressIntensity());
+		buffer.putFloat(BRAKE_OFFSET, car.getBrakePedalPressIntensity());
+		buffer.putFloat(STEERING_OFFSET, car.getSteeringWheelState());
+		buffer.putFloat(RPM_OFFSET, car.getTransmission().getRPM());
+	}
+
+
+	/**
+	 * Rewinds the frame buffer (position 0, limit FRAME_SIZE) and returns it.
+	 * Must not be modified; the content will change with the next capture.
+	 *
+	 * @return
+	 * 			frame buffer
+	 */
+	public ByteBuffer getBuffer()
+	{
+		buffer.clear();
+		return buffer;
+	}
+
+
+	public int getSequenceNumber()
+	{
+		return sequenceNumber - 1;
+	}
+}
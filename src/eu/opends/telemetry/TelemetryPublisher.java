@@ -0,0 +1,180 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.telemetry;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import eu.opends.car.Car;
+
+/**
+ * Telemetry bus of the simulator. Once per frame the car state is captured
+ * into a single reusable binary frame (cf. TelemetryFrame), which is fanned
+ * out to all subscribers, each with its own rate limit. External tools
+ * (dashboards, motion platforms, loggers) can attach by joining the UDP
+ * multicast group or by connecting to the TCP port; all I/O is non-blocking,
+ * so subscribers cannot stall the render loop.
+ *
+ * @author Rafael Math
+ */
+public class TelemetryPublisher
+{
+	private TelemetryFrame frame = new TelemetryFrame();
+	private List<TelemetrySubscriber> subscriberList = new CopyOnWriteArrayList<TelemetrySubscriber>();
+	private ServerSocketChannel serverChannel = null;
+	private int tcpUpdateRate;
+
+
+	/**
+	 * Creates a telemetry publisher without subscribers.
+	 */
+	public TelemetryPublisher()
+	{
+	}
+
+
+	/**
+	 * Accepts TCP subscribers at the given port. Connections will be accepted
+	 * during publish(), so no additional thread is needed.
+	 *
+	 * @param port
+	 * 			TCP port to listen at
+	 *
+	 * @param updateRate
+	 * 			maximum number of frames per second for each TCP subscriber
+	 *
+	 * @throws IOException
+	 * 			if port could not be bound
+	 */
+	public void listen(int port, int updateRate) throws IOException
+	{
+		tcpUpdateRate = updateRate;
+
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.socket().setReuseAddress(true);
+		serverChannel.socket().bind(new InetSocketAddress(port));
+		serverChannel.configureBlocking(false);
+	}
+
+
+	/**
+	 * Adds a subscriber (may be called from any thread).
+	 *
+	 * @param subscriber
+	 * 			subscriber to add
+	 */
+	public void addSubscriber(TelemetrySubscriber subscriber)
+	{
+		subscriberList.add(subscriber);
+	}
+
+
+	/**
+	 * Removes and closes the given subscriber (may be called from any thread).
+	 *
+	 * @param subscriber
+	 * 			subscriber to remove
+	 */
+	public void removeSubscriber(TelemetrySubscriber subscriber)
+	{
+		subscriberList.remove(subscriber);
+		subscriber.close();
+	}
+
+
+	public List<TelemetrySubscriber> getSubscriberList()
+	{
+		return subscriberList;
+	}
+
+
+	/**
+	 * Captures the current state of the given car and sends it to every
+	 * subscriber whose rate limit allows. Will be called once per frame.
+	 *
+	 * @param car
+	 * 			car to capture
+	 *
+	 * @param simulationTime
+	 * 			current simulation time in seconds
+	 */
+	public void publish(Car car, double simulationTime)
+	{
+		acceptSubscribers();
+
+		if(subscriberList.isEmpty())
+			return;
+
+		frame.capture(car, simulationTime);
+
+		long now = System.nanoTime();
+		for(TelemetrySubscriber subscriber : subscriberList)
+		{
+			ByteBuffer buffer = frame.getBuffer();
+			if(!subscriber.offer(buffer, now))
+				subscriberList.remove(subscriber);
+		}
+	}
+
+
+	private void acceptSubscribers()
+	{
+		if(serverChannel == null)
+			return;
+
+		try {
+
+			SocketChannel channel;
+			while((channel = serverChannel.accept()) != null)
+			{
+				TelemetrySubscriber subscriber = new TcpTelemetrySubscriber(channel, tcpUpdateRate);
+				subscriberList.add(subscriber);
+				System.out.println("Telemetry subscriber " + subscriber.getName() + " connected");
+			}
+
+		} catch (IOException e) {
+			System.err.println("TelemetryPublisher_acceptSubscribers(): " + e.toString());
+		}
+	}
+
+
+	/**
+	 * Closes all subscribers and the TCP port.
+	 */
+	public void close()
+	{
+		for(TelemetrySubscriber subscriber : subscriberList)
+			subscriber.close();
+		subscriberList.clear();
+
+		if(serverChannel != null)
+		{
+			try {
+				serverChannel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,147 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.telemetry;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receiver of telemetry frames with its own rate limit. Frames will only be
+ * delivered if at least 1/updateRate seconds have passed since the last
+ * delivery. Implementations must not block (called by the render thread).
+ *
+ * @author Rafael Math
+ */
+public abstract class TelemetrySubscriber
+{
+	private String name;
+	private long fireInterval;
+	private long timeOfLastFire = 0;
+	private long sentFrames = 0;
+	private long droppedFrames = 0;
+	private boolean closed = false;
+
+
+	/**
+	 * @param name
+	 * 			name for log messages (e.g. remote address)
+	 *
+	 * @param updateRate
+	 * 			maximum number of frames per second (0 = every frame)
+	 */
+	public TelemetrySubscriber(String name, int updateRate)
+	{
+		this.name = name;
+		this.fireInterval = (updateRate > 0) ? (1000000000L / updateRate) : 0;
+	}
+
+
+	/**
+	 * Delivers the given frame if the rate limit allows.
+	 *
+	 * @param frame
+	 * 			frame to deliver
+	 *
+	 * @param now
+	 * 			current time (System.nanoTime())
+	 *
+	 * @return
+	 * 			false if subscriber has failed and should be removed
+	 */
+	boolean offer(ByteBuffer frame, long now)
+	{
+		if(closed)
+			return false;
+
+		if((sentFrames + droppedFrames) > 0 && now - timeOfLastFire < fireInterval)
+			return true;
+
+		try {
+
+			if(write(frame))
+				sentFrames++;
+			else
+				droppedFrames++;
+
+			// keep the rate even if frames arrive irregularly
+			if(now - timeOfLastFire >= 2*fireInterval)
+				timeOfLastFire = now;
+			else
+				timeOfLastFire += fireInterval;
+
+			return true;
+
+		} catch (IOException e) {
+
+			System.err.println("Telemetry subscriber " + name + " removed: " + e.toString());
+			close();
+			return false;
+		}
+	}
+
+
+	/**
+	 * Writes the given frame without blocking.
+	 *
+	 * @param frame
+	 * 			frame to write (position 0, limit FRAME_SIZE)
+	 *
+	 * @return
+	 * 			true if frame was sent, false if it was dropped (e.g. as the
+	 * 			receiver does not keep up)
+	 *
+	 * @throws IOException
+	 * 			if subscriber cannot receive any more frames
+	 */
+	protected abstract boolean write(ByteBuffer frame) throws IOException;
+
+
+	/**
+	 * Releases the underlying channel.
+	 */
+	protected abstract void closeChannel();
+
+
+	public void close()
+	{
+		if(!closed)
+		{
+			closed = true;
+			closeChannel();
+		}
+	}
+
+
+	public String getName()
+	{
+		return name;
+	}
+
+
+	public long getSentFrames()
+	{
+		return sentFrames;
+	}
+
+
+	public long getDroppedFrames()
+	{
+		return droppedFrames;
+	}
+}
@@ -0,0 +1,79 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.telemetry;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Sends every telemetry frame as one UDP datagram to the given address. If
+ * a multicast group is given, any number of receivers that joined the group
+ * will get the frames at the cost of a single send.
+ *
+ * @author Rafael Math
+ */
+public class UdpTelemetrySubscriber extends TelemetrySubscriber
+{
+	private DatagramChannel channel;
+	private InetSocketAddress address;
+
+
+	/**
+	 * @param host
+	 * 			IP or host name of receiver (or multicast group, e.g. 239.0.0.1)
+	 *
+	 * @param port
+	 * 			UDP port of receiver(s)
+	 *
+	 * @param updateRate
+	 * 			maximum number of frames per second (0 = every frame)
+	 *
+	 * @throws IOException
+	 * 			if channel could not be opened
+	 */
+	public UdpTelemetrySubscriber(String host, int port, int updateRate) throws IOException
+	{
+		super("udp://" + host + ":" + port, updateRate);
+
+		address = new InetSocketAddress(host, port);
+		channel = DatagramChannel.open();
+		channel.configureBlocking(false);
+	}
+
+
+	@Override
+	protected boolean write(ByteBuffer frame) throws IOException
+	{
+		// returns 0 if there is no room in the send buffer --> drop frame
+		return channel.send(frame, address) > 0;
+	}
+
+
+	@Override
+	protected void closeChannel()
+	{
+		try {
+			channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.tools;
+
+import eu.opends.tools.TimerWheel.Task;
+
+/**
+ * Central scheduler for delayed actions (e.g. trigger actions, delayed
+ * sounds). Instead of starting a sleeping thread per action, tasks are
+ * stored in timer wheels which are advanced once per frame by the
+ * simulator's update loop. Hence, all tasks will be run on the render
+ * thread and may safely modify the scene graph.
+ *
+ * Two clocks are available: simulation time, which stops while the
+ * simulator is paused, and real time, which keeps running (e.g. to end
+ * a pause after a given duration).
+ *
+ * @author Rafael Math
+ */
+public class TimerCenter
+{
+	private static TimerWheel simulationTimeWheel = new TimerWheel();
+	private static TimerWheel realTimeWheel = new TimerWheel();
+
+
+	/**
+	 * Runs the given runnable on the render thread after the given amount
+	 * of simulation time (not counting pauses) has passed by.
+	 *
+	 * @param delay
+	 * 			delay in seconds (0: run at next update)
+	 *
+	 * @param runnable
+	 * 			runnable to run
+	 *
+	 * @return
+	 * 			handle for canceling the task
+	 */
+	public static Task schedule(float delay, Runnable runnable)
+	{
+		return simulationTimeWheel.schedule(delay, runnable);
+	}
+
+
+	/**
+	 * Runs the given runnable on the render thread after the given amount
+	 * of real time (including pauses) has passed by.
+	 *
+	 * @param delay
+	 * 			delay in seconds (0: run at next update)
+	 *
+	 * @param runnable
+	 * 			runnable to run
+	 *
+	 * @return
+	 * 			handle for canceling the task
+	 */
+	public static Task scheduleRealTime(float delay, Runnable runnable)
+	{
+		return realTimeWheel.schedule(delay, runnable);
+	}
+
+
+	/**
+	 * Advances both clocks and runs all due tasks. Must be called once per
+	 * frame by the render thread.
+	 *
+	 * @param tpf
+	 * 			time per frame
+	 *
+	 * @param pause
+	 * 			true, if simulator is paused (simulation time will not advance)
+	 */
+	public static void update(float tpf, boolean pause)
+	{
+		realTimeWheel.advance(tpf);
+		simulationTimeWheel.advance(pause ? 0 : tpf);
+	}
+
+
+	/**
+	 * Simulation time (seconds since start, not counting pauses).
+	 */
+	public static double getSimulationTime()
+	{
+		return simulationTimeWheel.getTime();
+	}
+
+
+	/**
+	 * Real time (seconds since start, including pauses).
+	 */
+	public static double getRealTime()
+	{
+		return realTimeWheel.getTime();
+	}
+
+
+	/**
+	 * Number of tasks waiting to be run.
+	 */
+	public static int getPendingTasks()
+	{
+		return simulationTimeWheel.getPendingTasks() + realTimeWheel.getPendingTasks();
+	}
+}
@@ -0,0 +1,229 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.tools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Hashed timer wheel driven by an external clock: the wheel does not have
+ * a thread of its own, time is advanced by calling advance() (e.g. once per
+ * frame) and all due tasks will be run by the calling thread. Tasks are
+ * stored in the slot of their deadline tick, so scheduling and advancing
+ * is O(1) per task (independent of the number of pending tasks).
+ *
+ * Tasks may be scheduled from any thread; they will be added to the wheel
+ * at the next call of advance().
+ *
+ * @author Rafael Math
+ */
+public class TimerWheel
+{
+	// resolution of the wheel in seconds
+	private static final double TICK_DURATION = 0.01;
+
+	// number of slots (must be a power of two)
+	private static final int WHEEL_SIZE = 512;
+	private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+	private List<List<Task>> slots = new ArrayList<List<Task>>(WHEEL_SIZE);
+	private ConcurrentLinkedQueue<Task> newTasks = new ConcurrentLinkedQueue<Task>();
+	private List<Task> dueTasks = new ArrayList<Task>();
+	private volatile double time = 0;
+	private long currentTick = 0;
+	private long sequenceNumber = 0;
+	private int size = 0;
+
+
+	private static final Comparator<Task> DEADLINE_ORDER = new Comparator<Task>()
+	{
+		@Override
+		public int compare(Task task1, Task task2)
+		{
+			if(task1.deadline != task2.deadline)
+				return (task1.deadline < task2.deadline) ? -1 : 1;
+
+			if(task1.sequenceNumber != task2.sequenceNumber)
+				return (task1.sequenceNumber < task2.sequenceNumber) ? -1 : 1;
+
+			return 0;
+		}
+	};
+
+
+	/**
+	 * Handle of a scheduled task, which can be used to cancel the task.
+	 */
+	public static class Task
+	{
+		private Runnable runnable;
+		private double deadline;
+		private long deadlineTick;
+		private long sequenceNumber;
+		private volatile boolean cancelled = false;
+
+
+		private Task(Runnable runnable, double deadline)
+		{
+			this.runnable = runnable;
+			this.deadline = deadline;
+			this.deadlineTick = (long) Math.ceil(deadline / TICK_DURATION);
+		}
+
+
+		/**
+		 * Prevents the task from being run (if not yet run).
+		 */
+		public void cancel()
+		{
+			cancelled = true;
+		}
+
+
+		public boolean isCancelled()
+		{
+			return cancelled;
+		}
+
+
+		public double getDeadline()
+		{
+			return deadline;
+		}
+	}
+
+
+	public TimerWheel()
+	{
+		for(int i=0; i<WHEEL_SIZE; i++)
+			slots.add(new ArrayList<Task>(4));
+	}
+
+
+	/**
+	 * Schedules the given runnable to be run after the given amount of time
+	 * (in seconds of this wheel's clock) has passed by.
+	 *
+	 * @param delay
+	 * 			delay in seconds (0: run at next call of advance())
+	 *
+	 * @param runnable
+	 * 			runnable to run
+	 *
+	 * @return
+	 * 			handle of the task
+	 */
+	public Task schedule(float delay, Runnable runnable)
+	{
+		Task task = new Task(runnable, time + Math.max(0, delay));
+		newTasks.add(task);
+		return task;
+	}
+
+
+	/**
+	 * Advances the clock of this wheel by the given amount of time and runs
+	 * all tasks that have become due (in order of their deadlines).
+	 *
+	 * @param seconds
+	 * 			time passed by since last call
+	 */
+	public void advance(float seconds)
+	{
+		double newTime = time + Math.max(0, seconds);
+		long newTick = (long) Math.floor(newTime / TICK_DURATION);
+
+		// add tasks scheduled since last call
+		Task task;
+		while((task = newTasks.poll()) != null)
+		{
+			task.sequenceNumber = sequenceNumber++;
+			if(task.deadlineTick <= currentTick)
+				dueTasks.add(task);
+			else
+			{
+				slots.get((int) (task.deadlineTick & WHEEL_MASK)).add(task);
+				size++;
+			}
+		}
+
+		// collect due tasks from all slots passed by (at most one round)
+		long steps = Math.min(newTick - currentTick, WHEEL_SIZE);
+		for(long tick = currentTick + 1; tick <= currentTick + steps; tick++)
+		{
+			List<Task> slot = slots.get((int) (tick & WHEEL_MASK));
+			for(int i=slot.size()-1; i>=0; i--)
+			{
+				Task slotTask = slot.get(i);
+				if(slotTask.deadlineTick <= newTick)
+				{
+					// remove by swapping with last task of slot
+					slot.set(i, slot.get(slot.size()-1));
+					slot.remove(slot.size()-1);
+					size--;
+					dueTasks.add(slotTask);
+				}
+			}
+		}
+
+		currentTick = newTick;
+		time = newTime;
+
+		if(dueTasks.isEmpty())
+			return;
+
+		Collections.sort(dueTasks, DEADLINE_ORDER);
+
+		// tasks scheduled while running due tasks will be run at next call
+		List<Task> runTasks = dueTasks;
+		dueTasks = new ArrayList<Task>();
+		for(Task dueTask : runTasks)
+		{
+			if(!dueTask.cancelled)
+			{
+				try {
+					dueTask.runnable.run();
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Current time of this wheel's clock in seconds.
+	 */
+	public double getTime()
+	{
+		return time;
+	}
+
+
+	/**
+	 * Number of tasks waiting in the wheel.
+	 */
+	public int getPendingTasks()
+	{
+		return size + newTasks.size() + dueTasks.size();
+	}
+}
@@ -38,6 +38,10 @@ import com.jme3.scene.shape.Box;
 import eu.opends.main.Simulator;
 
 /**
+ * Box moving along the way points of a traffic car, which the car is 
+ * steering towards. The box moves at the speed of the way point it has 
+ * passed last; arc lengths and braking points of the path are computed 
+ * in advance (cf. PathProfile).
  * 
  * @author Rafael Math
  */
@@ -49,6 +53,7 @@ public class FollowBox
 	private List<Waypoint> waypointList;
 	private float maxDistance;
     private MotionPath motionPath;
+    private PathProfile pathProfile;
     private MotionTrack motionControl;
     private Spatial followBox;
 	private boolean setWayPoint = false;
@@ -74,6 +79,11 @@ public class FollowBox
 	    motionPath.setPathSplineType(SplineType.CatmullRom); // --> default: CatmullRom
 	    motionPath.setCurveTension(settings.getCurveTension());
 	    
+	    // arc lengths and braking points (braking with 50% brake force)
+	    float deceleration50Percent = 50f * vehicle.getMaxBrakeForce()/vehicle.getMass();
+	    pathProfile = new PathProfile(waypointList, settings.isPathCyclic(), settings.getCurveTension(), 
+	    		deceleration50Percent);
+	    
 	    if(settings.isPathVisible())
 	    	motionPath.enableDebugShape(sim.getAssetManager(), sim.getSceneNode());
 
@@ -99,6 +109,10 @@ public class FollowBox
 	    followBox = createFollowBox() ;
 	    motionControl = new MotionTrack(followBox,motionPath);
 	    
+	    // one second per meter --> speed factor of motion track equals speed in m/s,
+	    // which can be changed at every way point without moving the box
+	    motionControl.setInitialDuration(motionPath.getLength());
+	    
 	    // get start way point
 	    int startWayPointIndex = settings.getStartWayPointIndex();
         
@@ -282,20 +296,69 @@ public class FollowBox
 	
     public float getSpeed()
     {
-    	float duration = motionControl.getInitialDuration();
-    	float distanceMeters = motionPath.getLength();
-    	float speed = distanceMeters / duration;
-    	return 3.6f * speed;
+    	return 3.6f * motionControl.getSpeed();
     }
     
     
     public void setSpeed(float speedKmh)
     {
-    	float distanceMeters = motionPath.getLength();
-        float speed = speedKmh / 3.6f;
-        float duration = distanceMeters / speed;
-        motionControl.setInitialDuration(duration);
+        motionControl.setSpeed(speedKmh / 3.6f);
     }
+    
+    
+	/**
+	 * Distance in meters along the path between follow box and next way point.
+	 */
+	public float getDistanceToNextWayPoint()
+	{
+		int currentIndex = motionControl.getCurrentWayPoint();
+		if(currentIndex >= pathProfile.getNumberOfSegments())
+			return 0;
+		
+		return pathProfile.getDistanceToNextWayPoint(currentIndex, motionControl.getCurrentValue());
+	}
+
+	
+	/**
+	 * Distance in meters along the path between first way point and follow box.
+	 */
+	public float getDistanceFromStart()
+	{
+		int currentIndex = motionControl.getCurrentWayPoint();
+		if(currentIndex >= pathProfile.getNumberOfSegments())
+			return pathProfile.getTotalLength();
+		
+		return pathProfile.getDistanceFromStart(currentIndex, motionControl.getCurrentValue());
+	}
+	
+	
+	/**
+	 * Distance in meters along the path between follow box and the point where
+	 * braking for the next (lower) speed limit has to start. Negative, if this
+	 * point has already been passed; Float.POSITIVE_INFINITY, if no braking is 
+	 * necessary on the current segment.
+	 */
+	public float getDistanceToBrakingPoint()
+	{
+		int currentIndex = motionControl.getCurrentWayPoint();
+		if(currentIndex >= pathProfile.getNumberOfSegments() || pathProfile.getBrakingDistance(currentIndex) <= 0)
+			return Float.POSITIVE_INFINITY;
+		
+		return getDistanceToNextWayPoint() - pathProfile.getBrakingDistance(currentIndex);
+	}
+	
+	
+	/**
+	 * Speed limit (km/h) of the segment the follow box is currently moving on.
+	 */
+	public float getSpeedLimit()
+	{
+		int currentIndex = motionControl.getCurrentWayPoint();
+		if(currentIndex >= pathProfile.getNumberOfSegments())
+			return getSpeed();
+		
+		return pathProfile.getSpeed(currentIndex);
+	}
 
 
 	public Vector3f getPosition() 
@@ -331,16 +394,8 @@ public class FollowBox
     
 	private boolean maxDistanceExceeded(Vector3f vehiclePos) 
 	{
-		// get box's position on xz-plane (ignore y component)
-		Vector3f followBoxPosition = getPosition();
-		followBoxPosition.setY(0);
-		
-		// get vehicle's position on xz-plane (ignore y component)
-		Vector3f vehiclePosition = vehiclePos;
-		vehiclePosition.setY(0);
-		
-		// distance between box and vehicle
-		float currentDistance = followBoxPosition.distance(vehiclePosition);
+		// distance between box and vehicle on xz-plane (ignore y component)
+		float currentDistance = TrafficKinematics.getDistanceXZ(getPosition(), vehiclePos);
 		
 		// report whether maximum distance is exceeded 
 		return currentDistance > maxDistance;
@@ -351,81 +406,8 @@ public class FollowBox
 	{
 		// return a temporarily reduced speed for the traffic car
 		// in order to reach next (lower) speed limit in time
-		float reducedSpeedInKmh = Float.POSITIVE_INFINITY;
-		
-		// if next way point with lower speed comes closer --> reduce speed
 		int currentIndex = motionControl.getCurrentWayPoint();
-		Waypoint nextWP = getNextWayPoint(currentIndex);
-		if(nextWP != null)
-		{
-			// current way point (already passed)
-			Waypoint curentWP = waypointList.get(currentIndex);
-			
-			// speed at current way point
-			float currentSpeedInKmh = curentWP.getSpeed();
-			float currentSpeed = currentSpeedInKmh / 3.6f;
-			
-			// speed at next way point
-			float targetSpeedInKmh = nextWP.getSpeed();
-			float targetSpeed = targetSpeedInKmh / 3.6f;
-			
-			// if speed at the next WP is lower than at the current WP --> brake vehicle
-			if(targetSpeed < currentSpeed)
-			{
-				// % of traveled distance between current and next way point
-				float wayPercentage = motionControl.getCurrentValue();
-				
-				// distance between current and next way point
-				Vector3f currentPos = curentWP.getPosition().clone();
-				currentPos.setY(0);
-				Vector3f nextPos = nextWP.getPosition().clone();
-				nextPos.setY(0);
-				float distance = currentPos.distance(nextPos);
-				
-				// distance (in meters) between follow box and next way point
-				float distanceToNextWP = (1 - wayPercentage) * distance;
-			
-				// speed difference in m/s between current WP's speed and next WP's speed
-				float speedDifference = currentSpeed - targetSpeed;
-				
-				// compute the distance in front of the next WP at what the vehicle has to start 
-				// braking with 50% brake force in order to reach the next WP's (lower) speed in time.
-				float deceleration50Percent = 50f * vehicle.getMaxBrakeForce()/vehicle.getMass();
-				
-				// time in seconds needed for braking process
-				float time = speedDifference / deceleration50Percent;
-				
-				// distance covered during braking process
-				float coveredDistance = 0.5f * -deceleration50Percent * time * time + currentSpeed * time;
-
-				// start braking in x meters
-				float distanceToBrakingPoint = distanceToNextWP - coveredDistance;
-				
-				if(distanceToBrakingPoint < 0)
-				{
-					// reduce speed linearly beginning from braking point
-					
-					// % of traveled distance between braking point and next way point
-					float speedPercentage = -distanceToBrakingPoint/coveredDistance;
-					
-					//   0% traveled: reduced speed = currentSpeed
-					//  50% traveled: reduced speed = (currentSpeed+targetSpeed)/2
-					// 100% traveled: reduced speed = targetSpeed
-					float reducedSpeed = currentSpeed - (speedPercentage * speedDifference);
-					reducedSpeedInKmh = reducedSpeed * 3.6f;
-					
-					/*
-					if(vehicle.getName().equals("car1"))
-					{
-						float vehicleSpeedInKmh = vehicle.getLinearSpeedInKmh();
-						System.out.println(curentWP.getName() + " : " + speedPercentage + " : " + 
-								reducedSpeedInKmh + " : " + vehicleSpeedInKmh + " : " + targetSpeedInKmh);
-					}
-					*/
-				}
-			}
-		}
-		return reducedSpeedInKmh;
+		return pathProfile.getReducedSpeed(currentIndex, motionControl.getCurrentValue());
 	}
 
 }
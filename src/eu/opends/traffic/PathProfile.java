@@ -0,0 +1,280 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.traffic;
+
+import java.util.List;
+
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+
+/**
+ * Arc length and speed profile of a way point path, computed once from the
+ * Catmull-Rom spline through the way points (the same spline as used by
+ * MotionPath). Segment i leads from way point i to its successor; positions
+ * on a segment are given as fraction (0 .. 1) of the segment length, which
+ * is what MotionTrack.getCurrentValue() reports (cf. MotionPath.
+ * getWayPointIndexForDistance()), so the distance covered on a segment is
+ * value * segment length. All queries take constant time and do not
+ * allocate any objects.
+ *
+ * The speed profile of a segment is the speed of its first way point. If
+ * the next way point has a lower speed, the speed is reduced linearly from
+ * the braking point on, which is located in front of the next way point at
+ * the distance needed to decelerate to the lower speed.
+ *
+ * @author Rafael Math
+ */
+public class PathProfile
+{
+	// number of samples per segment used to measure its arc length
+	private static final int SAMPLES_PER_SEGMENT = 32;
+
+	private int numberOfSegments;
+	private float[] speed;
+	private float[] segmentLength;
+	private float[] cumulativeDistance;
+	private float[] brakingDistance;
+
+
+	/**
+	 * @param waypointList
+	 * 			way points of the path
+	 *
+	 * @param isCyclic
+	 * 			if true, the last way point is connected to the first one
+	 *
+	 * @param curveTension
+	 * 			tension of the Catmull-Rom spline
+	 *
+	 * @param deceleration
+	 * 			deceleration (m/s^2) used to compute the braking points
+	 */
+	public PathProfile(List<Waypoint> waypointList, boolean isCyclic, float curveTension, float deceleration)
+	{
+		int numberOfWayPoints = waypointList.size();
+
+		if(numberOfWayPoints < 2)
+			numberOfSegments = 0;
+		else if(isCyclic)
+			numberOfSegments = numberOfWayPoints;
+		else
+			numberOfSegments = numberOfWayPoints - 1;
+
+		speed = new float[numberOfWayPoints];
+		for(int i=0; i<numberOfWayPoints; i++)
+			speed[i] = waypointList.get(i).getSpeed();
+
+		segmentLength = new float[numberOfSegments];
+		cumulativeDistance = new float[numberOfSegments + 1];
+		brakingDistance = new float[numberOfSegments];
+
+		Vector3f previousPoint = new Vector3f();
+		Vector3f point = new Vector3f();
+
+		for(int i=0; i<numberOfSegments; i++)
+		{
+			Vector3f p0 = getControlPoint(waypointList, i-1, isCyclic);
+			Vector3f p1 = getControlPoint(waypointList, i, isCyclic);
+			Vector3f p2 = getControlPoint(waypointList, i+1, isCyclic);
+			Vector3f p3 = getControlPoint(waypointList, i+2, isCyclic);
+
+			// sum up distances between sample points
+			float length = 0;
+			previousPoint.set(p1);
+			for(int k=1; k<=SAMPLES_PER_SEGMENT; k++)
+			{
+				float value = (float) k / SAMPLES_PER_SEGMENT;
+				FastMath.interpolateCatmullRom(value, curveTension, p0, p1, p2, p3, point);
+				length += point.distance(previousPoint);
+				previousPoint.set(point);
+			}
+
+			segmentLength[i] = length;
+			cumulativeDistance[i+1] = cumulativeDistance[i] + length;
+			brakingDistance[i] = computeBrakingDistance(speed[i], speed[(i+1) % numberOfWayPoints], deceleration);
+		}
+	}
+
+
+	private static Vector3f getControlPoint(List<Waypoint> waypointList, int index, boolean isCyclic)
+	{
+		int numberOfWayPoints = waypointList.size();
+
+		if(isCyclic)
+			return waypointList.get((index + numberOfWayPoints) % numberOfWayPoints).getPosition();
+
+		// open path: extend by reflecting the second (second last) way point at the first (last) one
+		if(index < 0)
+		{
+			Vector3f first = waypointList.get(0).getPosition();
+			return first.mult(2).subtractLocal(waypointList.get(1).getPosition());
+		}
+
+		if(index >= numberOfWayPoints)
+		{
+			Vector3f last = waypointList.get(numberOfWayPoints-1).getPosition();
+			return last.mult(2).subtractLocal(waypointList.get(numberOfWayPoints-2).getPosition());
+		}
+
+		return waypointList.get(index).getPosition();
+	}
+
+
+	private static float computeBrakingDistance(float speedKmh, float targetSpeedKmh, float deceleration)
+	{
+		float currentSpeed = speedKmh / 3.6f;
+		float targetSpeed = targetSpeedKmh / 3.6f;
+
+		if(targetSpeed >= currentSpeed || deceleration <= 0)
+			return 0;
+
+		// time in seconds needed for braking process
+		float time = (currentSpeed - targetSpeed) / deceleration;
+
+		// distance covered during braking process
+		return 0.5f * -deceleration * time * time + currentSpeed * time;
+	}
+
+
+	public int getNumberOfSegments()
+	{
+		return numberOfSegments;
+	}
+
+
+	/**
+	 * Length of the whole path in meters.
+	 */
+	public float getTotalLength()
+	{
+		return cumulativeDistance[numberOfSegments];
+	}
+
+
+	/**
+	 * Length of the given segment in meters.
+	 */
+	public float getSegmentLength(int segment)
+	{
+		return segmentLength[segment];
+	}
+
+
+	/**
+	 * Distance in meters along the path from the first way point to the
+	 * given position.
+	 *
+	 * @param segment
+	 * 			index of segment (0 .. getNumberOfSegments()-1)
+	 *
+	 * @param value
+	 * 			position on segment as fraction of its length (0 .. 1)
+	 */
+	public float getDistanceFromStart(int segment, float value)
+	{
+		return cumulativeDistance[segment] + getDistanceOnSegment(segment, value);
+	}
+
+
+	/**
+	 * Distance in meters along the path from the given position to the end
+	 * of the segment (i.e. the next way point).
+	 *
+	 * @param segment
+	 * 			index of segment (0 .. getNumberOfSegments()-1)
+	 *
+	 * @param value
+	 * 			position on segment as fraction of its length (0 .. 1)
+	 */
+	public float getDistanceToNextWayPoint(int segment, float value)
+	{
+		return segmentLength[segment] - getDistanceOnSegment(segment, value);
+	}
+
+
+	/**
+	 * Distance in meters in front of the next way point, at which braking
+	 * has to start in order to reach its (lower) speed in time.
+	 *
+	 * @return
+	 * 			braking distance or 0 if no braking is necessary
+	 */
+	public float getBrakingDistance(int segment)
+	{
+		return brakingDistance[segment];
+	}
+
+
+	/**
+	 * Speed limit of the given segment (speed of the way point at its
+	 * beginning) in km/h.
+	 */
+	public float getSpeed(int segment)
+	{
+		return speed[segment];
+	}
+
+
+	/**
+	 * Temporarily reduced speed at the given position in order to reach the
+	 * next (lower) speed limit in time.
+	 *
+	 * @param segment
+	 * 			index of segment
+	 *
+	 * @param value
+	 * 			position on segment as fraction of its length (0 .. 1)
+	 *
+	 * @return
+	 * 			reduced speed in km/h or Float.POSITIVE_INFINITY if no
+	 * 			reduction necessary
+	 */
+	public float getReducedSpeed(int segment, float value)
+	{
+		if(segment < 0 || segment >= numberOfSegments || brakingDistance[segment] <= 0)
+			return Float.POSITIVE_INFINITY;
+
+		float coveredDistance = brakingDistance[segment];
+
+		// start braking in x meters
+		float distanceToBrakingPoint = getDistanceToNextWayPoint(segment, value) - coveredDistance;
+
+		if(distanceToBrakingPoint >= 0)
+			return Float.POSITIVE_INFINITY;
+
+		// reduce speed linearly beginning from braking point
+
+		// % of traveled distance between braking point and next way point
+		float speedPercentage = -distanceToBrakingPoint/coveredDistance;
+
+		//   0% traveled: reduced speed = currentSpeed
+		//  50% traveled: reduced speed = (currentSpeed+targetSpeed)/2
+		// 100% traveled: reduced speed = targetSpeed
+		float currentSpeedInKmh = speed[segment];
+		float targetSpeedInKmh = speed[(segment+1) % speed.length];
+		return currentSpeedInKmh - (speedPercentage * (currentSpeedInKmh - targetSpeedInKmh));
+	}
+
+
+	private float getDistanceOnSegment(int segment, float value)
+	{
+		// value is the share of the segment length traveled so far
+		return Math.max(Math.min(value, 1f), 0f) * segmentLength[segment];
+	}
+}
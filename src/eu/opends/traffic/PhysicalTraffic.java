@@ -19,29 +19,98 @@
 package eu.opends.traffic;
 
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.LockSupport;
 
+import com.jme3.math.Vector3f;
+
+import eu.opends.drivingTask.settings.SettingsLoader.Setting;
+import eu.opends.main.SimulationDefaults;
 import eu.opends.main.Simulator;
 
 /**
+ * Updates all traffic cars. Each update consists of three phases: 
+ * the state of all cars is copied from the scene graph (sense), the 
+ * decisions are computed from these copies (plan) and finally passed 
+ * to the cars (apply). Only the plan phase is expensive (each car looks 
+ * for obstacles among the cars nearby, cf. TrafficGrid); it is run by 
+ * this thread at a fixed rate, independent of the frame rate, and for 
+ * large numbers of cars distributed among all processor cores.
+ * 
+ * Sense and apply are run by the render thread (cf. update()). The 
+ * phases are coupled by a hand-over flag: the render thread only writes 
+ * a new copy of the state when the traffic thread is not planning, and 
+ * the traffic thread writes its decisions to the second of two command 
+ * buffers, which is swapped with the applied one on the next hand-over. 
+ * Until then, the render thread keeps applying the previous decisions. 
+ * While waiting for a new copy, the traffic thread is parked.
+ * 
+ * Cars further away from the driving car than the kinematic radius 
+ * (setting "traffic/kinematicRadius") are moved without physics 
+ * (cf. TrafficCar.updateLevelOfDetail()).
  * 
  * @author Rafael Math
  */
 public class PhysicalTraffic extends Thread
 {
+	// grid cell size in meters
+	private static final float GRID_CELL_SIZE = 25.0f;
+	
+	// minimum number of cars to be planned by one task
+	private static final int CARS_PER_TASK = 32;
+	
 	private static ArrayList<TrafficCarData> vehicleDataList = new ArrayList<TrafficCarData>();
     private ArrayList<TrafficCar> vehicleList = new ArrayList<TrafficCar>();
-	private boolean isRunning = true;
+	private volatile boolean isRunning = true;
 	private int updateIntervalMsec = 20;
 	private long lastUpdate = 0;
+	
+	private Simulator sim;
+	private TrafficCar[] vehicles;
+	private TrafficCarState[] states;
+	private TrafficGrid grid;
+	private Vector3f egoPosition = new Vector3f();
+	private ForkJoinPool pool = null;
+	private float kinematicRadius;
+	
+	// set by render thread when state has been copied, reset by traffic thread when planned
+	private volatile boolean planRequested = false;
+	
+	// appliedCommands: render thread only, plannedCommands: owner as given by planRequested
+	private TrafficCommands appliedCommands;
+	private TrafficCommands plannedCommands;
+	private int failedPlans = 0;
 
        
 	public PhysicalTraffic(Simulator sim)
 	{
+		this.sim = sim;
+		
 		for(TrafficCarData vehicleData : vehicleDataList)
 		{
 			// build and add traffic car
 			vehicleList.add(new TrafficCar(sim, vehicleData));
 		}
+		
+		vehicles = vehicleList.toArray(new TrafficCar[vehicleList.size()]);
+		states = new TrafficCarState[vehicles.length];
+		for(int i=0; i<vehicles.length; i++)
+			states[i] = vehicles[i].getState();
+		grid = new TrafficGrid(GRID_CELL_SIZE, vehicles.length);
+		appliedCommands = new TrafficCommands(vehicles.length);
+		plannedCommands = new TrafficCommands(vehicles.length);
+		
+		kinematicRadius = Simulator.getSettingsLoader().getSetting(Setting.Traffic_kinematicRadius, 
+				SimulationDefaults.Traffic_kinematicRadius);
+		
+		// plan in parallel if there are enough cars for two tasks
+		int numberOfProcessors = Runtime.getRuntime().availableProcessors();
+		if(vehicles.length >= 2*CARS_PER_TASK && numberOfProcessors > 1)
+			pool = new ForkJoinPool(numberOfProcessors);
+		
+		setName("PhysicalTraffic");
+		setDaemon(true);
 	}
 	
 	
@@ -74,36 +143,138 @@ public class PhysicalTraffic extends Thread
 			
 			while (isRunning) 
 			{
-				long elapsedTime = System.currentTimeMillis() - lastUpdate;
-				
-				if (elapsedTime > updateIntervalMsec) 
+				// wait (without consuming CPU time) until render thread has copied state
+				if(!planRequested)
 				{
-					lastUpdate = System.currentTimeMillis();
-					
-					// update every vehicle
-					for(TrafficCar vehicle : vehicleList)
-						vehicle.update(vehicleList);
+					LockSupport.park(this);
+					continue;
 				}
-				else
+				
+				// wait until update interval has elapsed
+				long remainingTime = updateIntervalMsec - (System.currentTimeMillis() - lastUpdate);
+				if(remainingTime > 0)
 				{
-					// sleep until update interval has elapsed
 					try {
-						Thread.sleep(updateIntervalMsec - elapsedTime);
+						Thread.sleep(remainingTime);
 					} catch (InterruptedException e) {
+						if(isRunning)
+							e.printStackTrace();
+					}
+					continue;
+				}
+				
+				lastUpdate = System.currentTimeMillis();
+				
+				// plan every vehicle
+				try {
+					if(pool != null)
+						pool.invoke(new PlanTask(0, vehicles.length));
+					else
+						plan(0, vehicles.length);
+				} catch (RuntimeException e) {
+					// keep thread alive; cars not planned keep their older decisions in this buffer
+					if(failedPlans == 0)
+					{
+						System.err.println("PhysicalTraffic: planning failed");
 						e.printStackTrace();
 					}
+					failedPlans++;
 				}
+				
+				// hand over decisions (and state) to render thread
+				planRequested = false;
 			}
 			//System.out.println("PhysicalTraffic closed");
 		}
 	}
 	
 	
-	// TODO use thread instead
-	public void update()
+	/**
+	 * Updates all traffic cars. Must be called from the render thread 
+	 * once per frame. If the traffic thread has finished planning, its 
+	 * decisions are published and a new copy of the state is handed over 
+	 * for the next plan phase. The latest published decisions are applied 
+	 * to all cars in every frame.
+	 * 
+	 * @param tpf
+	 * 			time since last frame (seconds)
+	 */
+	public void update(float tpf)
 	{
-		for(TrafficCar vehicle : vehicleList)
-			vehicle.update(vehicleList);	
+		if(vehicles.length == 0)
+			return;
+		
+		boolean isPause = sim.isPause();
+		
+		if(!planRequested)
+		{
+			// publish decisions of last plan phase
+			TrafficCommands commands = appliedCommands;
+			appliedCommands = plannedCommands;
+			plannedCommands = commands;
+			
+			// sense
+			sim.getCar().getCarControl().getPhysicsLocation(egoPosition);
+			grid.clear();
+			for(int i=0; i<vehicles.length; i++)
+			{
+				vehicles[i].sense();
+				grid.add(i, states[i].position.x, states[i].position.z);
+			}
+			
+			// switch distant cars to kinematic mode and close cars to physics
+			if(!isPause)
+			{
+				for(TrafficCar vehicle : vehicles)
+					vehicle.updateLevelOfDetail(egoPosition, kinematicRadius);
+			}
+			
+			// hand over state to traffic thread
+			planRequested = true;
+			LockSupport.unpark(this);
+		}
+		
+		// apply
+		for(int i=0; i<vehicles.length; i++)
+			vehicles[i].apply(isPause, tpf, appliedCommands, i);
+	}
+	
+	
+	private void plan(int from, int to)
+	{
+		for(int i=from; i<to; i++)
+			states[i].plan(states, grid, i, egoPosition, plannedCommands);
+	}
+	
+	
+	/**
+	 * Plans the cars in the given index range, splitting the range
+	 * among several workers if large enough.
+	 */
+	private class PlanTask extends RecursiveAction
+	{
+		private int from;
+		private int to;
+		
+		
+		private PlanTask(int from, int to)
+		{
+			this.from = from;
+			this.to = to;
+		}
+		
+		
+		@Override
+		protected void compute()
+		{
+			if(to - from < 2*CARS_PER_TASK)
+				plan(from, to);
+			else
+			{
+				int middle = (from + to) >>> 1;
+				invokeAll(new PlanTask(from, middle), new PlanTask(middle, to));
+			}
+		}
 	}
 
 
@@ -111,6 +282,20 @@ public class PhysicalTraffic extends Thread
 	{
 		isRunning = false;
 		
+		// wait for current plan phase to finish
+		interrupt();
+		try {
+			join();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		
+		if(failedPlans > 0)
+			System.err.println("PhysicalTraffic: planning failed " + failedPlans + " times");
+		
+		if(pool != null)
+			pool.shutdown();
+		
 		// close all traffic cars
 		for(TrafficCar vehicle : vehicleList)
 			vehicle.close();
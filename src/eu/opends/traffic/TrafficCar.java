@@ -18,10 +18,6 @@
 
 package eu.opends.traffic;
 
-import java.awt.geom.Line2D;
-import java.awt.geom.Point2D;
-import java.util.ArrayList;
-
 import com.jme3.material.Material;
 import com.jme3.math.ColorRGBA;
 import com.jme3.math.FastMath;
@@ -39,6 +35,19 @@ import eu.opends.environment.TrafficLight.TrafficLightState;
 import eu.opends.main.Simulator;
 
 /**
+ * Traffic car following its way points. The update is split into three 
+ * phases (cf. PhysicalTraffic): sense() copies the state needed for the 
+ * decision (positions, speeds, traffic lights) from the scene graph to a 
+ * TrafficCarState, TrafficCarState.plan() computes steering and pedal 
+ * positions from these copies only, and apply() passes the result to the 
+ * vehicle. Planning is run by the traffic thread; the copies must not be 
+ * changed by the render thread while it is running.
+ * 
+ * Cars far away from the driving car may be switched to kinematic mode 
+ * (cf. updateLevelOfDetail()): the physics body is removed from the physics 
+ * space and the car is moved straight towards its follow box (which moves 
+ * along the way point spline) at a speed derived from the planned pedal 
+ * positions.
  * 
  * @author Rafael Math
  */
@@ -52,6 +61,26 @@ public class TrafficCar extends Car
 	private float minLateralSafetyDistance = 2;
 	private float overwriteSpeed = -1;
 	private float overwriteReducedSpeed = 0;
+	
+	// state copied in sense()
+	private TrafficCarState state = new TrafficCarState();
+	
+	// decision computed by planning as passed to apply()
+	private float plannedSteering;
+	private float plannedGasPedal;
+	private float plannedBrakePedal;
+	
+	// reused by updateLightState()
+	private ColorRGBA headLightColor = new ColorRGBA();
+	private Vector3f headLightDirection = new Vector3f();
+	
+	// kinematic mode (no physics body)
+	private boolean isKinematic = false;
+	private float kinematicSpeed = 0; // m/s
+	private float kinematicHeightOffset = 0;
+	private Vector3f kinematicPosition = new Vector3f();
+	private Quaternion kinematicRotation = new Quaternion();
+	private Vector3f kinematicVelocity = new Vector3f();
 
 	
 	public TrafficCar(Simulator sim, TrafficCarData trafficCarData)
@@ -154,251 +183,258 @@ public class TrafficCar extends Car
 	}
 
 
-	public void update(ArrayList<TrafficCar> vehicleList) 
+	/**
+	 * Copies the state needed for planning from the scene graph and physics. 
+	 * Must be called from the render thread.
+	 */
+	void sense()
 	{
-		if(!sim.isPause())
+		carControl.getPhysicsLocation(state.position);
+		state.frontPosition.set(frontGeometry.getWorldTranslation());
+		state.centerPosition.set(centerGeometry.getWorldTranslation());
+		state.followBoxPosition.set(followBox.getPosition());
+		state.currentSpeed = getCurrentSpeedKmh();
+		
+		// maximum speed for current way point segment
+		if(overwriteSpeed >= 0)
+			state.regularSpeed = overwriteSpeed;
+		else
+			state.regularSpeed = followBox.getSpeed();
+		
+		// reduced speed to reach next speed limit in time
+		state.reducedSpeed = followBox.getReducedSpeed();
+		
+		// may be changed by triggers at any time
+		state.forwardSafetyDistance = minForwardSafetyDistance;
+		state.lateralSafetyDistance = minLateralSafetyDistance;
+		state.obstacleReducedSpeed = overwriteReducedSpeed;
+		
+		Waypoint nextWayPoint = followBox.getNextWayPoint();
+		state.hasNextWayPoint = (nextWayPoint != null);
+		if(state.hasNextWayPoint)
 		{
-			// update steering
-			Vector3f wayPoint = followBox.getPosition();
-			steerTowardsPosition(wayPoint);
-			
-			// update speed
-			updateSpeed(vehicleList);
-			
-			// update lights
-			updateLightState();
+			state.nextWayPointPosition.set(nextWayPoint.getPosition());
+			state.redTrafficLightAhead = hasRedTrafficLight(nextWayPoint);
 		}
-		
-		// update movement of follow box according to vehicle's position
-		Vector3f vehicleCenterPos = centerGeometry.getWorldTranslation();
-		followBox.update(vehicleCenterPos);
+		else
+			state.redTrafficLightAhead = false;
 	}
 	
 	
-	private void steerTowardsPosition(Vector3f wayPoint) 
+	/**
+	 * State copied by sense() (same instance for the whole lifetime).
+	 */
+	TrafficCarState getState()
 	{
-		// get relative position of way point --> steering direction
-		// -1: way point is located on the left side of the vehicle
-		//  0: way point is located in driving direction 
-		//  1: way point is located on the right side of the vehicle
-		int steeringDirection = getRelativePosition(wayPoint);
-		
-		// get angle between driving direction and way point direction --> steering intensity
-		// only consider 2D space (projection of WPs to xz-plane)
-		float steeringAngle = getAngleBetweenDirections(frontGeometry.getWorldTranslation(), wayPoint, true);
-		
-		// compute steering intensity in percent
-		//  0  degree =   0%
-		//  45 degree =  50%
-		//  90 degree = 100%
-		// >90 degree = 100%
-		float steeringIntensity = Math.max(Math.min(2*steeringAngle/FastMath.PI,1f),0f);
-		
-		// apply steering instruction
-		steer(steeringDirection*steeringIntensity);
-		
-		//System.out.println(steeringDirection*steeringIntensity);
+		return state;
 	}
-
 	
-	private int getRelativePosition(Vector3f wayPoint)
+	
+	/**
+	 * Passes the latest planned decision to the vehicle and moves the 
+	 * follow box. Must be called from the render thread (every frame, even 
+	 * if no new decision is available).
+	 * 
+	 * @param isPause
+	 * 			if true, only the follow box will be updated
+	 * 
+	 * @param tpf
+	 * 			time since last update (seconds); only used in kinematic mode
+	 * 
+	 * @param commands
+	 * 			latest published commands
+	 * 
+	 * @param ownIndex
+	 * 			index of this car in commands
+	 */
+	void apply(boolean isPause, float tpf, TrafficCommands commands, int ownIndex) 
 	{
-		// get vehicles center point and point in driving direction
-		Vector3f frontPosition = frontGeometry.getWorldTranslation();
-		Vector3f centerPosition = centerGeometry.getWorldTranslation();
-		
-		// convert Vector3f to Point2D.Float, as needed for Line2D.Float
-		Point2D.Float centerPoint = new Point2D.Float(centerPosition.getX(),centerPosition.getZ());
-		Point2D.Float frontPoint = new Point2D.Float(frontPosition.getX(),frontPosition.getZ());
-		
-		// line in direction of driving
-		Line2D.Float line = new Line2D.Float(centerPoint,frontPoint);
+		plannedSteering = commands.getSteering(ownIndex);
+		plannedGasPedal = commands.getGasPedal(ownIndex);
+		plannedBrakePedal = commands.getBrakePedal(ownIndex);
 		
-		// convert Vector3f to Point2D.Float
-		Point2D point = new Point2D.Float(wayPoint.getX(),wayPoint.getZ());
-
-		// check way point's relative position to the line
-		if(line.relativeCCW(point) == -1)
-		{
-			// point on the left --> return -1
-			return -1;
-		}
-		else if(line.relativeCCW(point) == 1)
+		if(!isPause)
 		{
-			// point on the right --> return 1
-			return 1;
+			if(isKinematic)
+			{
+				// move without physics
+				moveKinematically(tpf);
+			}
+			else
+			{
+				// apply steering instruction
+				steer(plannedSteering);
+			
+				// set pedal positions
+				setGasPedalIntensity(plannedGasPedal);
+				setBrakePedalPressIntensity(plannedBrakePedal);
+			
+				// accelerate
+				if(engineOn)
+					carControl.accelerate(gasPedalPressIntensity * accelerationForce);
+				else
+					carControl.accelerate(0);
+			
+				// brake	
+				float appliedBrakeForce = brakePedalPressIntensity * maxBrakeForce;
+				float currentFriction = 0.2f * maxFreeWheelBrakeForce;
+				carControl.brake(appliedBrakeForce + currentFriction);
+			}
+			
+			// update lights
+			updateLightState();
 		}
-		else
+		
+		// update movement of follow box according to vehicle's position
+		// (current position, as copy of sense() might be several frames old)
+		followBox.update(centerGeometry.getWorldTranslation());
+	}
+	
+	
+	/**
+	 * Switches to kinematic mode if the car is further away from the driving 
+	 * car than the given radius and back to physical simulation if it is 
+	 * closer than 90% of the radius (hysteresis prevents switching back and 
+	 * forth at the border). Speed and heading are preserved. Must be called 
+	 * from the render thread after sense().
+	 * 
+	 * @param egoPosition
+	 * 			position of the driving car
+	 * 
+	 * @param kinematicRadius
+	 * 			distance from the driving car beyond which the car is moved 
+	 * 			kinematically (0 or less: always physical)
+	 */
+	void updateLevelOfDetail(Vector3f egoPosition, float kinematicRadius)
+	{
+		if(kinematicRadius <= 0)
 		{
-			// point on line --> return 0
-			return 0;
+			if(isKinematic)
+				setKinematic(false);
+			return;
 		}
+		
+		float distanceSquared = state.position.distanceSquared(egoPosition);
+		
+		if(!isKinematic && distanceSquared > kinematicRadius * kinematicRadius)
+			setKinematic(true);
+		else if(isKinematic && distanceSquared < 0.81f * kinematicRadius * kinematicRadius)
+			setKinematic(false);
 	}
 	
-
-	private float getAngleBetweenDirections(Vector3f position1, Vector3f position2, boolean is2DSpace) 
+	
+	public boolean isKinematic()
 	{
-		// get vehicle's center
-		Vector3f carCenterPos = centerGeometry.getWorldTranslation();
-		
-		// vector pointing from vehicle's center towards position 1
-		Vector3f frontLine = position1.subtract(carCenterPos);
-		if(is2DSpace)
-			frontLine.setY(0);
-		frontLine.normalizeLocal();
-		
-		// vector pointing from vehicle's center towards position 2
-		Vector3f wayPointLine = position2.subtract(carCenterPos);
-		if(is2DSpace)
-			wayPointLine.setY(0);
-		wayPointLine.normalizeLocal();
-		
-		// angle between both vectors
-		return frontLine.angleBetween(wayPointLine);
+		return isKinematic;
 	}
 	
 	
-	private void updateSpeed(ArrayList<TrafficCar> vehicleList) 
+	private void setKinematic(boolean kinematic)
 	{
-		float regularSpeed;
-		// maximum speed for current way point segment
-		if(overwriteSpeed >= 0){
-		regularSpeed = overwriteSpeed;
-		}
-		else{
-			regularSpeed = followBox.getSpeed();
-		}
-		// reduced speed to reach next speed limit in time
-		float reducedSpeed = followBox.getReducedSpeed();
-		
-		// stop car in order to avoid collision with other traffic objects and driving car
-		// also for red traffic lights
-		if(obstaclesInTheWay(vehicleList))
-			reducedSpeed = Math.min(overwriteReducedSpeed , reducedSpeed);
-		
-		float targetSpeed = Math.max(Math.min(regularSpeed, reducedSpeed),0);
-		float currentSpeed = getCurrentSpeedKmh();
-		
-		//System.out.print(name + ": " + targetSpeed + " *** " + currentSpeed);
-		
-		
-		// set pedal positions
-		if(currentSpeed < targetSpeed)
+		if(kinematic)
 		{
-			// too slow --> accelerate
-			setGasPedalIntensity(-1);
-			setBrakePedalPressIntensity(0);
-			//System.out.println("gas");
-			//System.out.print(" *** gas");
-		}
-		else if(currentSpeed > targetSpeed+1)
-		{
-			// too fast --> brake
-			
-			// currentSpeed >= targetSpeed+3 --> brake intensity: 100%
-			// currentSpeed == targetSpeed+2 --> brake intensity:  50%
-			// currentSpeed <= targetSpeed+1 --> brake intensity:   0%
-			float brakeIntensity = (currentSpeed - targetSpeed - 1)/2.0f;
-			brakeIntensity = Math.max(Math.min(brakeIntensity, 1.0f), 0.0f);
+			// keep current speed and height above way points
+			kinematicSpeed = super.getCurrentSpeedKmh() / 3.6f;
+			kinematicHeightOffset = state.position.y - state.followBoxPosition.y;
+			kinematicPosition.set(state.position);
 			
-			// TODO
-			brakeIntensity = 1.0f;
-			
-			setBrakePedalPressIntensity(brakeIntensity);
-			setGasPedalIntensity(0);
-			//System.out.println("brake: " + brakeIntensity);
-			//System.out.print(" *** brake");
+			carControl.accelerate(0);
+			carControl.brake(0);
+			sim.getPhysicsSpace().remove(carControl);
 		}
 		else
 		{
-			// else release pedals
-			setGasPedalIntensity(0);
-			setBrakePedalPressIntensity(0);
-			//System.out.print(" *** free");
+			sim.getPhysicsSpace().add(carControl);
+			
+			// continue with speed in current driving direction (front - center)
+			kinematicVelocity.set(state.frontPosition.x - state.centerPosition.x, 0, 
+					state.frontPosition.z - state.centerPosition.z);
+			kinematicVelocity.normalizeLocal().multLocal(kinematicSpeed);
+			
+			carControl.setLinearVelocity(kinematicVelocity);
+			carControl.setAngularVelocity(Vector3f.ZERO);
+			carControl.resetSuspension();
 		}
 		
-		
-		
-		// accelerate
-		if(engineOn)
-			carControl.accelerate(gasPedalPressIntensity * accelerationForce);
-		else
-			carControl.accelerate(0);
-		//System.out.print(" *** " + gasPedalPressIntensity * accelerationForce);
-		
-		// brake	
-		float appliedBrakeForce = brakePedalPressIntensity * maxBrakeForce;
-		float currentFriction = 0.2f * maxFreeWheelBrakeForce;
-		carControl.brake(appliedBrakeForce + currentFriction);
-		
-		//System.out.print(" *** " + appliedBrakeForce + currentFriction);
-		//System.out.println("");
+		isKinematic = kinematic;
 	}
-
-
-	private boolean obstaclesInTheWay(ArrayList<TrafficCar> vehicleList)
+	
+	
+	/**
+	 * Kinematic replacement of the physical update: changes the speed 
+	 * according to the planned pedal positions (acceleration and deceleration 
+	 * values in m/s^2) and moves the car towards the follow box.
+	 */
+	private void moveKinematically(float tpf)
 	{
-		// check distance from driving car
-		if(obstacleTooClose(sim.getCar().getPosition()))
-			return true;
-		
-		// check distance from other traffic (except oneself)
-		for(TrafficCar vehicle : vehicleList)
-		{
-			if(!vehicle.getName().equals(name))		
-				if(obstacleTooClose(vehicle.getPosition()))
-					return true;
-		}
-		
-		// check if red traffic light ahead
-		Waypoint nextWayPoint = followBox.getNextWayPoint();
-		if(hasRedTrafficLight(nextWayPoint))
-			if(obstacleTooClose(nextWayPoint.getPosition()))
-				return true;
+		if(engineOn && plannedGasPedal != 0)
+			kinematicSpeed += acceleration * tpf;
+		
+		kinematicSpeed -= (plannedBrakePedal * decelerationBrake + 0.2f * decelerationFreeWheel) * tpf;
+		kinematicSpeed = Math.max(kinematicSpeed, 0);
+		
+		// direction towards current position of follow box (projection to xz-plane)
+		Vector3f boxPosition = followBox.getPosition();
+		float dx = boxPosition.x - kinematicPosition.x;
+		float dz = boxPosition.z - kinematicPosition.z;
+		float distance = FastMath.sqrt(dx * dx + dz * dz);
+		
+		// do not move beyond follow box and keep heading when standing
+		if(distance < 0.01f)
+			return;
+		
+		float fraction = Math.min(kinematicSpeed * tpf, distance) / distance;
+		float targetHeight = boxPosition.y + kinematicHeightOffset;
+		kinematicPosition.addLocal(fraction * dx, fraction * (targetHeight - kinematicPosition.y), 
+				fraction * dz);
+		
+		// heading towards follow box (compensate that car is actually driving backwards)
+		kinematicRotation.fromAngles(0, -FastMath.atan2(dx, -dz), 0);
+		
+		carControl.setPhysicsLocation(kinematicPosition);
+		carControl.setPhysicsRotation(kinematicRotation);
+		carNode.setLocalTranslation(kinematicPosition);
+		carNode.setLocalRotation(kinematicRotation);
+	}
+	
+	
+	@Override
+	public float getCurrentSpeedKmh()
+	{
+		if(isKinematic)
+			return kinematicSpeed * 3.6f;
 		
-		return false;
+		return super.getCurrentSpeedKmh();
 	}
-
-
-	private boolean obstacleTooClose(Vector3f obstaclePos)
+	
+	
+	@Override
+	public void setPosition(float x, float y, float z)
 	{
-		float distanceToObstacle = obstaclePos.distance(getPosition());
+		super.setPosition(x, y, z);
 		
-		// angle between driving direction of traffic car and direction towards obstacle
-		// (consider 3D space, because obstacle could be located on a bridge above traffic car)
-		float angle = getAngleBetweenDirections(frontGeometry.getWorldTranslation(), obstaclePos, false);
-		if(belowSafetyDistance(angle, distanceToObstacle))
-			return true;
-
-		// considering direction towards next way point (if available)
-		Waypoint nextWP = followBox.getNextWayPoint();
-		if(nextWP != null)
+		if(isKinematic)
 		{
-			// angle between direction towards next WP and direction towards obstacle
-			// (consider 3D space, because obstacle could be located on a bridge above traffic car)
-			angle = getAngleBetweenDirections(nextWP.getPosition(), obstaclePos, false);
-			if(belowSafetyDistance(angle, distanceToObstacle))
-				return true;
+			// velocity has been reset
+			kinematicSpeed = 0;
+			kinematicPosition.set(x, y, z);
+			carNode.setLocalTranslation(x, y, z);
 		}
-		return false;
 	}
 	
 	
-	private boolean belowSafetyDistance(float angle, float distance) 
-	{	
-		float lateralDistance = distance * FastMath.sin(angle);
-		float forwardDistance = distance * FastMath.cos(angle);
-		
-		//if(name.equals("car1"))
-		//	System.out.println(lateralDist + " *** " + forwardDist);
-		
-		if((lateralDistance < minLateralSafetyDistance) && (forwardDistance > 0) && 
-				(forwardDistance < Math.max(0.5f * getCurrentSpeedKmh(), minForwardSafetyDistance)))
-			return true;
+	@Override
+	public void setRotation(float x, float y, float z, float w)
+	{
+		super.setRotation(x, y, z, w);
 		
-		return false;
+		if(isKinematic)
+		{
+			kinematicSpeed = 0;
+			carNode.setLocalRotation(carControl.getPhysicsRotation(kinematicRotation));
+		}
 	}
-
+	
 	
 	private boolean hasRedTrafficLight(Waypoint wayPoint)
 	{
@@ -420,13 +456,16 @@ public class TrafficCar extends Car
 
 	private void updateLightState() 
 	{
-		leftHeadLight.setColor(ColorRGBA.White.mult(lightIntensity));
+		// lights copy the given values --> scratch objects can be reused
+		headLightColor.set(ColorRGBA.White).multLocal(lightIntensity);
+		
+		leftHeadLight.setColor(headLightColor);
         leftHeadLight.setPosition(carModel.getLeftLightPosition());
-        leftHeadLight.setDirection(carModel.getLeftLightDirection());
+        leftHeadLight.setDirection(carModel.getLeftLightDirection(headLightDirection));
         
-        rightHeadLight.setColor(ColorRGBA.White.mult(lightIntensity));
+        rightHeadLight.setColor(headLightColor);
         rightHeadLight.setPosition(carModel.getRightLightPosition());
-        rightHeadLight.setDirection(carModel.getRightLightDirection());
+        rightHeadLight.setDirection(carModel.getRightLightDirection(headLightDirection));
 	}
 	
 	
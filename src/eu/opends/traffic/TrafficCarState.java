@@ -0,0 +1,166 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.traffic;
+
+import com.jme3.math.Vector3f;
+
+/**
+ * State of a traffic car as copied from the scene graph in the sense phase
+ * (cf. TrafficCar.sense()) and the plan phase computing steering and pedal
+ * positions from these copies only. Planning does not depend on the scene
+ * graph or physics, so it can run outside the render thread.
+ *
+ * @author Rafael Math
+ */
+class TrafficCarState
+{
+	Vector3f position = new Vector3f();
+	Vector3f frontPosition = new Vector3f();
+	Vector3f centerPosition = new Vector3f();
+	Vector3f followBoxPosition = new Vector3f();
+	Vector3f nextWayPointPosition = new Vector3f();
+	boolean hasNextWayPoint;
+	boolean redTrafficLightAhead;
+	float currentSpeed;
+	float regularSpeed;
+	float reducedSpeed;
+	float forwardSafetyDistance;
+	float lateralSafetyDistance;
+	float obstacleReducedSpeed;
+
+
+	/**
+	 * Computes steering and pedal positions from this and all other states.
+	 * Only writes the own entry of the given commands, so several cars may
+	 * be planned in parallel.
+	 *
+	 * @param states
+	 * 			states of all traffic cars (indexed as in grid)
+	 *
+	 * @param grid
+	 * 			positions of all traffic cars
+	 *
+	 * @param ownIndex
+	 * 			index of this state in states
+	 *
+	 * @param egoPosition
+	 * 			position of the driving car
+	 *
+	 * @param commands
+	 * 			receives steering and pedal positions at index ownIndex
+	 */
+	void plan(TrafficCarState[] states, TrafficGrid grid, int ownIndex, Vector3f egoPosition,
+			TrafficCommands commands)
+	{
+		// update steering
+		float steering = TrafficKinematics.getSteering(centerPosition, frontPosition, followBoxPosition);
+
+		// update speed
+		float targetSpeed = getTargetSpeed(states, grid, ownIndex, egoPosition);
+
+		// set pedal positions
+		if(currentSpeed < targetSpeed)
+		{
+			// too slow --> accelerate
+			commands.set(ownIndex, steering, -1, 0);
+		}
+		else if(currentSpeed > targetSpeed+1)
+		{
+			// too fast --> brake
+
+			// currentSpeed >= targetSpeed+3 --> brake intensity: 100%
+			// currentSpeed == targetSpeed+2 --> brake intensity:  50%
+			// currentSpeed <= targetSpeed+1 --> brake intensity:   0%
+			float brakeIntensity = (currentSpeed - targetSpeed - 1)/2.0f;
+			brakeIntensity = Math.max(Math.min(brakeIntensity, 1.0f), 0.0f);
+
+			// TODO
+			brakeIntensity = 1.0f;
+
+			commands.set(ownIndex, steering, 0, brakeIntensity);
+		}
+		else
+		{
+			// else release pedals
+			commands.set(ownIndex, steering, 0, 0);
+		}
+	}
+
+
+	private float getTargetSpeed(TrafficCarState[] states, TrafficGrid grid, int ownIndex, Vector3f egoPosition)
+	{
+		float reducedSpeed = this.reducedSpeed;
+
+		// stop car in order to avoid collision with other traffic objects and driving car
+		// also for red traffic lights
+		if(obstaclesInTheWay(states, grid, ownIndex, egoPosition))
+			reducedSpeed = Math.min(obstacleReducedSpeed, reducedSpeed);
+
+		return Math.max(Math.min(regularSpeed, reducedSpeed),0);
+	}
+
+
+	/**
+	 * Checks whether the driving car, another traffic car or a red traffic
+	 * light is located ahead closer than the safety distances.
+	 */
+	boolean obstaclesInTheWay(TrafficCarState[] states, TrafficGrid grid, int ownIndex, Vector3f egoPosition)
+	{
+		// check distance from driving car
+		if(obstacleTooClose(egoPosition))
+			return true;
+
+		// check distance from other traffic (except oneself): obstacles further away
+		// than the safety distances (forward and lateral) can be skipped
+		float radius = TrafficKinematics.getSafetyRadius(currentSpeed, forwardSafetyDistance,
+				lateralSafetyDistance);
+
+		int minX = grid.getCell(position.x - radius);
+		int maxX = grid.getCell(position.x + radius);
+		int minZ = grid.getCell(position.z - radius);
+		int maxZ = grid.getCell(position.z + radius);
+
+		for(int x=minX; x<=maxX; x++)
+		{
+			for(int z=minZ; z<=maxZ; z++)
+			{
+				for(int i=grid.getFirst(x, z); i>=0; i=grid.getNext(i))
+				{
+					if(i != ownIndex && obstacleTooClose(states[i].position))
+						return true;
+				}
+			}
+		}
+
+		// check if red traffic light ahead
+		if(redTrafficLightAhead)
+			if(obstacleTooClose(nextWayPointPosition))
+				return true;
+
+		return false;
+	}
+
+
+	private boolean obstacleTooClose(Vector3f obstaclePos)
+	{
+		return TrafficKinematics.isObstacleTooClose(position, centerPosition, frontPosition,
+				hasNextWayPoint ? nextWayPointPosition : null, obstaclePos, currentSpeed,
+				forwardSafetyDistance, lateralSafetyDistance);
+	}
+}
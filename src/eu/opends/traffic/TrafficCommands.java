@@ -0,0 +1,68 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.traffic;
+
+/**
+ * Steering and pedal positions of all traffic cars (indexed as in
+ * PhysicalTraffic) as computed by one plan phase. PhysicalTraffic keeps
+ * two instances: one is written by the traffic thread while the render
+ * thread applies the other one.
+ *
+ * @author Rafael Math
+ */
+class TrafficCommands
+{
+	private float[] steering;
+	private float[] gasPedal;
+	private float[] brakePedal;
+
+
+	public TrafficCommands(int numberOfVehicles)
+	{
+		steering = new float[numberOfVehicles];
+		gasPedal = new float[numberOfVehicles];
+		brakePedal = new float[numberOfVehicles];
+	}
+
+
+	public void set(int index, float steeringValue, float gasPedalValue, float brakePedalValue)
+	{
+		steering[index] = steeringValue;
+		gasPedal[index] = gasPedalValue;
+		brakePedal[index] = brakePedalValue;
+	}
+
+
+	public float getSteering(int index)
+	{
+		return steering[index];
+	}
+
+
+	public float getGasPedal(int index)
+	{
+		return gasPedal[index];
+	}
+
+
+	public float getBrakePedal(int index)
+	{
+		return brakePedal[index];
+	}
+}
@@ -0,0 +1,153 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.traffic;
+
+/**
+ * Uniform spatial hash on the xz-plane, used to find the vehicles near a
+ * traffic car without looking at every other vehicle. Vehicles are stored
+ * by index; the cells are hashed into a fixed number of buckets, so the
+ * grid covers unlimited space without allocating memory after construction.
+ *
+ * Adding vehicles is not thread-safe, but once filled, the grid may be
+ * queried from several threads at the same time:
+ * <pre>
+ * for(int x=grid.getCell(posX-radius); x&lt;=grid.getCell(posX+radius); x++)
+ *     for(int z=grid.getCell(posZ-radius); z&lt;=grid.getCell(posZ+radius); z++)
+ *         for(int i=grid.getFirst(x,z); i&gt;=0; i=grid.getNext(i))
+ *             ...
+ * </pre>
+ *
+ * @author Rafael Math
+ */
+public class TrafficGrid
+{
+	private float cellSize;
+	private int bucketMask;
+	private int[] bucketHead;
+	private int[] next;
+	private int[] cellX;
+	private int[] cellZ;
+
+
+	/**
+	 * @param cellSize
+	 * 			edge length of a cell in meters
+	 *
+	 * @param capacity
+	 * 			maximum number of vehicles
+	 */
+	public TrafficGrid(float cellSize, int capacity)
+	{
+		this.cellSize = cellSize;
+
+		// at least twice as many buckets as vehicles (power of two)
+		int numberOfBuckets = Integer.highestOneBit(Math.max(capacity, 8)) * 4;
+		bucketMask = numberOfBuckets - 1;
+		bucketHead = new int[numberOfBuckets];
+
+		next = new int[capacity];
+		cellX = new int[capacity];
+		cellZ = new int[capacity];
+
+		clear();
+	}
+
+
+	/**
+	 * Removes all vehicles from the grid.
+	 */
+	public void clear()
+	{
+		for(int i=0; i<bucketHead.length; i++)
+			bucketHead[i] = -1;
+	}
+
+
+	/**
+	 * Adds the vehicle with the given index at the given position.
+	 *
+	 * @param index
+	 * 			index of vehicle (0 .. capacity-1; each index only once)
+	 *
+	 * @param x
+	 * 			x-coordinate of vehicle
+	 *
+	 * @param z
+	 * 			z-coordinate of vehicle
+	 */
+	public void add(int index, float x, float z)
+	{
+		cellX[index] = getCell(x);
+		cellZ[index] = getCell(z);
+
+		int bucket = getBucket(cellX[index], cellZ[index]);
+		next[index] = bucketHead[bucket];
+		bucketHead[bucket] = index;
+	}
+
+
+	/**
+	 * Returns the cell coordinate containing the given world coordinate
+	 * (x or z).
+	 */
+	public int getCell(float coordinate)
+	{
+		return (int) Math.floor(coordinate / cellSize);
+	}
+
+
+	/**
+	 * Returns the first vehicle in the given cell.
+	 *
+	 * @return
+	 * 			index of vehicle or -1 if cell is empty
+	 */
+	public int getFirst(int x, int z)
+	{
+		return skipOtherCells(bucketHead[getBucket(x, z)], x, z);
+	}
+
+
+	/**
+	 * Returns the next vehicle in the same cell as the given vehicle.
+	 *
+	 * @return
+	 * 			index of vehicle or -1 if no further vehicle in cell
+	 */
+	public int getNext(int index)
+	{
+		return skipOtherCells(next[index], cellX[index], cellZ[index]);
+	}
+
+
+	private int skipOtherCells(int index, int x, int z)
+	{
+		// buckets may contain vehicles of several cells
+		while(index >= 0 && (cellX[index] != x || cellZ[index] != z))
+			index = next[index];
+
+		return index;
+	}
+
+
+	private int getBucket(int x, int z)
+	{
+		return ((x * 73856093) ^ (z * 19349663)) & bucketMask;
+	}
+}
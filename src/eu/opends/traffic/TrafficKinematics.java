@@ -0,0 +1,259 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.traffic;
+
+import java.awt.geom.Line2D;
+
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+
+/**
+ * Steering and obstacle computations of traffic cars. All methods work on
+ * the components of the given vectors and neither modify them nor allocate
+ * any objects, so they may be called for every car in every frame (and
+ * from several threads at the same time) without producing garbage.
+ *
+ * @author Rafael Math
+ */
+public final class TrafficKinematics
+{
+	private TrafficKinematics()
+	{
+	}
+
+
+	/**
+	 * Relative position of the given point to the driving direction
+	 * (projection to xz-plane).
+	 *
+	 * @param centerPosition
+	 * 			center of vehicle
+	 *
+	 * @param frontPosition
+	 * 			point in driving direction
+	 *
+	 * @param point
+	 * 			point to locate
+	 *
+	 * @return
+	 * 			-1 if point is located on the left side, 1 if on the right
+	 * 			side and 0 if in driving direction
+	 */
+	public static int getRelativePosition(Vector3f centerPosition, Vector3f frontPosition, Vector3f point)
+	{
+		return Line2D.relativeCCW(centerPosition.x, centerPosition.z, frontPosition.x, frontPosition.z,
+				point.x, point.z);
+	}
+
+
+	/**
+	 * Angle between the directions from the given origin to the given
+	 * positions.
+	 *
+	 * @param origin
+	 * 			common origin of both directions (e.g. center of vehicle)
+	 *
+	 * @param position1
+	 * 			end of first direction
+	 *
+	 * @param position2
+	 * 			end of second direction
+	 *
+	 * @param is2DSpace
+	 * 			if true, directions will be projected to xz-plane
+	 *
+	 * @return
+	 * 			angle in radians (0 .. PI)
+	 */
+	public static float getAngleBetweenDirections(Vector3f origin, Vector3f position1, Vector3f position2,
+			boolean is2DSpace)
+	{
+		// vector pointing from origin towards position 1
+		float x1 = position1.x - origin.x;
+		float y1 = is2DSpace ? 0 : position1.y - origin.y;
+		float z1 = position1.z - origin.z;
+		float length1 = x1 * x1 + y1 * y1 + z1 * z1;
+		if(length1 != 1f && length1 != 0f)
+		{
+			length1 = 1.0f / FastMath.sqrt(length1);
+			x1 *= length1;
+			y1 *= length1;
+			z1 *= length1;
+		}
+
+		// vector pointing from origin towards position 2
+		float x2 = position2.x - origin.x;
+		float y2 = is2DSpace ? 0 : position2.y - origin.y;
+		float z2 = position2.z - origin.z;
+		float length2 = x2 * x2 + y2 * y2 + z2 * z2;
+		if(length2 != 1f && length2 != 0f)
+		{
+			length2 = 1.0f / FastMath.sqrt(length2);
+			x2 *= length2;
+			y2 *= length2;
+			z2 *= length2;
+		}
+
+		// angle between both vectors
+		return FastMath.acos(x1 * x2 + y1 * y2 + z1 * z2);
+	}
+
+
+	/**
+	 * Distance between the given positions projected to the xz-plane.
+	 */
+	public static float getDistanceXZ(Vector3f position1, Vector3f position2)
+	{
+		float dx = position1.x - position2.x;
+		float dz = position1.z - position2.z;
+		return FastMath.sqrt(dx * dx + dz * dz);
+	}
+
+
+	/**
+	 * Steering value needed to drive towards the given target.
+	 *
+	 * @param centerPosition
+	 * 			center of vehicle
+	 *
+	 * @param frontPosition
+	 * 			point in driving direction
+	 *
+	 * @param target
+	 * 			position to steer to
+	 *
+	 * @return
+	 * 			steering value (-1: full left .. 1: full right)
+	 */
+	public static float getSteering(Vector3f centerPosition, Vector3f frontPosition, Vector3f target)
+	{
+		// get relative position of target --> steering direction
+		int steeringDirection = getRelativePosition(centerPosition, frontPosition, target);
+
+		// get angle between driving direction and target direction --> steering intensity
+		// only consider 2D space (projection to xz-plane)
+		float steeringAngle = getAngleBetweenDirections(centerPosition, frontPosition, target, true);
+
+		// compute steering intensity in percent
+		//  0  degree =   0%
+		//  45 degree =  50%
+		//  90 degree = 100%
+		// >90 degree = 100%
+		float steeringIntensity = Math.max(Math.min(2*steeringAngle/FastMath.PI,1f),0f);
+
+		return steeringDirection*steeringIntensity;
+	}
+
+
+	/**
+	 * Forward safety distance at the given speed.
+	 */
+	public static float getForwardSafetyDistance(float speedKmh, float minForwardSafetyDistance)
+	{
+		return Math.max(0.5f * speedKmh, minForwardSafetyDistance);
+	}
+
+
+	/**
+	 * Radius around a vehicle outside of which no obstacle can fall below
+	 * the safety distances (cf. isObstacleTooClose()).
+	 */
+	public static float getSafetyRadius(float speedKmh, float minForwardSafetyDistance,
+			float minLateralSafetyDistance)
+	{
+		float forwardSafetyDistance = getForwardSafetyDistance(speedKmh, minForwardSafetyDistance);
+		return FastMath.sqrt(forwardSafetyDistance * forwardSafetyDistance +
+				minLateralSafetyDistance * minLateralSafetyDistance);
+	}
+
+
+	/**
+	 * Checks whether the given obstacle is located ahead of the vehicle
+	 * (in driving direction or in direction of the next way point) closer
+	 * than the safety distances.
+	 *
+	 * @param position
+	 * 			position of vehicle
+	 *
+	 * @param centerPosition
+	 * 			center of vehicle
+	 *
+	 * @param frontPosition
+	 * 			point in driving direction
+	 *
+	 * @param nextWayPointPosition
+	 * 			position of next way point (null if not available)
+	 *
+	 * @param obstaclePosition
+	 * 			position of obstacle
+	 *
+	 * @param speedKmh
+	 * 			current speed of vehicle
+	 *
+	 * @param minForwardSafetyDistance
+	 * 			minimum distance to keep in driving direction
+	 *
+	 * @param minLateralSafetyDistance
+	 * 			minimum distance to keep sideways
+	 *
+	 * @return
+	 * 			true, if obstacle is too close
+	 */
+	public static boolean isObstacleTooClose(Vector3f position, Vector3f centerPosition,
+			Vector3f frontPosition, Vector3f nextWayPointPosition, Vector3f obstaclePosition,
+			float speedKmh, float minForwardSafetyDistance, float minLateralSafetyDistance)
+	{
+		float distanceToObstacle = obstaclePosition.distance(position);
+		float forwardSafetyDistance = getForwardSafetyDistance(speedKmh, minForwardSafetyDistance);
+		
+		// lateral^2 + forward^2 = distance^2 --> too far away for any direction
+		if(distanceToObstacle * distanceToObstacle >= forwardSafetyDistance * forwardSafetyDistance 
+				+ minLateralSafetyDistance * minLateralSafetyDistance)
+			return false;
+
+		// angle between driving direction of traffic car and direction towards obstacle
+		// (consider 3D space, because obstacle could be located on a bridge above traffic car)
+		float angle = getAngleBetweenDirections(centerPosition, frontPosition, obstaclePosition, false);
+		if(belowSafetyDistance(angle, distanceToObstacle, forwardSafetyDistance, minLateralSafetyDistance))
+			return true;
+
+		// considering direction towards next way point (if available)
+		if(nextWayPointPosition != null)
+		{
+			// angle between direction towards next WP and direction towards obstacle
+			// (consider 3D space, because obstacle could be located on a bridge above traffic car)
+			angle = getAngleBetweenDirections(centerPosition, nextWayPointPosition, obstaclePosition, false);
+			if(belowSafetyDistance(angle, distanceToObstacle, forwardSafetyDistance, minLateralSafetyDistance))
+				return true;
+		}
+
+		return false;
+	}
+
+
+	private static boolean belowSafetyDistance(float angle, float distance, float forwardSafetyDistance,
+			float minLateralSafetyDistance)
+	{
+		float lateralDistance = distance * FastMath.sin(angle);
+		float forwardDistance = distance * FastMath.cos(angle);
+
+		return (lateralDistance < minLateralSafetyDistance) && (forwardDistance > 0) &&
+				(forwardDistance < forwardSafetyDistance);
+	}
+}
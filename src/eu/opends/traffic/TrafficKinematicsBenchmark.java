@@ -0,0 +1,479 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.traffic;
+
+import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+
+/**
+ * Compares the plan phase of traffic cars (TrafficCarState.plan() with
+ * TrafficKinematics and TrafficGrid, as run by PhysicalTraffic) with the
+ * former implementation (Point2D/Line2D objects, new vectors for every
+ * angle, every car checked against every other car) on a synthetic
+ * scenario: cars driving on concentric ring roads.
+ *
+ * For every car and frame, steering, obstacle detection and pedal
+ * positions must equal the results of the former implementation. In
+ * addition, the memory allocated while planning is measured. If any result
+ * differs or the planning of traffic cars allocates any memory, the
+ * benchmark fails (exit code 1).
+ *
+ * Usage: TrafficKinematicsBenchmark [number of cars] [number of frames]
+ *
+ * @author Rafael Math
+ */
+public class TrafficKinematicsBenchmark
+{
+	private static final int NUMBER_OF_LANES = 4;
+	private static final float INNER_RADIUS = 150.0f;
+	private static final float LANE_WIDTH = 4.0f;
+	private static final float FRAME_TIME = 1.0f / 60.0f;
+	private static final float MIN_FORWARD_SAFETY_DISTANCE = 5;
+	private static final float MIN_LATERAL_SAFETY_DISTANCE = 2;
+	private static final float STEERING_TOLERANCE = 1e-6f;
+	private static final int MAX_REPORTED_MISMATCHES = 10;
+
+	private int numberOfCars;
+	private String[] names;
+	private float[] angle;
+	private float[] radius;
+	private TrafficCarState[] states;
+	private Vector3f egoPosition = new Vector3f();
+	private TrafficGrid grid;
+	private TrafficCommands commands;
+	private long lastAllocatedBytes;
+
+	// results of former implementation
+	private float[] legacySteering;
+	private boolean[] legacyObstacleAhead;
+	private float[] legacyGasPedal;
+	private float[] legacyBrakePedal;
+
+	// verification
+	private long comparisons = 0;
+	private long mismatches = 0;
+	private int stoppingCars = 0;
+
+
+	public static void main(String[] args)
+	{
+		int numberOfCars = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+		int numberOfFrames = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+
+		System.out.println("Cars: " + numberOfCars + ", frames: " + numberOfFrames);
+
+		TrafficKinematicsBenchmark benchmark = new TrafficKinematicsBenchmark(numberOfCars);
+
+		// compare results car by car
+		benchmark.verify(numberOfFrames);
+
+		// warm up
+		benchmark.run(numberOfFrames, false);
+		benchmark.run(numberOfFrames, true);
+
+		long legacyTime = benchmark.run(numberOfFrames, true);
+		long legacyBytes = benchmark.getLastAllocatedBytes();
+
+		// minimum of several runs (JIT compilation may allocate in between)
+		long time = Long.MAX_VALUE;
+		long bytes = Long.MAX_VALUE;
+		for(int i=0; i<3; i++)
+		{
+			time = Math.min(time, benchmark.run(numberOfFrames, false));
+			bytes = Math.min(bytes, benchmark.getLastAllocatedBytes());
+		}
+
+		print("Former:           ", legacyTime, legacyBytes, numberOfFrames);
+		print("TrafficCarState:  ", time, bytes, numberOfFrames);
+
+		if(time > 0)
+			System.out.println("Speedup: " + (legacyTime / (float) time));
+
+		boolean failed = false;
+
+		System.out.println(benchmark.comparisons + " cars compared, " + benchmark.stoppingCars 
+				+ " stopping for obstacles");
+		if(benchmark.mismatches > 0)
+		{
+			System.out.println("FAILED: " + benchmark.mismatches + " results differ from former implementation");
+			failed = true;
+		}
+		else
+			System.out.println("OK: results equal former implementation");
+
+		if(bytes > 0)
+		{
+			System.out.println("FAILED: planning allocated " + bytes + " bytes");
+			failed = true;
+		}
+		else if(bytes == 0)
+			System.out.println("OK: planning is allocation-free");
+		else
+			System.out.println("Allocation measurement not supported by this JVM");
+
+		if(failed)
+			System.exit(1);
+	}
+
+
+	private static void print(String label, long time, long bytes, int numberOfFrames)
+	{
+		System.out.println(label + " " + (time / numberOfFrames / 1000) + " us/frame, "
+				+ ((bytes >= 0) ? (bytes / numberOfFrames) + " bytes/frame" : "n/a"));
+	}
+
+
+	public TrafficKinematicsBenchmark(int numberOfCars)
+	{
+		this.numberOfCars = numberOfCars;
+
+		names = new String[numberOfCars];
+		angle = new float[numberOfCars];
+		radius = new float[numberOfCars];
+		states = new TrafficCarState[numberOfCars];
+		legacySteering = new float[numberOfCars];
+		legacyObstacleAhead = new boolean[numberOfCars];
+		legacyGasPedal = new float[numberOfCars];
+		legacyBrakePedal = new float[numberOfCars];
+		grid = new TrafficGrid(25.0f, numberOfCars);
+		commands = new TrafficCommands(numberOfCars);
+
+		for(int i=0; i<numberOfCars; i++)
+		{
+			names[i] = "car" + i;
+			int lane = i % NUMBER_OF_LANES;
+			radius[i] = INNER_RADIUS + lane * LANE_WIDTH;
+
+			TrafficCarState state = new TrafficCarState();
+			state.currentSpeed = 30 + 10 * lane + (i % 7);
+
+			// some cars too slow, some too fast, some at speed limit
+			state.regularSpeed = state.currentSpeed + 5 * ((i % 3) - 1);
+			state.reducedSpeed = Float.POSITIVE_INFINITY;
+			state.hasNextWayPoint = true;
+			state.redTrafficLightAhead = false;
+			state.forwardSafetyDistance = MIN_FORWARD_SAFETY_DISTANCE;
+			state.lateralSafetyDistance = MIN_LATERAL_SAFETY_DISTANCE;
+			state.obstacleReducedSpeed = 0;
+			states[i] = state;
+		}
+
+		egoPosition.set(INNER_RADIUS, 0, 0);
+	}
+
+
+	/**
+	 * Places all cars at their start positions (random gaps, so that the 
+	 * distances to the cars ahead cover the whole range of safety distances).
+	 */
+	private void reset()
+	{
+		Random random = new Random(42);
+		for(int i=0; i<numberOfCars; i++)
+			angle[i] = FastMath.TWO_PI * random.nextFloat();
+		
+		move(0);
+	}
+
+
+	/**
+	 * Runs the given number of frames.
+	 *
+	 * @return
+	 * 			duration of planning in nanoseconds
+	 */
+	private long run(int numberOfFrames, boolean useLegacyImplementation)
+	{
+		long duration = 0;
+		long allocatedBytes = 0;
+
+		// bytes allocated by the measurement itself
+		long measurementBytes = -getAllocatedBytes() + getAllocatedBytes();
+		measurementBytes = -getAllocatedBytes() + getAllocatedBytes();
+
+		reset();
+
+		for(int frame=0; frame<numberOfFrames; frame++)
+		{
+			move(FRAME_TIME);
+
+			long bytesBefore = getAllocatedBytes();
+			long start = System.nanoTime();
+
+			if(useLegacyImplementation)
+				planLegacy();
+			else
+				plan();
+
+			duration += System.nanoTime() - start;
+			allocatedBytes += Math.max(getAllocatedBytes() - bytesBefore - measurementBytes, 0);
+		}
+
+		lastAllocatedBytes = isAllocationMeasurable() ? allocatedBytes : -1;
+		return duration;
+	}
+
+
+	// prevents elimination of the probe allocation
+	private static Object allocationProbe;
+
+
+	/**
+	 * Checks whether the allocation of a known array is detected.
+	 */
+	private static boolean isAllocationMeasurable()
+	{
+		long bytesBefore = getAllocatedBytes();
+		allocationProbe = new byte[1024];
+		return bytesBefore >= 0 && getAllocatedBytes() - bytesBefore >= 1024;
+	}
+
+
+	/**
+	 * Plans every frame with both implementations and compares the results
+	 * of every car.
+	 */
+	private void verify(int numberOfFrames)
+	{
+		reset();
+
+		for(int frame=0; frame<numberOfFrames; frame++)
+		{
+			move(FRAME_TIME);
+
+			plan();
+			planLegacy();
+
+			for(int i=0; i<numberOfCars; i++)
+			{
+				boolean obstacleAhead = states[i].obstaclesInTheWay(states, grid, i, egoPosition);
+				if(obstacleAhead)
+					stoppingCars++;
+
+				comparisons++;
+				if(Math.abs(commands.getSteering(i) - legacySteering[i]) > STEERING_TOLERANCE
+						|| obstacleAhead != legacyObstacleAhead[i]
+						|| commands.getGasPedal(i) != legacyGasPedal[i]
+						|| commands.getBrakePedal(i) != legacyBrakePedal[i])
+				{
+					if(mismatches < MAX_REPORTED_MISMATCHES)
+						System.out.println("Mismatch in frame " + frame + ", " + names[i] + ": steering "
+								+ commands.getSteering(i) + "/" + legacySteering[i] + ", obstacle "
+								+ obstacleAhead + "/" + legacyObstacleAhead[i] + ", pedals "
+								+ commands.getGasPedal(i) + "," + commands.getBrakePedal(i) + "/"
+								+ legacyGasPedal[i] + "," + legacyBrakePedal[i]);
+					mismatches++;
+				}
+			}
+		}
+	}
+
+
+	private long getLastAllocatedBytes()
+	{
+		return lastAllocatedBytes;
+	}
+
+
+	private static long getAllocatedBytes()
+	{
+		java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if(threadBean instanceof com.sun.management.ThreadMXBean)
+		{
+			com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadBean;
+			if(bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled())
+				return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+
+	/**
+	 * Moves all cars along their ring (counterclockwise) and updates their
+	 * reference points (sense phase).
+	 */
+	private void move(float time)
+	{
+		grid.clear();
+
+		for(int i=0; i<numberOfCars; i++)
+		{
+			TrafficCarState state = states[i];
+			float r = radius[i];
+			angle[i] = (angle[i] + state.currentSpeed / 3.6f * time / r) % FastMath.TWO_PI;
+
+			setOnRing(state.position, r, angle[i]);
+			state.centerPosition.set(state.position);
+			setOnRing(state.frontPosition, r, angle[i] + 1.0f / r);
+			setOnRing(state.followBoxPosition, r, angle[i] + 8.0f / r);
+			setOnRing(state.nextWayPointPosition, r, angle[i] + 20.0f / r);
+
+			grid.add(i, state.position.x, state.position.z);
+		}
+	}
+
+
+	private static void setOnRing(Vector3f store, float radius, float angle)
+	{
+		store.set(radius * FastMath.cos(angle), 0, radius * FastMath.sin(angle));
+	}
+
+
+	/**
+	 * Plan phase as run by PhysicalTraffic
+	 */
+	private void plan()
+	{
+		for(int i=0; i<numberOfCars; i++)
+			states[i].plan(states, grid, i, egoPosition, commands);
+	}
+
+
+	/**
+	 * Plan phase as formerly in TrafficCar.update()
+	 */
+	private void planLegacy()
+	{
+		for(int i=0; i<numberOfCars; i++)
+		{
+			int steeringDirection = getRelativePositionLegacy(i, states[i].followBoxPosition);
+			float steeringAngle = getAngleBetweenDirectionsLegacy(i, states[i].frontPosition, 
+					states[i].followBoxPosition, true);
+			float steeringIntensity = Math.max(Math.min(2*steeringAngle/FastMath.PI,1f),0f);
+			legacySteering[i] = steeringDirection*steeringIntensity;
+
+			legacyObstacleAhead[i] = obstaclesInTheWayLegacy(i);
+			updateSpeedLegacy(i);
+		}
+	}
+
+
+	private void updateSpeedLegacy(int index)
+	{
+		TrafficCarState state = states[index];
+		float reducedSpeed = state.reducedSpeed;
+
+		if(legacyObstacleAhead[index])
+			reducedSpeed = Math.min(state.obstacleReducedSpeed, reducedSpeed);
+
+		float targetSpeed = Math.max(Math.min(state.regularSpeed, reducedSpeed),0);
+
+		if(state.currentSpeed < targetSpeed)
+		{
+			legacyGasPedal[index] = -1;
+			legacyBrakePedal[index] = 0;
+		}
+		else if(state.currentSpeed > targetSpeed+1)
+		{
+			legacyGasPedal[index] = 0;
+			legacyBrakePedal[index] = 1;
+		}
+		else
+		{
+			legacyGasPedal[index] = 0;
+			legacyBrakePedal[index] = 0;
+		}
+	}
+
+
+	private boolean obstaclesInTheWayLegacy(int index)
+	{
+		if(obstacleTooCloseLegacy(index, egoPosition))
+			return true;
+
+		for(int i=0; i<numberOfCars; i++)
+		{
+			if(!names[i].equals(names[index]))
+				if(obstacleTooCloseLegacy(index, states[i].position))
+					return true;
+		}
+
+		return false;
+	}
+
+
+	private boolean obstacleTooCloseLegacy(int index, Vector3f obstaclePos)
+	{
+		TrafficCarState state = states[index];
+		float distanceToObstacle = obstaclePos.distance(state.position);
+
+		float angle = getAngleBetweenDirectionsLegacy(index, state.frontPosition, obstaclePos, false);
+		if(belowSafetyDistanceLegacy(index, angle, distanceToObstacle))
+			return true;
+
+		angle = getAngleBetweenDirectionsLegacy(index, state.nextWayPointPosition, obstaclePos, false);
+		if(belowSafetyDistanceLegacy(index, angle, distanceToObstacle))
+			return true;
+
+		return false;
+	}
+
+
+	private boolean belowSafetyDistanceLegacy(int index, float angle, float distance)
+	{
+		float lateralDistance = distance * FastMath.sin(angle);
+		float forwardDistance = distance * FastMath.cos(angle);
+
+		return (lateralDistance < MIN_LATERAL_SAFETY_DISTANCE) && (forwardDistance > 0) &&
+				(forwardDistance < Math.max(0.5f * states[index].currentSpeed, MIN_FORWARD_SAFETY_DISTANCE));
+	}
+
+
+	private int getRelativePositionLegacy(int index, Vector3f wayPoint)
+	{
+		Vector3f frontPos = states[index].frontPosition;
+		Vector3f centerPos = states[index].centerPosition;
+
+		Point2D.Float centerPoint = new Point2D.Float(centerPos.getX(),centerPos.getZ());
+		Point2D.Float frontPoint = new Point2D.Float(frontPos.getX(),frontPos.getZ());
+		Line2D.Float line = new Line2D.Float(centerPoint,frontPoint);
+		Point2D point = new Point2D.Float(wayPoint.getX(),wayPoint.getZ());
+
+		if(line.relativeCCW(point) == -1)
+			return -1;
+		else if(line.relativeCCW(point) == 1)
+			return 1;
+		else
+			return 0;
+	}
+
+
+	private float getAngleBetweenDirectionsLegacy(int index, Vector3f position1, Vector3f position2,
+			boolean is2DSpace)
+	{
+		Vector3f carCenterPos = states[index].centerPosition;
+
+		Vector3f frontLine = position1.subtract(carCenterPos);
+		if(is2DSpace)
+			frontLine.setY(0);
+		frontLine.normalizeLocal();
+
+		Vector3f wayPointLine = position2.subtract(carCenterPos);
+		if(is2DSpace)
+			wayPointLine.setY(0);
+		wayPointLine.normalizeLocal();
+
+		return frontLine.angleBetween(wayPointLine);
+	}
+}
@@ -19,6 +19,7 @@
 package eu.opends.trigger;
 
 import eu.opends.basics.SimulationBasics;
+import eu.opends.tools.TimerCenter;
 
 /**
  * 
@@ -53,35 +54,23 @@ public class PauseTriggerAction extends TriggerAction
 			{
 				sim.setPause(true);
 				
+				// end pause after given duration (in real time, as simulation time stops)
 				if(duration > 0)
 				{
-					StopPauseThread st = new StopPauseThread(duration);
-					st.start();
+					TimerCenter.scheduleRealTime(duration, new Runnable()
+					{
+						@Override
+						public void run() 
+						{
+							sim.setPause(false);
+						}
+					});
 				}
 				
 				updateCounter();
 			}
 		}
 	}
-	
-	
-	class StopPauseThread extends Thread 
-	{
-        int duration;
-        
-        StopPauseThread(int duration) 
-        {
-            this.duration = duration;
-        }
-
-        public void run() 
-        {
-        	try {Thread.sleep(1000*duration);} 
-        	catch (InterruptedException e){}
-
-    		sim.setPause(false);
-        }
-    }
 
 	
 }
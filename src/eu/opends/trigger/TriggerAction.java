@@ -18,6 +18,8 @@
 
 package eu.opends.trigger;
 
+import eu.opends.tools.TimerCenter;
+
 
 /**
  * This abstract class represents a trigger action, which will be 
@@ -49,11 +51,19 @@ public abstract class TriggerAction
 	
 	/**
 	 * Method will be called on trigger collision, await delay and perform some action.
+	 * The action will be executed on the render thread (see TimerCenter); the 
+	 * delay refers to simulation time, i.e. pauses will not be counted.
 	 */
 	public void performAction()
 	{
-		TriggerActionDelayThread triggerActionDelayThread = new TriggerActionDelayThread(this, delay);
-		triggerActionDelayThread.start();
+		TimerCenter.schedule(delay, new Runnable()
+		{
+			@Override
+			public void run() 
+			{
+				execute();
+			}
+		});
 	}
 	
 	
@@ -18,14 +18,13 @@
 
 package eu.opends.trigger;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
+import com.jme3.bounding.BoundingVolume;
 import com.jme3.collision.CollisionResults;
 import com.jme3.scene.Node;
 import com.jme3.scene.Spatial;
@@ -37,6 +36,7 @@ import eu.opends.car.Car;
 import eu.opends.environment.TrafficLight;
 import eu.opends.environment.TrafficLightCenter;
 import eu.opends.main.Simulator;
+import eu.opends.tools.TimerCenter;
 
 
 /**
@@ -53,15 +53,24 @@ public class TriggerCenter
 	private String triggerName;
 	private String[] triggerID;
 
-	private LinkedList<Spatial> triggerListTrafficLight,triggerListRoadObjects;
-	public static ArrayList<String> triggerReportList = new ArrayList<String>(5);
+	// edge length of a broad phase grid cell in meters
+	private static final float TRIGGER_GRID_CELL_SIZE = 20.0f;
+
+	private TriggerGrid triggerGridTrafficLight,triggerGridRoadObjects;
+	// number of seconds a trigger cannot be reported again after it has been hit
+	private static final double TRIGGER_LOCK_DURATION = 2;
+	private static TriggerDebounceRegistry triggerDebounceRegistry = new TriggerDebounceRegistry();
+	
+	// most recent trigger hit (e.g. for remote monitoring)
+	private static volatile String lastTriggerID = "";
+	private static volatile int triggerCount = 0;
 
 	public TriggerCenter(Simulator sim) 
 	{
 		this.sim = sim;
 
-		triggerListTrafficLight = new LinkedList<Spatial>();
-		triggerListRoadObjects = new LinkedList<Spatial>();
+		triggerGridTrafficLight = new TriggerGrid(TRIGGER_GRID_CELL_SIZE);
+		triggerGridRoadObjects = new TriggerGrid(TRIGGER_GRID_CELL_SIZE);
 	}
 
 	
@@ -73,6 +82,9 @@ public class TriggerCenter
 
 		String tempSpatialName;
 
+		// world bounds of the triggers are needed for the broad phase grid
+		sim.getRootNode().updateGeometricState();
+		
 		// TODO: use trigger node
 		List<Spatial> tempList = sim.getRootNode().getChildren();
 		for (Iterator<Spatial> it = tempList.iterator(); it.hasNext();) 
@@ -84,12 +96,12 @@ public class TriggerCenter
 			if (tempSpatialName.startsWith("TrafficLightTrigger") 
 					|| tempSpatialName.startsWith("TrafficLightPhaseTrigger")) 
 			{
-				triggerListTrafficLight.add(tempSpatial);
+				triggerGridTrafficLight.add(tempSpatial);
 			}
 			
 			if (SimulationBasics.getTriggerActionListMap().containsKey(tempSpatialName))
 			{
-				triggerListRoadObjects.add(tempSpatial);
+				triggerGridRoadObjects.add(tempSpatial);
 			}
 
 		}
@@ -98,8 +110,10 @@ public class TriggerCenter
 	
 	public void doTriggerChecks() 
 	{
-		handleTrafficLightCollision(triggerListTrafficLight);
-		handleRoadObjectsCollision(triggerListRoadObjects);
+		// only check triggers located near the car (broad phase)
+		BoundingVolume carBound = sim.getCar().getCarNode().getWorldBound();
+		handleTrafficLightCollision(triggerGridTrafficLight.query(carBound));
+		handleRoadObjectsCollision(triggerGridRoadObjects.query(carBound));
 		//computeContactWithCar();
 	}
 
@@ -114,20 +128,19 @@ public class TriggerCenter
 	 * A collision will be forwarded to the traffic light center.
 	 * 
 	 * @param triggerList
-	 * 			list of all traffic light triggers in order to monitor approximation 
-	 * 			to traffic lights
+	 * 			list of traffic light triggers near the car in order to monitor 
+	 * 			approximation to traffic lights
 	 */
-	private void handleTrafficLightCollision(LinkedList<Spatial> triggerList)
+	private void handleTrafficLightCollision(List<Spatial> triggerList)
 	{
-		for (Spatial trigger : triggerList)
+		for (int i=0; i<triggerList.size(); i++)
 		{
+			Spatial trigger = triggerList.get(i);
 			resultCollision.clear();
 			triggerName = trigger.getName();
 			
 			// calculate collision of the car with a road object trigger
-			//TODO use trigger node
-			Spatial triggerObject = sim.getRootNode().getChild(triggerName);
-			sim.getCar().getCarNode().collideWith(triggerObject.getWorldBound(), resultCollision);
+			sim.getCar().getCarNode().collideWith(trigger.getWorldBound(), resultCollision);
 			
 			if (
 					(resultCollision.size() > 0) 
@@ -155,33 +168,27 @@ public class TriggerCenter
 	 * to the HMI center.
 	 * 
 	 * @param triggerList
-	 * 			list of all road object triggers in order to monitor approximation 
-	 * 			to such an object
+	 * 			list of road object triggers near the car in order to monitor 
+	 * 			approximation to such an object
 	 */
-	private void handleRoadObjectsCollision(LinkedList<Spatial> triggerList)
+	private void handleRoadObjectsCollision(List<Spatial> triggerList)
 	{
 		Car car = sim.getCar();
 		
-		for (Spatial trigger : triggerList) 
+		for (int i=0; i<triggerList.size(); i++) 
 		{	
-			// TODO: caution! trigger center may be farther away than 10 meters when hitting
-			if(trigger.getWorldTranslation().distance(car.getCarNode().getWorldTranslation()) < 10)
-			{
-				resultCollision.clear();
-				String triggerName = trigger.getName();
-					
-				// calculate collision of the car with a road object trigger
-				
-				//TODO: use trigger node
-				Spatial triggerObject = sim.getRootNode().getChild(triggerName);
-				car.getCarNode().collideWith(triggerObject.getWorldBound(), resultCollision);
+			Spatial trigger = triggerList.get(i);
+			resultCollision.clear();
+			String triggerName = trigger.getName();
 				
-				// if car has collided with a trigger --> report trigger to HMI Center
-				if(resultCollision.size() > 0)
-				{
-					if(SimulationBasics.getTriggerActionListMap().containsKey(triggerName))
-						TriggerCenter.performTriggerAction(triggerName, car);
-				}
+			// calculate collision of the car with a road object trigger
+			car.getCarNode().collideWith(trigger.getWorldBound(), resultCollision);
+			
+			// if car has collided with a trigger --> report trigger to HMI Center
+			if(resultCollision.size() > 0)
+			{
+				if(SimulationBasics.getTriggerActionListMap().containsKey(triggerName))
+					TriggerCenter.performTriggerAction(triggerName, car);
 			}
 		}
 	}
@@ -308,43 +315,52 @@ public class TriggerCenter
 	 */
 	public static void performTriggerAction(String triggerID, Car car) 
 	{
-		if(!triggerReportList.contains(triggerID))
+		// lock trigger for 2 seconds (simulation time, hence the duration 
+		// of a pause triggered here will not be counted)
+		if(triggerDebounceRegistry.tryLock(triggerID, TimerCenter.getSimulationTime(), TRIGGER_LOCK_DURATION))
 		{
 			System.err.println("Trigger hit: " + triggerID);
-			// add trigger to report list
-			triggerReportList.add(triggerID);
 			
-			// remove trigger from report list after 2 seconds
-			int seconds = 2;
-		
+			lastTriggerID = triggerID;
+			triggerCount++;
+			
 			List<TriggerAction> triggerActionList = SimulationBasics.getTriggerActionListMap().get(triggerID);
 			for(TriggerAction triggerAction : triggerActionList)
-			{
 				triggerAction.performAction();
-				
-				// extend two seconds by time of pause duration, if pause trigger was contained in list
-				if(triggerAction instanceof PauseTriggerAction)
-					seconds += ((PauseTriggerAction)triggerAction).getDuration();
-			}
-			
-			RemoveFromReportListThread removeThread = new RemoveFromReportListThread(triggerID, seconds);
-			removeThread.start();
 		}
 	}
 	
 	
 	/**
-	 * Every time a trigger is reported it will be added to trigger report 
-	 * list in order to avoid multiple instances of the event (e.g. if car 
-	 * still hits the trigger after 10 milliseconds). This method removes 
-	 * the given trigger from this list again.
+	 * Returns the ID of the trigger hit most recently ("" if none).
+	 */
+	public static String getLastTriggerID()
+	{
+		return lastTriggerID;
+	}
+	
+	
+	/**
+	 * Returns the number of trigger hits so far.
+	 */
+	public static int getTriggerCount()
+	{
+		return triggerCount;
+	}
+	
+	
+	/**
+	 * Every time a trigger is reported it will be locked in order to avoid 
+	 * multiple instances of the event (e.g. if car still hits the trigger 
+	 * after 10 milliseconds). Locks expire automatically; this method 
+	 * unlocks the given trigger immediately.
 	 *  
 	 * @param objectID
-	 * 			ID of the trigger to be removed from the report list
+	 * 			ID of the trigger to be unlocked
 	 */
 	public static void removeTriggerReport(String objectID)
 	{
-		if(!triggerReportList.remove(objectID))
+		if(!triggerDebounceRegistry.unlock(objectID))
 			System.err.println("Could not remove '" + objectID + "' from trigger report list!");
 	}
 
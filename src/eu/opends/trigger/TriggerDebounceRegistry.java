@@ -0,0 +1,154 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.trigger;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Every time a trigger is reported it will be locked for a given amount of
+ * time in order to avoid multiple instances of the event (e.g. if car still
+ * hits the trigger after 10 milliseconds). This registry stores the time
+ * (simulation time in seconds) until which each trigger is locked. Expired
+ * entries are simply ignored, so no thread or timer is needed to unlock a
+ * trigger. All methods are thread-safe; locking and checking a trigger
+ * take O(1) time.
+ *
+ * @author Rafael Math
+ */
+public class TriggerDebounceRegistry
+{
+	// remove expired entries after this number of lock attempts
+	private static final int PURGE_INTERVAL = 256;
+
+	private ConcurrentHashMap<String, Double> lockedUntilMap = new ConcurrentHashMap<String, Double>();
+	private AtomicInteger lockAttempts = new AtomicInteger(0);
+
+
+	/**
+	 * Locks the given trigger until the given point in time, if it is not
+	 * locked yet (check and lock are performed atomically).
+	 *
+	 * @param triggerID
+	 * 			ID of the trigger to lock
+	 *
+	 * @param currentTime
+	 * 			current simulation time in seconds
+	 *
+	 * @param cooldown
+	 * 			number of seconds the trigger will be locked
+	 *
+	 * @return
+	 * 			true, if the trigger has been locked by this call; false, if
+	 * 			it was already locked
+	 */
+	public boolean tryLock(String triggerID, double currentTime, double cooldown)
+	{
+		if(lockAttempts.incrementAndGet() % PURGE_INTERVAL == 0)
+			purgeExpired(currentTime);
+
+		Double lockedUntil = currentTime + cooldown;
+
+		while(true)
+		{
+			Double previousLockedUntil = lockedUntilMap.putIfAbsent(triggerID, lockedUntil);
+			if(previousLockedUntil == null)
+				return true;
+
+			if(previousLockedUntil > currentTime)
+				return false;
+
+			// previous lock has expired --> replace (unless another thread was faster)
+			if(lockedUntilMap.replace(triggerID, previousLockedUntil, lockedUntil))
+				return true;
+		}
+	}
+
+
+	/**
+	 * Returns true, if the given trigger is locked at the given time.
+	 *
+	 * @param triggerID
+	 * 			ID of the trigger
+	 *
+	 * @param currentTime
+	 * 			current simulation time in seconds
+	 *
+	 * @return
+	 * 			true, if trigger is locked
+	 */
+	public boolean isLocked(String triggerID, double currentTime)
+	{
+		Double lockedUntil = lockedUntilMap.get(triggerID);
+		return (lockedUntil != null) && (lockedUntil > currentTime);
+	}
+
+
+	/**
+	 * Unlocks the given trigger immediately.
+	 *
+	 * @param triggerID
+	 * 			ID of the trigger
+	 *
+	 * @return
+	 * 			true, if the trigger was contained in the registry
+	 */
+	public boolean unlock(String triggerID)
+	{
+		return lockedUntilMap.remove(triggerID) != null;
+	}
+
+
+	/**
+	 * Removes all entries which have expired at the given time.
+	 *
+	 * @param currentTime
+	 * 			current simulation time in seconds
+	 */
+	public void purgeExpired(double currentTime)
+	{
+		Iterator<Entry<String, Double>> iterator = lockedUntilMap.entrySet().iterator();
+		while(iterator.hasNext())
+		{
+			Entry<String, Double> entry = iterator.next();
+			if(entry.getValue() <= currentTime)
+				lockedUntilMap.remove(entry.getKey(), entry.getValue());
+		}
+	}
+
+
+	/**
+	 * Removes all entries.
+	 */
+	public void clear()
+	{
+		lockedUntilMap.clear();
+	}
+
+
+	/**
+	 * Number of entries (including expired ones not purged yet).
+	 */
+	public int size()
+	{
+		return lockedUntilMap.size();
+	}
+}
@@ -0,0 +1,307 @@
+/*
+*  This file is part of OpenDS (Open Source Driving Simulator).
+*  Copyright (C) 2013 Rafael Math
+*
+*  OpenDS is free software: you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation, either version 3 of the License, or
+*  (at your option) any later version.
+*
+*  OpenDS is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with OpenDS. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.opends.trigger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.jme3.bounding.BoundingBox;
+import com.jme3.bounding.BoundingSphere;
+import com.jme3.bounding.BoundingVolume;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Spatial;
+
+/**
+ * Broad phase for trigger collision checks: uniform grid over the (x,z)
+ * world bounds of all triggers. A trigger is registered in every cell its
+ * bounds overlap, so looking up the triggers near the car only needs the
+ * cells overlapping the car's bounds, independent of the total number of
+ * triggers. Triggers are expected to be static; the grid is built once.
+ *
+ * Cells are looked up in an open addressing hash table on the cell
+ * coordinates and hold the indices of their triggers, so a query neither
+ * boxes keys nor looks up trigger indices in a map.
+ *
+ * @author Rafael Math
+ */
+public class TriggerGrid
+{
+	// triggers larger than this number of cells will be checked every time
+	private static final int MAX_CELLS_PER_TRIGGER = 4096;
+
+	private float cellSize;
+	private List<Spatial> unboundedTriggers = new ArrayList<Spatial>();
+	private Set<Spatial> triggerSet = new HashSet<Spatial>();
+	private List<Spatial> triggers = new ArrayList<Spatial>();
+
+	// hash table: cell coordinates --> cell (slot is empty if slotCell == -1)
+	private int slotMask;
+	private int[] slotCellX;
+	private int[] slotCellZ;
+	private int[] slotCell;
+
+	// trigger indices per cell
+	private int numberOfCells = 0;
+	private int[][] cellTriggers = new int[16][];
+	private int[] cellTriggerCount = new int[16];
+
+	private int[] lastQuery = new int[0];
+	private int queryCounter = 0;
+	private List<Spatial> queryResult = new ArrayList<Spatial>();
+
+	// reusable bounds (minX, minZ, maxX, maxZ)
+	private float[] bounds = new float[4];
+
+
+	/**
+	 * Creates an empty grid.
+	 *
+	 * @param cellSize
+	 * 			edge length of a grid cell in meters
+	 */
+	public TriggerGrid(float cellSize)
+	{
+		this.cellSize = cellSize;
+		initSlots(64);
+	}
+
+
+	/**
+	 * Adds the given trigger to all cells overlapped by its world bounds.
+	 *
+	 * @param trigger
+	 * 			trigger to add
+	 */
+	public void add(Spatial trigger)
+	{
+		if(!triggerSet.add(trigger))
+			return;
+
+		int index = triggers.size();
+		triggers.add(trigger);
+		if(triggers.size() > lastQuery.length)
+			lastQuery = Arrays.copyOf(lastQuery, Math.max(16, 2 * lastQuery.length));
+
+		if(!getBounds(trigger.getWorldBound(), bounds))
+		{
+			unboundedTriggers.add(trigger);
+			return;
+		}
+
+		int minCellX = getCellIndex(bounds[0]);
+		int minCellZ = getCellIndex(bounds[1]);
+		int maxCellX = getCellIndex(bounds[2]);
+		int maxCellZ = getCellIndex(bounds[3]);
+
+		if((long)(maxCellX - minCellX + 1) * (maxCellZ - minCellZ + 1) > MAX_CELLS_PER_TRIGGER)
+		{
+			unboundedTriggers.add(trigger);
+			return;
+		}
+
+		for(int cellX = minCellX; cellX <= maxCellX; cellX++)
+		{
+			for(int cellZ = minCellZ; cellZ <= maxCellZ; cellZ++)
+			{
+				int cell = getCell(cellX, cellZ, true);
+				if(cellTriggerCount[cell] == cellTriggers[cell].length)
+					cellTriggers[cell] = Arrays.copyOf(cellTriggers[cell], 2 * cellTriggers[cell].length);
+				cellTriggers[cell][cellTriggerCount[cell]++] = index;
+			}
+		}
+	}
+
+
+	/**
+	 * Looks up all triggers whose cells overlap the given bounds (each trigger
+	 * will be returned at most once). The returned list will be reused by
+	 * the next query.
+	 *
+	 * @param volume
+	 * 			bounds to look up (e.g. world bound of the car)
+	 *
+	 * @return
+	 * 			triggers that may collide with the given bounds
+	 */
+	public List<Spatial> query(BoundingVolume volume)
+	{
+		queryResult.clear();
+		queryCounter++;
+
+		if(getBounds(volume, bounds))
+		{
+			for(int cellX = getCellIndex(bounds[0]); cellX <= getCellIndex(bounds[2]); cellX++)
+			{
+				for(int cellZ = getCellIndex(bounds[1]); cellZ <= getCellIndex(bounds[3]); cellZ++)
+				{
+					int cell = getCell(cellX, cellZ, false);
+					if(cell < 0)
+						continue;
+
+					int[] indices = cellTriggers[cell];
+					for(int i=0; i<cellTriggerCount[cell]; i++)
+					{
+						int index = indices[i];
+
+						// trigger overlapping several cells --> add only once
+						if(lastQuery[index] != queryCounter)
+						{
+							lastQuery[index] = queryCounter;
+							queryResult.add(triggers.get(index));
+						}
+					}
+				}
+			}
+		}
+
+		queryResult.addAll(unboundedTriggers);
+		return queryResult;
+	}
+
+
+	public int size()
+	{
+		return triggers.size();
+	}
+
+
+	private boolean getBounds(BoundingVolume volume, float[] store)
+	{
+		Vector3f center;
+		float extentX, extentZ;
+
+		if(volume instanceof BoundingBox)
+		{
+			BoundingBox box = (BoundingBox) volume;
+			center = box.getCenter();
+			extentX = box.getXExtent();
+			extentZ = box.getZExtent();
+		}
+		else if(volume instanceof BoundingSphere)
+		{
+			BoundingSphere sphere = (BoundingSphere) volume;
+			center = sphere.getCenter();
+			extentX = extentZ = sphere.getRadius();
+		}
+		else
+			return false;
+
+		if(Float.isInfinite(extentX) || Float.isInfinite(extentZ) || Float.isNaN(extentX) || Float.isNaN(extentZ))
+			return false;
+
+		store[0] = center.x - extentX;
+		store[1] = center.z - extentZ;
+		store[2] = center.x + extentX;
+		store[3] = center.z + extentZ;
+		return true;
+	}
+
+
+	private int getCellIndex(float coordinate)
+	{
+		return (int) Math.floor(coordinate / cellSize);
+	}
+
+
+	/**
+	 * Looks up the cell with the given coordinates in the hash table.
+	 *
+	 * @param create
+	 * 			if true, a missing cell will be created
+	 *
+	 * @return
+	 * 			index of cell or -1 if not existing
+	 */
+	private int getCell(int cellX, int cellZ, boolean create)
+	{
+		int slot = getSlot(cellX, cellZ);
+		while(slotCell[slot] >= 0)
+		{
+			if(slotCellX[slot] == cellX && slotCellZ[slot] == cellZ)
+				return slotCell[slot];
+
+			slot = (slot + 1) & slotMask;
+		}
+
+		if(!create)
+			return -1;
+
+		// new cell
+		int cell = numberOfCells++;
+		if(cell == cellTriggers.length)
+		{
+			cellTriggers = Arrays.copyOf(cellTriggers, 2 * cell);
+			cellTriggerCount = Arrays.copyOf(cellTriggerCount, 2 * cell);
+		}
+		cellTriggers[cell] = new int[2];
+
+		slotCellX[slot] = cellX;
+		slotCellZ[slot] = cellZ;
+		slotCell[slot] = cell;
+
+		// keep hash table at most half full
+		if(2 * numberOfCells > slotCell.length)
+			rehash();
+
+		return cell;
+	}
+
+
+	private int getSlot(int cellX, int cellZ)
+	{
+		return ((cellX * 73856093) ^ (cellZ * 19349663)) & slotMask;
+	}
+
+
+	private void initSlots(int numberOfSlots)
+	{
+		slotMask = numberOfSlots - 1;
+		slotCellX = new int[numberOfSlots];
+		slotCellZ = new int[numberOfSlots];
+		slotCell = new int[numberOfSlots];
+		Arrays.fill(slotCell, -1);
+	}
+
+
+	private void rehash()
+	{
+		int[] oldCellX = slotCellX;
+		int[] oldCellZ = slotCellZ;
+		int[] oldCell = slotCell;
+
+		initSlots(2 * oldCell.length);
+
+		for(int i=0; i<oldCell.length; i++)
+		{
+			if(oldCell[i] < 0)
+				continue;
+
+			int slot = getSlot(oldCellX[i], oldCellZ[i]);
+			while(slotCell[slot] >= 0)
+				slot = (slot + 1) & slotMask;
+
+			slotCellX[slot] = oldCellX[i];
+			slotCellZ[slot] = oldCellZ[i];
+			slotCell[slot] = oldCell[i];
+		}
+	}
+}
@@ -19,10 +19,13 @@
 package eu.opends.visualization;
 
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.net.*;
-import java.util.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import com.jme3.math.Vector3f;
 import com.jme3.renderer.Camera;
@@ -36,7 +39,13 @@ import eu.opends.main.Simulator;
 /**
  * This class provides a TCP client that connects to a given IP address
  * and port in order to transmit the position and orientation of the current
- * camera view. The required frame rate can be set in the constructor. 
+ * camera view. The required frame rate can be set in the settings.<br>
+ * The render thread only stores the latest camera pose (latest value wins); 
+ * messages are formatted and written by a dedicated sender thread using a 
+ * non-blocking socket channel and a reusable direct buffer. Hence, a stalled
+ * visualization host will never stall the simulator. If the connection cannot 
+ * be established or gets lost, the sender thread reconnects with increasing
+ * delay.
  * 
  * @author Rafael Math
  */
@@ -47,14 +56,36 @@ public class LightningClient
 		LIGHTNING, PCL;
 	}
 	
-	private Calendar timeOfLastFire = new GregorianCalendar();
-	private Socket serverSocket;
+	// delay between two reconnection attempts (doubled after every failed attempt)
+	private static final long MIN_RECONNECT_DELAY = 500;
+	private static final long MAX_RECONNECT_DELAY = 10000;
+	
+	// delay between setting and switching the states of the traffic lights
+	private static final long TRAFFIC_LIGHT_SWITCH_DELAY = 50;
+	
+	private static final String TRAFFIC_LIGHT_SWITCH_COMMAND = "ltupdate .remotemotionsensor -switchtrafficlightsIn 1\n";
+	
+	private String IP;
+	private int port;
+	private long timeOfLastFire;
 	private int framerate;
-	private PrintWriter printWriter;
 	private float scalingFactor;
 	private boolean sendPosOriAsOneString;
 	private Target target = Target.PCL;
 	
+	// latest camera pose (written by render thread, read by sender thread)
+	private final Object poseLock = new Object();
+	private Vector3f location = new Vector3f();
+	private Vector3f direction = new Vector3f();
+	private Vector3f up = new Vector3f();
+	private Vector3f left = new Vector3f();
+	private boolean poseAvailable = false;
+	
+	// traffic light instructions must not be coalesced
+	private Queue<String> trafficLightQueue = new ConcurrentLinkedQueue<String>();
+	
+	private SenderThread senderThread;
+	
 	
 	/**
 	 * The constructor
@@ -62,168 +93,52 @@ public class LightningClient
 	public LightningClient() 
 	{
 		SettingsLoader settingsLoader = Simulator.getDrivingTask().getSettingsLoader();
-		String IP = settingsLoader.getSetting(Setting.ExternalVisualization_ip, SimulationDefaults.Lightning_ip);
-		int port = settingsLoader.getSetting(Setting.ExternalVisualization_port, SimulationDefaults.Lightning_port);
+		IP = settingsLoader.getSetting(Setting.ExternalVisualization_ip, SimulationDefaults.Lightning_ip);
+		port = settingsLoader.getSetting(Setting.ExternalVisualization_port, SimulationDefaults.Lightning_port);
 		framerate = settingsLoader.getSetting(Setting.ExternalVisualization_updateRate, SimulationDefaults.Lightning_updateRate);
 		scalingFactor = settingsLoader.getSetting(Setting.ExternalVisualization_scalingFactor, SimulationDefaults.Lightning_scalingFactor);
 		sendPosOriAsOneString = settingsLoader.getSetting(Setting.ExternalVisualization_sendPosOriAsOneString, SimulationDefaults.sendPosOriAsOneString);
-		
-		//lightningClient = new LightningClient("127.0.0.1",2541,20,100);
-		//lightningClient = new LightningClient("172.16.7.183",2541,20,100);
-		//lightningClient = new LightningClient("134.96.189.32",2541,20,100);
-		//lightningClient = new LightningClient("172.16.5.40",2541,20,100);
-		//lightningClient = new LightningClient("172.16.5.50",2541,20,500);
+		timeOfLastFire = System.currentTimeMillis();
 		
 		try {
 
-			// open socket connection
-			serverSocket = new Socket(IP,port);
+			senderThread = new SenderThread();
+			senderThread.start();
 
-		} catch (Exception e) {
+		} catch (IOException e) {
 			System.err.println("No TCP connection possible to Lightning at " + IP + ":" + port);
 		}
 	}
 
 	
-	public void sendCameraData(Camera camera) 
-	{
-		if(target == Target.PCL)
-			sendCameraDataToPCL(camera);
-		else if(target == Target.LIGHTNING)
-			sendCameraDataToLightning(camera);
-	}
-	
-	
 	/**
-	 * This method sends the given camera data to the server, regarding the frame 
+	 * Stores the current camera pose to be sent to the server, regarding the frame 
 	 * rate. If not enough time has passed by since last fire, the camera data 
-	 * might be rejected.<br>
-	 * The data will be sent as one string:<br>
-	 * <code>ltupdate .remotemotionsensor -posoriIn "12 30 0;90 120 180"</code><br>
-	 * or as two strings:<br>
-	 * <code>ltupdate .remotemotionsensor -positionIn "12 30 0"</code><br>
-	 * <code>ltupdate .remotemotionsensor -orientationIn "90 120 180"</code>
+	 * will be rejected. If the previous pose has not been sent yet, it will be 
+	 * replaced by the current one. Does not block.
 	 * 
 	 * @param camera
 	 * 			The current camera view
-	 * 
-	 * @param sendOneString
-	 * 			sends position and orientation data in one string (if true), otherwise
-	 * 			each string will be send separately
 	 */
-	private void sendCameraDataToLightning(Camera camera) 
-	{	
-		// break, if no connection established
-		if(serverSocket == null)
+	public void sendCameraData(Camera camera) 
+	{
+		// break, if no connection possible
+		if(senderThread == null)
 			return;
 		
-		// generate time stamp
-		Calendar currentTime = new GregorianCalendar();
-		
 		// if enough time has passed by since last fire, the event will be forwarded
-		if(forwardEvent(currentTime))
-		{			
-			
-			try { 	
-
-				if(sendPosOriAsOneString)
-				{
-					String positionString = LightningData.getCameraPosition(camera, scalingFactor);
-					String orientationString = LightningData.getCameraOrientation(camera);
-					
-					String sendString = "ltupdate .remotemotionsensor -posoriIn \"" + positionString + ";" 
-											+ orientationString + "\"\n";
-					
-				 	// send position and orientation to lightning
-					printWriter = new PrintWriter(new OutputStreamWriter(serverSocket.getOutputStream()));
-				 	printWriter.print(sendString);
-				 	printWriter.flush();
-				}
-				else
-				{
-				 	// send position to lightning
-					String positionString = LightningData.getCameraPosition(camera, scalingFactor);
-					String sendStringPos = "ltupdate .remotemotionsensor -positionIn \"" + positionString + "\"\n";
-					printWriter = new PrintWriter(new OutputStreamWriter(serverSocket.getOutputStream()));
-				 	printWriter.print(sendStringPos);
-				 	printWriter.flush();
-
-				 	//try {Thread.sleep(10);} 
-					//catch (InterruptedException e){}
-				 	
-				 	// send position to lightning
-				 	String orientationString = LightningData.getCameraOrientation(camera);
-				 	String sendStringOri = "ltupdate .remotemotionsensor -orientationIn \"" + orientationString + "\"\n";
-					printWriter = new PrintWriter(new OutputStreamWriter(serverSocket.getOutputStream()));
-				 	printWriter.print(sendStringOri);
-				 	printWriter.flush();
-				}
-			 				 	
-			} catch (IOException e) {
-				System.err.println("LightningClient_sendCameraData(): " + e.toString());
+		if(forwardEvent(System.currentTimeMillis()))
+		{
+			synchronized(poseLock)
+			{
+				location.set(camera.getLocation());
+				direction.set(camera.getDirection());
+				up.set(camera.getUp());
+				left.set(camera.getLeft());
+				poseAvailable = true;
 			}
-		}
-	}
-
-	
-	private void sendCameraDataToPCL(Camera camera) 
-	{	
-		// break, if no connection established
-		if(serverSocket == null)
-			return;
-		
-		// generate time stamp
-		Calendar currentTime = new GregorianCalendar();
-		
-		// if enough time has passed by since last fire, the event will be forwarded
-		if(forwardEvent(currentTime))
-		{			
 			
-			try { 	
-
-				Vector3f location = camera.getLocation();
-				String positionString = location.getX()+";"+(-1*location.getZ())+";"+(location.getY()); // correct
-				/*
-				Matrix4f viewProjectionMatrix = camera.getViewProjectionMatrix();
-				Matrix4f viewMatrix = camera.getViewMatrix();
-				Matrix4f projectionMatrix = camera.getProjectionMatrix();
-				
-				
-				float x = location.getX() + viewProjectionMatrix.m02;
-				float y = location.getY() + viewProjectionMatrix.m12;
-				float z = location.getZ() + viewProjectionMatrix.m22;
-				*/
-				
-				Vector3f direction = camera.getDirection();
-				float x = location.getX() + direction.getX();
-				float y = location.getY() + direction.getY();
-				float z = location.getZ() + direction.getZ();
-				String directionString = x+";"+(-1*z)+";"+y;
-					//"0;1000;"+(location.getY());//x +";"+(-1*z)+";"+y;//"-1;0;0";//direction.getX()+";"+direction.getY()+";"+direction.getZ();
-					
-				
-				Vector3f up = camera.getUp();
-				String upString = up.getX()+";"+(-1*up.getZ())+";"+up.getY(); // correct
-				//viewProjectionMatrix.m01+";"+(-1*viewProjectionMatrix.m21)+";"+viewProjectionMatrix.m11;//"0;0;1";//up.getX()+";"+up.getY()+";"+up.getZ();
-				
-				/*
-				// test
-				p->setCameraPose (origin [0], origin [1], origin [2], 
-									origin [0] + rotation (0, 2), origin [1] + rotation (1, 2), origin [2] + rotation (2, 2),
-									rotation (0, 1), rotation (1, 1), rotation (2, 1));
-				*/
-				
-				String sendString = "["+positionString+";"+directionString+";"+upString+"]";
-					
-				// send position and orientation to lightning
-				printWriter = new PrintWriter(new OutputStreamWriter(serverSocket.getOutputStream()));
-				printWriter.print(sendString);
-				printWriter.flush();
-
-			 				 	
-			} catch (IOException e) {
-				System.err.println("LightningClient_sendCameraData(): " + e.toString());
-			}
+			senderThread.wakeup();
 		}
 	}
 
@@ -233,54 +148,35 @@ public class LightningClient
  	 * even if not enough time has passed by since last traffic light data was sent.
  	 * This method sends two strings (E.g. if there are three traffic lights):<br>
  	 * <code>ltupdate .remotemotionsensor -trafficlightmodesIn {"red_left" "green_up" "red_right"}</code><br>
- 	 * and<br>
- 	 * <code>ltupdate .remotemotionsensor -switchtrafficlightsIn 1</code>
+ 	 * and (50 ms later)<br>
+ 	 * <code>ltupdate .remotemotionsensor -switchtrafficlightsIn 1</code><br>
+ 	 * Does not block.
 	 */
-	public synchronized void sendTrafficLightData(String instructionString)
+	public void sendTrafficLightData(String instructionString)
 	{
-		// break, if no connection established
-		if(serverSocket == null)
+		// break, if no connection possible
+		if(senderThread == null)
 			return;
 		
-		try { 
-			
-			// set states of all traffic lights
-			printWriter = new PrintWriter(new OutputStreamWriter(serverSocket.getOutputStream()));
-		 	printWriter.print(instructionString);
-		 	printWriter.flush();
-		 	
-		 	try {Thread.sleep(50);} 
-			catch (InterruptedException e){}
-		 	
-		 	// submit states for all traffic lights
-		 	printWriter = new PrintWriter(new OutputStreamWriter(serverSocket.getOutputStream()));
-		 	printWriter.print("ltupdate .remotemotionsensor -switchtrafficlightsIn 1\n");
-		 	printWriter.flush();
-		 	
-		} catch (IOException e) {
-			System.err.println("LightningClient_sendTrafficLightData(): " + e.toString());
-		}
-	
+		trafficLightQueue.add(instructionString);
+		senderThread.wakeup();
 	}
 
 	
 	/**
 	 * Closes the TCP connection to the server (if a connection could be established).
+	 * Pending data will be sent if possible within a short time.
 	 */
 	public void close()
 	{
-		try {
-			if((serverSocket != null) && (printWriter != null))
-			{
-				try {Thread.sleep(100);} 
-				catch (InterruptedException e){}
-
-				printWriter.close();
-				serverSocket.close();
-			}
+		if(senderThread != null)
+		{
+			senderThread.requestStop();
 			
-		} catch (IOException e) {
-			e.printStackTrace();
+			try {
+				senderThread.join();
+			} catch (InterruptedException e){
+			}
 		}
 	}
 	
@@ -291,45 +187,335 @@ public class LightningClient
 	 * frame rate
 	 * 
 	 * @param now
-	 * 			The current time stamp
+	 * 			The current time stamp (in ms)
 	 * 
 	 * @return true if enough time has passed by since last fire, false otherwise
 	 */
-    private boolean forwardEvent(Calendar now)
-    {
-        // fire an event every x milliseconds
-    	int fireInterval = 1000 / framerate;
+	private boolean forwardEvent(long now)
+	{
+		// fire an event every x milliseconds
+		int fireInterval = 1000 / framerate;
 
-        // subtract time of last event from current time to get time elapsed since last fire
-        long elapsedMillisecs = timeDiff(now,timeOfLastFire);
-        
-        if (elapsedMillisecs >= fireInterval)
-        {
-            // update time of last fire
-            timeOfLastFire.add(Calendar.MILLISECOND, fireInterval);
+		// subtract time of last event from current time to get time elapsed since last fire
+		long elapsedMillisecs = now - timeOfLastFire;
+		
+		if (elapsedMillisecs >= fireInterval)
+		{
+			// update time of last fire (do not try to catch up after a long break)
+			if(elapsedMillisecs >= 2*fireInterval)
+				timeOfLastFire = now;
+			else
+				timeOfLastFire += fireInterval;
 
-            //fire
-            return true;
-        }
-        else
-            // do not fire
-            return false;
-    }
-    
-    
+			//fire
+			return true;
+		}
+		else
+			// do not fire
+			return false;
+	}
+	
+	
 	/**
-	 * This method computes the difference between two given time stamps
-	 * 
-	 * @param timestamp1
-	 * 			First time stamp value to compare
-	 * 
-	 * @param timestamp2
-	 * 			Second time stamp value to compare
-	 * 
-	 * @return difference between the given time stamps in milliseconds (long)
+	 * Connects to the server, formats pending messages and writes them to the 
+	 * non-blocking channel. Waits in a selector while there is nothing to do.
 	 */
-    private static long timeDiff(Calendar timestamp1, Calendar timestamp2)
-    {
-        return Math.abs(timestamp1.getTimeInMillis() - timestamp2.getTimeInMillis());
-    }
+	private class SenderThread extends Thread
+	{
+		private Selector selector;
+		private SocketChannel channel = null;
+		private volatile boolean stopRequested = false;
+		private volatile long stopDeadline = 0;
+		private boolean connected = false;
+		private long reconnectDelay = MIN_RECONNECT_DELAY;
+		private long nextConnectTime = 0;
+		private long switchTrafficLightsTime = -1;
+		
+		// output buffer: position..limit contains bytes not written yet
+		private ByteBuffer outputBuffer = ByteBuffer.allocateDirect(4096);
+		private StringBuilder message = new StringBuilder(256);
+		
+		// local copy of camera pose
+		private Vector3f sendLocation = new Vector3f();
+		private Vector3f sendDirection = new Vector3f();
+		private Vector3f sendUp = new Vector3f();
+		private Vector3f sendLeft = new Vector3f();
+		
+		
+		public SenderThread() throws IOException
+		{
+			super("LightningClient");
+			setDaemon(true);
+			selector = Selector.open();
+			outputBuffer.limit(0);
+		}
+		
+		
+		public void wakeup()
+		{
+			selector.wakeup();
+		}
+		
+		
+		public void requestStop()
+		{
+			stopDeadline = System.currentTimeMillis() + 100 + TRAFFIC_LIGHT_SWITCH_DELAY;
+			stopRequested = true;
+			selector.wakeup();
+		}
+		
+		
+		@Override
+		public void run()
+		{
+			// after stop request, try to send pending data until deadline
+			while(!stopRequested || (connected && hasPendingData() && System.currentTimeMillis() < stopDeadline))
+			{
+				try {
+					
+					long now = System.currentTimeMillis();
+					
+					if(channel == null && !stopRequested && now >= nextConnectTime)
+						connect();
+					
+					if(connected)
+					{
+						fillOutputBuffer(now);
+						channel.write(outputBuffer);
+					}
+					
+					selector.select(getSelectTimeout(now));
+					
+					for(SelectionKey key : selector.selectedKeys())
+					{
+						if(key.isValid() && key.isConnectable())
+							finishConnect();
+					}
+					selector.selectedKeys().clear();
+					
+					// only wait for OP_WRITE while socket buffer is full
+					if(connected)
+						channel.keyFor(selector).interestOps(outputBuffer.hasRemaining() ? SelectionKey.OP_WRITE : 0);
+					
+				} catch (IOException e) {
+					
+					System.err.println("No TCP connection to Lightning at " + IP + ":" + port + " (" 
+							+ e.toString() + "), reconnecting in " + reconnectDelay + " ms");
+					disconnect();
+				}
+			}
+			
+			closeChannel();
+			
+			try {
+				selector.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		
+		
+		private boolean hasPendingData()
+		{
+			return outputBuffer.hasRemaining() || !trafficLightQueue.isEmpty() || switchTrafficLightsTime >= 0;
+		}
+		
+		
+		private long getSelectTimeout(long now)
+		{
+			if(stopRequested)
+				return 10;
+			
+			long timeout = 0;
+			
+			if(channel == null)
+				timeout = Math.max(1, nextConnectTime - now);
+			
+			if(connected && switchTrafficLightsTime >= 0)
+				timeout = Math.max(1, switchTrafficLightsTime - now);
+			
+			// 0 = wait until woken up
+			return timeout;
+		}
+		
+		
+		private void connect() throws IOException
+		{
+			channel = SocketChannel.open();
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			
+			if(channel.connect(new InetSocketAddress(IP, port)))
+				onConnected();
+			else
+				channel.register(selector, SelectionKey.OP_CONNECT);
+		}
+		
+		
+		private void finishConnect() throws IOException
+		{
+			if(channel.finishConnect())
+				onConnected();
+		}
+		
+		
+		private void onConnected() throws IOException
+		{
+			channel.register(selector, 0);
+			connected = true;
+			reconnectDelay = MIN_RECONNECT_DELAY;
+			System.out.println("Connected to Lightning at " + IP + ":" + port);
+		}
+		
+		
+		private void disconnect()
+		{
+			closeChannel();
+			connected = false;
+			
+			// partially written message is useless for a new connection
+			outputBuffer.clear();
+			outputBuffer.limit(0);
+			switchTrafficLightsTime = -1;
+			
+			nextConnectTime = System.currentTimeMillis() + reconnectDelay;
+			reconnectDelay = Math.min(2*reconnectDelay, MAX_RECONNECT_DELAY);
+		}
+		
+		
+		private void closeChannel()
+		{
+			try {
+				if(channel != null)
+				{
+					channel.close();
+					channel = null;
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		
+		
+		/**
+		 * Encodes pending messages if the previous ones have been written 
+		 * completely. Traffic light messages take precedence over camera data.
+		 */
+		private void fillOutputBuffer(long now)
+		{
+			if(outputBuffer.hasRemaining())
+				return;
+			
+			message.setLength(0);
+			
+			if(switchTrafficLightsTime >= 0)
+			{
+				if(now < switchTrafficLightsTime)
+				{
+					// do not send any traffic light instructions before switch
+					appendCameraData();
+					encode(message);
+					return;
+				}
+				
+				message.append(TRAFFIC_LIGHT_SWITCH_COMMAND);
+				switchTrafficLightsTime = -1;
+			}
+			else
+			{
+				String trafficLightInstruction = trafficLightQueue.poll();
+				if(trafficLightInstruction != null)
+				{
+					message.append(trafficLightInstruction);
+					switchTrafficLightsTime = now + TRAFFIC_LIGHT_SWITCH_DELAY;
+				}
+			}
+			
+			appendCameraData();
+			encode(message);
+		}
+		
+		
+		private void appendCameraData()
+		{
+			synchronized(poseLock)
+			{
+				if(!poseAvailable)
+					return;
+				
+				sendLocation.set(location);
+				sendDirection.set(direction);
+				sendUp.set(up);
+				sendLeft.set(left);
+				poseAvailable = false;
+			}
+			
+			if(target == Target.PCL)
+				appendCameraDataForPCL();
+			else if(target == Target.LIGHTNING)
+				appendCameraDataForLightning();
+		}
+		
+		
+		/**
+		 * The data will be sent as one string:<br>
+		 * <code>ltupdate .remotemotionsensor -posoriIn "12 30 0;90 120 180"</code><br>
+		 * or as two strings:<br>
+		 * <code>ltupdate .remotemotionsensor -positionIn "12 30 0"</code><br>
+		 * <code>ltupdate .remotemotionsensor -orientationIn "90 120 180"</code>
+		 */
+		private void appendCameraDataForLightning()
+		{
+			String positionString = LightningData.getCameraPosition(sendLocation, scalingFactor);
+			String orientationString = LightningData.getCameraOrientation(sendDirection, sendUp, sendLeft);
+			
+			if(sendPosOriAsOneString)
+			{
+				message.append("ltupdate .remotemotionsensor -posoriIn \"").append(positionString)
+					.append(";").append(orientationString).append("\"\n");
+			}
+			else
+			{
+				message.append("ltupdate .remotemotionsensor -positionIn \"").append(positionString).append("\"\n");
+				message.append("ltupdate .remotemotionsensor -orientationIn \"").append(orientationString).append("\"\n");
+			}
+		}
+		
+		
+		/**
+		 * The data will be sent as one string:<br>
+		 * <code>[posX;posY;posZ;targetX;targetY;targetZ;upX;upY;upZ]</code>
+		 */
+		private void appendCameraDataForPCL()
+		{
+			// target point = location + direction
+			float x = sendLocation.getX() + sendDirection.getX();
+			float y = sendLocation.getY() + sendDirection.getY();
+			float z = sendLocation.getZ() + sendDirection.getZ();
+			
+			message.append("[");
+			message.append(sendLocation.getX()).append(";").append(-1*sendLocation.getZ()).append(";").append(sendLocation.getY()).append(";");
+			message.append(x).append(";").append(-1*z).append(";").append(y).append(";");
+			message.append(sendUp.getX()).append(";").append(-1*sendUp.getZ()).append(";").append(sendUp.getY());
+			message.append("]");
+		}
+		
+		
+		/**
+		 * Writes the given (ASCII) message to the output buffer.
+		 */
+		private void encode(CharSequence text)
+		{
+			int length = text.length();
+			
+			// grow buffer if message does not fit (e.g. many traffic lights)
+			if(length > outputBuffer.capacity())
+				outputBuffer = ByteBuffer.allocateDirect(Integer.highestOneBit(length) << 1);
+			
+			outputBuffer.clear();
+			for(int i=0; i<length; i++)
+				outputBuffer.put((byte) text.charAt(i));
+			outputBuffer.flip();
+		}
+	}
 }
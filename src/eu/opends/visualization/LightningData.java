@@ -51,7 +51,27 @@ public class LightningData
 	 */
 	public static String getCameraPosition(Camera camera, float scalingFactor)
 	{
-		Vector3f position = transformVector(camera.getLocation(), scalingFactor);
+		return getCameraPosition(camera.getLocation(), scalingFactor);
+	}
+	
+	
+	/**
+	 * Computes the given camera location in the Lightning coordinate system and
+	 * multiplies x-, y- and z-coordinate with the given scaling factor.
+	 * 
+	 * @param location
+	 * 			Camera location (jME coordinates).
+	 * 
+	 * @param scalingFactor
+	 * 			Factor the position data is multiplied with.
+	 * 
+	 * @return
+	 * 			Position string containing scaled x-, y- and z-coordinates in the Lightning 
+	 * 			coordinate system.
+	 */
+	public static String getCameraPosition(Vector3f location, float scalingFactor)
+	{
+		Vector3f position = transformVector(location, scalingFactor);
 		
 		String positionString = position.getX() + " " + position.getY() + " " + position.getZ();
 		
@@ -70,11 +90,33 @@ public class LightningData
 	 * 			Orientation string containing heading, attitude and bank as Euler angles.
 	 */
 	public static String getCameraOrientation(Camera camera)
+	{
+		return getCameraOrientation(camera.getDirection(), camera.getUp(), camera.getLeft());
+	}
+	
+	
+	/**
+	 * Computes the orientation given by the three camera axes as Euler angles and 
+	 * returns a string of the following structure: "heading attitude bank".
+	 * 
+	 * @param cameraDirection
+	 * 			Direction of the camera (jME coordinates).
+	 * 
+	 * @param cameraUp
+	 * 			Up vector of the camera (jME coordinates).
+	 * 
+	 * @param cameraLeft
+	 * 			Left vector of the camera (jME coordinates).
+	 * 
+	 * @return
+	 * 			Orientation string containing heading, attitude and bank as Euler angles.
+	 */
+	public static String getCameraOrientation(Vector3f cameraDirection, Vector3f cameraUp, Vector3f cameraLeft)
 	{
 		// get 3 perpendicular vector describing the orientation of the camera
-		Vector3f direction = transformVector(camera.getDirection(),1f).normalize();
-		Vector3f up = transformVector(camera.getUp(),1f).normalize();
-		Vector3f left = transformVector(camera.getLeft(),1f).normalize();			
+		Vector3f direction = transformVector(cameraDirection,1f).normalize();
+		Vector3f up = transformVector(cameraUp,1f).normalize();
+		Vector3f left = transformVector(cameraLeft,1f).normalize();			
 		
 		Matrix3f rotationMatrix = new Matrix3f();
 
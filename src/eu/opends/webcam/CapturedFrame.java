@@ -0,0 +1,31 @@
+package eu.opends.webcam;
+
+import com.googlecode.javacv.cpp.opencv_core.IplImage;
+
+/*
+ * A frame grabbed from a webcam, waiting to be encoded. The image is a
+ * private copy and has to be released after encoding.
+ */
+public class CapturedFrame {
+	private int camId;
+	private long timeStamp;
+	private IplImage image;
+
+	public CapturedFrame(int camId, long timeStamp, IplImage image) {
+		this.camId = camId;
+		this.timeStamp = timeStamp;
+		this.image = image;
+	}
+
+	public int getCamId() {
+		return camId;
+	}
+
+	public long getTimeStamp() {
+		return timeStamp;
+	}
+
+	public IplImage getImage() {
+		return image;
+	}
+}
@@ -1,6 +1,7 @@
 package eu.opends.webcam;
 
 import java.io.File;
+import java.io.IOException;
 
 import static com.googlecode.javacv.cpp.opencv_highgui.*;
 
@@ -9,6 +10,7 @@ import com.googlecode.javacv.cpp.opencv_core.IplImage;
 
 public class CapturedImageViewer {
 	private CanvasFrame[] canvasframes;
+	private MjpegContainerReader[] containerReaders;
 	private String outputFolder;
 	
 	public CapturedImageViewer(String OutputFolder){
@@ -24,10 +26,21 @@ public class CapturedImageViewer {
 		// initialize canvas-frames for each recorded webcam
 		if(i > 0){
 			canvasframes = new CanvasFrame[i];
+			containerReaders = new MjpegContainerReader[i];
 			
 			for(i=i; i > 0; i--){
 				canvasframes[i-1] = new CanvasFrame("Webcam "+i, 1);
 				System.out.println("Created canvasFrame " + i);
+				
+				// use video container (if recorded in that mode)
+				String cameraFolder = OutputFolder + "/" + (i-1) + "/";
+				if(MjpegContainerReader.isContainerFolder(cameraFolder)){
+					try {
+						containerReaders[i-1] = new MjpegContainerReader(cameraFolder);
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
 			}
 		}
 		
@@ -37,6 +50,12 @@ public class CapturedImageViewer {
 		// update canvas-frames
 		int i = 0;
 		for(CanvasFrame canvas : canvasframes){
+			if(containerReaders[i] != null){
+				showContainerImage(canvas, containerReaders[i], timestamp);
+				i++;
+				continue;
+			}
+			
 			boolean imageexists = new File(this.outputFolder + "/" + i + "/" + timestamp
 					+ "-capture.jpg").exists();
 			System.out.println("File "+this.outputFolder + "/" + i + "/" + timestamp
@@ -52,4 +71,20 @@ public class CapturedImageViewer {
 			i++;
 		}
 	}
+	
+	private void showContainerImage(CanvasFrame canvas, MjpegContainerReader reader, long timestamp){
+		int frame = reader.findFrame(timestamp);
+		if(frame < 0)
+			return;
+		
+		try {
+			IplImage image = reader.readFrame(frame);
+			if(image != null){
+				canvas.showImage(image);
+				com.googlecode.javacv.cpp.opencv_core.cvReleaseImage(image);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
 }
@@ -0,0 +1,68 @@
+package eu.opends.webcam;
+
+import static com.googlecode.javacv.cpp.opencv_core.*;
+
+import com.googlecode.javacv.FrameGrabber;
+import com.googlecode.javacv.cpp.opencv_core.IplImage;
+
+/*
+ * Frame grabber without camera hardware for testing the capture pipeline.
+ * Produces uniformly colored frames (color changes with every frame) and
+ * may simulate a slow device by delaying each grab.
+ */
+public class FakeFrameGrabber extends FrameGrabber {
+	private int width;
+	private int height;
+	private long grabDelay;
+	private IplImage image;
+	private int frameNumber = 0;
+
+	public FakeFrameGrabber(int width, int height, long grabDelay) {
+		this.width = width;
+		this.height = height;
+		this.grabDelay = grabDelay;
+	}
+
+	@Override
+	public void start() throws Exception {
+		image = IplImage.create(width, height, IPL_DEPTH_8U, 3);
+	}
+
+	@Override
+	public void stop() throws Exception {
+		release();
+	}
+
+	@Override
+	public void trigger() throws Exception {
+	}
+
+	@Override
+	public IplImage grab() throws Exception {
+		if (image == null)
+			throw new Exception("FakeFrameGrabber has not been started");
+
+		if (grabDelay > 0) {
+			try {
+				Thread.sleep(grabDelay);
+			} catch (InterruptedException e) {
+			}
+		}
+
+		int value = (frameNumber++ * 8) % 256;
+		cvSet(image, cvScalar(value, 255 - value, 128, 0));
+		return image;
+	}
+
+	@Override
+	public void release() throws Exception {
+		if (image != null) {
+			cvReleaseImage(image);
+			image = null;
+		}
+	}
+
+	public int getFrameNumber() {
+		return frameNumber;
+	}
+}
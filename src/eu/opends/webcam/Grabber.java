@@ -1,44 +1,136 @@
 package eu.opends.webcam;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static com.googlecode.javacv.cpp.opencv_core.cvReleaseImage;
+import static com.googlecode.javacv.cpp.opencv_core.cvReleaseMat;
+import static com.googlecode.javacv.cpp.opencv_highgui.cvEncodeImage;
 import static com.googlecode.javacv.cpp.opencv_highgui.cvSaveImage;
 import static com.googlecode.javacv.cpp.videoInputLib.*;
 
 import com.googlecode.javacv.FrameGrabber;
 import com.googlecode.javacv.VideoInputFrameGrabber;
-import com.googlecode.javacv.cpp.opencv_core.IplImage;
+import com.googlecode.javacv.cpp.opencv_core.CvMat;
 
 /*
- * 
+ * Bounded capture pipeline: one long-lived GrabberThread per device puts
+ * frames into a queue (dropping the oldest frame if full), a pool of
+ * encoder threads writes them to "<camId>/<timestamp>-capture.jpg" or, in
+ * video container mode, appends them to "<camId>/capture.mjpeg" (see
+ * MjpegContainerWriter).
  */
 public class Grabber {
+	private static final int FRAME_QUEUE_CAPACITY = 32;
+	private static final int ENCODER_THREADS = 2;
+
 	private FrameGrabber[] grabber;
+	private GrabberThread[] grabberThreads = new GrabberThread[0];
+	private Thread[] encoderThreads = new Thread[0];
+	private BlockingQueue<CapturedFrame> frameQueue = new ArrayBlockingQueue<CapturedFrame>(
+			FRAME_QUEUE_CAPACITY);
+	private volatile boolean isRunning = false;
 	private String OutputFolder;
+	private boolean videoContainer = false;
+	private MjpegContainerWriter[] containerWriters;
+
+	// metrics
+	private AtomicLong capturedFrames = new AtomicLong(0);
+	private AtomicLong droppedFrames = new AtomicLong(0);
+	private AtomicLong encodedFrames = new AtomicLong(0);
+	private AtomicLong totalCaptureLatency = new AtomicLong(0);
+	private volatile long maxCaptureLatency = 0;
 
 	public Grabber(String outputFolder) {
+		this(outputFolder, false);
+	}
+
+	public Grabber(String outputFolder, boolean videoContainer) {
 		OutputFolder = outputFolder;
+		this.videoContainer = videoContainer;
 	}
 
-	private void captureImage(int camId, String timeStamp) {
-		try {
-			IplImage img;
-			img = grabber[camId].grab();
-			if (img != null) {
-				cvSaveImage(OutputFolder + "/" + camId + "/" + timeStamp
-						+ "-capture.jpg", img);
-			}
-		} catch (Exception e) {
-		}
+	/*
+	 * Uses the given frame grabbers instead of the connected webcams (e.g.
+	 * FakeFrameGrabber for testing), writing either JPEG files or one MJPEG
+	 * container per camera.
+	 */
+	public Grabber(String outputFolder, FrameGrabber[] frameGrabbers,
+			boolean videoContainer) {
+		this(outputFolder, videoContainer);
+		grabber = frameGrabbers;
 	}
 
 	/*
-	 * 
+	 * Non-blocking: requests one frame of every webcam.
 	 */
+	public void captureImage(long timeStamp) {
+		for (GrabberThread grabberThread : grabberThreads)
+			grabberThread.requestCapture(timeStamp);
+	}
+
 	public void captureImage(final String timeStamp) {
-		int devices = videoInput.listDevices();
-		for (int i = 0; i < devices; i++) {
-			captureImage(i, timeStamp);
+		captureImage(Long.parseLong(timeStamp));
+	}
+
+	void enqueue(CapturedFrame frame) {
+		capturedFrames.incrementAndGet();
+		while (!frameQueue.offer(frame)) {
+			// queue full --> drop oldest frame
+			CapturedFrame oldest = frameQueue.poll();
+			if (oldest != null) {
+				cvReleaseImage(oldest.getImage());
+				reportDroppedFrame();
+			}
+		}
+	}
+
+	void reportDroppedFrame() {
+		droppedFrames.incrementAndGet();
+	}
+
+	void reportCaptureLatency(long nanos) {
+		totalCaptureLatency.addAndGet(nanos);
+		if (nanos > maxCaptureLatency)
+			maxCaptureLatency = nanos;
+	}
+
+	private void encode(CapturedFrame frame) {
+		if (containerWriters != null) {
+			encodeToContainer(frame);
+			return;
+		}
+
+		try {
+			cvSaveImage(OutputFolder + "/" + frame.getCamId() + "/"
+					+ frame.getTimeStamp() + "-capture.jpg", frame.getImage());
+			encodedFrames.incrementAndGet();
+		} catch (Exception e) {
+			reportDroppedFrame();
+		} finally {
+			cvReleaseImage(frame.getImage());
+		}
+	}
+
+	private void encodeToContainer(CapturedFrame frame) {
+		CvMat jpeg = null;
+		try {
+			jpeg = cvEncodeImage(".jpg", frame.getImage());
+			ByteBuffer buffer = jpeg.getByteBuffer();
+			buffer.limit(jpeg.rows() * jpeg.cols());
+			containerWriters[frame.getCamId()].writeFrame(frame.getTimeStamp(), buffer);
+			encodedFrames.incrementAndGet();
+		} catch (Exception e) {
+			reportDroppedFrame();
+		} finally {
+			if (jpeg != null)
+				cvReleaseMat(jpeg);
+			cvReleaseImage(frame.getImage());
 		}
 	}
 
@@ -53,31 +145,115 @@ public class Grabber {
 	}
 
 	/*
-	 * 
+	 *
 	 */
 	public void initializeCam() {
-		int devices = videoInput.listDevices();
-		grabber = new FrameGrabber[devices];
-		for (int i = 0; i < devices; i++) {
-			grabber[i] = new VideoInputFrameGrabber(i);
+		if (grabber == null) {
+			int devices = videoInput.listDevices();
+			grabber = new FrameGrabber[devices];
+			for (int i = 0; i < devices; i++)
+				grabber[i] = new VideoInputFrameGrabber(i);
+		}
+
+		isRunning = true;
+		grabberThreads = new GrabberThread[grabber.length];
+		if (videoContainer)
+			containerWriters = new MjpegContainerWriter[grabber.length];
+		for (int i = 0; i < grabber.length; i++) {
 			File dir = new File("./" + OutputFolder + "/" + i + "/");
 			dir.mkdirs();
+			if (videoContainer) {
+				try {
+					containerWriters[i] = new MjpegContainerWriter(dir.getPath());
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
 			try {
 				grabber[i].start();
 			} catch (com.googlecode.javacv.FrameGrabber.Exception e) {
 				// TODO Auto-generated catch block
 				e.printStackTrace();
 			}
+			grabberThreads[i] = new GrabberThread(this, grabber[i], i);
+			grabberThreads[i].start();
+		}
+
+		if (grabber.length > 0) {
+			encoderThreads = new Thread[ENCODER_THREADS];
+			for (int i = 0; i < ENCODER_THREADS; i++) {
+				encoderThreads[i] = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						while (isRunning || !frameQueue.isEmpty()) {
+							try {
+								CapturedFrame frame = frameQueue.poll(100, TimeUnit.MILLISECONDS);
+								if (frame != null)
+									encode(frame);
+							} catch (InterruptedException e) {
+								return;
+							}
+						}
+					}
+				}, "WebcamEncoder-" + i);
+				encoderThreads[i].setDaemon(true);
+				encoderThreads[i].start();
+			}
 		}
 	}
 
 	/*
-	 * 
+	 * Stops capturing, writes all queued frames and releases the webcams.
 	 */
 	public void stop() {
-		int devices = videoInput.listDevices();
-		for (int i = 0; i < devices; i++) {
+		for (GrabberThread grabberThread : grabberThreads)
+			grabberThread.requestStop();
+
+		isRunning = false;
+		for (Thread encoderThread : encoderThreads) {
+			try {
+				encoderThread.join();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+
+		for (int i = 0; i < grabberThreads.length; i++) {
 			stopCam(i);
+			if (containerWriters != null && containerWriters[i] != null)
+				containerWriters[i].close();
 		}
+		grabberThreads = new GrabberThread[0];
+		encoderThreads = new Thread[0];
+	}
+
+	public long getCapturedFrames() {
+		return capturedFrames.get();
+	}
+
+	public long getDroppedFrames() {
+		return droppedFrames.get();
+	}
+
+	public long getEncodedFrames() {
+		return encodedFrames.get();
+	}
+
+	/*
+	 * Average time (ms) from capture request to grabbed frame.
+	 */
+	public float getAverageCaptureLatency() {
+		long frames = capturedFrames.get();
+		if (frames == 0)
+			return 0;
+		return totalCaptureLatency.get() / (frames * 1000000f);
+	}
+
+	public float getMaxCaptureLatency() {
+		return maxCaptureLatency / 1000000f;
+	}
+
+	public int getQueuedFrames() {
+		return frameQueue.size();
 	}
 }
@@ -0,0 +1,76 @@
+package eu.opends.webcam;
+
+import static com.googlecode.javacv.cpp.opencv_core.cvCloneImage;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.googlecode.javacv.FrameGrabber;
+import com.googlecode.javacv.cpp.opencv_core.IplImage;
+
+/*
+ * Long-lived capture thread of a single webcam. Capture requests are
+ * coalesced: if a new request arrives before the previous one has been
+ * served, the previous one is dropped.
+ */
+public class GrabberThread extends Thread {
+	private static final long NO_REQUEST = Long.MIN_VALUE;
+
+	private Grabber grabber;
+	private FrameGrabber frameGrabber;
+	private int camId;
+	private AtomicLong pendingTimeStamp = new AtomicLong(NO_REQUEST);
+	private volatile long requestNanos;
+	private volatile boolean isRunning = true;
+
+	public GrabberThread(Grabber grabber, FrameGrabber frameGrabber, int camId) {
+		super("GrabberThread-" + camId);
+		setDaemon(true);
+		this.grabber = grabber;
+		this.frameGrabber = frameGrabber;
+		this.camId = camId;
+	}
+
+	/*
+	 * Non-blocking: may be called from the simulation thread.
+	 */
+	public void requestCapture(long timeStamp) {
+		requestNanos = System.nanoTime();
+		if (pendingTimeStamp.getAndSet(timeStamp) != NO_REQUEST)
+			grabber.reportDroppedFrame();
+		LockSupport.unpark(this);
+	}
+
+	@Override
+	public void run() {
+		while (isRunning) {
+			long timeStamp = pendingTimeStamp.getAndSet(NO_REQUEST);
+			if (timeStamp == NO_REQUEST) {
+				LockSupport.park(this);
+				continue;
+			}
+
+			long start = requestNanos;
+			try {
+				IplImage img = frameGrabber.grab();
+				if (img != null) {
+					// grabber reuses its image buffer --> copy before queuing
+					grabber.enqueue(new CapturedFrame(camId, timeStamp, cvCloneImage(img)));
+					grabber.reportCaptureLatency(System.nanoTime() - start);
+				}
+			} catch (Exception e) {
+				grabber.reportDroppedFrame();
+			}
+		}
+	}
+
+	public void requestStop() {
+		isRunning = false;
+		LockSupport.unpark(this);
+		try {
+			join();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package eu.opends.webcam;
+
+import static com.googlecode.javacv.cpp.opencv_core.*;
+import static com.googlecode.javacv.cpp.opencv_highgui.*;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.googlecode.javacv.cpp.opencv_core.CvMat;
+import com.googlecode.javacv.cpp.opencv_core.IplImage;
+
+/*
+ * Random access to the frames written by MjpegContainerWriter. The index is
+ * loaded into memory (sorted by time stamp), so looking up a frame is a
+ * binary search plus one positioned read of the stream file.
+ */
+public class MjpegContainerReader {
+	private long[] timeStamps;
+	private long[] offsets;
+	private int[] lengths;
+	private FileChannel streamChannel;
+	private ByteBuffer readBuffer = ByteBuffer.allocateDirect(0);
+
+	public static boolean isContainerFolder(String cameraFolder) {
+		return new File(cameraFolder, MjpegContainerWriter.INDEX_FILE).isFile()
+				&& new File(cameraFolder, MjpegContainerWriter.STREAM_FILE).isFile();
+	}
+
+	public MjpegContainerReader(String cameraFolder) throws IOException {
+		File indexFile = new File(cameraFolder, MjpegContainerWriter.INDEX_FILE);
+		int entries = (int) (indexFile.length() / MjpegContainerWriter.INDEX_ENTRY_SIZE);
+
+		timeStamps = new long[entries];
+		offsets = new long[entries];
+		lengths = new int[entries];
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+		try {
+			for (int i = 0; i < entries; i++) {
+				timeStamps[i] = in.readLong();
+				offsets[i] = in.readLong();
+				lengths[i] = in.readInt();
+			}
+		} finally {
+			in.close();
+		}
+
+		sortByTimeStamp();
+
+		streamChannel = new RandomAccessFile(new File(cameraFolder,
+				MjpegContainerWriter.STREAM_FILE), "r").getChannel();
+	}
+
+	/*
+	 * Several encoder threads may have written frames slightly out of order
+	 * (insertion sort, as index is almost sorted).
+	 */
+	private void sortByTimeStamp() {
+		for (int i = 1; i < timeStamps.length; i++) {
+			long t = timeStamps[i];
+			long o = offsets[i];
+			int l = lengths[i];
+			int j = i - 1;
+			while (j >= 0 && timeStamps[j] > t) {
+				timeStamps[j + 1] = timeStamps[j];
+				offsets[j + 1] = offsets[j];
+				lengths[j + 1] = lengths[j];
+				j--;
+			}
+			timeStamps[j + 1] = t;
+			offsets[j + 1] = o;
+			lengths[j + 1] = l;
+		}
+	}
+
+	/*
+	 * Index of the latest frame captured at or before the given time stamp
+	 * (-1 if none).
+	 */
+	public int findFrame(long timeStamp) {
+		int low = 0;
+		int high = timeStamps.length - 1;
+		int result = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (timeStamps[mid] <= timeStamp) {
+				result = mid;
+				low = mid + 1;
+			} else
+				high = mid - 1;
+		}
+		return result;
+	}
+
+	public int getFrameCount() {
+		return timeStamps.length;
+	}
+
+	public long getTimeStamp(int frame) {
+		return timeStamps[frame];
+	}
+
+	/*
+	 * Decodes the given frame. The returned image must be released by the
+	 * caller.
+	 */
+	public IplImage readFrame(int frame) throws IOException {
+		int length = lengths[frame];
+		if (readBuffer.capacity() < length)
+			readBuffer = ByteBuffer.allocateDirect(length);
+
+		readBuffer.clear();
+		readBuffer.limit(length);
+		long position = offsets[frame];
+		while (readBuffer.hasRemaining()) {
+			if (streamChannel.read(readBuffer, position + readBuffer.position()) < 0)
+				throw new IOException("Unexpected end of MJPEG stream");
+		}
+		readBuffer.flip();
+
+		CvMat mat = CvMat.create(1, length, CV_8UC1);
+		mat.getByteBuffer().put(readBuffer);
+		IplImage image = cvDecodeImage(mat);
+		cvReleaseMat(mat);
+		return image;
+	}
+
+	public void close() {
+		try {
+			streamChannel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package eu.opends.webcam;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+ * Writes the frames of one webcam into a single MJPEG stream (concatenated
+ * JPEG images, "capture.mjpeg") plus an index file ("capture.idx") holding
+ * one entry (time stamp, offset, length) per frame.
+ */
+public class MjpegContainerWriter {
+	public static final String STREAM_FILE = "capture.mjpeg";
+	public static final String INDEX_FILE = "capture.idx";
+	public static final int INDEX_ENTRY_SIZE = 20;
+
+	// flush index to disk every n frames
+	private static final int INDEX_FLUSH_INTERVAL = 20;
+
+	private FileChannel streamChannel;
+	private DataOutputStream indexStream;
+	private long offset = 0;
+	private int frameCount = 0;
+
+	public MjpegContainerWriter(String cameraFolder) throws IOException {
+		streamChannel = new FileOutputStream(new File(cameraFolder, STREAM_FILE)).getChannel();
+		indexStream = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(new File(cameraFolder, INDEX_FILE))));
+	}
+
+	/*
+	 * Appends an encoded JPEG image (remaining bytes of the given buffer).
+	 * May be called by several encoder threads.
+	 */
+	public synchronized void writeFrame(long timeStamp, ByteBuffer jpeg) throws IOException {
+		int length = jpeg.remaining();
+		while (jpeg.hasRemaining())
+			streamChannel.write(jpeg);
+
+		indexStream.writeLong(timeStamp);
+		indexStream.writeLong(offset);
+		indexStream.writeInt(length);
+
+		offset += length;
+		frameCount++;
+		if (frameCount % INDEX_FLUSH_INTERVAL == 0)
+			indexStream.flush();
+	}
+
+	public synchronized void close() {
+		try {
+			indexStream.close();
+			streamChannel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}